@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.benchmarks;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.teslanet.mule.transport.coap.commons.options.BatchConversionException;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Measures the time to convert a batch of messages, converting one message at a time
+ * compared to the batch conversions in the calling thread and in a ForkJoinPool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchBenchmark
+{
+    /**
+     * Number of messages in the batch.
+     */
+    @Param({ "100", "4096" })
+    public int batchSize;
+
+    private List< Map< String, Object > > propsList;
+
+    private List< OptionSet > optionSets;
+
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        propsList= new ArrayList< Map< String, Object > >();
+        optionSets= new ArrayList< OptionSet >();
+        for ( int i= 0; i < batchSize; i++ )
+        {
+            HashMap< String, Object > props= new HashMap< String, Object >();
+            props.put( "MULE_ENCODING", "UTF-8" );
+            props.put( PropertyNames.COAP_OPT_URIPATH, "/sensors/building1/device" + i );
+            props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, Integer.valueOf( 50 ) );
+            props.put( PropertyNames.COAP_OPT_BLOCK2_SZX, Integer.valueOf( 6 ) );
+            props.put( PropertyNames.COAP_OPT_BLOCK2_NUM, Integer.valueOf( i ) );
+            propsList.add( props );
+            OptionSet optionSet= new OptionSet();
+            Options.fillOptionSet( optionSet, props, false );
+            optionSets.add( optionSet );
+        }
+        pool= new ForkJoinPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public List< OptionSet > toOptionSetsPerItem()
+    {
+        ArrayList< OptionSet > result= new ArrayList< OptionSet >( propsList.size() );
+        for ( Map< String, Object > props : propsList )
+        {
+            OptionSet optionSet= new OptionSet();
+            Options.fillOptionSet( optionSet, props, false );
+            result.add( optionSet );
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List< OptionSet > toOptionSets() throws BatchConversionException
+    {
+        return Options.toOptionSets( propsList );
+    }
+
+    @Benchmark
+    public List< OptionSet > toOptionSetsParallel() throws BatchConversionException
+    {
+        return Options.toOptionSets( propsList, pool );
+    }
+
+    @Benchmark
+    public List< Map< String, Object > > toPropertyMapsPerItem() throws InvalidOptionValueException
+    {
+        ArrayList< Map< String, Object > > result= new ArrayList< Map< String, Object > >( optionSets.size() );
+        for ( OptionSet optionSet : optionSets )
+        {
+            HashMap< String, Object > props= new HashMap< String, Object >();
+            Options.fillPropertyMap( optionSet, props );
+            result.add( props );
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List< Map< String, Object > > toPropertyMaps() throws BatchConversionException
+    {
+        return Options.toPropertyMaps( optionSets );
+    }
+
+    @Benchmark
+    public List< Map< String, Object > > toPropertyMapsParallel() throws BatchConversionException
+    {
+        return Options.toPropertyMaps( optionSets, pool );
+    }
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.benchmarks;
+
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.teslanet.mule.transport.coap.commons.options.ConditionalEvaluator;
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.ETagList;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.VersionETagFactory;
+
+
+/**
+ * Measures throughput of the basic ETag operations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ETagBenchmark
+{
+    private ETag etag1;
+
+    private ETag etag2;
+
+    private byte[] bytes;
+
+    private List< ETag > linkedList;
+
+    private ETagList etagList;
+
+    private OptionSet request;
+
+    private ConditionalEvaluator evaluator;
+
+    private VersionETagFactory versions;
+
+    private long version;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidETagException
+    {
+        etag1= new ETag( "a1b2c3d4e5f60718" );
+        etag2= new ETag( "a1b2c3d4e5f60719" );
+        bytes= etag1.asBytes();
+        linkedList= new LinkedList< ETag >();
+        for ( long i= 0; i < 64; i++ )
+        {
+            linkedList.add( ETag.create( i, 8 ) );
+        }
+        linkedList.add( etag1 );
+        etagList= ETagList.create( linkedList );
+        request= new OptionSet();
+        request.addETag( etag2.asBytes() );
+        request.addETag( etag1.asBytes() );
+        evaluator= ConditionalEvaluator.create( linkedList );
+        versions= new VersionETagFactory();
+        version= System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public boolean equalsETag()
+    {
+        return etag1.equals( etag2 );
+    }
+
+    @Benchmark
+    public int hashCodeETag()
+    {
+        return etag1.hashCode();
+    }
+
+    @Benchmark
+    public int compareToETag()
+    {
+        return etag1.compareTo( etag2 );
+    }
+
+    @Benchmark
+    public ETag createFromBytes() throws InvalidETagException
+    {
+        return new ETag( bytes );
+    }
+
+    @Benchmark
+    public boolean isInLinkedList()
+    {
+        return etag1.isIn( linkedList );
+    }
+
+    @Benchmark
+    public boolean isInETagList()
+    {
+        return etag1.isIn( etagList );
+    }
+
+    @Benchmark
+    public ETag createFromHexString() throws InvalidETagException
+    {
+        return new ETag( "a1b2c3d4e5f60718" );
+    }
+
+    @Benchmark
+    public String toHexString()
+    {
+        return ETag.toHexString( bytes );
+    }
+
+    @Benchmark
+    public ETag validateByIsIn() throws InvalidETagException
+    {
+        //baseline for the evaluator: convert request etags and look up each representation etag
+        List< ETag > requested= ETag.getList( request.getETags() );
+        for ( ETag current : linkedList )
+        {
+            if ( current.isIn( requested ) ) return current;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public ETag validateByEvaluator()
+    {
+        return evaluator.evaluate( request ).getETag();
+    }
+
+    @Benchmark
+    public ETag versionByByteBuffer() throws InvalidETagException
+    {
+        //baseline: version etag built through a byte array
+        ByteBuffer buffer= ByteBuffer.allocate( 8 );
+        buffer.putLong( ++version );
+        return new ETag( buffer.array() );
+    }
+
+    @Benchmark
+    public ETag versionByFactory()
+    {
+        return versions.next();
+    }
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.benchmarks;
+
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.ETagGenerator;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+
+
+/**
+ * Measures the time to derive an etag from payload content,
+ * using the xxHash generator compared to a truncated SHA-1 digest.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ETagGeneratorBenchmark
+{
+    /**
+     * The payload size in bytes.
+     */
+    @Param({ "64", "1024", "65536" })
+    public int size;
+
+    private byte[] payload;
+
+    private ETagGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        payload= new byte [size];
+        new Random( 42 ).nextBytes( payload );
+        generator= new ETagGenerator();
+    }
+
+    @Benchmark
+    public ETag sha1Truncated() throws NoSuchAlgorithmException, InvalidETagException
+    {
+        //baseline: how resources derive etags from content
+        MessageDigest digest= MessageDigest.getInstance( "SHA-1" );
+        return new ETag( Arrays.copyOf( digest.digest( payload ), 8 ) );
+    }
+
+    @Benchmark
+    public ETag xxHash()
+    {
+        return ETagGenerator.generate( payload );
+    }
+
+    @Benchmark
+    public ETag xxHashReused()
+    {
+        return generator.reset().update( payload ).getETag();
+    }
+}
@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.benchmarks;
+
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.serialization.DataSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.teslanet.mule.transport.coap.commons.options.ConversionContext;
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsCodec;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+import nl.teslanet.mule.transport.coap.commons.options.UriStringCache;
+
+
+/**
+ * Measures throughput of the conversions between Mule message properties and Californium OptionSet.
+ * Each scenario mimics a typical message profile. Run with the gc profiler to get allocation rates:
+ * {@code mvn -Pbenchmark test-compile exec:exec}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OptionsBenchmark
+{
+    /**
+     * The message profile to benchmark.
+     */
+    @Param({ "GET", "BLOCKWISE", "OBSERVE", "OTHERS" })
+    public String scenario;
+
+    /**
+     * Property map as found on an outbound Mule message.
+     */
+    private Map< String, Object > props;
+
+    /**
+     * OptionSet as found on an inbound CoAP message.
+     */
+    private OptionSet optionSet;
+
+    /**
+     * Buffer to encode options into.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Options in CoAP option format.
+     */
+    private ByteBuffer encoded;
+
+    /**
+     * Property map of the next observe notification, differing in the observe option only.
+     */
+    private Map< String, Object > nextProps;
+
+    /**
+     * OptionSet that is updated alternately with the current and next properties.
+     */
+    private OptionSet updatedSet;
+
+    /**
+     * True when the updated set contains the next properties.
+     */
+    private boolean updatedNext;
+
+    /**
+     * The names of the properties that differ between the current and next properties.
+     */
+    private List< String > changedProperties;
+
+    /**
+     * Cache of path and query strings, shared by all messages.
+     */
+    private UriStringCache uriStringCache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidETagException
+    {
+        props= new HashMap< String, Object >();
+        addMuleProperties( props );
+        switch ( scenario )
+        {
+            case "GET":
+                props.put( PropertyNames.COAP_OPT_URIHOST, "gateway.example.org" );
+                props.put( PropertyNames.COAP_OPT_URIPORT, Integer.valueOf( 5683 ) );
+                props.put( PropertyNames.COAP_OPT_URIPATH, "/sensors/building1/floor2/temperature" );
+                props.put( PropertyNames.COAP_OPT_URIQUERY, "unit=celsius&precision=2" );
+                props.put( PropertyNames.COAP_OPT_ACCEPT, Integer.valueOf( 50 ) );
+                break;
+            case "BLOCKWISE":
+                props.put( PropertyNames.COAP_OPT_URIPATH, "/firmware/images/device42" );
+                props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, Integer.valueOf( 42 ) );
+                props.put( PropertyNames.COAP_OPT_BLOCK1_SZX, Integer.valueOf( 6 ) );
+                props.put( PropertyNames.COAP_OPT_BLOCK1_NUM, Integer.valueOf( 1234 ) );
+                props.put( PropertyNames.COAP_OPT_BLOCK1_M, Boolean.TRUE );
+                props.put( PropertyNames.COAP_OPT_BLOCK2_SIZE, Integer.valueOf( 1024 ) );
+                props.put( PropertyNames.COAP_OPT_BLOCK2_NUM, Integer.valueOf( 0 ) );
+                props.put( PropertyNames.COAP_OPT_BLOCK2_M, Boolean.FALSE );
+                props.put( PropertyNames.COAP_OPT_SIZE1, Integer.valueOf( 4 * 1024 * 1024 ) );
+                break;
+            case "OBSERVE":
+                List< ETag > etags= new LinkedList< ETag >();
+                etags.add( new ETag( "a1b2c3d4e5f60718" ) );
+                props.put( PropertyNames.COAP_OPT_OBSERVE, Integer.valueOf( 4711 ) );
+                props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, Integer.valueOf( 50 ) );
+                props.put( PropertyNames.COAP_OPT_MAXAGE, Long.valueOf( 30 ) );
+                props.put( PropertyNames.COAP_OPT_ETAG_LIST, etags );
+                break;
+            case "OTHERS":
+                props.put( PropertyNames.COAP_OPT_URIPATH, "/vendor/extensions" );
+                for ( int i= 0; i < 16; i++ )
+                {
+                    props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + ( 65000 + i ), new byte []{ (byte) i, (byte) 0x7f, (byte) 0x80, (byte) 0xff } );
+                }
+                break;
+            default:
+                throw new IllegalArgumentException( "unknown scenario: " + scenario );
+        }
+        optionSet= new OptionSet();
+        Options.fillOptionSet( optionSet, props, false );
+        buffer= ByteBuffer.allocate( 1024 );
+        encoded= ByteBuffer.allocate( 1024 );
+        OptionsCodec.encode( props, encoded );
+        encoded.flip();
+        nextProps= new HashMap< String, Object >( props );
+        nextProps.put( PropertyNames.COAP_OPT_OBSERVE, Integer.valueOf( 4712 ) );
+        updatedSet= new OptionSet();
+        Options.fillOptionSet( updatedSet, props, false );
+        updatedNext= false;
+        changedProperties= Collections.singletonList( PropertyNames.COAP_OPT_OBSERVE );
+        uriStringCache= new UriStringCache();
+    }
+
+    /**
+     * Adds properties that Mule puts on messages and are of no concern to CoAP.
+     * @param map the map to add the properties to
+     */
+    private static void addMuleProperties( Map< String, Object > map )
+    {
+        map.put( "MULE_ENCODING", "UTF-8" );
+        map.put( "MULE_CORRELATION_ID", "0a1b2c3d-4e5f-6071-8293-a4b5c6d7e8f9" );
+        map.put( "MULE_ROOT_MESSAGE_ID", "f9e8d7c6-b5a4-9382-7160-5f4e3d2c1b0a" );
+        map.put( "MULE_ENDPOINT", "coap://localhost/service" );
+        map.put( "MULE_SESSION", "rO0ABXNyACNvcmcubXVsZS5zZXNzaW9u" );
+        map.put( "Content-Type", "application/json" );
+        map.put( "http.method", "POST" );
+        map.put( "coap.request.code", "PUT" );
+        map.put( "coap.request.confirmable", Boolean.TRUE );
+        map.put( "coap.request.uri", "coap://localhost/service" );
+    }
+
+    @Benchmark
+    public OptionSet fillOptionSet()
+    {
+        OptionSet result= new OptionSet();
+        Options.fillOptionSet( result, props, false );
+        return result;
+    }
+
+    @Benchmark
+    public Map< String, Object > fillPropertyMap() throws InvalidOptionValueException
+    {
+        Map< String, Object > result= new HashMap< String, Object >();
+        Options.fillPropertyMap( optionSet, result );
+        return result;
+    }
+
+    @Benchmark
+    public Map< String, Object > fillPropertyMapUriStringCache() throws InvalidOptionValueException
+    {
+        Map< String, Object > result= new HashMap< String, Object >();
+        Options.fillPropertyMap( optionSet, result, uriStringCache );
+        return result;
+    }
+
+    @Benchmark
+    public int fillOptionSetPooled()
+    {
+        try ( ConversionContext context= ConversionContext.acquire() )
+        {
+            return context.toOptionSet( props ).getURIPathCount();
+        }
+    }
+
+    @Benchmark
+    public int fillPropertyMapPooled() throws InvalidOptionValueException
+    {
+        try ( ConversionContext context= ConversionContext.acquire() )
+        {
+            return context.toPropertyMap( optionSet ).size();
+        }
+    }
+
+    @Benchmark
+    public Object getPropertyMap() throws InvalidOptionValueException
+    {
+        //typical flow reads one or two properties
+        Map< String, Object > result= Options.getPropertyMap( optionSet );
+        result.get( PropertyNames.COAP_OPT_URIPATH );
+        return result.get( PropertyNames.COAP_OPT_OBSERVE );
+    }
+
+    @Benchmark
+    public byte[] fillOptionSetAndSerialize()
+    {
+        //baseline for the codec: properties to wire through OptionSet
+        Request request= new Request( Code.GET );
+        request.setType( Type.CON );
+        request.setMID( 1 );
+        request.setToken( new byte [0] );
+        Options.fillOptionSet( request.getOptions(), props, false );
+        return new DataSerializer().serializeRequest( request );
+    }
+
+    @Benchmark
+    public int encode()
+    {
+        buffer.clear();
+        return OptionsCodec.encode( props, buffer );
+    }
+
+    @Benchmark
+    public Map< String, Object > decode() throws InvalidOptionValueException
+    {
+        Map< String, Object > result= new HashMap< String, Object >();
+        encoded.rewind();
+        OptionsCodec.decode( encoded, result );
+        return result;
+    }
+
+    @Benchmark
+    public OptionSet rebuildOptionSet()
+    {
+        //baseline for the delta: the next notification rebuilds all options
+        updatedNext= !updatedNext;
+        Options.fillOptionSet( updatedSet, ( updatedNext ? nextProps : props ), true );
+        return updatedSet;
+    }
+
+    @Benchmark
+    public OptionSet applyDelta()
+    {
+        updatedNext= !updatedNext;
+        if ( updatedNext )
+        {
+            Options.applyDelta( updatedSet, props, nextProps );
+        }
+        else
+        {
+            Options.applyDelta( updatedSet, nextProps, props );
+        }
+        return updatedSet;
+    }
+
+    @Benchmark
+    public OptionSet applyChanges()
+    {
+        updatedNext= !updatedNext;
+        Options.applyChanges( updatedSet, ( updatedNext ? nextProps : props ), changedProperties );
+        return updatedSet;
+    }
+}
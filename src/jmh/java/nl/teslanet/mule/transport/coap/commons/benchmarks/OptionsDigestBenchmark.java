@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.benchmarks;
+
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.teslanet.mule.transport.coap.commons.cache.CacheKey;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsDigest;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsSnapshot;
+
+
+/**
+ * Measures the time to key a request on its options,
+ * using the options digest compared to hashing the string rendering of the property map.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OptionsDigestBenchmark
+{
+    /**
+     * The request profile to benchmark.
+     */
+    @Param({ "GET", "OTHERS" })
+    public String scenario;
+
+    private OptionSet optionSet;
+
+    private ByteBuffer encoded;
+
+    private OptionsDigest digest;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        optionSet= new OptionSet();
+        optionSet.setUriHost( "gateway.example.org" );
+        optionSet.setUriPort( 5683 );
+        optionSet.setUriPath( "/sensors/building1/floor2/temperature" );
+        optionSet.setUriQuery( "unit=celsius&precision=2" );
+        optionSet.setAccept( 50 );
+        optionSet.setObserve( 0 );
+        if ( "OTHERS".equals( scenario ) )
+        {
+            optionSet.addOption( new Option( 65000, new byte [] { 1, 2, 3, 4 } ) );
+            optionSet.addOption( new Option( 2049, new byte [] { 5 } ) );
+            optionSet.addOption( new Option( 65004, new byte [] { 6 } ) );
+        }
+        OptionsSnapshot snapshot= OptionsSnapshot.create( optionSet );
+        encoded= ByteBuffer.allocate( snapshot.encodedLength() );
+        snapshot.encode( encoded );
+        encoded.flip();
+        digest= new OptionsDigest();
+    }
+
+    @Benchmark
+    public int propertyMapString() throws InvalidOptionValueException
+    {
+        //baseline: how flows key requests today
+        Map< String, Object > props= new HashMap< String, Object >();
+        Options.fillPropertyMap( optionSet, props );
+        return props.toString().hashCode();
+    }
+
+    @Benchmark
+    public CacheKey cacheKey()
+    {
+        return CacheKey.create( optionSet );
+    }
+
+    @Benchmark
+    public long digest64()
+    {
+        return digest.digest( optionSet ).getDigest64();
+    }
+
+    @Benchmark
+    public long digest128()
+    {
+        digest.digest( optionSet );
+        return digest.getDigest128High() ^ digest.getDigest128Low();
+    }
+
+    @Benchmark
+    public long digest64Encoded() throws InvalidOptionValueException
+    {
+        return OptionsDigest.digest64( encoded );
+    }
+}
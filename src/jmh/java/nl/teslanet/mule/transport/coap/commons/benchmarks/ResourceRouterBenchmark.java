@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.benchmarks;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.teslanet.mule.transport.coap.commons.resources.ResourceRouter;
+
+
+/**
+ * Measures the time to find the resource of a request,
+ * using the router compared to comparing the joined uri path to each registered path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResourceRouterBenchmark
+{
+    /**
+     * The number of registered resources.
+     */
+    @Param({ "100", "10000" })
+    public int resources;
+
+    private List< String > paths;
+
+    private ResourceRouter< String > router;
+
+    private OptionSet request;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        paths= new ArrayList< String >( resources );
+        router= new ResourceRouter< String >();
+        for ( int i= 0; i < resources; i++ )
+        {
+            String path= "devices/device" + i + "/temperature";
+            paths.add( path );
+            router.add( path, path );
+        }
+        request= new OptionSet();
+        request.setUriPath( "/devices/device" + ( resources / 2 ) + "/temperature" );
+    }
+
+    @Benchmark
+    public String linear()
+    {
+        //baseline: how flows find resources today
+        String path= request.getUriPathString();
+        for ( String candidate : paths )
+        {
+            if ( candidate.equals( path ) ) return candidate;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public String router()
+    {
+        return router.match( request ).getHandler();
+    }
+}
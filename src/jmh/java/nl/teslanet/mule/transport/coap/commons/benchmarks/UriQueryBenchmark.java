@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.benchmarks;
+
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.teslanet.mule.transport.coap.commons.options.UriQueryIndex;
+
+
+/**
+ * Measures the time to read four query parameters of a request,
+ * using the index compared to splitting and scanning the Uri-Query arguments for each parameter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UriQueryBenchmark
+{
+    private OptionSet optionSet;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        optionSet= new OptionSet();
+        optionSet.setUriQuery( "device=sensor-0042&unit=celsius&precision=2&interval=60000&verbose=false&format=cbor" );
+    }
+
+    private static String scan( List< String > arguments, String key )
+    {
+        for ( String argument : arguments )
+        {
+            String[] parts= argument.split( "=", 2 );
+            if ( parts[0].equals( key ) ) return ( parts.length > 1 ? parts[1] : "" );
+        }
+        return null;
+    }
+
+    @Benchmark
+    public long split()
+    {
+        //baseline: how flows read parameters today
+        List< String > arguments= optionSet.getUriQuery();
+        long result= scan( arguments, "device" ).length();
+        result+= Integer.parseInt( scan( arguments, "precision" ) );
+        result+= Long.parseLong( scan( arguments, "interval" ) );
+        result+= ( Boolean.parseBoolean( scan( arguments, "verbose" ) ) ? 1 : 0 );
+        return result;
+    }
+
+    @Benchmark
+    public long index()
+    {
+        UriQueryIndex index= UriQueryIndex.create( optionSet );
+        long result= index.get( "device" ).length();
+        result+= index.getInt( "precision", 0 );
+        result+= index.getLong( "interval", 0L );
+        result+= ( index.getBoolean( "verbose", false ) ? 1 : 0 );
+        return result;
+    }
+}
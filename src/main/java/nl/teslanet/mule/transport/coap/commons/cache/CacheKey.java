@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.cache;
+
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsDigest;
+
+
+/**
+ * Immutable cache key of a request, as specified by RFC 7252 section 5.6:
+ * all options of the request are part of the key, except the options that are marked NoCacheKey.
+ * Observe and block options are not part of the key either, see {@link OptionsDigest#isKeyOption(int)}.
+ * The options are held in ascending option number order, so keys of requests with
+ * the same options are equal regardless of the order in which the options were set.
+ * The request method is not part of the key, so keys are only comparable for requests of the same method.
+ * Whether the request asks for a block of the representation is recorded, see {@link #isBlockwise()},
+ * but is not part of the key either.
+ */
+public final class CacheKey
+{
+    /**
+     * Option numbers of the key options, in ascending order.
+     */
+    private final int[] numbers;
+
+    /**
+     * End offsets of the option values in values.
+     */
+    private final int[] ends;
+
+    /**
+     * The option values, concatenated.
+     */
+    private final byte[] values;
+
+    /**
+     * Hash code, calculated on construction.
+     */
+    private final int hash;
+
+    /**
+     * True when the request contains a Block2 option.
+     */
+    private final boolean blockwise;
+
+    private CacheKey( int[] numbers, int[] ends, byte[] values, boolean blockwise )
+    {
+        this.numbers= numbers;
+        this.ends= ends;
+        this.values= values;
+        this.blockwise= blockwise;
+        int h= Arrays.hashCode( numbers );
+        h= 31 * h + Arrays.hashCode( values );
+        hash= h;
+    }
+
+    /**
+     * Create the cache key of a request.
+     * @param request the options of the request
+     * @return the cache key
+     */
+    public static CacheKey create( OptionSet request )
+    {
+        List< Option > options= request.asSortedList();
+        int count= 0;
+        int total= 0;
+        for ( Option option : options )
+        {
+            if ( !OptionsDigest.isKeyOption( option.getNumber() ) ) continue;
+            count++;
+            total+= option.getLength();
+        }
+        int[] numbers= new int [count];
+        int[] ends= new int [count];
+        byte[] values= new byte [total];
+        int i= 0;
+        int end= 0;
+        for ( Option option : options )
+        {
+            if ( !OptionsDigest.isKeyOption( option.getNumber() ) ) continue;
+            byte[] value= option.getValue();
+            System.arraycopy( value, 0, values, end, value.length );
+            end+= value.length;
+            numbers[i]= option.getNumber();
+            ends[i]= end;
+            i++;
+        }
+        return new CacheKey( numbers, ends, values, request.hasBlock2() );
+    }
+
+    /**
+     * Create the cache key of a request given as property map.
+     * The properties are interpreted like {@link Options#fillOptionSet(OptionSet, Map, boolean)} does.
+     * @param props map containing the request properties
+     * @return the cache key
+     * @throws IllegalArgumentException when a property value is not valid for the option
+     */
+    public static CacheKey create( Map< String, Object > props )
+    {
+        OptionSet request= new OptionSet();
+        Options.fillOptionSet( request, props, false );
+        return create( request );
+    }
+
+    /**
+     * Block options are not part of the key, as a cache that does not assemble blocks itself
+     * must not serve a response to a request for a block (RFC 7959 section 2.10).
+     * @return true when the request asks for a block of the representation
+     */
+    public boolean isBlockwise()
+    {
+        return blockwise;
+    }
+
+    /**
+     * @return the number of options in the key
+     */
+    public int size()
+    {
+        return numbers.length;
+    }
+
+    /**
+     * @param index the index of the option in the key
+     * @return the option number
+     * @throws IndexOutOfBoundsException when index is out of range
+     */
+    public int getNumber( int index )
+    {
+        return numbers[index];
+    }
+
+    /**
+     * @param index the index of the option in the key
+     * @return copy of the option value
+     * @throws IndexOutOfBoundsException when index is out of range
+     */
+    public byte[] getValue( int index )
+    {
+        int start= ( index == 0 ? 0 : ends[index - 1] );
+        return Arrays.copyOfRange( values, start, ends[index] );
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals( Object o )
+    {
+        if ( o == this ) return true;
+        if ( !( o instanceof CacheKey ) ) return false;
+        CacheKey other= (CacheKey) o;
+        return hash == other.hash && Arrays.equals( numbers, other.numbers ) && Arrays.equals( ends, other.ends ) && Arrays.equals( values, other.values );
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder builder= new StringBuilder( "CacheKey[" );
+        for ( int i= 0; i < numbers.length; i++ )
+        {
+            if ( i > 0 ) builder.append( ", " );
+            builder.append( OptionNumberRegistry.toString( numbers[i] ) );
+            builder.append( '=' );
+            int start= ( i == 0 ? 0 : ends[i - 1] );
+            for ( int j= start; j < ends[i]; j++ )
+            {
+                builder.append( Character.forDigit( ( values[j] >>> 4 ) & 0x0F, 16 ) );
+                builder.append( Character.forDigit( values[j] & 0x0F, 16 ) );
+            }
+        }
+        return builder.append( ']' ).toString();
+    }
+}
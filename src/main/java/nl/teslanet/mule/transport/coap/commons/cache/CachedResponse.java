@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.cache;
+
+
+import java.util.Arrays;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.ETagList;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsSnapshot;
+
+
+/**
+ * Immutable response stored in a {@link ResponseCache}.
+ * Payload and options are copied on the way in and out, so a cached response can be shared by threads.
+ */
+public final class CachedResponse
+{
+    private final ResponseCode responseCode;
+
+    private final OptionsSnapshot options;
+
+    private final byte[] payload;
+
+    /**
+     * The etag of the response, or null when the response has no (valid) etag.
+     */
+    private final ETag etag;
+
+    /**
+     * Time in milliseconds at which the response becomes stale.
+     */
+    private final long expires;
+
+    CachedResponse( ResponseCode responseCode, OptionsSnapshot options, byte[] payload, long expires )
+    {
+        this.responseCode= responseCode;
+        this.options= options;
+        this.payload= payload;
+        this.expires= expires;
+        ETag first= null;
+        try
+        {
+            ETagList etags= options.getETags( OptionNumberRegistry.ETAG );
+            if ( !etags.isEmpty() ) first= etags.get( 0 );
+        }
+        catch ( InvalidETagException e )
+        {
+            //not a validator
+        }
+        etag= first;
+    }
+
+    /**
+     * Create a copy of this response with another expiry time.
+     * @param expires the new expiry time in milliseconds
+     * @return the copy
+     */
+    CachedResponse withExpires( long expires )
+    {
+        return new CachedResponse( responseCode, options, payload, expires );
+    }
+
+    /**
+     * @return the response code
+     */
+    public ResponseCode getResponseCode()
+    {
+        return responseCode;
+    }
+
+    /**
+     * @return the response options as received
+     */
+    public OptionsSnapshot getOptions()
+    {
+        return options;
+    }
+
+    /**
+     * @return copy of the payload
+     */
+    public byte[] getPayload()
+    {
+        return Arrays.copyOf( payload, payload.length );
+    }
+
+    /**
+     * @return the length of the payload in bytes
+     */
+    public int getPayloadLength()
+    {
+        return payload.length;
+    }
+
+    /**
+     * @return the etag of the response, or null when the response has no etag
+     */
+    public ETag getETag()
+    {
+        return etag;
+    }
+
+    /**
+     * @return the time in milliseconds at which the response becomes stale
+     */
+    public long getExpires()
+    {
+        return expires;
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return true when the response is fresh at given time
+     */
+    public boolean isFresh( long now )
+    {
+        return now < expires;
+    }
+
+    /**
+     * Get the Max-Age to respond with, which is the remaining freshness lifetime (RFC 7252 section 5.6.1).
+     * @param now the current time in milliseconds
+     * @return the remaining freshness lifetime in seconds, 0 when stale
+     */
+    public long getMaxAge( long now )
+    {
+        return ( now < expires ? ( expires - now ) / 1000L : 0L );
+    }
+
+    /**
+     * @return the number of bytes the response occupies in the cache
+     */
+    int getWeight()
+    {
+        return payload.length + options.encodedLength();
+    }
+}
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.cache;
+
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsSnapshot;
+
+
+/**
+ * Bounded cache of responses, keyed by the {@link CacheKey} of the request, as specified by RFC 7252 section 5.6.
+ * The cache is bounded both by number of entries and by the number of bytes of payload and options held.
+ * When a bound is exceeded the least recently used entries are evicted.
+ * Responses are fresh during their Max-Age, after which they can be revalidated using their etag:
+ * a stale response is retrieved with {@link #getStale(CacheKey)}, its etag is sent upstream, and when
+ * upstream answers 2.03 Valid the response is made fresh again with {@link #validated(CacheKey, OptionSet)}.
+ * The request method is not part of the cache key, so callers must only cache responses to GET (or FETCH) requests.
+ * The cache does not assemble blocks: responses carrying a Block2 option are not stored,
+ * and requests containing a Block2 option are never served from the cache (RFC 7959 section 2.10).
+ * The cache can be used concurrently.
+ */
+public class ResponseCache
+{
+    /**
+     * The cached responses in least recently used order.
+     */
+    private final LinkedHashMap< CacheKey, CachedResponse > entries;
+
+    /**
+     * Maximum number of entries.
+     */
+    private final int maxEntries;
+
+    /**
+     * Maximum number of bytes of the entries.
+     */
+    private final long maxWeight;
+
+    /**
+     * The number of bytes of the entries.
+     */
+    private long weight= 0L;
+
+    private long hitCount= 0L;
+
+    private long missCount= 0L;
+
+    private long evictionCount= 0L;
+
+    /**
+     * Constructs cache.
+     * @param maxEntries maximum number of responses
+     * @param maxWeight maximum number of bytes of the cached payloads and options
+     * @throws IllegalArgumentException when a maximum is not positive
+     */
+    public ResponseCache( int maxEntries, long maxWeight )
+    {
+        if ( maxEntries <= 0 ) throw new IllegalArgumentException( "maxEntries must be positive" );
+        if ( maxWeight <= 0 ) throw new IllegalArgumentException( "maxWeight must be positive" );
+        this.maxEntries= maxEntries;
+        this.maxWeight= maxWeight;
+        entries= new LinkedHashMap< CacheKey, CachedResponse >( 16, 0.75f, true );
+    }
+
+    /**
+     * Get the current time used for expiry. Can be overridden, for instance for testing.
+     * @return the current time in milliseconds
+     */
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Check whether responses with given response code can be cached.
+     * Success responses other than 2.05 Content only change or validate state, so are not cached.
+     * @param responseCode the response code
+     * @return true when the response can be cached
+     */
+    public static boolean isCacheable( ResponseCode responseCode )
+    {
+        return responseCode == ResponseCode.CONTENT || ResponseCode.isClientError( responseCode ) || ResponseCode.isServerError( responseCode );
+    }
+
+    /**
+     * Store a response.
+     * The response is fresh during its Max-Age, or the default of 60 seconds when absent.
+     * A response that is not cacheable, is a block of a representation, answers a request for a block,
+     * is larger than the cache, or is stale immediately and has no etag to revalidate with, is not stored.
+     * @param key the cache key of the request
+     * @param responseCode the response code
+     * @param options the response options
+     * @param payload the response payload, or null when the response has no payload
+     * @return the stored response, or null when the response is not stored
+     */
+    public CachedResponse put( CacheKey key, ResponseCode responseCode, OptionSet options, byte[] payload )
+    {
+        if ( !isCacheable( responseCode ) ) return null;
+        if ( key.isBlockwise() || options.hasBlock2() ) return null;
+        long maxAge= maxAgeOf( options );
+        if ( maxAge == 0L && options.getETagCount() == 0 ) return null;
+        byte[] copy= ( payload == null ? new byte [0] : Arrays.copyOf( payload, payload.length ) );
+        CachedResponse response= new CachedResponse( responseCode, OptionsSnapshot.create( options ), copy, currentTimeMillis() + maxAge * 1000L );
+        if ( response.getWeight() > maxWeight ) return null;
+        synchronized ( entries )
+        {
+            store( key, response );
+        }
+        return response;
+    }
+
+    /**
+     * Get a fresh response.
+     * @param key the cache key of the request
+     * @return the response, or null when no fresh response is cached or the request asks for a block
+     */
+    public CachedResponse get( CacheKey key )
+    {
+        long now= currentTimeMillis();
+        synchronized ( entries )
+        {
+            CachedResponse response= ( key.isBlockwise() ? null : entries.get( key ) );
+            if ( response != null && response.isFresh( now ) )
+            {
+                hitCount++;
+                return response;
+            }
+            missCount++;
+            return null;
+        }
+    }
+
+    /**
+     * Get a response regardless of its freshness, for instance to revalidate a stale response.
+     * @param key the cache key of the request
+     * @return the response, or null when no response is cached or the request asks for a block
+     */
+    public CachedResponse getStale( CacheKey key )
+    {
+        if ( key.isBlockwise() ) return null;
+        synchronized ( entries )
+        {
+            return entries.get( key );
+        }
+    }
+
+    /**
+     * Process a 2.03 Valid response to a revalidation request (RFC 7252 section 5.6.2).
+     * When the etag of the Valid response equals the etag of the cached response,
+     * the cached response is fresh again for the Max-Age of the Valid response.
+     * Otherwise the cached response is no longer usable and is removed.
+     * @param key the cache key of the request
+     * @param validOptions the options of the Valid response
+     * @return the revalidated response, or null when it could not be revalidated
+     */
+    public CachedResponse validated( CacheKey key, OptionSet validOptions )
+    {
+        if ( key.isBlockwise() ) return null;
+        ETag etag= null;
+        if ( validOptions.getETagCount() == 1 )
+        {
+            try
+            {
+                etag= new ETag( validOptions.getETags().get( 0 ) );
+            }
+            catch ( InvalidETagException e )
+            {
+                //cannot validate
+            }
+        }
+        long expires= currentTimeMillis() + maxAgeOf( validOptions ) * 1000L;
+        synchronized ( entries )
+        {
+            CachedResponse response= entries.get( key );
+            if ( response == null ) return null;
+            if ( etag == null || !etag.equals( response.getETag() ) )
+            {
+                remove( key, response );
+                return null;
+            }
+            CachedResponse refreshed= response.withExpires( expires );
+            entries.put( key, refreshed );
+            return refreshed;
+        }
+    }
+
+    /**
+     * Get the options to respond with from the cache.
+     * The Max-Age option is set to the remaining freshness lifetime of the response.
+     * @param response the cached response
+     * @return new OptionSet containing the options
+     */
+    public OptionSet toOptionSet( CachedResponse response )
+    {
+        OptionSet options= response.getOptions().toOptionSet();
+        options.setMaxAge( response.getMaxAge( currentTimeMillis() ) );
+        return options;
+    }
+
+    /**
+     * Remove a response.
+     * @param key the cache key of the request
+     * @return the removed response, or null when no response was cached
+     */
+    public CachedResponse remove( CacheKey key )
+    {
+        synchronized ( entries )
+        {
+            CachedResponse response= entries.remove( key );
+            if ( response != null ) weight-= response.getWeight();
+            return response;
+        }
+    }
+
+    /**
+     * Remove all responses that are stale and cannot be revalidated.
+     * @return the number of responses removed
+     */
+    public int removeExpired()
+    {
+        long now= currentTimeMillis();
+        int removed= 0;
+        synchronized ( entries )
+        {
+            Iterator< CachedResponse > iterator= entries.values().iterator();
+            while ( iterator.hasNext() )
+            {
+                CachedResponse response= iterator.next();
+                if ( !response.isFresh( now ) && response.getETag() == null )
+                {
+                    iterator.remove();
+                    weight-= response.getWeight();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove all responses.
+     */
+    public void clear()
+    {
+        synchronized ( entries )
+        {
+            entries.clear();
+            weight= 0L;
+        }
+    }
+
+    /**
+     * @return the number of cached responses
+     */
+    public int size()
+    {
+        synchronized ( entries )
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of bytes of the cached payloads and options
+     */
+    public long getWeight()
+    {
+        synchronized ( entries )
+        {
+            return weight;
+        }
+    }
+
+    /**
+     * @return the number of lookups that returned a fresh response
+     */
+    public long getHitCount()
+    {
+        synchronized ( entries )
+        {
+            return hitCount;
+        }
+    }
+
+    /**
+     * @return the number of lookups that did not return a fresh response
+     */
+    public long getMissCount()
+    {
+        synchronized ( entries )
+        {
+            return missCount;
+        }
+    }
+
+    /**
+     * @return the number of responses evicted to stay within bounds
+     */
+    public long getEvictionCount()
+    {
+        synchronized ( entries )
+        {
+            return evictionCount;
+        }
+    }
+
+    /**
+     * Store response and evict least recently used responses until the cache is within bounds.
+     * Must be called holding the lock.
+     */
+    private void store( CacheKey key, CachedResponse response )
+    {
+        CachedResponse previous= entries.put( key, response );
+        if ( previous != null ) weight-= previous.getWeight();
+        weight+= response.getWeight();
+        Iterator< Map.Entry< CacheKey, CachedResponse > > eldest= entries.entrySet().iterator();
+        while ( entries.size() > maxEntries || weight > maxWeight )
+        {
+            Map.Entry< CacheKey, CachedResponse > entry= eldest.next();
+            eldest.remove();
+            weight-= entry.getValue().getWeight();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Remove response when it is still cached. Must be called holding the lock.
+     */
+    private void remove( CacheKey key, CachedResponse response )
+    {
+        if ( entries.remove( key ) != null ) weight-= response.getWeight();
+    }
+
+    /**
+     * @param options response options
+     * @return the Max-Age of the response in seconds
+     */
+    private static long maxAgeOf( OptionSet options )
+    {
+        return ( options.hasMaxAge() ? options.getMaxAge().longValue() : OptionNumberRegistry.Defaults.MAX_AGE );
+    }
+}
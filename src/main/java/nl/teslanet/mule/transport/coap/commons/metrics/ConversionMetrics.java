@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+
+package nl.teslanet.mule.transport.coap.commons.metrics;
+
+
+/**
+ * Service provider interface for instrumenting option conversions.
+ * Implementations are installed with
+ * {@link nl.teslanet.mule.transport.coap.commons.options.Options#setMetrics(ConversionMetrics)}
+ * and are called from the converting threads, so they must be thread-safe and fast.
+ * The default {@link #NOOP} implementation is recognized by the conversions,
+ * which then skip measuring altogether.
+ * <p>
+ * Measured are the conversions of {@code Options.fillOptionSet} and {@code Options.fillPropertyMap},
+ * also when used by the conversion context and the batch conversions.
+ * Not measured are the incremental updates of {@code Options.applyDelta} and {@code Options.applyChanges},
+ * the lazy property maps of {@code Options.getPropertyMap} and the wire codec {@code OptionsCodec}.
+ * @see ConversionStatistics
+ */
+public interface ConversionMetrics
+{
+    /**
+     * Metrics that record nothing.
+     */
+    public static final ConversionMetrics NOOP= new ConversionMetrics()
+        {
+            @Override
+            public void recordConversion( Direction direction, long nanos )
+            {
+                //noop
+            }
+
+            @Override
+            public void recordOption( Direction direction, int optionNumber, int valueLength )
+            {
+                //noop
+            }
+
+            @Override
+            public void recordInvalidValue( String propertyName )
+            {
+                //noop
+            }
+        };
+
+    /**
+     * The direction of a conversion.
+     */
+    public enum Direction
+    {
+        /**
+         * From message properties to OptionSet.
+         */
+        TO_OPTION_SET,
+
+        /**
+         * From OptionSet to message properties.
+         */
+        TO_PROPERTY_MAP
+    }
+
+    /**
+     * Record a completed conversion.
+     * @param direction the direction of the conversion
+     * @param nanos the duration of the conversion in nanoseconds
+     */
+    void recordConversion( Direction direction, long nanos );
+
+    /**
+     * Record an option that took part in a conversion.
+     * Each option value is recorded when it is converted, so options that were already present
+     * in an OptionSet that is filled without clearing it are not recorded.
+     * @param direction the direction of the conversion
+     * @param optionNumber the option number
+     * @param valueLength the length of the option value in bytes
+     */
+    void recordOption( Direction direction, int optionNumber, int valueLength );
+
+    /**
+     * Record an option value that could not be converted into a property.
+     * @param propertyName the name of the property
+     */
+    void recordInvalidValue( String propertyName );
+}
@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+
+package nl.teslanet.mule.transport.coap.commons.metrics;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * Conversion metrics kept in memory, using atomic counters and histograms.
+ * Per direction the conversion latency is kept, per option number the value sizes,
+ * so the histograms give the occurrence counts as well.
+ * The statistics can be exported to JMX using {@link #registerMBean()},
+ * or read as a flat map using {@link #getSnapshot()} to feed other metrics systems.
+ * The statistics are thread-safe. Recording a value updates four atomic counters of a {@link Histogram},
+ * which threads that record concurrently contend on, so recording does not scale like a striped counter would.
+ */
+public class ConversionStatistics implements ConversionMetrics, ConversionStatisticsMXBean
+{
+    /**
+     * Default JMX name of the statistics.
+     */
+    public static final String OBJECT_NAME= "nl.teslanet.mule.transport.coap.commons:type=ConversionStatistics";
+
+    /**
+     * Conversion latencies by direction.
+     */
+    private final Histogram[] latencies= new Histogram [ConversionMetrics.Direction.values().length];
+
+    /**
+     * Option value sizes by direction and option number.
+     */
+    private final ConcurrentHashMap< Integer, Histogram >[] sizes;
+
+    /**
+     * Invalid value counts by property name.
+     */
+    private final ConcurrentHashMap< String, AtomicLong > invalidValues= new ConcurrentHashMap< String, AtomicLong >();
+
+    private final AtomicLong invalidValueCount= new AtomicLong();
+
+    /**
+     * Constructs empty statistics.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ConversionStatistics()
+    {
+        super();
+        sizes= new ConcurrentHashMap [latencies.length];
+        for ( int i= 0; i < latencies.length; i++ )
+        {
+            latencies[i]= new Histogram();
+            sizes[i]= new ConcurrentHashMap< Integer, Histogram >();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics#recordConversion(nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics.Direction, long)
+     */
+    @Override
+    public void recordConversion( Direction direction, long nanos )
+    {
+        latencies[direction.ordinal()].record( nanos );
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics#recordOption(nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics.Direction, int, int)
+     */
+    @Override
+    public void recordOption( Direction direction, int optionNumber, int valueLength )
+    {
+        ConcurrentHashMap< Integer, Histogram > histograms= sizes[direction.ordinal()];
+        Integer key= Integer.valueOf( optionNumber );
+        Histogram histogram= histograms.get( key );
+        if ( histogram == null )
+        {
+            histogram= new Histogram();
+            Histogram existing= histograms.putIfAbsent( key, histogram );
+            if ( existing != null ) histogram= existing;
+        }
+        histogram.record( valueLength );
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics#recordInvalidValue(java.lang.String)
+     */
+    @Override
+    public void recordInvalidValue( String propertyName )
+    {
+        invalidValueCount.incrementAndGet();
+        AtomicLong counter= invalidValues.get( propertyName );
+        if ( counter == null )
+        {
+            counter= new AtomicLong();
+            AtomicLong existing= invalidValues.putIfAbsent( propertyName, counter );
+            if ( existing != null ) counter= existing;
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * @param direction the direction of the conversions
+     * @return the latency histogram of the conversions in nanoseconds
+     */
+    public Histogram getLatency( Direction direction )
+    {
+        return latencies[direction.ordinal()];
+    }
+
+    /**
+     * @param direction the direction of the conversions
+     * @param optionNumber the option number
+     * @return the value size histogram of the option, or null when the option did not occur
+     */
+    public Histogram getOptionSizes( Direction direction, int optionNumber )
+    {
+        return sizes[direction.ordinal()].get( Integer.valueOf( optionNumber ) );
+    }
+
+    /**
+     * @param propertyName the name of the property
+     * @return the number of invalid values of the property
+     */
+    public long getInvalidValueCount( String propertyName )
+    {
+        AtomicLong counter= invalidValues.get( propertyName );
+        return ( counter == null ? 0L : counter.get() );
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionStatisticsMXBean#getToOptionSetCount()
+     */
+    @Override
+    public long getToOptionSetCount()
+    {
+        return getLatency( Direction.TO_OPTION_SET ).getCount();
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionStatisticsMXBean#getToOptionSetMeanNanos()
+     */
+    @Override
+    public double getToOptionSetMeanNanos()
+    {
+        return getLatency( Direction.TO_OPTION_SET ).getMean();
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionStatisticsMXBean#getToOptionSetMaxNanos()
+     */
+    @Override
+    public long getToOptionSetMaxNanos()
+    {
+        return getLatency( Direction.TO_OPTION_SET ).getMax();
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionStatisticsMXBean#getToPropertyMapCount()
+     */
+    @Override
+    public long getToPropertyMapCount()
+    {
+        return getLatency( Direction.TO_PROPERTY_MAP ).getCount();
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionStatisticsMXBean#getToPropertyMapMeanNanos()
+     */
+    @Override
+    public double getToPropertyMapMeanNanos()
+    {
+        return getLatency( Direction.TO_PROPERTY_MAP ).getMean();
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionStatisticsMXBean#getToPropertyMapMaxNanos()
+     */
+    @Override
+    public long getToPropertyMapMaxNanos()
+    {
+        return getLatency( Direction.TO_PROPERTY_MAP ).getMax();
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionStatisticsMXBean#getInvalidValueCount()
+     */
+    @Override
+    public long getInvalidValueCount()
+    {
+        return invalidValueCount.get();
+    }
+
+    /**
+     * Get all statistics as a flat map. Names are of the form
+     * {@code conversion.<direction>.<count|nanos.sum|nanos.max|nanos.p99>},
+     * {@code option.<direction>.<number>.<count|bytes.sum|bytes.max|bytes.bucket.<upper bound>>}
+     * and {@code invalid.<property name>}, where the direction is
+     * {@code toOptionSet} or {@code toPropertyMap}.
+     * Only non-empty size buckets are included.
+     * @return sorted map of the statistics
+     */
+    @Override
+    public Map< String, Long > getSnapshot()
+    {
+        TreeMap< String, Long > snapshot= new TreeMap< String, Long >();
+        for ( Direction direction : Direction.values() )
+        {
+            String name= directionName( direction );
+            Histogram latency= getLatency( direction );
+            snapshot.put( "conversion." + name + ".count", Long.valueOf( latency.getCount() ) );
+            snapshot.put( "conversion." + name + ".nanos.sum", Long.valueOf( latency.getSum() ) );
+            snapshot.put( "conversion." + name + ".nanos.max", Long.valueOf( latency.getMax() ) );
+            snapshot.put( "conversion." + name + ".nanos.p99", Long.valueOf( latency.getValueAtPercentile( 99.0 ) ) );
+            for ( Map.Entry< Integer, Histogram > entry : sizes[direction.ordinal()].entrySet() )
+            {
+                String prefix= "option." + name + "." + entry.getKey() + ".";
+                Histogram histogram= entry.getValue();
+                snapshot.put( prefix + "count", Long.valueOf( histogram.getCount() ) );
+                snapshot.put( prefix + "bytes.sum", Long.valueOf( histogram.getSum() ) );
+                snapshot.put( prefix + "bytes.max", Long.valueOf( histogram.getMax() ) );
+                for ( int i= 0; i < Histogram.BUCKETS; i++ )
+                {
+                    long count= histogram.getBucketCount( i );
+                    if ( count > 0 ) snapshot.put( prefix + "bytes.bucket." + Histogram.getBucketUpperBound( i ), Long.valueOf( count ) );
+                }
+            }
+        }
+        snapshot.put( "invalid.count", Long.valueOf( invalidValueCount.get() ) );
+        for ( Map.Entry< String, AtomicLong > entry : invalidValues.entrySet() )
+        {
+            snapshot.put( "invalid." + entry.getKey(), Long.valueOf( entry.getValue().get() ) );
+        }
+        return snapshot;
+    }
+
+    private static String directionName( Direction direction )
+    {
+        return ( direction == Direction.TO_OPTION_SET ? "toOptionSet" : "toPropertyMap" );
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.commons.metrics.ConversionStatisticsMXBean#reset()
+     */
+    @Override
+    public void reset()
+    {
+        for ( int i= 0; i < latencies.length; i++ )
+        {
+            latencies[i].reset();
+            sizes[i].clear();
+        }
+        invalidValues.clear();
+        invalidValueCount.set( 0L );
+    }
+
+    /**
+     * Register the statistics with the platform MBean server under {@link #OBJECT_NAME}.
+     * @return the name the statistics are registered under
+     * @throws JMException when registration fails
+     */
+    public ObjectName registerMBean() throws JMException
+    {
+        ObjectName name= new ObjectName( OBJECT_NAME );
+        ManagementFactory.getPlatformMBeanServer().registerMBean( this, name );
+        return name;
+    }
+
+    /**
+     * Unregister the statistics from the platform MBean server.
+     * @throws JMException when the statistics are not registered under {@link #OBJECT_NAME}
+     */
+    public void unregisterMBean() throws JMException
+    {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean( new ObjectName( OBJECT_NAME ) );
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+
+package nl.teslanet.mule.transport.coap.commons.metrics;
+
+
+import java.util.Map;
+
+
+/**
+ * Management interface of {@link ConversionStatistics}.
+ */
+public interface ConversionStatisticsMXBean
+{
+    /**
+     * @return the number of conversions from properties to OptionSet
+     */
+    long getToOptionSetCount();
+
+    /**
+     * @return the mean duration of conversions from properties to OptionSet in nanoseconds
+     */
+    double getToOptionSetMeanNanos();
+
+    /**
+     * @return the longest duration of conversions from properties to OptionSet in nanoseconds
+     */
+    long getToOptionSetMaxNanos();
+
+    /**
+     * @return the number of conversions from OptionSet to properties
+     */
+    long getToPropertyMapCount();
+
+    /**
+     * @return the mean duration of conversions from OptionSet to properties in nanoseconds
+     */
+    double getToPropertyMapMeanNanos();
+
+    /**
+     * @return the longest duration of conversions from OptionSet to properties in nanoseconds
+     */
+    long getToPropertyMapMaxNanos();
+
+    /**
+     * @return the number of option values that could not be converted into a property
+     */
+    long getInvalidValueCount();
+
+    /**
+     * @return all statistics by name
+     */
+    Map< String, Long > getSnapshot();
+
+    /**
+     * Clear all statistics.
+     */
+    void reset();
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+
+package nl.teslanet.mule.transport.coap.commons.metrics;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Thread-safe histogram of non-negative values, using power of two buckets.
+ * Bucket 0 counts value 0, bucket i counts values from 2^(i-1) up to 2^i - 1.
+ * Recording a value does not allocate.
+ */
+public final class Histogram
+{
+    /**
+     * The number of buckets.
+     */
+    public static final int BUCKETS= 64;
+
+    private final AtomicLongArray buckets= new AtomicLongArray( BUCKETS );
+
+    private final AtomicLong count= new AtomicLong();
+
+    private final AtomicLong sum= new AtomicLong();
+
+    private final AtomicLong max= new AtomicLong();
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     * @param value the value
+     */
+    public void record( long value )
+    {
+        if ( value < 0 ) value= 0;
+        buckets.incrementAndGet( bucketOf( value ) );
+        count.incrementAndGet();
+        sum.addAndGet( value );
+        long current;
+        while ( value > ( current= max.get() ) && !max.compareAndSet( current, value ) )
+        {
+            //retry
+        }
+    }
+
+    /**
+     * @param value the value
+     * @return the bucket the value is counted in
+     */
+    static int bucketOf( long value )
+    {
+        return Math.min( 64 - Long.numberOfLeadingZeros( value ), BUCKETS - 1 );
+    }
+
+    /**
+     * @param bucket the bucket
+     * @return the largest value counted in the bucket
+     */
+    public static long getBucketUpperBound( int bucket )
+    {
+        if ( bucket == 0 ) return 0L;
+        if ( bucket >= BUCKETS - 1 ) return Long.MAX_VALUE;
+        return ( 1L << bucket ) - 1;
+    }
+
+    /**
+     * @param bucket the bucket
+     * @return the number of values counted in the bucket
+     */
+    public long getBucketCount( int bucket )
+    {
+        return buckets.get( bucket );
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of the recorded values
+     */
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+    /**
+     * @return the largest recorded value, 0 when no values are recorded
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, 0 when no values are recorded
+     */
+    public double getMean()
+    {
+        long n= count.get();
+        return ( n == 0 ? 0.0 : (double) sum.get() / n );
+    }
+
+    /**
+     * Get the upper bound of the bucket containing given percentile.
+     * @param percentile the percentile, 0 to 100
+     * @return the upper bound of the bucket, limited by the largest recorded value
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        long n= count.get();
+        if ( n == 0 ) return 0L;
+        long rank= Math.max( 1L, (long) Math.ceil( n * percentile / 100.0 ) );
+        long seen= 0;
+        for ( int i= 0; i < BUCKETS; i++ )
+        {
+            seen+= buckets.get( i );
+            if ( seen >= rank ) return Math.min( getBucketUpperBound( i ), max.get() );
+        }
+        return max.get();
+    }
+
+    /**
+     * Clear all recorded values.
+     */
+    public void reset()
+    {
+        for ( int i= 0; i < BUCKETS; i++ )
+        {
+            buckets.set( i, 0L );
+        }
+        count.set( 0L );
+        sum.set( 0L );
+        max.set( 0L );
+    }
+}
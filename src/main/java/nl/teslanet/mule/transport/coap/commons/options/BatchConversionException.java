@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+/**
+ *  Exception that is thrown when an item of a batch could not be converted.
+ *  When more items fail, the exception concerns the item with the lowest index.
+ */
+public class BatchConversionException extends InvalidOptionValueException
+{
+    /**
+     * serial version id
+     */
+    private static final long serialVersionUID= 1L;
+
+    /**
+     * Index of the item that could not be converted.
+     */
+    private final int index;
+
+    /**
+     * Construct exception for a batch item.
+     * @param index index of the item that could not be converted
+     * @param cause underlying cause
+     */
+    public BatchConversionException( int index, Throwable cause )
+    {
+        super( "Conversion of batch item " + index + " failed, " + cause.getMessage(), cause );
+        this.index= index;
+    }
+
+    /**
+     * @return the index of the item that could not be converted
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+}
@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.eclipse.californium.core.coap.OptionSet;
+
+
+/**
+ * Converts batches of option sets and property maps.
+ * A batch is split into chunks that are converted sequentially by one thread,
+ * reusing scratch state within the chunk. When a ForkJoinPool is given the chunks
+ * are converted in parallel by the pool.
+ * The results are in the same order as the items of the batch.
+ */
+final class BatchConverter
+{
+    /**
+     * Maximum number of items converted as one chunk.
+     */
+    static final int CHUNK_SIZE= 64;
+
+    /**
+     * Utility class, not to be instantiated.
+     */
+    private BatchConverter()
+    {
+        super();
+    }
+
+    /**
+     * Convert option sets into property maps.
+     * @param optionSets the option sets to convert
+     * @param pool the pool to convert in parallel with, or null to convert in the calling thread
+     * @return list of new property maps
+     * @throws BatchConversionException when an option set could not be converted
+     */
+    static List< Map< String, Object > > toPropertyMaps( List< OptionSet > optionSets, ForkJoinPool pool ) throws BatchConversionException
+    {
+        PropertyMapsTask task= new PropertyMapsTask( randomAccess( optionSets ), new Object [optionSets.size()], new Failure(), 0, optionSets.size() );
+        run( task, pool );
+        return asList( task.results );
+    }
+
+    /**
+     * Convert property maps into option sets.
+     * @param propsList the property maps to convert
+     * @param pool the pool to convert in parallel with, or null to convert in the calling thread
+     * @return list of new option sets
+     * @throws BatchConversionException when a property map could not be converted
+     */
+    static List< OptionSet > toOptionSets( List< Map< String, Object > > propsList, ForkJoinPool pool ) throws BatchConversionException
+    {
+        OptionSetsTask task= new OptionSetsTask( randomAccess( propsList ), new Object [propsList.size()], new Failure(), 0, propsList.size() );
+        run( task, pool );
+        return asList( task.results );
+    }
+
+    private static void run( Task< ? > task, ForkJoinPool pool ) throws BatchConversionException
+    {
+        if ( pool == null || task.to - task.from <= CHUNK_SIZE )
+        {
+            task.convertChunk();
+        }
+        else
+        {
+            pool.invoke( task );
+        }
+        task.failure.check();
+    }
+
+    /**
+     * Get a list of the items that is indexed in constant time, as the chunks fetch their items by index.
+     * @param items the items
+     * @return the given list when it supports fast random access, otherwise a copy
+     */
+    private static < T > List< T > randomAccess( List< T > items )
+    {
+        return ( items instanceof RandomAccess ? items : new ArrayList< T >( items ) );
+    }
+
+    @SuppressWarnings("unchecked")
+    private static < T > List< T > asList( Object[] results )
+    {
+        return Collections.unmodifiableList( (List< T >) Arrays.asList( results ) );
+    }
+
+    /**
+     * Keeps the failure with the lowest index.
+     * The index is checked before each item without locking, only recording a failure is synchronized.
+     */
+    private static final class Failure
+    {
+        private volatile int index= Integer.MAX_VALUE;
+
+        private Exception cause= null;
+
+        synchronized void record( int index, Exception cause )
+        {
+            if ( index < this.index )
+            {
+                //cause is published by the volatile write of index
+                this.cause= cause;
+                this.index= index;
+            }
+        }
+
+        /**
+         * @param index item index
+         * @return true when an item before given index failed, so converting can be stopped
+         */
+        boolean isBefore( int index )
+        {
+            return this.index < index;
+        }
+
+        synchronized void check() throws BatchConversionException
+        {
+            if ( cause != null ) throw new BatchConversionException( index, cause );
+        }
+    }
+
+    /**
+     * Task converting a range of items, splitting it into chunks when it exceeds the chunk size.
+     * @param <I> the item type
+     */
+    private abstract static class Task< I > extends RecursiveAction
+    {
+        private static final long serialVersionUID= 1L;
+
+        final List< I > items;
+
+        final Object[] results;
+
+        final Failure failure;
+
+        final int from;
+
+        final int to;
+
+        Task( List< I > items, Object[] results, Failure failure, int from, int to )
+        {
+            super();
+            this.items= items;
+            this.results= results;
+            this.failure= failure;
+            this.from= from;
+            this.to= to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from <= CHUNK_SIZE )
+            {
+                convertChunk();
+            }
+            else
+            {
+                int middle= ( from + to ) >>> 1;
+                invokeAll( split( from, middle ), split( middle, to ) );
+            }
+        }
+
+        /**
+         * Convert all items of the range in the calling thread.
+         * Converting stops at the first failure, or when an item before the range failed.
+         */
+        void convertChunk()
+        {
+            for ( int i= from; i < to; i++ )
+            {
+                if ( failure.isBefore( i ) ) return;
+                try
+                {
+                    results[i]= convert( items.get( i ) );
+                }
+                catch ( InvalidOptionValueException | RuntimeException e )
+                {
+                    failure.record( i, e );
+                    return;
+                }
+            }
+        }
+
+        abstract Task< I > split( int from, int to );
+
+        abstract Object convert( I item ) throws InvalidOptionValueException;
+    }
+
+    /**
+     * Task converting option sets into property maps.
+     * The capacity of the maps is based on the size of the previous map of the chunk.
+     */
+    private static final class PropertyMapsTask extends Task< OptionSet >
+    {
+        private static final long serialVersionUID= 1L;
+
+        private int capacity= 16;
+
+        PropertyMapsTask( List< OptionSet > items, Object[] results, Failure failure, int from, int to )
+        {
+            super( items, results, failure, from, to );
+        }
+
+        @Override
+        Task< OptionSet > split( int from, int to )
+        {
+            return new PropertyMapsTask( items, results, failure, from, to );
+        }
+
+        @Override
+        Object convert( OptionSet item ) throws InvalidOptionValueException
+        {
+            HashMap< String, Object > props= new HashMap< String, Object >( capacity );
+            Options.fillPropertyMap( item, props );
+            capacity= Math.max( 16, props.size() * 4 / 3 + 1 );
+            return props;
+        }
+    }
+
+    /**
+     * Task converting property maps into option sets.
+     * The block option scratch state is reused within a chunk.
+     */
+    private static final class OptionSetsTask extends Task< Map< String, Object > >
+    {
+        private static final long serialVersionUID= 1L;
+
+        private final transient BlockAssembler blocks= new BlockAssembler();
+
+        OptionSetsTask( List< Map< String, Object > > items, Object[] results, Failure failure, int from, int to )
+        {
+            super( items, results, failure, from, to );
+        }
+
+        @Override
+        Task< Map< String, Object > > split( int from, int to )
+        {
+            return new OptionSetsTask( items, results, failure, from, to );
+        }
+
+        @Override
+        Object convert( Map< String, Object > item )
+        {
+            OptionSet optionSet= new OptionSet();
+            Options.fillOptionSet( optionSet, item, false, blocks );
+            return optionSet;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.OptionSet;
+
+
+/**
+ * Collects the block option components found in properties,
+ * so each block option can be built once after all properties are processed.
+ * The result does not depend on the order of the properties:
+ * an explicit szx takes precedence over size,
+ * and components that are not given are taken from the existing block option or get their default value.
+ */
+final class BlockAssembler
+{
+    /**
+     * Common prefix of block property names.
+     */
+    private static final String PREFIX_COAP_OPT_BLOCK= "coap.opt.block";
+
+    /**
+     * Block1 components.
+     */
+    final Components block1= new Components();
+
+    /**
+     * Block2 components.
+     */
+    final Components block2= new Components();
+
+    /**
+     * Clear all collected components, so the assembler can be reused.
+     * @return this assembler
+     */
+    BlockAssembler reset()
+    {
+        block1.reset();
+        block2.reset();
+        return this;
+    }
+
+    /**
+     * Check whether property is a block option component.
+     * @param propertyName the name of the property
+     * @return true when the property may be a block component
+     */
+    static boolean isBlockProperty( String propertyName )
+    {
+        return propertyName.startsWith( PREFIX_COAP_OPT_BLOCK );
+    }
+
+    /**
+     * Collect block component from a property. Null values are ignored.
+     * @param propertyName the name of the property
+     * @param value the property value
+     * @return true when the property is a block component, otherwise false
+     */
+    boolean collect( String propertyName, Object value )
+    {
+        switch ( propertyName )
+        {
+            case PropertyNames.COAP_OPT_BLOCK1_SIZE:
+                if ( value != null ) block1.setSizeSzx( BlockOption.size2Szx( Options.toInteger( value ) ) );
+                return true;
+            case PropertyNames.COAP_OPT_BLOCK1_SZX:
+                if ( value != null ) block1.setSzx( Options.toInteger( value ) );
+                return true;
+            case PropertyNames.COAP_OPT_BLOCK1_NUM:
+                if ( value != null ) block1.setNum( Options.toInteger( value ) );
+                return true;
+            case PropertyNames.COAP_OPT_BLOCK1_M:
+                if ( value != null ) block1.setM( Options.toBoolean( value ) );
+                return true;
+            case PropertyNames.COAP_OPT_BLOCK2_SIZE:
+                if ( value != null ) block2.setSizeSzx( BlockOption.size2Szx( Options.toInteger( value ) ) );
+                return true;
+            case PropertyNames.COAP_OPT_BLOCK2_SZX:
+                if ( value != null ) block2.setSzx( Options.toInteger( value ) );
+                return true;
+            case PropertyNames.COAP_OPT_BLOCK2_NUM:
+                if ( value != null ) block2.setNum( Options.toInteger( value ) );
+                return true;
+            case PropertyNames.COAP_OPT_BLOCK2_M:
+                if ( value != null ) block2.setM( Options.toBoolean( value ) );
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Set the collected block options on the OptionSet.
+     * Each block option that has components collected is set once,
+     * completed with the components of the block option already present in the OptionSet.
+     * @param optionSet the OptionSet to set the block options on
+     */
+    void apply( OptionSet optionSet )
+    {
+        if ( block1.isPresent() )
+        {
+            BlockOption existing= ( optionSet.hasBlock1() ? optionSet.getBlock1() : null );
+            optionSet.setBlock1( block1.getSzx( existing ), block1.isM( existing ), block1.getNum( existing ) );
+        }
+        if ( block2.isPresent() )
+        {
+            BlockOption existing= ( optionSet.hasBlock2() ? optionSet.getBlock2() : null );
+            optionSet.setBlock2( block2.getSzx( existing ), block2.isM( existing ), block2.getNum( existing ) );
+        }
+    }
+
+    /**
+     * The components of one block option.
+     */
+    static final class Components
+    {
+        private static final int SZX= 1;
+
+        private static final int SIZE= 2;
+
+        private static final int NUM= 4;
+
+        private static final int M= 8;
+
+        /**
+         * Bit flags of the components that are set.
+         */
+        private int present= 0;
+
+        private int szx= 0;
+
+        private int sizeSzx= 0;
+
+        private int num= 0;
+
+        private boolean m= false;
+
+        void reset()
+        {
+            present= 0;
+        }
+
+        void setSzx( int szx )
+        {
+            this.szx= szx;
+            present|= SZX;
+        }
+
+        void setSizeSzx( int sizeSzx )
+        {
+            this.sizeSzx= sizeSzx;
+            present|= SIZE;
+        }
+
+        void setNum( int num )
+        {
+            this.num= num;
+            present|= NUM;
+        }
+
+        void setM( boolean m )
+        {
+            this.m= m;
+            present|= M;
+        }
+
+        /**
+         * @return true when any component is set
+         */
+        boolean isPresent()
+        {
+            return present != 0;
+        }
+
+        /**
+         * Get the szx. An explicit szx takes precedence over size.
+         * @param existing the block option to take the szx from when not set, or null
+         * @return the szx
+         */
+        int getSzx( BlockOption existing )
+        {
+            if ( ( present & SZX ) != 0 ) return szx;
+            if ( ( present & SIZE ) != 0 ) return sizeSzx;
+            return ( existing != null ? existing.getSzx() : 0 );
+        }
+
+        /**
+         * @param existing the block option to take the num from when not set, or null
+         * @return the num
+         */
+        int getNum( BlockOption existing )
+        {
+            if ( ( present & NUM ) != 0 ) return num;
+            return ( existing != null ? existing.getNum() : 0 );
+        }
+
+        /**
+         * @param existing the block option to take the m flag from when not set, or null
+         * @return the m flag
+         */
+        boolean isM( BlockOption existing )
+        {
+            if ( ( present & M ) != 0 ) return m;
+            return ( existing != null && existing.isM() );
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+
+
+/**
+ * Typed read-only view on an OptionSet.
+ * Numeric and flag options are returned as primitives, so no property names
+ * have to be looked up and no values have to be boxed or cast.
+ * The view reads through to the OptionSet, so it reflects later changes of the set.
+ * Like the OptionSet it is not thread-safe.
+ * For compatibility the options can be converted into the property map
+ * as produced by {@link Options#fillPropertyMap(OptionSet, Map)}.
+ */
+public final class CoapOptionsView
+{
+    /**
+     * Value returned for absent integer options that have no default value.
+     */
+    public static final int UNDEFINED= -1;
+
+    /**
+     * The viewed options.
+     */
+    private final OptionSet optionSet;
+
+    /**
+     * Constructs a view on an OptionSet.
+     * @param optionSet the options to view
+     */
+    public CoapOptionsView( OptionSet optionSet )
+    {
+        super();
+        this.optionSet= optionSet;
+    }
+
+    /**
+     * @return the viewed OptionSet
+     */
+    public OptionSet getOptionSet()
+    {
+        return optionSet;
+    }
+
+    /**
+     * @return true when at least one If-Match option is present
+     */
+    public boolean hasIfMatch()
+    {
+        return optionSet.getIfMatchCount() > 0;
+    }
+
+    /**
+     * @return the If-Match etags, empty when none are present
+     * @throws InvalidETagException when an If-Match value is not a valid etag
+     */
+    public ETagList ifMatch() throws InvalidETagException
+    {
+        return ETagList.create( optionSet.getIfMatch() );
+    }
+
+    /**
+     * @return true when the Uri-Host option is present
+     */
+    public boolean hasUriHost()
+    {
+        return optionSet.hasUriHost();
+    }
+
+    /**
+     * @return the Uri-Host, or null when absent
+     */
+    public String uriHost()
+    {
+        return optionSet.getUriHost();
+    }
+
+    /**
+     * @return true when at least one ETag option is present
+     */
+    public boolean hasETag()
+    {
+        return optionSet.getETagCount() > 0;
+    }
+
+    /**
+     * @return the etags, empty when none are present
+     * @throws InvalidETagException when an ETag value is not a valid etag
+     */
+    public ETagList etags() throws InvalidETagException
+    {
+        return ETagList.create( optionSet.getETags() );
+    }
+
+    /**
+     * @return true when the If-None-Match option is present
+     */
+    public boolean ifNoneMatch()
+    {
+        return optionSet.hasIfNoneMatch();
+    }
+
+    /**
+     * @return true when the Uri-Port option is present
+     */
+    public boolean hasUriPort()
+    {
+        return optionSet.hasUriPort();
+    }
+
+    /**
+     * @return the Uri-Port, or {@link #UNDEFINED} when absent
+     */
+    public int uriPort()
+    {
+        return ( optionSet.hasUriPort() ? optionSet.getUriPort().intValue() : UNDEFINED );
+    }
+
+    /**
+     * @return the Location-Path segments, empty when absent
+     */
+    public List< String > locationPath()
+    {
+        return optionSet.getLocationPath();
+    }
+
+    /**
+     * @return the Location-Path segments joined by '/'
+     */
+    public String locationPathString()
+    {
+        return optionSet.getLocationPathString();
+    }
+
+    /**
+     * @return the Uri-Path segments, empty when absent
+     */
+    public List< String > uriPath()
+    {
+        return optionSet.getUriPath();
+    }
+
+    /**
+     * @return the Uri-Path segments joined by '/'
+     */
+    public String uriPathString()
+    {
+        return optionSet.getUriPathString();
+    }
+
+    /**
+     * @return true when the Content-Format option is present
+     */
+    public boolean hasContentFormat()
+    {
+        return optionSet.hasContentFormat();
+    }
+
+    /**
+     * @return the Content-Format, or {@link #UNDEFINED} when absent
+     */
+    public int contentFormat()
+    {
+        return ( optionSet.hasContentFormat() ? optionSet.getContentFormat() : MediaTypeRegistry.UNDEFINED );
+    }
+
+    /**
+     * @return the media type of the Content-Format, or null when absent or not registered
+     * @see ContentFormatRegistry
+     */
+    public String contentFormatMediaType()
+    {
+        return ( optionSet.hasContentFormat() ? ContentFormatRegistry.toMediaType( optionSet.getContentFormat() ) : null );
+    }
+
+    /**
+     * @return true when the Max-Age option is present
+     */
+    public boolean hasMaxAge()
+    {
+        return optionSet.hasMaxAge();
+    }
+
+    /**
+     * @return the Max-Age in seconds, the default of 60 seconds when absent
+     */
+    public long maxAge()
+    {
+        return ( optionSet.hasMaxAge() ? optionSet.getMaxAge().longValue() : OptionNumberRegistry.Defaults.MAX_AGE );
+    }
+
+    /**
+     * @return the Uri-Query arguments, empty when absent
+     */
+    public List< String > uriQuery()
+    {
+        return optionSet.getUriQuery();
+    }
+
+    /**
+     * @return the Uri-Query arguments joined by '&amp;'
+     */
+    public String uriQueryString()
+    {
+        return optionSet.getUriQueryString();
+    }
+
+    /**
+     * @return index of the Uri-Query parameters, built on each call
+     */
+    public UriQueryIndex uriQueryIndex()
+    {
+        return UriQueryIndex.create( optionSet );
+    }
+
+    /**
+     * @return true when the Accept option is present
+     */
+    public boolean hasAccept()
+    {
+        return optionSet.hasAccept();
+    }
+
+    /**
+     * @return the Accept content format, or {@link #UNDEFINED} when absent
+     */
+    public int accept()
+    {
+        return ( optionSet.hasAccept() ? optionSet.getAccept() : MediaTypeRegistry.UNDEFINED );
+    }
+
+    /**
+     * @return the media type of the Accept content format, or null when absent or not registered
+     * @see ContentFormatRegistry
+     */
+    public String acceptMediaType()
+    {
+        return ( optionSet.hasAccept() ? ContentFormatRegistry.toMediaType( optionSet.getAccept() ) : null );
+    }
+
+    /**
+     * @return the Location-Query arguments, empty when absent
+     */
+    public List< String > locationQuery()
+    {
+        return optionSet.getLocationQuery();
+    }
+
+    /**
+     * @return the Location-Query arguments joined by '&amp;'
+     */
+    public String locationQueryString()
+    {
+        return optionSet.getLocationQueryString();
+    }
+
+    /**
+     * @return true when the Proxy-Uri option is present
+     */
+    public boolean hasProxyUri()
+    {
+        return optionSet.hasProxyUri();
+    }
+
+    /**
+     * @return the Proxy-Uri, or null when absent
+     */
+    public String proxyUri()
+    {
+        return optionSet.getProxyUri();
+    }
+
+    /**
+     * @return true when the Proxy-Scheme option is present
+     */
+    public boolean hasProxyScheme()
+    {
+        return optionSet.hasProxyScheme();
+    }
+
+    /**
+     * @return the Proxy-Scheme, or null when absent
+     */
+    public String proxyScheme()
+    {
+        return optionSet.getProxyScheme();
+    }
+
+    /**
+     * @return true when the Block1 option is present
+     */
+    public boolean hasBlock1()
+    {
+        return optionSet.hasBlock1();
+    }
+
+    /**
+     * @return the Block1 szx, or {@link #UNDEFINED} when absent
+     */
+    public int block1Szx()
+    {
+        return ( optionSet.hasBlock1() ? optionSet.getBlock1().getSzx() : UNDEFINED );
+    }
+
+    /**
+     * @return the Block1 size in bytes, or {@link #UNDEFINED} when absent
+     */
+    public int block1Size()
+    {
+        return ( optionSet.hasBlock1() ? optionSet.getBlock1().getSize() : UNDEFINED );
+    }
+
+    /**
+     * @return the Block1 number, or {@link #UNDEFINED} when absent
+     */
+    public int block1Num()
+    {
+        return ( optionSet.hasBlock1() ? optionSet.getBlock1().getNum() : UNDEFINED );
+    }
+
+    /**
+     * @return the Block1 more flag, false when absent
+     */
+    public boolean block1M()
+    {
+        return optionSet.hasBlock1() && optionSet.getBlock1().isM();
+    }
+
+    /**
+     * @return true when the Block2 option is present
+     */
+    public boolean hasBlock2()
+    {
+        return optionSet.hasBlock2();
+    }
+
+    /**
+     * @return the Block2 szx, or {@link #UNDEFINED} when absent
+     */
+    public int block2Szx()
+    {
+        return ( optionSet.hasBlock2() ? optionSet.getBlock2().getSzx() : UNDEFINED );
+    }
+
+    /**
+     * @return the Block2 size in bytes, or {@link #UNDEFINED} when absent
+     */
+    public int block2Size()
+    {
+        return ( optionSet.hasBlock2() ? optionSet.getBlock2().getSize() : UNDEFINED );
+    }
+
+    /**
+     * @return the Block2 number, or {@link #UNDEFINED} when absent
+     */
+    public int block2Num()
+    {
+        return ( optionSet.hasBlock2() ? optionSet.getBlock2().getNum() : UNDEFINED );
+    }
+
+    /**
+     * @return the Block2 more flag, false when absent
+     */
+    public boolean block2M()
+    {
+        return optionSet.hasBlock2() && optionSet.getBlock2().isM();
+    }
+
+    /**
+     * @return true when the Size1 option is present
+     */
+    public boolean hasSize1()
+    {
+        return optionSet.hasSize1();
+    }
+
+    /**
+     * @return the Size1, or {@link #UNDEFINED} when absent
+     */
+    public int size1()
+    {
+        return ( optionSet.hasSize1() ? optionSet.getSize1().intValue() : UNDEFINED );
+    }
+
+    /**
+     * @return true when the Size2 option is present
+     */
+    public boolean hasSize2()
+    {
+        return optionSet.hasSize2();
+    }
+
+    /**
+     * @return the Size2, or {@link #UNDEFINED} when absent
+     */
+    public int size2()
+    {
+        return ( optionSet.hasSize2() ? optionSet.getSize2().intValue() : UNDEFINED );
+    }
+
+    /**
+     * @return true when the Observe option is present
+     */
+    public boolean hasObserve()
+    {
+        return optionSet.hasObserve();
+    }
+
+    /**
+     * @return the Observe sequence number, or {@link #UNDEFINED} when absent
+     */
+    public int observe()
+    {
+        return ( optionSet.hasObserve() ? optionSet.getObserve().intValue() : UNDEFINED );
+    }
+
+    /**
+     * Check for presence of any option, including options that have no typed accessor.
+     * @param optionNumber the option number
+     * @return true when the option is present
+     */
+    public boolean hasOption( int optionNumber )
+    {
+        return optionSet.hasOption( optionNumber );
+    }
+
+    /**
+     * Fill property map with the properties of the viewed options.
+     * @param props map to put properties in
+     * @throws InvalidOptionValueException when option value could not be converted into a property
+     * @see Options#fillPropertyMap(OptionSet, Map)
+     */
+    public void fillPropertyMap( Map< String, Object > props ) throws InvalidOptionValueException
+    {
+        Options.fillPropertyMap( optionSet, props );
+    }
+
+    /**
+     * Get the viewed options as property map.
+     * @return new map containing the properties
+     * @throws InvalidOptionValueException when option value could not be converted into a property
+     * @see Options#fillPropertyMap(OptionSet, Map)
+     */
+    public Map< String, Object > toPropertyMap() throws InvalidOptionValueException
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        Options.fillPropertyMap( optionSet, props );
+        return props;
+    }
+}
@@ -0,0 +1,487 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionSet;
+
+
+/**
+ * Evaluates the conditional request options If-Match, If-None-Match and ETag
+ * against the current state of a resource, as specified by RFC 7252.
+ * The evaluator is created once for a resource state and indexes the etags of the
+ * representations of the resource, so evaluating a request is a single pass
+ * over its options that does not allocate objects.
+ * Evaluators are immutable and can be used concurrently.
+ *
+ * The conditions are evaluated in this order:
+ * <ol>
+ * <li>If-Match is present and none of its etags matches a current etag: 4.12 Precondition Failed.
+ * An empty If-Match value matches any existing resource.</li>
+ * <li>If-None-Match is present and the resource exists: 4.12 Precondition Failed.</li>
+ * <li>An ETag of the request matches a current etag: 2.03 Valid with the matched etag.
+ * This outcome is only meaningful for GET requests.</li>
+ * <li>Otherwise the request proceeds.</li>
+ * </ol>
+ */
+public final class ConditionalEvaluator
+{
+    /**
+     * The outcome of the evaluation.
+     */
+    public enum Outcome
+    {
+        /**
+         * The request can be processed.
+         */
+        PROCEED( null ),
+        /**
+         * The representation of the client is still valid, respond with 2.03 Valid.
+         */
+        VALID( ResponseCode.VALID ),
+        /**
+         * A precondition does not hold, respond with 4.12 Precondition Failed.
+         */
+        PRECONDITION_FAILED( ResponseCode.PRECONDITION_FAILED );
+
+        private final ResponseCode responseCode;
+
+        private Outcome( ResponseCode responseCode )
+        {
+            this.responseCode= responseCode;
+        }
+
+        /**
+         * @return the response code to respond with, or null when the request can be processed
+         */
+        public ResponseCode getResponseCode()
+        {
+            return responseCode;
+        }
+    }
+
+    /**
+     * Result of an evaluation.
+     */
+    public static final class Result
+    {
+        private final Outcome outcome;
+
+        private final ETag etag;
+
+        private Result( Outcome outcome, ETag etag )
+        {
+            this.outcome= outcome;
+            this.etag= etag;
+        }
+
+        /**
+         * @return the outcome
+         */
+        public Outcome getOutcome()
+        {
+            return outcome;
+        }
+
+        /**
+         * @return the matched etag to include in the 2.03 Valid response, or null when the outcome is not VALID
+         */
+        public ETag getETag()
+        {
+            return etag;
+        }
+
+        @Override
+        public String toString()
+        {
+            return ( etag == null ? outcome.toString() : outcome + " " + etag );
+        }
+    }
+
+    /**
+     * Result telling the request can be processed.
+     */
+    private static final Result PROCEED= new Result( Outcome.PROCEED, null );
+
+    /**
+     * Result telling a precondition does not hold.
+     */
+    private static final Result PRECONDITION_FAILED= new Result( Outcome.PRECONDITION_FAILED, null );
+
+    /**
+     * Evaluation code telling the request can be processed.
+     */
+    private static final int CODE_PROCEED= -1;
+
+    /**
+     * Evaluation code telling a precondition does not hold.
+     */
+    private static final int CODE_PRECONDITION_FAILED= -2;
+
+    /**
+     * Evaluator of resources that do not exist.
+     */
+    private static final ConditionalEvaluator ABSENT= new ConditionalEvaluator( false, ETagList.empty() );
+
+    /**
+     * True when the resource exists.
+     */
+    private final boolean exists;
+
+    /**
+     * The etags of the current representations.
+     */
+    private final ETagList current;
+
+    /**
+     * The precomputed valid results, one for each current etag.
+     */
+    private final Result[] valid;
+
+    private ConditionalEvaluator( boolean exists, ETagList current )
+    {
+        this.exists= exists;
+        this.current= current;
+        this.valid= new Result [current.size()];
+        for ( int i= 0; i < valid.length; i++ )
+        {
+            valid[i]= new Result( Outcome.VALID, current.get( i ) );
+        }
+    }
+
+    /**
+     * Create evaluator for an existing resource.
+     * @param current the etags of the current representations of the resource, may be none
+     * @return the evaluator
+     */
+    public static ConditionalEvaluator create( ETag... current )
+    {
+        return new ConditionalEvaluator( true, ETagList.create( current ) );
+    }
+
+    /**
+     * Create evaluator for an existing resource.
+     * @param current the etags of the current representations of the resource, may be empty
+     * @return the evaluator
+     */
+    public static ConditionalEvaluator create( Collection< ETag > current )
+    {
+        return new ConditionalEvaluator( true, ( current instanceof ETagList ? (ETagList) current : ETagList.create( current ) ) );
+    }
+
+    /**
+     * Get evaluator for a resource that does not exist.
+     * @return the evaluator
+     */
+    public static ConditionalEvaluator absent()
+    {
+        return ABSENT;
+    }
+
+    /**
+     * @return true when the evaluated resource exists
+     */
+    public boolean exists()
+    {
+        return exists;
+    }
+
+    /**
+     * @return the etags of the current representations
+     */
+    public ETagList getETags()
+    {
+        return current;
+    }
+
+    /**
+     * Evaluate the conditional options of a request.
+     * @param request the options of the request
+     * @return the result
+     */
+    public Result evaluate( OptionSet request )
+    {
+        return result( evaluate( request, exists, current, null ) );
+    }
+
+    /**
+     * Evaluate the conditional option properties of a request.
+     * @param props the properties of the request
+     * @return the result
+     */
+    public Result evaluate( Map< String, Object > props )
+    {
+        return result( evaluate( props, exists, current, null ) );
+    }
+
+    /**
+     * Evaluate the conditional options of a request on an existing resource that has at most one representation.
+     * When the outcome is VALID, the matched etag is the current etag.
+     * @param request the options of the request
+     * @param current the etag of the current representation, or null when it has none
+     * @return the outcome
+     */
+    public static Outcome evaluate( OptionSet request, ETag current )
+    {
+        return outcome( evaluate( request, true, null, current ) );
+    }
+
+    /**
+     * Evaluate the conditional option properties of a request on an existing resource that has at most one representation.
+     * When the outcome is VALID, the matched etag is the current etag.
+     * @param props the properties of the request
+     * @param current the etag of the current representation, or null when it has none
+     * @return the outcome
+     */
+    public static Outcome evaluate( Map< String, Object > props, ETag current )
+    {
+        return outcome( evaluate( props, true, null, current ) );
+    }
+
+    /**
+     * Evaluate the If-Match and If-None-Match preconditions of a request on a resource that has at most one representation.
+     * @param ifMatch the If-Match etag values, empty when the request has no If-Match option
+     * @param ifNoneMatch true when the request has the If-None-Match option
+     * @param exists true when the resource exists
+     * @param current the etag of the current representation, or null when it has none
+     * @return PRECONDITION_FAILED when a precondition does not hold, otherwise PROCEED
+     */
+    public static Outcome evaluatePreconditions( List< byte[] > ifMatch, boolean ifNoneMatch, boolean exists, ETag current )
+    {
+        return outcome( preconditions( ifMatch, ifNoneMatch, exists, null, current ) );
+    }
+
+    /**
+     * Evaluate the If-Match and If-None-Match option properties of a request on a resource that has at most one representation.
+     * @param props the properties of the request
+     * @param exists true when the resource exists
+     * @param current the etag of the current representation, or null when it has none
+     * @return PRECONDITION_FAILED when a precondition does not hold, otherwise PROCEED
+     */
+    public static Outcome evaluatePreconditions( Map< String, Object > props, boolean exists, ETag current )
+    {
+        return outcome( preconditions( props, exists, null, current ) );
+    }
+
+    private Result result( int code )
+    {
+        switch ( code )
+        {
+            case CODE_PROCEED:
+                return PROCEED;
+            case CODE_PRECONDITION_FAILED:
+                return PRECONDITION_FAILED;
+            default:
+                return valid[code];
+        }
+    }
+
+    private static Outcome outcome( int code )
+    {
+        switch ( code )
+        {
+            case CODE_PROCEED:
+                return Outcome.PROCEED;
+            case CODE_PRECONDITION_FAILED:
+                return Outcome.PRECONDITION_FAILED;
+            default:
+                return Outcome.VALID;
+        }
+    }
+
+    /**
+     * Evaluate options of a request.
+     * @param request the options
+     * @param exists true when the resource exists
+     * @param list the current etags, or null when a single etag is given
+     * @param single the single current etag, or null
+     * @return the position of the matched etag, or one of the codes
+     */
+    private static int evaluate( OptionSet request, boolean exists, ETagList list, ETag single )
+    {
+        int code= preconditions( request.getIfMatch(), request.hasIfNoneMatch(), exists, list, single );
+        if ( code == CODE_PROCEED && exists )
+        {
+            for ( byte[] etag : request.getETags() )
+            {
+                int position= match( etag, list, single );
+                if ( position >= 0 ) return position;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Evaluate the If-Match and If-None-Match preconditions.
+     * @param ifMatch the If-Match etag values
+     * @param ifNoneMatch the If-None-Match precondition
+     * @param exists true when the resource exists
+     * @param list the current etags, or null when a single etag is given
+     * @param single the single current etag, or null
+     * @return PRECONDITION_FAILED or PROCEED code
+     */
+    private static int preconditions( List< byte[] > ifMatch, boolean ifNoneMatch, boolean exists, ETagList list, ETag single )
+    {
+        if ( !ifMatch.isEmpty() )
+        {
+            boolean matched= false;
+            for ( byte[] etag : ifMatch )
+            {
+                if ( matchIfMatch( etag, exists, list, single ) )
+                {
+                    matched= true;
+                    break;
+                }
+            }
+            if ( !matched ) return CODE_PRECONDITION_FAILED;
+        }
+        if ( exists && ifNoneMatch ) return CODE_PRECONDITION_FAILED;
+        return CODE_PROCEED;
+    }
+
+    /**
+     * Evaluate option properties of a request.
+     * @param props the properties
+     * @param exists true when the resource exists
+     * @param list the current etags, or null when a single etag is given
+     * @param single the single current etag, or null
+     * @return the position of the matched etag, or one of the codes
+     */
+    private static int evaluate( Map< String, Object > props, boolean exists, ETagList list, ETag single )
+    {
+        int code= preconditions( props, exists, list, single );
+        if ( code == CODE_PROCEED && exists )
+        {
+            Object etags= props.get( PropertyNames.COAP_OPT_ETAG_LIST );
+            if ( etags instanceof ETagList )
+            {
+                ETagList etagList= (ETagList) etags;
+                for ( int i= 0; i < etagList.size(); i++ )
+                {
+                    int position= match( etagList.getValue( i ), etagList.getLength( i ), list, single );
+                    if ( position >= 0 ) return position;
+                }
+            }
+            else if ( etags instanceof Collection )
+            {
+                for ( Object etag : (Collection< ? >) etags )
+                {
+                    int position= match( etag, list, single );
+                    if ( position >= 0 ) return position;
+                }
+            }
+            else if ( etags != null )
+            {
+                int position= match( etags, list, single );
+                if ( position >= 0 ) return position;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Evaluate the If-Match and If-None-Match option properties.
+     * @param props the properties
+     * @param exists true when the resource exists
+     * @param list the current etags, or null when a single etag is given
+     * @param single the single current etag, or null
+     * @return PRECONDITION_FAILED or PROCEED code
+     */
+    private static int preconditions( Map< String, Object > props, boolean exists, ETagList list, ETag single )
+    {
+        Object ifMatch= props.get( PropertyNames.COAP_OPT_IFMATCH_LIST );
+        if ( ifMatch != null )
+        {
+            boolean present= false;
+            boolean matched= false;
+            if ( ifMatch instanceof ETagList )
+            {
+                ETagList etags= (ETagList) ifMatch;
+                present= !etags.isEmpty();
+                for ( int i= 0; !matched && i < etags.size(); i++ )
+                {
+                    matched= exists && match( etags.getValue( i ), etags.getLength( i ), list, single ) >= 0;
+                }
+            }
+            else if ( ifMatch instanceof Collection )
+            {
+                for ( Object etag : (Collection< ? >) ifMatch )
+                {
+                    if ( etag == null ) continue;
+                    present= true;
+                    if ( matchIfMatch( etag, exists, list, single ) )
+                    {
+                        matched= true;
+                        break;
+                    }
+                }
+            }
+            else
+            {
+                present= true;
+                matched= matchIfMatch( ifMatch, exists, list, single );
+            }
+            if ( present && !matched ) return CODE_PRECONDITION_FAILED;
+        }
+        if ( exists )
+        {
+            Object ifNoneMatch= props.get( PropertyNames.COAP_OPT_IFNONMATCH );
+            if ( ifNoneMatch != null && Options.toBoolean( ifNoneMatch ) ) return CODE_PRECONDITION_FAILED;
+        }
+        return CODE_PROCEED;
+    }
+
+    /**
+     * Check an If-Match value. An empty value matches any existing resource.
+     */
+    private static boolean matchIfMatch( Object etag, boolean exists, ETagList list, ETag single )
+    {
+        if ( !exists ) return false;
+        if ( etag instanceof ETag ) return match( etag, list, single ) >= 0;
+        byte[] bytes= Options.toBytes( etag );
+        return bytes.length == 0 || match( bytes, list, single ) >= 0;
+    }
+
+    /**
+     * Match an etag property value, given as etag, byte array or any other value that is converted into bytes.
+     */
+    private static int match( Object etag, ETagList list, ETag single )
+    {
+        if ( etag instanceof ETag )
+        {
+            ETag e= (ETag) etag;
+            return match( e.asLong(), e.length(), list, single );
+        }
+        if ( etag == null ) return -1;
+        byte[] bytes= Options.toBytes( etag );
+        if ( bytes.length < 1 || bytes.length > 8 ) return -1;
+        return match( ETag.pack( bytes, 0, bytes.length ), bytes.length, list, single );
+    }
+
+    /**
+     * Match a packed etag value against the current etags.
+     * @return the position of the matched etag, or -1 when not matched
+     */
+    private static int match( long value, int length, ETagList list, ETag single )
+    {
+        if ( list != null ) return list.indexOf( value, length );
+        return ( single != null && single.asLong() == value && single.length() == length ? 0 : -1 );
+    }
+}
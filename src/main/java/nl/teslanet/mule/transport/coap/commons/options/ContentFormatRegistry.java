@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * Registry of CoAP content-formats (RFC 7252 section 12.3), mapping content-format numbers to media types and back.
+ * Media types include their parameters, like charset.
+ * Both directions are looked up in constant time, and the registry provides the boxed number and interned
+ * media type string of each registered content-format, so converting does not need to allocate.
+ * Media type strings are matched ignoring case and whitespace around parameters, without using regular expressions.
+ * The registry contains the content-formats registered by IANA that are common on constrained devices,
+ * and can be extended with private content-formats, preferably at startup.
+ * The registry can be used concurrently.
+ */
+public final class ContentFormatRegistry
+{
+    /**
+     * Value returned when a media type is not registered.
+     */
+    public static final int UNDEFINED= -1;
+
+    /**
+     * Largest content-format number.
+     */
+    public static final int MAX_CONTENT_FORMAT= 65535;
+
+    /**
+     * The registered content-formats, replaced as a whole on registration.
+     */
+    private static volatile Tables tables= new Tables();
+
+    static
+    {
+        register( 0, "text/plain; charset=utf-8", "text/plain" );
+        register( 16, "application/cose; cose-type=\"cose-encrypt0\"" );
+        register( 17, "application/cose; cose-type=\"cose-mac0\"" );
+        register( 18, "application/cose; cose-type=\"cose-sign1\"" );
+        register( 40, "application/link-format" );
+        register( 41, "application/xml" );
+        register( 42, "application/octet-stream" );
+        register( 47, "application/exi" );
+        register( 50, "application/json" );
+        register( 51, "application/json-patch+json" );
+        register( 52, "application/merge-patch+json" );
+        register( 60, "application/cbor" );
+        register( 61, "application/cwt" );
+        register( 62, "application/multipart-core" );
+        register( 110, "application/senml+json" );
+        register( 111, "application/sensml+json" );
+        register( 112, "application/senml+cbor" );
+        register( 113, "application/sensml+cbor" );
+        register( 114, "application/senml-exi" );
+        register( 115, "application/sensml-exi" );
+        register( 310, "application/senml+xml" );
+        register( 311, "application/sensml+xml" );
+        register( 11542, "application/vnd.oma.lwm2m+tlv" );
+        register( 11543, "application/vnd.oma.lwm2m+json" );
+    }
+
+    /**
+     * A registered content-format.
+     */
+    private static final class Entry
+    {
+        final Integer number;
+
+        final String mediaType;
+
+        Entry( int number, String mediaType )
+        {
+            this.number= Integer.valueOf( number );
+            this.mediaType= mediaType.intern();
+        }
+    }
+
+    /**
+     * Immutable lookup tables.
+     */
+    private static final class Tables
+    {
+        /**
+         * Open addressing hash table of content-format numbers, -1 when empty.
+         */
+        final int[] numbers;
+
+        final Entry[] entries;
+
+        /**
+         * The number of entries.
+         */
+        int size= 0;
+
+        /**
+         * Entries by media type, both as registered and normalized.
+         */
+        final HashMap< String, Entry > mediaTypes;
+
+        Tables()
+        {
+            numbers= new int [64];
+            Arrays.fill( numbers, -1 );
+            entries= new Entry [64];
+            mediaTypes= new HashMap< String, Entry >();
+        }
+
+        /**
+         * Copy tables, with room for one more entry.
+         */
+        Tables( Tables other )
+        {
+            int capacity= other.numbers.length;
+            while ( capacity < ( other.size + 1 ) * 2 )
+            {
+                capacity<<= 1;
+            }
+            numbers= new int [capacity];
+            Arrays.fill( numbers, -1 );
+            entries= new Entry [capacity];
+            for ( int i= 0; i < other.numbers.length; i++ )
+            {
+                if ( other.numbers[i] >= 0 ) put( other.entries[i] );
+            }
+            mediaTypes= new HashMap< String, Entry >( other.mediaTypes );
+        }
+
+        void put( Entry entry )
+        {
+            int mask= numbers.length - 1;
+            int slot= slot( entry.number.intValue(), mask );
+            while ( numbers[slot] >= 0 && numbers[slot] != entry.number.intValue() )
+            {
+                slot= ( slot + 1 ) & mask;
+            }
+            if ( numbers[slot] < 0 ) size++;
+            numbers[slot]= entry.number.intValue();
+            entries[slot]= entry;
+        }
+
+        Entry get( int number )
+        {
+            int mask= numbers.length - 1;
+            int slot= slot( number, mask );
+            while ( numbers[slot] >= 0 )
+            {
+                if ( numbers[slot] == number ) return entries[slot];
+                slot= ( slot + 1 ) & mask;
+            }
+            return null;
+        }
+
+        private static int slot( int number, int mask )
+        {
+            return ( number * 0x9E3779B9 >>> 16 ) & mask;
+        }
+    }
+
+    /**
+     * Do not instantiate.
+     */
+    private ContentFormatRegistry()
+    {
+        super();
+    }
+
+    /**
+     * Register a content-format.
+     * Registering a content-format again with the same media type only adds the aliases.
+     * @param number the content-format number
+     * @param mediaType the media type including parameters, used when converting the number to a media type
+     * @param aliases other media types that are converted to the number
+     * @throws IllegalArgumentException when the number is out of range,
+     * or the number or a media type is registered for another content-format
+     */
+    public static synchronized void register( int number, String mediaType, String... aliases )
+    {
+        if ( number < 0 || number > MAX_CONTENT_FORMAT ) throw new IllegalArgumentException( "Content-Format number out of range { 0.." + MAX_CONTENT_FORMAT + " }: " + number );
+        if ( mediaType == null ) throw new IllegalArgumentException( "media type is null" );
+        Tables current= tables;
+        Entry entry= current.get( number );
+        if ( entry == null )
+        {
+            entry= new Entry( number, mediaType );
+        }
+        else if ( !normalize( entry.mediaType ).equals( normalize( mediaType ) ) )
+        {
+            throw new IllegalArgumentException( "Content-Format " + number + " is already registered as " + entry.mediaType );
+        }
+        checkMediaType( current, mediaType, number );
+        for ( String alias : aliases )
+        {
+            checkMediaType( current, alias, number );
+        }
+        Tables updated= new Tables( current );
+        updated.put( entry );
+        updated.mediaTypes.put( mediaType, entry );
+        updated.mediaTypes.put( normalize( mediaType ), entry );
+        for ( String alias : aliases )
+        {
+            updated.mediaTypes.put( alias, entry );
+            updated.mediaTypes.put( normalize( alias ), entry );
+        }
+        tables= updated;
+    }
+
+    private static void checkMediaType( Tables current, String mediaType, int number )
+    {
+        Entry existing= current.mediaTypes.get( normalize( mediaType ) );
+        if ( existing != null && existing.number.intValue() != number )
+        {
+            throw new IllegalArgumentException( "media type " + mediaType + " is already registered as Content-Format " + existing.number );
+        }
+    }
+
+    /**
+     * Get the media type of a content-format.
+     * @param number the content-format number
+     * @return the interned media type, or null when the content-format is not registered
+     */
+    public static String toMediaType( int number )
+    {
+        Entry entry= tables.get( number );
+        return ( entry == null ? null : entry.mediaType );
+    }
+
+    /**
+     * Get the content-format of a media type.
+     * @param mediaType the media type, optionally with parameters
+     * @return the content-format number, or {@link #UNDEFINED} when the media type is not registered
+     */
+    public static int toContentFormat( String mediaType )
+    {
+        Tables current= tables;
+        Entry entry= current.mediaTypes.get( mediaType );
+        if ( entry == null ) entry= current.mediaTypes.get( normalize( mediaType ) );
+        return ( entry == null ? UNDEFINED : entry.number.intValue() );
+    }
+
+    /**
+     * Get the boxed content-format number.
+     * Registered content-formats are returned without allocating.
+     * @param number the content-format number
+     * @return the boxed number
+     */
+    public static Integer toInteger( int number )
+    {
+        Entry entry= tables.get( number );
+        return ( entry == null ? Integer.valueOf( number ) : entry.number );
+    }
+
+    /**
+     * @param number the content-format number
+     * @return true when the content-format is registered
+     */
+    public static boolean isRegistered( int number )
+    {
+        return tables.get( number ) != null;
+    }
+
+    /**
+     * Convert a property value into a content-format number.
+     * The value can be an integer number, a string containing a number or a media type.
+     * @param value the property value
+     * @return the content-format number
+     * @throws IllegalArgumentException when the value is not an integer or a registered media type,
+     * or when a long value is out of range
+     */
+    public static int parse( Object value )
+    {
+        if ( value instanceof Integer || value instanceof Short || value instanceof Byte ) return ( (Number) value ).intValue();
+        if ( value instanceof Long )
+        {
+            long number= ( (Long) value ).longValue();
+            if ( number != UNDEFINED && ( number < 0 || number > MAX_CONTENT_FORMAT ) )
+            {
+                throw new IllegalArgumentException( "Content-Format option must be between 0 and " + MAX_CONTENT_FORMAT + " inclusive but was " + number );
+            }
+            return (int) number;
+        }
+        if ( value instanceof Number ) throw new IllegalArgumentException( "Content-Format option must be an integer but was " + value );
+        String s= value.toString().trim();
+        if ( !s.isEmpty() && ( Character.isDigit( s.charAt( 0 ) ) || s.charAt( 0 ) == '-' || s.charAt( 0 ) == '+' ) )
+        {
+            return Integer.parseInt( s );
+        }
+        int number= toContentFormat( s );
+        if ( number == UNDEFINED ) throw new IllegalArgumentException( "Unknown media type: " + s );
+        return number;
+    }
+
+    /**
+     * Normalize media type: whitespace outside quoted strings is removed,
+     * and characters outside quoted strings are converted to lower case.
+     * @param mediaType the media type
+     * @return the normalized media type
+     */
+    static String normalize( String mediaType )
+    {
+        int length= mediaType.length();
+        //fast path: already normalized
+        boolean normalized= true;
+        for ( int i= 0; i < length && normalized; i++ )
+        {
+            char c= mediaType.charAt( i );
+            normalized= !( Character.isWhitespace( c ) || Character.isUpperCase( c ) );
+        }
+        if ( normalized ) return mediaType;
+
+        StringBuilder builder= new StringBuilder( length );
+        boolean quoted= false;
+        for ( int i= 0; i < length; i++ )
+        {
+            char c= mediaType.charAt( i );
+            if ( c == '"' )
+            {
+                quoted= !quoted;
+                builder.append( c );
+            }
+            else if ( quoted )
+            {
+                builder.append( c );
+            }
+            else if ( !Character.isWhitespace( c ) )
+            {
+                builder.append( Character.toLowerCase( c ) );
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Reusable context for converting options of one message at a time.
+ * It holds an OptionSet, a property map, a block assembler and a scratch buffer that are reused
+ * for every conversion, so converting does not allocate these objects per message.
+ * Contexts are taken from a bounded per-thread pool with {@link #acquire()} and
+ * must be returned with {@link #close()}, preferably using try-with-resources.
+ * Objects returned by a context are owned by the context and are only valid until
+ * the next conversion or until the context is closed.
+ * A context is not thread-safe and should be used by one thread at a time.
+ *
+ * When leak detection is enabled, contexts that are garbage collected without being
+ * closed are logged, together with the stack trace of where they were acquired.
+ * Leak detection is meant for debugging and can be enabled using system property
+ * {@value #LEAK_DETECTION_PROPERTY} or {@link #setLeakDetection(boolean)}.
+ */
+public final class ConversionContext implements AutoCloseable
+{
+    /**
+     * Name of the system property that enables leak detection.
+     */
+    public static final String LEAK_DETECTION_PROPERTY= "nl.teslanet.mule.transport.coap.commons.leakDetection";
+
+    /**
+     * Maximum number of contexts pooled per thread.
+     */
+    public static final int MAX_POOLED_PER_THREAD= 4;
+
+    /**
+     * Initial capacity of the scratch buffer.
+     */
+    private static final int INITIAL_BUFFER_CAPACITY= 256;
+
+    /**
+     * Maximum capacity of the scratch buffer that is kept when a context is returned to the pool.
+     */
+    private static final int MAX_POOLED_BUFFER_CAPACITY= 64 * 1024;
+
+    private static final Logger logger= LoggerFactory.getLogger( ConversionContext.class );
+
+    /**
+     * The per-thread pools.
+     */
+    private static final ThreadLocal< ArrayDeque< ConversionContext > > pools= new ThreadLocal< ArrayDeque< ConversionContext > >()
+        {
+            @Override
+            protected ArrayDeque< ConversionContext > initialValue()
+            {
+                return new ArrayDeque< ConversionContext >( MAX_POOLED_PER_THREAD );
+            }
+        };
+
+    /**
+     * Leak detection flag.
+     */
+    private static volatile boolean leakDetection= Boolean.getBoolean( LEAK_DETECTION_PROPERTY );
+
+    /**
+     * Queue that receives trackers of contexts that were garbage collected without being closed.
+     */
+    private static final ReferenceQueue< ConversionContext > leakQueue= new ReferenceQueue< ConversionContext >();
+
+    /**
+     * Trackers of acquired contexts, keeps the trackers reachable.
+     */
+    private static final Set< LeakTracker > trackers= Collections.newSetFromMap( new ConcurrentHashMap< LeakTracker, Boolean >() );
+
+    /**
+     * The number of leaks detected.
+     */
+    private static final AtomicLong leakCount= new AtomicLong();
+
+    /**
+     * The reusable OptionSet.
+     */
+    private final OptionSet optionSet= new OptionSet();
+
+    /**
+     * Options wrapping the reusable OptionSet.
+     */
+    private final Options options= new Options( optionSet );
+
+    /**
+     * The reusable property map.
+     */
+    private final HashMap< String, Object > properties= new HashMap< String, Object >();
+
+    /**
+     * The reusable assembler of block option properties.
+     */
+    private final BlockAssembler blocks= new BlockAssembler();
+
+    /**
+     * The reusable scratch buffer.
+     */
+    private ByteBuffer buffer= ByteBuffer.allocate( INITIAL_BUFFER_CAPACITY );
+
+    /**
+     * True while the context is acquired.
+     */
+    private boolean acquired= false;
+
+    /**
+     * Leak tracker when leak detection is enabled, otherwise null.
+     */
+    private LeakTracker tracker= null;
+
+    /**
+     * Contexts are only created by the pool.
+     */
+    private ConversionContext()
+    {
+        super();
+    }
+
+    /**
+     * Acquire a context from the pool of the current thread.
+     * A new context is created when the pool is empty.
+     * @return the context
+     */
+    public static ConversionContext acquire()
+    {
+        if ( leakDetection ) reportLeaks();
+        ConversionContext context= pools.get().pollFirst();
+        if ( context == null )
+        {
+            context= new ConversionContext();
+        }
+        context.acquired= true;
+        if ( leakDetection )
+        {
+            context.tracker= new LeakTracker( context );
+            trackers.add( context.tracker );
+        }
+        return context;
+    }
+
+    /**
+     * Return the context to the pool of the current thread.
+     * The context is discarded when the pool is full.
+     * Closing a context that is already closed has no effect.
+     */
+    @Override
+    public void close()
+    {
+        if ( !acquired ) return;
+        acquired= false;
+        if ( tracker != null )
+        {
+            trackers.remove( tracker );
+            tracker.clear();
+            tracker= null;
+        }
+        optionSet.clear();
+        properties.clear();
+        buffer.clear();
+        if ( buffer.capacity() > MAX_POOLED_BUFFER_CAPACITY )
+        {
+            buffer= ByteBuffer.allocate( INITIAL_BUFFER_CAPACITY );
+        }
+        ArrayDeque< ConversionContext > pool= pools.get();
+        if ( pool.size() < MAX_POOLED_PER_THREAD )
+        {
+            pool.offerFirst( this );
+        }
+    }
+
+    private void checkAcquired()
+    {
+        if ( !acquired ) throw new IllegalStateException( "ConversionContext is used after it has been closed" );
+    }
+
+    /**
+     * Get the reusable OptionSet filled with the option properties contained in given property map.
+     * @param props map containing the properties
+     * @return the OptionSet, valid until the next conversion or until the context is closed
+     */
+    public OptionSet toOptionSet( Map< String, Object > props )
+    {
+        checkAcquired();
+        Options.fillOptionSet( optionSet, props, true, blocks );
+        return optionSet;
+    }
+
+    /**
+     * Get reusable Options filled with the option properties contained in given property map.
+     * @param props map containing the properties
+     * @return the Options, valid until the next conversion or until the context is closed
+     */
+    public Options toOptions( Map< String, Object > props )
+    {
+        toOptionSet( props );
+        return options;
+    }
+
+    /**
+     * Get the reusable property map filled with the properties of given OptionSet.
+     * Processing options stops when an exception occurs.
+     * @param optionSet source of the properties
+     * @return the property map, valid until the next conversion or until the context is closed
+     * @throws InvalidOptionValueException when option value could not be converted into a property
+     */
+    public Map< String, Object > toPropertyMap( OptionSet optionSet ) throws InvalidOptionValueException
+    {
+        checkAcquired();
+        properties.clear();
+        Options.fillPropertyMap( optionSet, properties );
+        return properties;
+    }
+
+    /**
+     * Get the reusable property map filled with the properties of given OptionSet.
+     * Processing options continues when an exception occurs, after logging an error message.
+     * @param optionSet source of the properties
+     * @param logger uses for logging errors
+     * @param errorMsg message to log on errors
+     * @return the property map, valid until the next conversion or until the context is closed
+     */
+    public Map< String, Object > toPropertyMap( OptionSet optionSet, Logger logger, String errorMsg )
+    {
+        checkAcquired();
+        properties.clear();
+        Options.fillPropertyMap( optionSet, properties, logger, errorMsg );
+        return properties;
+    }
+
+    /**
+     * Encode the option properties contained in given property map into the scratch buffer.
+     * @param props map containing the properties
+     * @return the scratch buffer, positioned at the encoded options and valid until the next conversion or until the context is closed
+     * @see OptionsCodec#encode(Map, ByteBuffer)
+     */
+    public ByteBuffer encode( Map< String, Object > props )
+    {
+        checkAcquired();
+        buffer.clear();
+        try
+        {
+            OptionsCodec.encode( props, buffer );
+        }
+        catch ( BufferOverflowException e )
+        {
+            buffer= ByteBuffer.allocate( Math.max( buffer.capacity() * 2, OptionsCodec.encodedLength( props ) ) );
+            OptionsCodec.encode( props, buffer );
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the reusable property map filled with the properties decoded from options in CoAP option format.
+     * @param encoded the buffer containing the encoded options
+     * @return the property map, valid until the next conversion or until the context is closed
+     * @throws InvalidOptionValueException when the options are malformed or an option value could not be converted into a property
+     * @see OptionsCodec#decode(ByteBuffer, Map)
+     */
+    public Map< String, Object > decode( ByteBuffer encoded ) throws InvalidOptionValueException
+    {
+        checkAcquired();
+        properties.clear();
+        OptionsCodec.decode( encoded, properties );
+        return properties;
+    }
+
+    /**
+     * Enable or disable leak detection.
+     * @param enabled true to enable leak detection
+     */
+    public static void setLeakDetection( boolean enabled )
+    {
+        leakDetection= enabled;
+    }
+
+    /**
+     * @return true when leak detection is enabled
+     */
+    public static boolean isLeakDetection()
+    {
+        return leakDetection;
+    }
+
+    /**
+     * Get the number of leaked contexts detected so far.
+     * Leaks are detected when contexts are acquired with leak detection enabled.
+     * @return the number of leaks
+     */
+    public static long getLeakCount()
+    {
+        return leakCount.get();
+    }
+
+    /**
+     * Log contexts that have been garbage collected without being closed.
+     */
+    private static void reportLeaks()
+    {
+        LeakTracker leaked;
+        while ( ( leaked= (LeakTracker) leakQueue.poll() ) != null )
+        {
+            if ( trackers.remove( leaked ) )
+            {
+                leakCount.incrementAndGet();
+                logger.error( "ConversionContext was garbage collected without being closed, acquired at:", leaked.acquisition );
+            }
+        }
+    }
+
+    /**
+     * Tracks an acquired context, recording where it was acquired.
+     */
+    private static final class LeakTracker extends WeakReference< ConversionContext >
+    {
+        /**
+         * Stack trace of the acquisition.
+         */
+        private final Throwable acquisition;
+
+        LeakTracker( ConversionContext context )
+        {
+            super( context, leakQueue );
+            acquisition= new Throwable( "ConversionContext acquisition" );
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.List;
+
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+
+import nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics;
+import nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics.Direction;
+
+
+/**
+ * Records the options that take part in a conversion into the conversion metrics.
+ * Options are recorded as they are converted, reading the values from the OptionSet
+ * without allocating, so options that were already present in the set are not counted.
+ */
+final class ConversionRecorder
+{
+    /**
+     * Get the number of values of the option of a property that are present in the set.
+     * Handlers of list properties add values to the option, the values after this position are the converted values.
+     * Handlers of other properties replace the option value.
+     * @param optionSet the set the property is converted into
+     * @param property the option property
+     * @return the position of the first value the property adds
+     */
+    static int count( OptionSet optionSet, OptionProperty property )
+    {
+        switch ( property )
+        {
+            case IFMATCH_LIST:
+                return optionSet.getIfMatchCount();
+            case ETAG_LIST:
+                return optionSet.getETagCount();
+            case LOCATIONPATH_LIST:
+                return optionSet.getLocationPathCount();
+            case URIPATH_LIST:
+                return optionSet.getURIPathCount();
+            case URIQUERY_LIST:
+                return optionSet.getURIQueryCount();
+            case LOCATIONQUERY_LIST:
+                return optionSet.getLocationQueryCount();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Record the values of a known option that are present in the set.
+     * @param metrics the metrics to record in
+     * @param direction the direction of the conversion
+     * @param optionSet the set containing the option
+     * @param number the option number
+     * @param from the position of the first value to record
+     */
+    static void record( ConversionMetrics metrics, Direction direction, OptionSet optionSet, int number, int from )
+    {
+        switch ( number )
+        {
+            case OptionNumberRegistry.IF_MATCH:
+                if ( optionSet.getIfMatchCount() > from ) recordBytes( metrics, direction, number, optionSet.getIfMatch(), from );
+                break;
+            case OptionNumberRegistry.URI_HOST:
+                if ( optionSet.hasUriHost() ) recordString( metrics, direction, number, optionSet.getUriHost() );
+                break;
+            case OptionNumberRegistry.ETAG:
+                if ( optionSet.getETagCount() > from ) recordBytes( metrics, direction, number, optionSet.getETags(), from );
+                break;
+            case OptionNumberRegistry.IF_NONE_MATCH:
+                if ( optionSet.hasIfNoneMatch() ) metrics.recordOption( direction, number, 0 );
+                break;
+            case OptionNumberRegistry.URI_PORT:
+                if ( optionSet.hasUriPort() ) recordUint( metrics, direction, number, optionSet.getUriPort().intValue() & 0xFFFFFFFFL );
+                break;
+            case OptionNumberRegistry.LOCATION_PATH:
+                if ( optionSet.getLocationPathCount() > from ) recordStrings( metrics, direction, number, optionSet.getLocationPath(), from );
+                break;
+            case OptionNumberRegistry.URI_PATH:
+                if ( optionSet.getURIPathCount() > from ) recordStrings( metrics, direction, number, optionSet.getUriPath(), from );
+                break;
+            case OptionNumberRegistry.CONTENT_FORMAT:
+                if ( optionSet.hasContentFormat() ) recordUint( metrics, direction, number, optionSet.getContentFormat() & 0xFFFFFFFFL );
+                break;
+            case OptionNumberRegistry.MAX_AGE:
+                if ( optionSet.hasMaxAge() ) recordUint( metrics, direction, number, optionSet.getMaxAge().longValue() );
+                break;
+            case OptionNumberRegistry.URI_QUERY:
+                if ( optionSet.getURIQueryCount() > from ) recordStrings( metrics, direction, number, optionSet.getUriQuery(), from );
+                break;
+            case OptionNumberRegistry.ACCEPT:
+                if ( optionSet.hasAccept() ) recordUint( metrics, direction, number, optionSet.getAccept() & 0xFFFFFFFFL );
+                break;
+            case OptionNumberRegistry.LOCATION_QUERY:
+                if ( optionSet.getLocationQueryCount() > from ) recordStrings( metrics, direction, number, optionSet.getLocationQuery(), from );
+                break;
+            case OptionNumberRegistry.PROXY_URI:
+                if ( optionSet.hasProxyUri() ) recordString( metrics, direction, number, optionSet.getProxyUri() );
+                break;
+            case OptionNumberRegistry.PROXY_SCHEME:
+                if ( optionSet.hasProxyScheme() ) recordString( metrics, direction, number, optionSet.getProxyScheme() );
+                break;
+            case OptionNumberRegistry.BLOCK1:
+                if ( optionSet.hasBlock1() ) recordBlock( metrics, direction, number, optionSet.getBlock1() );
+                break;
+            case OptionNumberRegistry.BLOCK2:
+                if ( optionSet.hasBlock2() ) recordBlock( metrics, direction, number, optionSet.getBlock2() );
+                break;
+            case OptionNumberRegistry.SIZE1:
+                if ( optionSet.hasSize1() ) recordUint( metrics, direction, number, optionSet.getSize1().intValue() & 0xFFFFFFFFL );
+                break;
+            case OptionNumberRegistry.SIZE2:
+                if ( optionSet.hasSize2() ) recordUint( metrics, direction, number, optionSet.getSize2().intValue() & 0xFFFFFFFFL );
+                break;
+            case OptionNumberRegistry.OBSERVE:
+                if ( optionSet.hasObserve() ) recordUint( metrics, direction, number, optionSet.getObserve().intValue() & 0xFFFFFFFFL );
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void recordBytes( ConversionMetrics metrics, Direction direction, int number, List< byte[] > values, int from )
+    {
+        int i= 0;
+        for ( byte[] value : values )
+        {
+            if ( i++ >= from ) metrics.recordOption( direction, number, value.length );
+        }
+    }
+
+    private static void recordStrings( ConversionMetrics metrics, Direction direction, int number, List< String > values, int from )
+    {
+        int i= 0;
+        for ( String value : values )
+        {
+            if ( i++ >= from ) recordString( metrics, direction, number, value );
+        }
+    }
+
+    private static void recordString( ConversionMetrics metrics, Direction direction, int number, String value )
+    {
+        metrics.recordOption( direction, number, OptionsCodec.utf8Length( value, 0, value.length() ) );
+    }
+
+    private static void recordUint( ConversionMetrics metrics, Direction direction, int number, long value )
+    {
+        metrics.recordOption( direction, number, OptionsCodec.uintLength( value ) );
+    }
+
+    /**
+     * Record a block option, that Californium encodes in at least one byte.
+     */
+    private static void recordBlock( ConversionMetrics metrics, Direction direction, int number, BlockOption block )
+    {
+        long value= ( (long) block.getNum() << 4 ) | ( block.isM() ? 0x08 : 0 ) | block.getSzx();
+        metrics.recordOption( direction, number, Math.max( 1, OptionsCodec.uintLength( value ) ) );
+    }
+
+    private ConversionRecorder()
+    {
+        //static only
+    }
+}
@@ -15,34 +15,52 @@
 package nl.teslanet.mule.transport.coap.commons.options;
 
 
-import java.util.Arrays;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
 
-//TODO constructor for long for convenience:
-//Long millis= ...;
-//ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-//buffer.putLong( millis );
-//etags.put( key, new ETag( buffer.array()));
-
 /**
  * Implementation of the Etag concept for convenience.
  * It eases the handling of Etag values in Mule flows. 
- * Etags can be constructed from byte array as well as from strings that 
+ * Etags can be constructed from byte array and long values as well as from strings that 
  * contain a hexadecimal representation. 
  * An etag object is immutable and comparable to other etags.
+ * The etag value is held as a primitive long, so comparing and hashing etags does not 
+ * involve arrays.
  */
 
 public final class ETag implements Comparable< ETag >
 {
     /**
-     * The etag value
+     * Maximum length of an etag in bytes.
+     */
+    private static final int MAX_LENGTH= 8;
+
+    /**
+     * Mask that flips the sign bit of every byte except the most significant one.
+     * Applied on two values of the same length, a signed comparison of the masked values 
+     * gives the same result as comparing the bytes of the values one by one, as signed bytes.
+     */
+    private static final long BYTEWISE_ORDER_MASK= 0x0080808080808080L;
+
+    /**
+     * The etag value, packed big-endian into the lower bytes.
+     */
+    private final long value;
+
+    /**
+     * The length of the etag value in bytes.
      */
-    private final byte[] value;
+    private final int length;
 
-    private int hashCode= 0;
+    /**
+     * The hexadecimal representation, created when first needed.
+     */
+    private String hexRepresentation= null;
 
     /**
      * Constructs an etag from a byte array value.
@@ -50,17 +68,37 @@ public final class ETag implements Comparable< ETag >
      * @throws InvalidETagException when given etag has not a length of 1..8 bytes
      */
     public ETag( byte[] etag ) throws InvalidETagException
+    {
+        checkLength( etag );
+        this.value= pack( etag, 0, etag.length );
+        this.length= etag.length;
+    }
+
+    /**
+     * Checks an etag value on validity.
+     * @param etag byte array containing the etag value
+     * @throws InvalidETagException when given etag is null or has not a length of 1..8 bytes
+     */
+    static void checkLength( byte[] etag ) throws InvalidETagException
     {
         if ( etag == null )
         {
             throw new InvalidETagException( "ETag value null is not allowed" );
         }
-        if ( etag.length < 1 || etag.length > 8 )
+        checkLength( etag.length );
+    }
+
+    /**
+     * Checks an etag length on validity.
+     * @param length the etag length
+     * @throws InvalidETagException when given length is not within 1..8 bytes
+     */
+    private static void checkLength( int length ) throws InvalidETagException
+    {
+        if ( length < 1 || length > MAX_LENGTH )
         {
-            throw new InvalidETagException( "ETag length invalid, must be between 1..8 bytes. Given length is: " + etag.length );
+            throw new InvalidETagException( "ETag length invalid, must be between 1..8 bytes. Given length is: " + length );
         }
-        this.value= etag.clone();
-
     }
 
     /**
@@ -77,23 +115,75 @@ public final class ETag implements Comparable< ETag >
         {
             throw new InvalidETagException( "Given hexString is null." );
         }
-        int length= hexString.length() / 2;
+        this.length= checkHexLength( hexString.length() );
+        this.value= HexCodec.decode( hexString, 0, hexString.length() );
+    }
+
+    /**
+     * Checks the number of characters of a hexadecimal etag representation.
+     * @param characters the number of characters
+     * @return the etag length in bytes
+     * @throws InvalidETagException when the number of characters does not represent a etag length of 1..8 bytes
+     */
+    private static int checkHexLength( int characters ) throws InvalidETagException
+    {
+        int length= characters / 2;
         //check even number of characters
-        if ( length * 2 != hexString.length() )
+        if ( length * 2 != characters )
+        {
+            throw new InvalidETagException( "Given hexString must have even number of characters. The number found: " + characters );
+        }
+        checkLength( length );
+        return length;
+    }
+
+    /**
+     * Constructs an etag from a packed value, that has been validated.
+     * @param value the etag value
+     * @param length the etag length
+     */
+    ETag( long value, int length )
+    {
+        this.value= value;
+        this.length= length;
+    }
+
+    /**
+     * Pack bytes big-endian into a long.
+     * @param bytes the array containing the bytes
+     * @param offset the position of the first byte
+     * @param length the number of bytes, at most 8 
+     * @return the packed value
+     */
+    static long pack( byte[] bytes, int offset, int length )
+    {
+        long packed= 0L;
+        for ( int i= offset; i < offset + length; i++ )
         {
-            throw new InvalidETagException( "Given hexString must have even number of characters. The number found: " + hexString.length() );
+            packed= ( packed << 8 ) | ( bytes[i] & 0xFF );
         }
-        if ( length < 1 || length > 8 )
+        return packed;
+    }
+
+    /**
+     * Pack bytes of a buffer big-endian into a long, without changing the buffer position.
+     * @param buffer the buffer containing the bytes
+     * @param index the absolute position of the first byte
+     * @param length the number of bytes, at most 8 
+     * @return the packed value
+     */
+    static long pack( ByteBuffer buffer, int index, int length )
+    {
+        if ( length == MAX_LENGTH && buffer.order() == ByteOrder.BIG_ENDIAN )
         {
-            throw new InvalidETagException( "ETag length invalid, must be between 1..8 bytes. Given length is: " + length );
+            return buffer.getLong( index );
         }
-        value= new byte [length];
-        for ( int i= 0; i < value.length; i++ )
+        long packed= 0L;
+        for ( int i= index; i < index + length; i++ )
         {
-            int index= i * 2;
-            int v= Integer.parseInt( hexString.substring( index, index + 2 ).toLowerCase(), 16 );
-            value[i]= (byte) v;
+            packed= ( packed << 8 ) | ( buffer.get( i ) & 0xFF );
         }
+        return packed;
     }
 
     /**
@@ -102,9 +192,68 @@ public final class ETag implements Comparable< ETag >
      */
     public byte[] asBytes()
     {
-        return value.clone();
+        byte[] bytes= new byte [length];
+        writeTo( bytes, 0 );
+        return bytes;
+    }
+
+    /**
+     * Gets the etag value as long. 
+     * The etag bytes are the lower bytes of the long, in big-endian order.
+     * @return the etag value
+     */
+    public long asLong()
+    {
+        return value;
+    }
+
+    /**
+     * Gets the length of the etag value.
+     * @return the number of bytes of the etag value
+     */
+    public int length()
+    {
+        return length;
     }
 
+    /**
+     * Writes the etag value into a byte array.
+     * @param bytes the array to write into
+     * @param offset the position to write the first byte of the value at
+     * @return the number of bytes written
+     * @throws IndexOutOfBoundsException when the value does not fit in the array
+     */
+    public int writeTo( byte[] bytes, int offset )
+    {
+        if ( offset < 0 || offset + length > bytes.length )
+        {
+            throw new IndexOutOfBoundsException( "ETag of " + length + " bytes does not fit at offset " + offset );
+        }
+        for ( int i= length - 1, shift= 0; i >= 0; i--, shift+= 8 )
+        {
+            bytes[offset + i]= (byte) ( value >>> shift );
+        }
+        return length;
+    }
+
+    /**
+     * Writes the etag value at the current position of a buffer, advancing its position.
+     * @param buffer the buffer to write into
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException when there is not enough room in the buffer
+     */
+    public int writeTo( ByteBuffer buffer )
+    {
+        if ( buffer.remaining() < length )
+        {
+            throw new BufferOverflowException();
+        }
+        for ( int shift= ( length - 1 ) * 8; shift >= 0; shift-= 8 )
+        {
+            buffer.put( (byte) ( value >>> shift ) );
+        }
+        return length;
+    }
 
     /**
      * Gets the etag value as string containing the hexadecimal representation.
@@ -114,7 +263,16 @@ public final class ETag implements Comparable< ETag >
     @Override
     public String toString()
     {
-        return toHexString( value );
+        //racy single-check is safe, as strings are immutable
+        String result= hexRepresentation;
+        if ( result == null )
+        {
+            char[] chars= new char [length * 2];
+            HexCodec.encode( value, length, chars, 0 );
+            result= new String( chars );
+            hexRepresentation= result;
+        }
+        return result;
     }
 
     /**
@@ -128,6 +286,133 @@ public final class ETag implements Comparable< ETag >
         return new ETag( etag );
     }
 
+    /**
+     * Static function that creates etag from a long value.
+     * The etag bytes are taken from the lower bytes of the long, in big-endian order.
+     * @param value the etag value
+     * @param length the etag length in bytes
+     * @return The etag object created.
+     * @throws InvalidETagException when given length is not within 1..8 bytes or the value does not fit into it
+     */
+    static public ETag create( long value, int length ) throws InvalidETagException
+    {
+        checkLength( length );
+        if ( length < MAX_LENGTH && ( value >>> ( length * 8 ) ) != 0L )
+        {
+            throw new InvalidETagException( "ETag value does not fit into given length of " + length + " bytes." );
+        }
+        return new ETag( value, length );
+    }
+
+    /**
+     * Static function that creates etag of 8 bytes from a long value, in big-endian order.
+     * @param value the etag value
+     * @return The etag object created.
+     */
+    static public ETag fromLong( long value )
+    {
+        return new ETag( value, MAX_LENGTH );
+    }
+
+    /**
+     * Static function that creates etag from a long value, using the minimal number of bytes 
+     * needed to represent the value as unsigned number. Zero is represented by one byte.
+     * @param value the etag value
+     * @return The etag object created.
+     */
+    static public ETag fromLongMinimal( long value )
+    {
+        return new ETag( value, minimalLength( value ) );
+    }
+
+    /**
+     * Calculate the minimal number of bytes to represent a value as unsigned number.
+     * @param value the value
+     * @return the number of bytes, 1..8
+     */
+    static int minimalLength( long value )
+    {
+        return Math.max( 1, ( Long.SIZE - Long.numberOfLeadingZeros( value ) + 7 ) / 8 );
+    }
+
+    /**
+     * Static function that creates etag from the remaining bytes of a buffer.
+     * The buffer position is advanced to its limit.
+     * @param buffer The buffer containing the etag value.
+     * @return The etag object created.
+     * @throws InvalidETagException when the remaining bytes are not 1..8
+     */
+    static public ETag create( ByteBuffer buffer ) throws InvalidETagException
+    {
+        return create( buffer, buffer.remaining() );
+    }
+
+    /**
+     * Static function that creates etag from bytes at the current position of a buffer.
+     * The buffer position is advanced by the length of the etag. 
+     * No intermediate arrays are created.
+     * @param buffer The buffer containing the etag value.
+     * @param length The length of the etag value.
+     * @return The etag object created.
+     * @throws InvalidETagException when given length is not within 1..8 bytes or exceeds the remaining bytes
+     */
+    static public ETag create( ByteBuffer buffer, int length ) throws InvalidETagException
+    {
+        checkLength( length );
+        int position= buffer.position();
+        if ( length > buffer.limit() - position )
+        {
+            throw new InvalidETagException( "ETag length of " + length + " bytes exceeds the remaining " + buffer.remaining() + " bytes." );
+        }
+        long packed= pack( buffer, position, length );
+        buffer.position( position + length );
+        return new ETag( packed, length );
+    }
+
+    /**
+     * Static function that creates etag from a slice of a byte array.
+     * No intermediate arrays are created.
+     * @param bytes The array containing the etag value.
+     * @param offset The position of the first byte of the etag value.
+     * @param length The length of the etag value.
+     * @return The etag object created.
+     * @throws InvalidETagException when given length is not within 1..8 bytes
+     * @throws IndexOutOfBoundsException when the slice is outside the array
+     */
+    static public ETag create( byte[] bytes, int offset, int length ) throws InvalidETagException
+    {
+        checkLength( length );
+        if ( offset < 0 || offset > bytes.length - length )
+        {
+            throw new IndexOutOfBoundsException( "Slice " + offset + ".." + ( offset + length ) + " is outside array with length " + bytes.length );
+        }
+        return new ETag( pack( bytes, offset, length ), length );
+    }
+
+    /**
+     * Static function that creates etag from a part of a character sequence, that contains
+     * the hexadecimal representation of the etag value. No intermediate strings are created.
+     * @param chars the character sequence containing the hexadecimal representation
+     * @param start the position of the first character
+     * @param end the position after the last character
+     * @return The etag object created.
+     * @throws InvalidETagException when given characters do not represent a etag length of 1..8 bytes
+     * @throws IndexOutOfBoundsException when start or end are outside the character sequence
+     */
+    static public ETag parseHex( CharSequence chars, int start, int end ) throws InvalidETagException
+    {
+        if ( chars == null )
+        {
+            throw new InvalidETagException( "Given character sequence is null." );
+        }
+        if ( start < 0 || end > chars.length() || start > end )
+        {
+            throw new IndexOutOfBoundsException( "Invalid range " + start + ".." + end + " of character sequence with length " + chars.length() );
+        }
+        int length= checkHexLength( end - start );
+        return new ETag( HexCodec.decode( chars, start, end ), length );
+    }
+
     /**
      * Static function that creates etag from hexadecimal string.
      * @param hexString the hexadecimal string to create etag from.
@@ -141,6 +426,7 @@ public final class ETag implements Comparable< ETag >
 
     /**
      * Convenience method to create a list of etags form a list of byte arrays.
+     * The list returned is modifiable. Use {@link ETagList#create(List)} for an immutable list with constant time membership tests.
      * @param etags The List of Byte array to make a list of etags from.
      * @return The list of etags. 
      * @throws InvalidETagException when a given etag has not a length of 1..8 bytes
@@ -162,6 +448,10 @@ public final class ETag implements Comparable< ETag >
      */
     public boolean isIn( Collection< ETag > etags )
     {
+        if ( etags instanceof ETagList )
+        {
+            return ( (ETagList) etags ).contains( value, length );
+        }
         for ( ETag e : etags )
         {
             if ( this.equals( e ) ) return true;
@@ -171,7 +461,7 @@ public final class ETag implements Comparable< ETag >
 
     /**
      * Check etag on equality to another etag. 
-     * Etags are equal when there byte arrays contain the same sequence of bytes. 
+     * Etags are equal when their values contain the same sequence of bytes. 
      * @param o The etag object to test for equality
      * @return True 
      */
@@ -180,8 +470,7 @@ public final class ETag implements Comparable< ETag >
     {
         ETag other= (ETag) o;
         if ( null == other ) return false;
-        if ( this == other ) return true;
-        return Arrays.equals( this.value, other.value );
+        return this.value == other.value && this.length == other.length;
     }
 
     /* (non-Javadoc)
@@ -191,25 +480,15 @@ public final class ETag implements Comparable< ETag >
     public int compareTo( ETag other )
     {
         if ( null == other ) return 1;
-        if ( this == other ) return 0;
-        if ( this.value.length < other.value.length ) return -1;
-        if ( this.value.length > other.value.length ) return 1;
-        for ( int i= 0; i < this.value.length && i < other.value.length; i++ )
-        {
-            if ( this.value[i] < other.value[i] ) return -1;
-            if ( this.value[i] > other.value[i] ) return 1;
-        }
-        return 0;
+        if ( this.length < other.length ) return -1;
+        if ( this.length > other.length ) return 1;
+        return Long.compare( this.value ^ BYTEWISE_ORDER_MASK, other.value ^ BYTEWISE_ORDER_MASK );
     }
 
     @Override
     public int hashCode()
     {
-        if ( this.hashCode == 0 )
-        {
-            this.hashCode= Arrays.hashCode( this.value );
-        }
-        return this.hashCode;
+        return 31 * (int) ( value ^ ( value >>> 32 ) ) + length;
     }
     
     /**
@@ -220,19 +499,13 @@ public final class ETag implements Comparable< ETag >
      */
     public static String toHexString( byte[] bytes )
     {
-        StringBuilder sb= new StringBuilder();
         if ( bytes == null )
         {
-            //sb.append( "null" );
-        }
-        else
-        {
-            for ( byte b : bytes )
-            {
-                sb.append( String.format( "%02x", b & 0xFF ) );
-            }
+            return "";
         }
-        return sb.toString();
+        char[] chars= new char [bytes.length * 2];
+        HexCodec.encode( bytes, chars, 0 );
+        return new String( chars );
     }
 
 }
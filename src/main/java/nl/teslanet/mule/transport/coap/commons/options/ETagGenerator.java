@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Generates etags from content, using the 64-bit xxHash (XXH64) algorithm.
+ * The hash is not cryptographic, but fast and well distributed, which suits
+ * etags that only have to change when the content changes.
+ * Content can be hashed at once using the static generate methods, or incrementally
+ * by updating a generator with chunks of content, for instance with blocks
+ * of a block-wise transfer as they arrive. The resulting etag is the same
+ * regardless of how the content is chunked.
+ * A generator is not thread-safe.
+ */
+public final class ETagGenerator
+{
+    private static final long PRIME1= 0x9E3779B185EBCA87L;
+
+    private static final long PRIME2= 0xC2B2AE3D27D4EB4FL;
+
+    private static final long PRIME3= 0x165667B19E3779F9L;
+
+    private static final long PRIME4= 0x85EBCA77C2B2AE63L;
+
+    private static final long PRIME5= 0x27D4EB2F165667C5L;
+
+    /**
+     * Number of bytes processed per stripe.
+     */
+    private static final int STRIPE_LENGTH= 32;
+
+    /**
+     * Size of the buffer used to read streams.
+     */
+    private static final int READ_BUFFER_SIZE= 8192;
+
+    /**
+     * The seed of the hash.
+     */
+    private final long seed;
+
+    private long v1;
+
+    private long v2;
+
+    private long v3;
+
+    private long v4;
+
+    /**
+     * Total number of bytes hashed.
+     */
+    private long totalLength;
+
+    /**
+     * Bytes of an incomplete stripe.
+     */
+    private final byte[] stripe= new byte [STRIPE_LENGTH];
+
+    /**
+     * Little-endian view on the incomplete stripe.
+     */
+    private final ByteBuffer stripeLanes= ByteBuffer.wrap( stripe ).order( ByteOrder.LITTLE_ENDIAN );
+
+    /**
+     * Number of bytes in the incomplete stripe.
+     */
+    private int stripeLength;
+
+    /**
+     * Buffer used to read streams, created when needed.
+     */
+    private byte[] readBuffer= null;
+
+    /**
+     * Constructs generator using seed 0.
+     */
+    public ETagGenerator()
+    {
+        this( 0L );
+    }
+
+    /**
+     * Constructs generator.
+     * @param seed the seed of the hash
+     */
+    public ETagGenerator( long seed )
+    {
+        this.seed= seed;
+        reset();
+    }
+
+    /**
+     * Reset the generator, so new content can be hashed.
+     * @return this generator
+     */
+    public ETagGenerator reset()
+    {
+        v1= seed + PRIME1 + PRIME2;
+        v2= seed + PRIME2;
+        v3= seed;
+        v4= seed - PRIME1;
+        totalLength= 0L;
+        stripeLength= 0;
+        return this;
+    }
+
+    /**
+     * Hash a chunk of content.
+     * @param bytes the content
+     * @return this generator
+     */
+    public ETagGenerator update( byte[] bytes )
+    {
+        return update( bytes, 0, bytes.length );
+    }
+
+    /**
+     * Hash a chunk of content.
+     * @param bytes the array containing the content
+     * @param offset the position of the first byte
+     * @param length the number of bytes
+     * @return this generator
+     */
+    public ETagGenerator update( byte[] bytes, int offset, int length )
+    {
+        if ( offset < 0 || length < 0 || offset > bytes.length - length ) throw new IndexOutOfBoundsException();
+        update( ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN ), offset, length );
+        return this;
+    }
+
+    /**
+     * Hash bytes of a little-endian buffer, without changing the buffer position.
+     * @param lanes the buffer containing the content
+     * @param offset the absolute position of the first byte
+     * @param length the number of bytes
+     */
+    private void update( ByteBuffer lanes, int offset, int length )
+    {
+        totalLength+= length;
+        int end= offset + length;
+        if ( stripeLength > 0 )
+        {
+            int n= Math.min( STRIPE_LENGTH - stripeLength, length );
+            for ( int i= 0; i < n; i++ )
+            {
+                stripe[stripeLength + i]= lanes.get( offset + i );
+            }
+            stripeLength+= n;
+            offset+= n;
+            if ( stripeLength < STRIPE_LENGTH ) return;
+            processStripe( stripeLanes, 0 );
+            stripeLength= 0;
+        }
+        while ( offset <= end - STRIPE_LENGTH )
+        {
+            processStripe( lanes, offset );
+            offset+= STRIPE_LENGTH;
+        }
+        for ( int i= offset; i < end; i++ )
+        {
+            stripe[stripeLength++]= lanes.get( i );
+        }
+    }
+
+    /**
+     * Hash the remaining content of a buffer. The buffer position is moved to its limit.
+     * @param buffer the buffer containing the content
+     * @return this generator
+     */
+    public ETagGenerator update( ByteBuffer buffer )
+    {
+        ByteBuffer lanes= buffer.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+        update( lanes, buffer.position(), buffer.remaining() );
+        buffer.position( buffer.limit() );
+        return this;
+    }
+
+    /**
+     * Hash the content of a stream until its end is reached. The stream is not closed.
+     * @param stream the stream containing the content
+     * @return the number of bytes read
+     * @throws IOException when the stream could not be read
+     */
+    public long update( InputStream stream ) throws IOException
+    {
+        byte[] chunk= readBuffer();
+        long read= 0L;
+        int n;
+        while ( ( n= stream.read( chunk ) ) >= 0 )
+        {
+            update( chunk, 0, n );
+            read+= n;
+        }
+        return read;
+    }
+
+    /**
+     * @return the number of bytes hashed since the last reset
+     */
+    public long getLength()
+    {
+        return totalLength;
+    }
+
+    /**
+     * Get the hash of the content hashed since the last reset.
+     * The generator is not reset, so more content can be added afterwards.
+     * @return the hash value
+     */
+    public long getHash()
+    {
+        long h;
+        if ( totalLength >= STRIPE_LENGTH )
+        {
+            h= Long.rotateLeft( v1, 1 ) + Long.rotateLeft( v2, 7 ) + Long.rotateLeft( v3, 12 ) + Long.rotateLeft( v4, 18 );
+            h= mergeRound( h, v1 );
+            h= mergeRound( h, v2 );
+            h= mergeRound( h, v3 );
+            h= mergeRound( h, v4 );
+        }
+        else
+        {
+            h= seed + PRIME5;
+        }
+        h+= totalLength;
+
+        int offset= 0;
+        while ( offset <= stripeLength - 8 )
+        {
+            h^= round( 0L, stripeLanes.getLong( offset ) );
+            h= Long.rotateLeft( h, 27 ) * PRIME1 + PRIME4;
+            offset+= 8;
+        }
+        if ( offset <= stripeLength - 4 )
+        {
+            h^= ( stripeLanes.getInt( offset ) & 0xFFFFFFFFL ) * PRIME1;
+            h= Long.rotateLeft( h, 23 ) * PRIME2 + PRIME3;
+            offset+= 4;
+        }
+        while ( offset < stripeLength )
+        {
+            h^= ( stripe[offset] & 0xFF ) * PRIME5;
+            h= Long.rotateLeft( h, 11 ) * PRIME1;
+            offset++;
+        }
+
+        h^= h >>> 33;
+        h*= PRIME2;
+        h^= h >>> 29;
+        h*= PRIME3;
+        h^= h >>> 32;
+        return h;
+    }
+
+    /**
+     * Get the etag of the content hashed since the last reset.
+     * The generator is not reset, so more content can be added afterwards.
+     * @return the etag of 8 bytes
+     */
+    public ETag getETag()
+    {
+        return new ETag( getHash(), 8 );
+    }
+
+    /**
+     * Generate etag from content.
+     * @param bytes the content
+     * @return the etag of 8 bytes
+     */
+    public static ETag generate( byte[] bytes )
+    {
+        return new ETagGenerator().update( bytes ).getETag();
+    }
+
+    /**
+     * Generate etag from the remaining content of a buffer. The buffer position is moved to its limit.
+     * @param buffer the buffer containing the content
+     * @return the etag of 8 bytes
+     */
+    public static ETag generate( ByteBuffer buffer )
+    {
+        return new ETagGenerator().update( buffer ).getETag();
+    }
+
+    /**
+     * Generate etag from the content of a stream. The stream is read until its end is reached and is not closed.
+     * @param stream the stream containing the content
+     * @return the etag of 8 bytes
+     * @throws IOException when the stream could not be read
+     */
+    public static ETag generate( InputStream stream ) throws IOException
+    {
+        ETagGenerator generator= new ETagGenerator();
+        generator.update( stream );
+        return generator.getETag();
+    }
+
+    private byte[] readBuffer()
+    {
+        if ( readBuffer == null ) readBuffer= new byte [READ_BUFFER_SIZE];
+        return readBuffer;
+    }
+
+    private void processStripe( ByteBuffer lanes, int offset )
+    {
+        v1= round( v1, lanes.getLong( offset ) );
+        v2= round( v2, lanes.getLong( offset + 8 ) );
+        v3= round( v3, lanes.getLong( offset + 16 ) );
+        v4= round( v4, lanes.getLong( offset + 24 ) );
+    }
+
+    private static long round( long acc, long input )
+    {
+        acc+= input * PRIME2;
+        acc= Long.rotateLeft( acc, 31 );
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound( long acc, long value )
+    {
+        acc^= round( 0L, value );
+        return acc * PRIME1 + PRIME4;
+    }
+}
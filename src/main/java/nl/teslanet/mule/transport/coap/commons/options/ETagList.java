@@ -0,0 +1,411 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+/**
+ * Immutable list of etags, backed by primitive arrays.
+ * The etags are kept in the order they were given, duplicates included. 
+ * An open-addressing hash index on the etag values gives membership tests in constant time.
+ * Etag objects are only created when elements are retrieved from the list.
+ * <p>
+ * A list can be encoded into and decoded from a sequence of bytes, where each etag
+ * is represented by one byte containing its length followed by the etag value.
+ */
+public final class ETagList extends AbstractList< ETag > implements RandomAccess
+{
+    /**
+     * Empty list.
+     */
+    private static final ETagList EMPTY= new ETagList( new long [0], new byte [0], 0 );
+
+    /**
+     * The etag values.
+     */
+    private final long[] values;
+
+    /**
+     * The etag lengths.
+     */
+    private final byte[] lengths;
+
+    /**
+     * Number of etags in the list.
+     */
+    private final int size;
+
+    /**
+     * Hash index, each slot contains the list position plus one of the first occurrence of an etag, or zero when empty.
+     */
+    private final int[] index;
+
+    /**
+     * Mask to reduce hash values to index slots.
+     */
+    private final int mask;
+
+    /**
+     * Constructs list from validated etag values.
+     * @param values the etag values
+     * @param lengths the etag lengths
+     * @param size the number of etags
+     */
+    private ETagList( long[] values, byte[] lengths, int size )
+    {
+        this.values= values;
+        this.lengths= lengths;
+        this.size= size;
+        //keep load factor at or below 0.5
+        int capacity= 2;
+        while ( capacity < size * 2 )
+        {
+            capacity<<= 1;
+        }
+        this.index= new int [capacity];
+        this.mask= capacity - 1;
+        for ( int i= 0; i < size; i++ )
+        {
+            //only first occurrence of duplicates is indexed
+            if ( find( values[i], lengths[i] ) < 0 )
+            {
+                int slot= slot( values[i], lengths[i] );
+                while ( index[slot] != 0 )
+                {
+                    slot= ( slot + 1 ) & mask;
+                }
+                index[slot]= i + 1;
+            }
+        }
+    }
+
+    /**
+     * Create list from packed etag values that have already been validated.
+     * @param values the packed etag values
+     * @param lengths the etag lengths
+     * @param size the number of etags
+     * @return the list of etags
+     */
+    static ETagList create( long[] values, byte[] lengths, int size )
+    {
+        if ( size == 0 ) return EMPTY;
+        long[] valuesCopy= new long [size];
+        byte[] lengthsCopy= new byte [size];
+        System.arraycopy( values, 0, valuesCopy, 0, size );
+        System.arraycopy( lengths, 0, lengthsCopy, 0, size );
+        return new ETagList( valuesCopy, lengthsCopy, size );
+    }
+
+    /**
+     * Create list of etags from etag values. No intermediate etag objects are created.
+     * @param etags the etag values
+     * @return the list of etags
+     * @throws InvalidETagException when a given etag has not a length of 1..8 bytes
+     */
+    public static ETagList create( List< byte[] > etags ) throws InvalidETagException
+    {
+        int size= etags.size();
+        if ( size == 0 ) return EMPTY;
+        long[] values= new long [size];
+        byte[] lengths= new byte [size];
+        int i= 0;
+        for ( byte[] etag : etags )
+        {
+            ETag.checkLength( etag );
+            values[i]= ETag.pack( etag, 0, etag.length );
+            lengths[i]= (byte) etag.length;
+            i++;
+        }
+        return new ETagList( values, lengths, size );
+    }
+
+    /**
+     * Create list from a collection of etags.
+     * @param etags the etags
+     * @return the list of etags
+     */
+    public static ETagList create( Collection< ETag > etags )
+    {
+        if ( etags instanceof ETagList ) return (ETagList) etags;
+        int size= etags.size();
+        if ( size == 0 ) return EMPTY;
+        long[] values= new long [size];
+        byte[] lengths= new byte [size];
+        int i= 0;
+        for ( ETag etag : etags )
+        {
+            values[i]= etag.asLong();
+            lengths[i]= (byte) etag.length();
+            i++;
+        }
+        return new ETagList( values, lengths, size );
+    }
+
+    /**
+     * Create list from etags.
+     * @param etags the etags
+     * @return the list of etags
+     */
+    public static ETagList create( ETag... etags )
+    {
+        int size= etags.length;
+        if ( size == 0 ) return EMPTY;
+        long[] values= new long [size];
+        byte[] lengths= new byte [size];
+        for ( int i= 0; i < size; i++ )
+        {
+            values[i]= etags[i].asLong();
+            lengths[i]= (byte) etags[i].length();
+        }
+        return new ETagList( values, lengths, size );
+    }
+
+    /**
+     * Decode a sequence of etags from the remaining bytes of a buffer. 
+     * Each etag is represented by one byte containing its length followed by the etag value.
+     * The buffer position is advanced to its limit. No intermediate arrays or etag objects are created.
+     * @param buffer the buffer containing the encoded etags
+     * @return the list of etags
+     * @throws InvalidETagException when an invalid etag length is found or the sequence is truncated
+     */
+    public static ETagList decode( ByteBuffer buffer ) throws InvalidETagException
+    {
+        int start= buffer.position();
+        int limit= buffer.limit();
+        //first pass validates and counts
+        int size= 0;
+        for ( int i= start; i < limit; size++ )
+        {
+            int length= buffer.get( i );
+            if ( length < 1 || length > 8 )
+            {
+                throw new InvalidETagException( "ETag length invalid, must be between 1..8 bytes. Given length is: " + length + " at position " + i );
+            }
+            i+= 1 + length;
+            if ( i > limit )
+            {
+                throw new InvalidETagException( "ETag sequence truncated, etag at position " + ( i - 1 - length ) + " exceeds buffer." );
+            }
+        }
+        if ( size == 0 )
+        {
+            return EMPTY;
+        }
+        long[] values= new long [size];
+        byte[] lengths= new byte [size];
+        for ( int i= start, n= 0; n < size; n++ )
+        {
+            int length= buffer.get( i++ );
+            values[n]= ETag.pack( buffer, i, length );
+            lengths[n]= (byte) length;
+            i+= length;
+        }
+        buffer.position( limit );
+        return new ETagList( values, lengths, size );
+    }
+
+    /**
+     * Decode a sequence of etags from a slice of a byte array. 
+     * Each etag is represented by one byte containing its length followed by the etag value.
+     * @param bytes the array containing the encoded etags
+     * @param offset the position of the first byte of the sequence
+     * @param length the number of bytes of the sequence
+     * @return the list of etags
+     * @throws InvalidETagException when an invalid etag length is found or the sequence is truncated
+     * @throws IndexOutOfBoundsException when the slice is outside the array
+     */
+    public static ETagList decode( byte[] bytes, int offset, int length ) throws InvalidETagException
+    {
+        return decode( ByteBuffer.wrap( bytes, offset, length ) );
+    }
+
+    /**
+     * Get the number of bytes needed to encode the list.
+     * @return the encoded length
+     */
+    public int encodedLength()
+    {
+        int encodedLength= size;
+        for ( int i= 0; i < size; i++ )
+        {
+            encodedLength+= lengths[i];
+        }
+        return encodedLength;
+    }
+
+    /**
+     * Encode the list at the current position of a buffer, advancing its position. 
+     * Each etag is represented by one byte containing its length followed by the etag value.
+     * @param buffer the buffer to write into
+     * @throws java.nio.BufferOverflowException when there is not enough room in the buffer
+     */
+    public void encode( ByteBuffer buffer )
+    {
+        if ( buffer.remaining() < encodedLength() )
+        {
+            throw new BufferOverflowException();
+        }
+        for ( int i= 0; i < size; i++ )
+        {
+            int length= lengths[i];
+            buffer.put( (byte) length );
+            for ( int shift= ( length - 1 ) * 8; shift >= 0; shift-= 8 )
+            {
+                buffer.put( (byte) ( values[i] >>> shift ) );
+            }
+        }
+    }
+
+    /**
+     * Get the empty list.
+     * @return the empty list of etags
+     */
+    public static ETagList empty()
+    {
+        return EMPTY;
+    }
+
+    /**
+     * Calculate hash index slot of an etag value.
+     * @param value the etag value
+     * @param length the etag length
+     * @return the slot where the search of the etag starts
+     */
+    private int slot( long value, int length )
+    {
+        long h= ( value + length ) * 0x9E3779B97F4A7C15L;
+        return (int) ( h ^ ( h >>> 32 ) ) & mask;
+    }
+
+    /**
+     * Find position of first occurrence of an etag value.
+     * @param value the etag value
+     * @param length the etag length
+     * @return the position of the etag or -1 when not found
+     */
+    private int find( long value, int length )
+    {
+        int slot= slot( value, length );
+        int entry;
+        while ( ( entry= index[slot] ) != 0 )
+        {
+            int position= entry - 1;
+            if ( values[position] == value && lengths[position] == length )
+            {
+                return position;
+            }
+            slot= ( slot + 1 ) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the position of the first occurrence of an etag value.
+     * @param value the etag value, packed as with {@link ETag#asLong()} 
+     * @param length the etag length
+     * @return the position of the etag or -1 when not found
+     */
+    int indexOf( long value, int length )
+    {
+        return find( value, length );
+    }
+
+    /**
+     * Check whether the list contains an etag value.
+     * @param value the etag value, packed as with {@link ETag#asLong()} 
+     * @param length the etag length
+     * @return true when the etag is found in the list, otherwise false
+     */
+    public boolean contains( long value, int length )
+    {
+        return find( value, length ) >= 0;
+    }
+
+    /**
+     * Check whether the list contains an etag value.
+     * @param etag the etag value
+     * @return true when the etag is found in the list, otherwise false
+     */
+    public boolean contains( byte[] etag )
+    {
+        if ( etag == null || etag.length < 1 || etag.length > 8 ) return false;
+        return find( ETag.pack( etag, 0, etag.length ), etag.length ) >= 0;
+    }
+
+    @Override
+    public boolean contains( Object o )
+    {
+        return indexOf( o ) >= 0;
+    }
+
+    @Override
+    public int indexOf( Object o )
+    {
+        if ( !( o instanceof ETag ) ) return -1;
+        ETag etag= (ETag) o;
+        return find( etag.asLong(), etag.length() );
+    }
+
+    @Override
+    public ETag get( int position )
+    {
+        if ( position < 0 || position >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index: " + position + ", Size: " + size );
+        }
+        return new ETag( values[position], lengths[position] );
+    }
+
+    /**
+     * Get the value of an etag in the list.
+     * @param position the position of the etag in the list
+     * @return the etag value, packed as with {@link ETag#asLong()}
+     */
+    public long getValue( int position )
+    {
+        if ( position < 0 || position >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index: " + position + ", Size: " + size );
+        }
+        return values[position];
+    }
+
+    /**
+     * Get the length of an etag in the list.
+     * @param position the position of the etag in the list
+     * @return the etag length
+     */
+    public int getLength( int position )
+    {
+        if ( position < 0 || position >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index: " + position + ", Size: " + size );
+        }
+        return lengths[position];
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+}
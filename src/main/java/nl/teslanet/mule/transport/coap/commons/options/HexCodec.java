@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Table driven hexadecimal encoding and decoding.
+ * Encoding produces lower case characters, decoding accepts both lower and upper case.
+ */
+final class HexCodec
+{
+    /**
+     * Hexadecimal characters by value.
+     */
+    private static final char[] DIGITS= { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    /**
+     * Values by character, -1 for non-hexadecimal characters.
+     */
+    private static final byte[] VALUES= new byte [128];
+
+    static
+    {
+        Arrays.fill( VALUES, (byte) -1 );
+        for ( int i= 0; i < 10; i++ )
+        {
+            VALUES['0' + i]= (byte) i;
+        }
+        for ( int i= 0; i < 6; i++ )
+        {
+            VALUES['a' + i]= (byte) ( 10 + i );
+            VALUES['A' + i]= (byte) ( 10 + i );
+        }
+    }
+
+    /**
+     * Encode bytes into hexadecimal characters.
+     * @param bytes the bytes to encode
+     * @param out the array to write the characters into, two per byte
+     * @param offset the position of the first character in the array
+     */
+    static void encode( byte[] bytes, char[] out, int offset )
+    {
+        for ( int i= 0, j= offset; i < bytes.length; i++ )
+        {
+            int b= bytes[i] & 0xFF;
+            out[j++]= DIGITS[b >>> 4];
+            out[j++]= DIGITS[b & 0x0F];
+        }
+    }
+
+    /**
+     * Encode the lower bytes of a long, big-endian, into hexadecimal characters.
+     * @param value the packed bytes
+     * @param length the number of bytes to encode
+     * @param out the array to write the characters into, two per byte
+     * @param offset the position of the first character in the array
+     */
+    static void encode( long value, int length, char[] out, int offset )
+    {
+        for ( int i= offset + length * 2 - 1; i >= offset; value>>>= 8 )
+        {
+            out[i--]= DIGITS[(int) value & 0x0F];
+            out[i--]= DIGITS[(int) ( value >>> 4 ) & 0x0F];
+        }
+    }
+
+    /**
+     * Get the value of a hexadecimal character.
+     * @param c the character
+     * @return the value or -1 when the character is not hexadecimal
+     */
+    static int digit( char c )
+    {
+        return c < VALUES.length ? VALUES[c] : -1;
+    }
+
+    /**
+     * Decode hexadecimal characters into bytes packed big-endian into a long.
+     * @param chars the characters
+     * @param start the position of the first character
+     * @param end the position after the last character, at most 16 characters after start
+     * @return the packed value
+     * @throws InvalidETagException when a non-hexadecimal character is found
+     */
+    static long decode( CharSequence chars, int start, int end ) throws InvalidETagException
+    {
+        long packed= 0L;
+        for ( int i= start; i < end; i++ )
+        {
+            int v= digit( chars.charAt( i ) );
+            if ( v < 0 )
+            {
+                throw new InvalidETagException( "Invalid hexadecimal character '" + chars.charAt( i ) + "' at position " + ( i - start ) );
+            }
+            packed= ( packed << 4 ) | v;
+        }
+        return packed;
+    }
+
+    private HexCodec()
+    {
+        //static only
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.Arrays;
+
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+
+
+/**
+ * The known option properties and the option numbers they are converted into.
+ * This is the table the conversions of option properties are derived from:
+ * the handlers of {@link PropertyHandlers}, the option groups of {@link OptionsDelta}
+ * and the encoding of {@link OptionsCodec}.
+ */
+enum OptionProperty
+{
+    IFMATCH_LIST( PropertyNames.COAP_OPT_IFMATCH_LIST, OptionNumberRegistry.IF_MATCH ),
+    URIHOST( PropertyNames.COAP_OPT_URIHOST, OptionNumberRegistry.URI_HOST ),
+    ETAG_LIST( PropertyNames.COAP_OPT_ETAG_LIST, OptionNumberRegistry.ETAG ),
+    IFNONMATCH( PropertyNames.COAP_OPT_IFNONMATCH, OptionNumberRegistry.IF_NONE_MATCH ),
+    URIPORT( PropertyNames.COAP_OPT_URIPORT, OptionNumberRegistry.URI_PORT ),
+    LOCATIONPATH_LIST( PropertyNames.COAP_OPT_LOCATIONPATH_LIST, OptionNumberRegistry.LOCATION_PATH ),
+    LOCATIONPATH( PropertyNames.COAP_OPT_LOCATIONPATH, OptionNumberRegistry.LOCATION_PATH ),
+    URIPATH_LIST( PropertyNames.COAP_OPT_URIPATH_LIST, OptionNumberRegistry.URI_PATH ),
+    URIPATH( PropertyNames.COAP_OPT_URIPATH, OptionNumberRegistry.URI_PATH ),
+    CONTENTFORMAT( PropertyNames.COAP_OPT_CONTENTFORMAT, OptionNumberRegistry.CONTENT_FORMAT ),
+    MAXAGE( PropertyNames.COAP_OPT_MAXAGE, OptionNumberRegistry.MAX_AGE ),
+    URIQUERY_LIST( PropertyNames.COAP_OPT_URIQUERY_LIST, OptionNumberRegistry.URI_QUERY ),
+    URIQUERY( PropertyNames.COAP_OPT_URIQUERY, OptionNumberRegistry.URI_QUERY ),
+    ACCEPT( PropertyNames.COAP_OPT_ACCEPT, OptionNumberRegistry.ACCEPT ),
+    LOCATIONQUERY_LIST( PropertyNames.COAP_OPT_LOCATIONQUERY_LIST, OptionNumberRegistry.LOCATION_QUERY ),
+    LOCATIONQUERY( PropertyNames.COAP_OPT_LOCATIONQUERY, OptionNumberRegistry.LOCATION_QUERY ),
+    PROXYURI( PropertyNames.COAP_OPT_PROXYURI, OptionNumberRegistry.PROXY_URI ),
+    PROXYSCHEME( PropertyNames.COAP_OPT_PROXYSCHEME, OptionNumberRegistry.PROXY_SCHEME ),
+    BLOCK1_SIZE( PropertyNames.COAP_OPT_BLOCK1_SIZE, OptionNumberRegistry.BLOCK1 ),
+    BLOCK1_SZX( PropertyNames.COAP_OPT_BLOCK1_SZX, OptionNumberRegistry.BLOCK1 ),
+    BLOCK1_NUM( PropertyNames.COAP_OPT_BLOCK1_NUM, OptionNumberRegistry.BLOCK1 ),
+    BLOCK1_M( PropertyNames.COAP_OPT_BLOCK1_M, OptionNumberRegistry.BLOCK1 ),
+    BLOCK2_SIZE( PropertyNames.COAP_OPT_BLOCK2_SIZE, OptionNumberRegistry.BLOCK2 ),
+    BLOCK2_SZX( PropertyNames.COAP_OPT_BLOCK2_SZX, OptionNumberRegistry.BLOCK2 ),
+    BLOCK2_NUM( PropertyNames.COAP_OPT_BLOCK2_NUM, OptionNumberRegistry.BLOCK2 ),
+    BLOCK2_M( PropertyNames.COAP_OPT_BLOCK2_M, OptionNumberRegistry.BLOCK2 ),
+    SIZE1( PropertyNames.COAP_OPT_SIZE1, OptionNumberRegistry.SIZE1 ),
+    SIZE2( PropertyNames.COAP_OPT_SIZE2, OptionNumberRegistry.SIZE2 ),
+    OBSERVE( PropertyNames.COAP_OPT_OBSERVE, OptionNumberRegistry.OBSERVE );
+
+    /**
+     * Number of bits of the slots of the lookup table.
+     */
+    private static final int TABLE_BITS= 7;
+
+    /**
+     * Lookup table of the option properties by property name.
+     * The table is collision free, so a property name is looked up with one probe.
+     * The property names are mostly the constants of {@link PropertyNames}, which are found by reference.
+     */
+    private static final OptionProperty[] table= new OptionProperty [1 << TABLE_BITS];
+
+    /**
+     * Multiplier of the hash codes of the property names, that puts every property in its own slot.
+     */
+    private static final int TABLE_MULTIPLIER;
+
+    static
+    {
+        TABLE_MULTIPLIER= tableMultiplier();
+        for ( OptionProperty property : values() )
+        {
+            table[slot( property.propertyName.hashCode() )]= property;
+        }
+    }
+
+    /**
+     * The name of the property.
+     */
+    private final String propertyName;
+
+    /**
+     * The number of the option the property is converted into.
+     */
+    private final int optionNumber;
+
+    private OptionProperty( String propertyName, int optionNumber )
+    {
+        this.propertyName= propertyName;
+        this.optionNumber= optionNumber;
+    }
+
+    /**
+     * @return the name of the property
+     */
+    String getPropertyName()
+    {
+        return propertyName;
+    }
+
+    /**
+     * @return the number of the option the property is converted into
+     */
+    int getOptionNumber()
+    {
+        return optionNumber;
+    }
+
+    /**
+     * Get the known option property with given name.
+     * @param propertyName the name of the property
+     * @return the option property, or null when the property is not a known option property
+     */
+    static OptionProperty get( String propertyName )
+    {
+        OptionProperty property= table[slot( propertyName.hashCode() )];
+        if ( property != null && ( property.propertyName == propertyName || property.propertyName.equals( propertyName ) ) ) return property;
+        return null;
+    }
+
+    /**
+     * @param hash hash code of a property name
+     * @return the slot of the lookup table
+     */
+    private static int slot( int hash )
+    {
+        return ( hash * TABLE_MULTIPLIER ) >>> ( Integer.SIZE - TABLE_BITS );
+    }
+
+    /**
+     * Find a multiplier that maps the hash codes of the property names to distinct slots of the lookup table.
+     * @return the multiplier
+     */
+    private static int tableMultiplier()
+    {
+        boolean[] used= new boolean [1 << TABLE_BITS];
+        for ( int multiplier= 0x9E3779B9;; multiplier+= 2 )
+        {
+            Arrays.fill( used, false );
+            boolean distinct= true;
+            for ( OptionProperty property : values() )
+            {
+                int slot= ( property.propertyName.hashCode() * multiplier ) >>> ( Integer.SIZE - TABLE_BITS );
+                if ( used[slot] )
+                {
+                    distinct= false;
+                    break;
+                }
+                used[slot]= true;
+            }
+            if ( distinct ) return multiplier;
+        }
+    }
+}
@@ -0,0 +1,638 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.slf4j.Logger;
+
+
+/**
+ * Read-only property map that is backed by an OptionSet.
+ * It contains the same properties as the map that {@link Options#fillPropertyMap(OptionSet, Map)} produces.
+ * Property values are only computed when accessed and are kept for subsequent access. 
+ * The map keeps a reference to the OptionSet, which must not be changed while the map is in use.
+ * Like the OptionSet the map is not thread-safe.
+ */
+public class OptionSetPropertyMap extends AbstractMap< String, Object >
+{
+    //indexes of the properties
+    private static final int IFMATCH_LIST= 0;
+
+    private static final int URIHOST= 1;
+
+    private static final int ETAG_LIST= 2;
+
+    private static final int IFNONMATCH= 3;
+
+    private static final int URIPORT= 4;
+
+    private static final int LOCATIONPATH_LIST= 5;
+
+    private static final int LOCATIONPATH= 6;
+
+    private static final int URIPATH_LIST= 7;
+
+    private static final int URIPATH= 8;
+
+    private static final int CONTENTFORMAT= 9;
+
+    private static final int MAXAGE= 10;
+
+    private static final int URIQUERY_LIST= 11;
+
+    private static final int URIQUERY= 12;
+
+    private static final int ACCEPT= 13;
+
+    private static final int LOCATIONQUERY_LIST= 14;
+
+    private static final int LOCATIONQUERY= 15;
+
+    private static final int PROXYURI= 16;
+
+    private static final int PROXYSCHEME= 17;
+
+    private static final int BLOCK1_SZX= 18;
+
+    private static final int BLOCK1_SIZE= 19;
+
+    private static final int BLOCK1_NUM= 20;
+
+    private static final int BLOCK1_M= 21;
+
+    private static final int BLOCK2_SZX= 22;
+
+    private static final int BLOCK2_SIZE= 23;
+
+    private static final int BLOCK2_NUM= 24;
+
+    private static final int BLOCK2_M= 25;
+
+    private static final int SIZE1= 26;
+
+    private static final int SIZE2= 27;
+
+    private static final int OBSERVE= 28;
+
+    /**
+     * Property names by index.
+     */
+    private static final String[] KEYS= {
+        PropertyNames.COAP_OPT_IFMATCH_LIST,
+        PropertyNames.COAP_OPT_URIHOST,
+        PropertyNames.COAP_OPT_ETAG_LIST,
+        PropertyNames.COAP_OPT_IFNONMATCH,
+        PropertyNames.COAP_OPT_URIPORT,
+        PropertyNames.COAP_OPT_LOCATIONPATH_LIST,
+        PropertyNames.COAP_OPT_LOCATIONPATH,
+        PropertyNames.COAP_OPT_URIPATH_LIST,
+        PropertyNames.COAP_OPT_URIPATH,
+        PropertyNames.COAP_OPT_CONTENTFORMAT,
+        PropertyNames.COAP_OPT_MAXAGE,
+        PropertyNames.COAP_OPT_URIQUERY_LIST,
+        PropertyNames.COAP_OPT_URIQUERY,
+        PropertyNames.COAP_OPT_ACCEPT,
+        PropertyNames.COAP_OPT_LOCATIONQUERY_LIST,
+        PropertyNames.COAP_OPT_LOCATIONQUERY,
+        PropertyNames.COAP_OPT_PROXYURI,
+        PropertyNames.COAP_OPT_PROXYSCHEME,
+        PropertyNames.COAP_OPT_BLOCK1_SZX,
+        PropertyNames.COAP_OPT_BLOCK1_SIZE,
+        PropertyNames.COAP_OPT_BLOCK1_NUM,
+        PropertyNames.COAP_OPT_BLOCK1_M,
+        PropertyNames.COAP_OPT_BLOCK2_SZX,
+        PropertyNames.COAP_OPT_BLOCK2_SIZE,
+        PropertyNames.COAP_OPT_BLOCK2_NUM,
+        PropertyNames.COAP_OPT_BLOCK2_M,
+        PropertyNames.COAP_OPT_SIZE1,
+        PropertyNames.COAP_OPT_SIZE2,
+        PropertyNames.COAP_OPT_OBSERVE };
+
+    /**
+     * Property indexes by name.
+     */
+    private static final HashMap< String, Integer > INDEXES= new HashMap< String, Integer >( 64 );
+
+    static
+    {
+        for ( int i= 0; i < KEYS.length; i++ )
+        {
+            INDEXES.put( KEYS[i], Integer.valueOf( i ) );
+        }
+    }
+
+    //designators of the properties of other options
+    private static final int OTHER_VALUE= 0;
+
+    private static final int OTHER_CRITICAL= 1;
+
+    private static final int OTHER_NOCACHEKEY= 2;
+
+    private static final int OTHER_UNSAFE= 3;
+
+    private static final int OTHER_PROPERTY_COUNT= 4;
+
+    private static final String[] OTHER_POSTFIXES= { "", PropertyNames.POSTFIX_CRITICAL, PropertyNames.POSTFIX_NOCACHEKEY, PropertyNames.POSTFIX_UNSAFE };
+
+    /**
+     * The OptionSet backing this map.
+     */
+    private final OptionSet options;
+
+    /**
+     * Bit set of the properties that are present.
+     */
+    private int present= 0;
+
+    /**
+     * Bit set of the properties that have been computed.
+     */
+    private int computed= 0;
+
+    /**
+     * Computed property values by index.
+     */
+    private final Object[] values= new Object [KEYS.length];
+
+    /**
+     * The other options, in order of the OptionSet.
+     */
+    private final List< Option > others;
+
+    /**
+     * Distinct option numbers of the other options.
+     */
+    private final int[] otherNumbers;
+
+    /**
+     * Constructs property map of given OptionSet. 
+     * Invalid option values are reported by throwing an exception, or by logging when a logger is given.
+     * In the latter case the properties concerned are left out of the map.
+     * @param options the OptionSet backing the map
+     * @param logger uses for logging errors, or null when errors must be thrown
+     * @param errorMsg message to log on errors
+     * @throws InvalidOptionValueException when an option value could not be converted into a property and no logger is given
+     */
+    OptionSetPropertyMap( OptionSet options, Logger logger, String errorMsg ) throws InvalidOptionValueException
+    {
+        this.options= options;
+        // List<byte[]> if_match_list;
+        if ( !options.getIfMatch().isEmpty() && checkETags( PropertyNames.COAP_OPT_IFMATCH_LIST, options.getIfMatch(), logger, errorMsg ) )
+        {
+            setPresent( IFMATCH_LIST );
+        }
+        // String       uri_host;
+        if ( options.hasUriHost() ) setPresent( URIHOST );
+        // List<byte[]> etag_list;
+        if ( !options.getETags().isEmpty() && checkETags( PropertyNames.COAP_OPT_ETAG_LIST, options.getETags(), logger, errorMsg ) )
+        {
+            setPresent( ETAG_LIST );
+        }
+        // boolean      if_none_match; // true if option is set
+        setPresent( IFNONMATCH );
+        // Integer      uri_port; // null if no port is explicitly defined
+        if ( options.hasUriPort() ) setPresent( URIPORT );
+        // List<String> location_path_list;
+        if ( !options.getLocationPath().isEmpty() )
+        {
+            setPresent( LOCATIONPATH_LIST );
+            setPresent( LOCATIONPATH );
+        }
+        // List<String> uri_path_list;
+        if ( !options.getUriPath().isEmpty() )
+        {
+            setPresent( URIPATH_LIST );
+            setPresent( URIPATH );
+        }
+        // Integer      content_format;
+        if ( options.hasContentFormat() ) setPresent( CONTENTFORMAT );
+        // Long         max_age; // (0-4 bytes)
+        if ( options.hasMaxAge() ) setPresent( MAXAGE );
+        // List<String> uri_query_list;
+        if ( !options.getUriQuery().isEmpty() )
+        {
+            setPresent( URIQUERY_LIST );
+            setPresent( URIQUERY );
+        }
+        // Integer      accept;
+        if ( options.hasAccept() ) setPresent( ACCEPT );
+        // List<String> location_query_list;
+        if ( !options.getLocationQuery().isEmpty() )
+        {
+            setPresent( LOCATIONQUERY_LIST );
+            setPresent( LOCATIONQUERY );
+        }
+        // String       proxy_uri;
+        if ( options.hasProxyUri() ) setPresent( PROXYURI );
+        // String       proxy_scheme;
+        if ( options.hasProxyScheme() ) setPresent( PROXYSCHEME );
+        // BlockOption  block1;
+        if ( options.hasBlock1() )
+        {
+            setPresent( BLOCK1_SZX );
+            setPresent( BLOCK1_SIZE );
+            setPresent( BLOCK1_NUM );
+            setPresent( BLOCK1_M );
+        }
+        // BlockOption  block2;
+        if ( options.hasBlock2() )
+        {
+            setPresent( BLOCK2_SZX );
+            setPresent( BLOCK2_SIZE );
+            setPresent( BLOCK2_NUM );
+            setPresent( BLOCK2_M );
+        }
+        // Integer      size1;
+        if ( options.hasSize1() ) setPresent( SIZE1 );
+        // Integer      size2;
+        if ( options.hasSize2() ) setPresent( SIZE2 );
+        // Integer      observe;
+        if ( options.hasObserve() ) setPresent( OBSERVE );
+
+        // Arbitrary options
+        // List<Option> others;
+        others= options.getOthers();
+        otherNumbers= distinctNumbers( others );
+    }
+
+    /**
+     * Check etag values on validity.
+     * @param propertyName the property the etags are part of
+     * @param etags the etag values
+     * @param logger logger to use for logging when not null
+     * @param errorMsg that will be logged or put into exception
+     * @return true when all etags are valid
+     * @throws InvalidOptionValueException when an etag is invalid and no logger is given
+     */
+    private static boolean checkETags( String propertyName, List< byte[] > etags, Logger logger, String errorMsg ) throws InvalidOptionValueException
+    {
+        for ( byte[] etag : etags )
+        {
+            try
+            {
+                //same check as used on construction
+                ETag.checkLength( etag );
+            }
+            catch ( InvalidETagException e )
+            {
+                Options.handlePropertyError( propertyName, e, logger, errorMsg );
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collect the distinct option numbers of a list of options.
+     * @param options the options
+     * @return array of distinct option numbers in order of first occurrence
+     */
+    private static int[] distinctNumbers( List< Option > options )
+    {
+        int[] numbers= new int [options.size()];
+        int count= 0;
+        for ( Option option : options )
+        {
+            int number= option.getNumber();
+            boolean found= false;
+            for ( int i= 0; !found && i < count; i++ )
+            {
+                found= ( numbers[i] == number );
+            }
+            if ( !found ) numbers[count++]= number;
+        }
+        if ( count == numbers.length ) return numbers;
+        int[] result= new int [count];
+        System.arraycopy( numbers, 0, result, 0, count );
+        return result;
+    }
+
+    private void setPresent( int index )
+    {
+        present|= ( 1 << index );
+    }
+
+    private boolean isPresent( int index )
+    {
+        return ( present & ( 1 << index ) ) != 0;
+    }
+
+    /**
+     * Get the value of a property, computing it when accessed for the first time.
+     * @param index of the property
+     * @return the property value
+     */
+    private Object valueOf( int index )
+    {
+        int bit= 1 << index;
+        if ( ( computed & bit ) == 0 )
+        {
+            values[index]= compute( index );
+            computed|= bit;
+        }
+        return values[index];
+    }
+
+    /**
+     * Compute the value of a property.
+     * @param index of the property
+     * @return the property value
+     */
+    private Object compute( int index )
+    {
+        switch ( index )
+        {
+            case IFMATCH_LIST:
+                return etagList( options.getIfMatch() );
+            case URIHOST:
+                return options.getUriHost();
+            case ETAG_LIST:
+                return etagList( options.getETags() );
+            case IFNONMATCH:
+                return Boolean.valueOf( options.hasIfNoneMatch() );
+            case URIPORT:
+                return options.getUriPort();
+            case LOCATIONPATH_LIST:
+                return options.getLocationPath();
+            case LOCATIONPATH:
+                return options.getLocationPathString();
+            case URIPATH_LIST:
+                return options.getUriPath();
+            case URIPATH:
+                return options.getUriPathString();
+            case CONTENTFORMAT:
+                return ContentFormatRegistry.toInteger( options.getContentFormat() );
+            case MAXAGE:
+                return options.getMaxAge();
+            case URIQUERY_LIST:
+                return options.getUriQuery();
+            case URIQUERY:
+                return options.getUriQueryString();
+            case ACCEPT:
+                return ContentFormatRegistry.toInteger( options.getAccept() );
+            case LOCATIONQUERY_LIST:
+                return options.getLocationQuery();
+            case LOCATIONQUERY:
+                return options.getLocationQueryString();
+            case PROXYURI:
+                return options.getProxyUri();
+            case PROXYSCHEME:
+                return options.getProxyScheme();
+            case BLOCK1_SZX:
+                return Integer.valueOf( options.getBlock1().getSzx() );
+            case BLOCK1_SIZE:
+                return Integer.valueOf( options.getBlock1().getSize() );
+            case BLOCK1_NUM:
+                return Integer.valueOf( options.getBlock1().getNum() );
+            case BLOCK1_M:
+                return Boolean.valueOf( options.getBlock1().isM() );
+            case BLOCK2_SZX:
+                return Integer.valueOf( options.getBlock2().getSzx() );
+            case BLOCK2_SIZE:
+                return Integer.valueOf( options.getBlock2().getSize() );
+            case BLOCK2_NUM:
+                return Integer.valueOf( options.getBlock2().getNum() );
+            case BLOCK2_M:
+                return Boolean.valueOf( options.getBlock2().isM() );
+            case SIZE1:
+                return options.getSize1();
+            case SIZE2:
+                return options.getSize2();
+            case OBSERVE:
+                return options.getObserve();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Create list of etags from etag values that have been checked on construction.
+     * @param etags the etag values
+     * @return list of etags
+     */
+    private static List< ETag > etagList( List< byte[] > etags )
+    {
+        try
+        {
+            return ETagList.create( etags );
+        }
+        catch ( InvalidETagException e )
+        {
+            //checked on construction
+            throw new IllegalStateException( "OptionSet changed after property map construction", e );
+        }
+    }
+
+    /**
+     * Get the value of an other option property.
+     * @param number the option number
+     * @param designator designates the property of the option 
+     * @return the property value
+     */
+    private Object otherValueOf( int number, int designator )
+    {
+        //last one wins, as in the eager property map
+        Option option= null;
+        for ( Option other : others )
+        {
+            if ( other.getNumber() == number ) option= other;
+        }
+        if ( option == null ) return null;
+        switch ( designator )
+        {
+            case OTHER_VALUE:
+                return option.getValue();
+            case OTHER_CRITICAL:
+                return Boolean.valueOf( option.isCritical() );
+            case OTHER_NOCACHEKEY:
+                return Boolean.valueOf( option.isNoCacheKey() );
+            default:
+                return Boolean.valueOf( option.isUnSafe() );
+        }
+    }
+
+    /**
+     * Parse property name of an other option. 
+     * The result contains the option number in the upper bits and the designator in the lowest two bits.
+     * @param key the property name
+     * @return the parsed name or -1 when the key is not an other option property name
+     */
+    private static int parseOtherKey( Object key )
+    {
+        if ( !( key instanceof String ) ) return -1;
+        String name= (String) key;
+        int start= PropertyNames.PREFIX_COAP_OPT_OTHER.length();
+        if ( !name.startsWith( PropertyNames.PREFIX_COAP_OPT_OTHER ) ) return -1;
+        int length= name.length();
+        int number= 0;
+        int i= start;
+        for ( ; i < length; i++ )
+        {
+            int digit= name.charAt( i ) - '0';
+            if ( digit < 0 || digit > 9 ) break;
+            number= number * 10 + digit;
+            if ( number > 0xFFFF ) return -1;
+        }
+        if ( i == start ) return -1;
+        //only the canonical number format is a property name
+        if ( name.charAt( start ) == '0' && i - start > 1 ) return -1;
+        for ( int designator= 0; designator < OTHER_PROPERTY_COUNT; designator++ )
+        {
+            String postfix= OTHER_POSTFIXES[designator];
+            if ( length - i == postfix.length() && name.startsWith( postfix, i ) )
+            {
+                return ( number << 2 ) | designator;
+            }
+        }
+        return -1;
+    }
+
+    private boolean hasOtherNumber( int number )
+    {
+        for ( int i= 0; i < otherNumbers.length; i++ )
+        {
+            if ( otherNumbers[i] == number ) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Object get( Object key )
+    {
+        Integer index= INDEXES.get( key );
+        if ( index != null )
+        {
+            return isPresent( index ) ? valueOf( index ) : null;
+        }
+        int other= parseOtherKey( key );
+        if ( other >= 0 )
+        {
+            return otherValueOf( other >>> 2, other & 3 );
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey( Object key )
+    {
+        Integer index= INDEXES.get( key );
+        if ( index != null )
+        {
+            return isPresent( index );
+        }
+        int other= parseOtherKey( key );
+        return other >= 0 && hasOtherNumber( other >>> 2 );
+    }
+
+    @Override
+    public int size()
+    {
+        return Integer.bitCount( present ) + OTHER_PROPERTY_COUNT * otherNumbers.length;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    @Override
+    public Set< Entry< String, Object > > entrySet()
+    {
+        return new AbstractSet< Entry< String, Object > >()
+            {
+                @Override
+                public Iterator< Entry< String, Object > > iterator()
+                {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size()
+                {
+                    return OptionSetPropertyMap.this.size();
+                }
+            };
+    }
+
+    /**
+     * Iterates the properties, named option properties first followed by the other option properties.
+     */
+    private class EntryIterator implements Iterator< Entry< String, Object > >
+    {
+        /**
+         * Next position, positions beyond the named properties designate other option properties.
+         */
+        private int position= 0;
+
+        private EntryIterator()
+        {
+            skipAbsent();
+        }
+
+        private void skipAbsent()
+        {
+            while ( position < KEYS.length && !isPresent( position ) )
+            {
+                position++;
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return position < KEYS.length + OTHER_PROPERTY_COUNT * otherNumbers.length;
+        }
+
+        @Override
+        public Entry< String, Object > next()
+        {
+            if ( !hasNext() ) throw new NoSuchElementException();
+            Entry< String, Object > entry;
+            if ( position < KEYS.length )
+            {
+                entry= new SimpleImmutableEntry< String, Object >( KEYS[position], valueOf( position ) );
+                position++;
+                skipAbsent();
+            }
+            else
+            {
+                int other= position - KEYS.length;
+                int number= otherNumbers[other / OTHER_PROPERTY_COUNT];
+                int designator= other % OTHER_PROPERTY_COUNT;
+                entry= new SimpleImmutableEntry< String, Object >( PropertyNames.PREFIX_COAP_OPT_OTHER + number + OTHER_POSTFIXES[designator], otherValueOf( number, designator ) );
+                position++;
+            }
+            return entry;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException( "property map is read-only" );
+        }
+    }
+}
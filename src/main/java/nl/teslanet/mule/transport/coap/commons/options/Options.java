@@ -15,17 +15,22 @@
 package nl.teslanet.mule.transport.coap.commons.options;
 
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
+import java.util.concurrent.ForkJoinPool;
 
-import org.eclipse.californium.core.coap.BlockOption;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
 import org.eclipse.californium.core.coap.OptionSet;
 import org.slf4j.Logger;
 
+import nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics;
+import nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics.Direction;
+
 
 /**
  * {@code Options} is a collection of all options of a CoAP request or a response.
@@ -38,6 +43,11 @@ import org.slf4j.Logger;
  */
 public class Options
 {
+    /**
+     * The metrics conversions are recorded in.
+     */
+    private static volatile ConversionMetrics metrics= ConversionMetrics.NOOP;
+
     private OptionSet optionSet= null;
 
     /**
@@ -81,6 +91,15 @@ public class Options
         return this.optionSet;
     }
 
+    /**
+     * Get a typed view on the OptionSet.
+     * @return the view
+     */
+    public CoapOptionsView getView()
+    {
+        return new CoapOptionsView( this.optionSet );
+    }
+
     /**
      * Set the OptionSet reference.
      * @param optionSet the optionSet to use
@@ -108,7 +127,7 @@ public class Options
     //
     //    }
 
-    private static Long toLong( Object object )
+    static Long toLong( Object object )
     {
         if ( Long.class.isInstance( object ) )
         {
@@ -121,7 +140,7 @@ public class Options
         return null;
     }
 
-    private static Integer toInteger( Object object )
+    static Integer toInteger( Object object )
     {
         if ( Integer.class.isInstance( object ) )
         {
@@ -134,7 +153,7 @@ public class Options
         return null;
     }
 
-    private static Boolean toBoolean( Object object )
+    static Boolean toBoolean( Object object )
     {
         if ( Boolean.class.isInstance( object ) )
         {
@@ -147,7 +166,7 @@ public class Options
         return null;
     }
 
-    private static byte[] toBytes( Object object )
+    static byte[] toBytes( Object object )
     {
         if ( Object.class.isInstance( object ) )
         {
@@ -171,334 +190,170 @@ public class Options
         return null;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Fill OptionSet with the option properties contained in given property map.
+     * Properties that are not option properties are ignored.
+     * Block option components are collected first, so each block option is set once.
+     * When both size and szx of a block are given, szx takes precedence.
+     * @param optionSet the set to put the options in
+     * @param props map containing the properties
+     * @param clear when true the OptionSet is cleared before filling
+     */
     public static void fillOptionSet( OptionSet optionSet, Map< String, Object > props, boolean clear )
     {
+        fillOptionSet( optionSet, props, clear, null );
+    }
+
+    /**
+     * Fill OptionSet with the option properties contained in given property map,
+     * using a scratch block assembler when given.
+     * @param optionSet the set to put the options in
+     * @param props map containing the properties
+     * @param clear when true the OptionSet is cleared before filling
+     * @param scratch block assembler to reuse, or null
+     */
+    static void fillOptionSet( OptionSet optionSet, Map< String, Object > props, boolean clear, BlockAssembler scratch )
+    {
+        ConversionMetrics currentMetrics= metrics;
+        boolean measured= ( currentMetrics != ConversionMetrics.NOOP );
+        long start= ( measured ? System.nanoTime() : 0L );
+
         //make sure Optionset is empty, if needed
         if ( clear ) optionSet.clear();
 
+        BlockAssembler blocks= null;
         for ( Entry< String, Object > e : props.entrySet() )
         {
-            /*OptionSet() */
-            switch ( e.getKey() )
+            String key= e.getKey();
+            //most properties on a message are no option properties, reject these at once 
+            if ( !key.startsWith( PropertyNames.PREFIX_COAP_OPT ) ) continue;
+
+            OptionProperty property= OptionProperty.get( key );
+            PropertyHandlers.Handler handler= ( property != null ? PropertyHandlers.get( property ) : null );
+            if ( handler != null )
             {
-                /* if_match_list       = null; // new LinkedList<byte[]>();*/
-                case PropertyNames.COAP_OPT_IFMATCH_LIST:
-                    if ( Collection.class.isInstance( e.getValue() ) )
-                    {
-                        for ( Object val : ( (Collection< Object >) e.getValue() ) )
-                        {
-                            optionSet.addIfMatch( toBytes( val ) );
-                        }
-                    }
-                    else if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        optionSet.addIfMatch( toBytes( e.getValue() ) );
-                    }
-                    break;
-                /*uri_host            = null; // from sender */
-                case PropertyNames.COAP_OPT_URIHOST:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        //TODO support for comma separated values?
-                        optionSet.setUriHost( e.getValue().toString() );
-                    }
-                    break;
-                /*
-                etag_list           = null; // new LinkedList<byte[]>();*/
-                case PropertyNames.COAP_OPT_ETAG_LIST:
-                    //TODO multiple values not valid in responses, add check here?
-                    if ( Collection.class.isInstance( e.getValue() ) )
-                    {
-                        for ( Object val : ( (Collection< Object >) e.getValue() ) )
-                        {
-                            optionSet.addETag( toBytes( val ) );
-                        }
-                    }
-                    else if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        //TODO support for comma separated values?
-                        optionSet.addETag( toBytes( e.getValue() ) );
-                    }
-                    break;
-                /*if_none_match       = false; */
-                case PropertyNames.COAP_OPT_IFNONMATCH:
-                    optionSet.setIfNoneMatch( toBoolean( e.getValue() ) );
-                    break;
-
-                /*
-                uri_port            = null; // from sender*/
-                case PropertyNames.COAP_OPT_URIPORT:
-                    optionSet.setUriPort( toInteger( e.getValue() ) );
-                    break;
-                /*
-                location_path_list  = null; // new LinkedList<String>();*/
-                case PropertyNames.COAP_OPT_LOCATIONPATH_LIST:
-                    //TODO check for duplication with LOCATIONPATH
-                    if ( Collection.class.isInstance( e.getValue() ) )
-                    {
-                        for ( Object val : ( (Collection< Object >) e.getValue() ) )
-                        {
-                            optionSet.addLocationPath( val.toString() );
-                        }
-                    }
-                    break;
-                case PropertyNames.COAP_OPT_LOCATIONPATH:
-                    //TODO prefix with "/" ?
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        optionSet.setLocationPath( e.getValue().toString() );
-                    }
-                    break;
-                /*
-                uri_path_list       = null; // new LinkedList<String>();*/
-                case PropertyNames.COAP_OPT_URIPATH_LIST:
-                    //TODO check for duplication with COAP_OPT_URIPATH
-                    if ( Collection.class.isInstance( e.getValue() ) )
-                    {
-                        for ( Object val : ( (Collection< Object >) e.getValue() ) )
-                        {
-                            optionSet.addUriPath( val.toString() );
-                        }
-                    }
-                    break;
-                case PropertyNames.COAP_OPT_URIPATH:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        optionSet.setUriPath( e.getValue().toString() );
-                    }
-                    break;
-                /*
-                content_format      = null;*/
-                case PropertyNames.COAP_OPT_CONTENTFORMAT:
-                    //TODO add support for Content-Format?
-                    //TODO add support for mime-type?
-                    //TODO support for format as mime-type string
-                    //TODO org.eclipse.californium.core.coap.MediaTypeRegistry
-                    optionSet.setContentFormat( toInteger( e.getValue() ) );
-                    break;
-                /*
-                max_age             = null;*/
-                case PropertyNames.COAP_OPT_MAXAGE:
-
-                    optionSet.setMaxAge( toLong( e.getValue() ) );
-                    break;
-                /*
-                uri_query_list      = null; // new LinkedList<String>();*/
-                case PropertyNames.COAP_OPT_URIQUERY_LIST:
-                    //TODO check for duplication with COAP_OPT_URIQUERY
-                    if ( Collection.class.isInstance( e.getValue() ) )
-                    {
-                        for ( Object val : ( (Collection< Object >) e.getValue() ) )
-                        {
-                            optionSet.addUriQuery( val.toString() );
-                        }
-                    }
-                    break;
-                case PropertyNames.COAP_OPT_URIQUERY:
-
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        optionSet.setUriQuery( e.getValue().toString() );
-                    }
-                    break;
-                /*
-                accept              = null;*/
-                case PropertyNames.COAP_OPT_ACCEPT:
-                    //TODO add support for Content-Format?
-                    //TODO add support for mime-type?
-                    //TODO support for format as string
-                    optionSet.setAccept( toInteger( e.getValue() ) );
-                    break;
-                /*
-                location_query_list = null; // new LinkedList<String>();*/
-                case PropertyNames.COAP_OPT_LOCATIONQUERY_LIST:
-                    if ( Collection.class.isInstance( e.getValue() ) )
-                    {
-                        for ( Object val : ( (Collection< Object >) e.getValue() ) )
-                        {
-                            optionSet.addLocationQuery( val.toString() );
-                        }
-                    }
-                    break;
-                case PropertyNames.COAP_OPT_LOCATIONQUERY:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        optionSet.setLocationQuery( e.getValue().toString() );
-                    }
-                    break;
-                /*
-                proxy_uri           = null;*/
-                case PropertyNames.COAP_OPT_PROXYURI:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        optionSet.setProxyUri( e.getValue().toString() );
-                    }
-                    break;
-                /*
-                proxy_scheme        = null;*/
-                case PropertyNames.COAP_OPT_PROXYSCHEME:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        optionSet.setProxyScheme( e.getValue().toString() );
-                    }
-                    break;
-                /*
-                block1              = null;*/
-                case PropertyNames.COAP_OPT_BLOCK1_SIZE:
-                    //TODO check for duplicate with szx
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        int szx= BlockOption.size2Szx( toInteger( e.getValue() ) );
-                        boolean m= false;
-                        int num= 0;
-                        if ( optionSet.hasBlock1() )
-                        {
-                            m= optionSet.getBlock1().isM();
-                            num= optionSet.getBlock1().getNum();
-                        }
-                        optionSet.setBlock1( szx, m, num );
-                    }
-                    break;
-                case PropertyNames.COAP_OPT_BLOCK1_SZX:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        int szx= toInteger( e.getValue() );
-                        boolean m= false;
-                        int num= 0;
-                        if ( optionSet.hasBlock1() )
-                        {
-                            m= optionSet.getBlock1().isM();
-                            num= optionSet.getBlock1().getNum();
-                        }
-                        optionSet.setBlock1( szx, m, num );
-                    }
-                    break;
-                case PropertyNames.COAP_OPT_BLOCK1_NUM:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        int szx= 0;
-                        boolean m= false;
-                        int num= toInteger( e.getValue() );
-                        if ( optionSet.hasBlock1() )
-                        {
-                            szx= optionSet.getBlock1().getSzx();
-                            m= optionSet.getBlock1().isM();
-                        }
-                        optionSet.setBlock1( szx, m, num );
-                    }
-                    break;
-                case PropertyNames.COAP_OPT_BLOCK1_M:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        int szx= 0;
-                        boolean m= toBoolean( e.getValue() );
-                        int num= 0;
-                        if ( optionSet.hasBlock1() )
-                        {
-                            szx= optionSet.getBlock1().getSzx();
-                            num= optionSet.getBlock1().getNum();
-                        }
-                        optionSet.setBlock1( szx, m, num );
-                    }
-                    break;
-                /*
-                block2              = null;*/
-                case PropertyNames.COAP_OPT_BLOCK2_SIZE:
-                    //TODO check for duplicate with szx
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        int szx= BlockOption.size2Szx( toInteger( e.getValue() ) );
-                        boolean m= false;
-                        int num= 0;
-                        if ( optionSet.hasBlock2() )
-                        {
-                            m= optionSet.getBlock2().isM();
-                            num= optionSet.getBlock2().getNum();
-                        }
-                        optionSet.setBlock2( szx, m, num );
-                    }
-                    break;
-                case PropertyNames.COAP_OPT_BLOCK2_SZX:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        int szx= toInteger( e.getValue() );
-                        boolean m= false;
-                        int num= 0;
-                        if ( optionSet.hasBlock2() )
-                        {
-                            m= optionSet.getBlock2().isM();
-                            num= optionSet.getBlock2().getNum();
-                        }
-                        optionSet.setBlock2( szx, m, num );
-                    }
-                    break;
-                case PropertyNames.COAP_OPT_BLOCK2_NUM:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        int szx= 0;
-                        boolean m= false;
-                        int num= toInteger( e.getValue() );
-                        if ( optionSet.hasBlock2() )
-                        {
-                            szx= optionSet.getBlock2().getSzx();
-                            m= optionSet.getBlock2().isM();
-                        }
-                        optionSet.setBlock2( szx, m, num );
-                    }
-                    break;
-                case PropertyNames.COAP_OPT_BLOCK2_M:
-                    if ( Object.class.isInstance( e.getValue() ) )
-                    {
-                        int szx= 0;
-                        boolean m= toBoolean( e.getValue() );
-                        int num= 0;
-                        if ( optionSet.hasBlock2() )
-                        {
-                            szx= optionSet.getBlock2().getSzx();
-                            num= optionSet.getBlock2().getNum();
-                        }
-                        optionSet.setBlock2( szx, m, num );
-                    }
-                    break;
-                /*
-                 * size1               = null;*/
-                case PropertyNames.COAP_OPT_SIZE1:
-                    optionSet.setSize1( toInteger( e.getValue() ) );
-                    break;
-                /*
-                size2               = null;*/
-                case PropertyNames.COAP_OPT_SIZE2:
-                    optionSet.setSize2( toInteger( e.getValue() ) );
-                    break;
-                /*
-                observe             = null;*/
-                case PropertyNames.COAP_OPT_OBSERVE:
-                    optionSet.setObserve( toInteger( e.getValue() ) );
-                    break;
-
-                default:
-                    /*               
-                    others              = null; // new LinkedList<>();
-                    */
-                    Integer optionNr= optionNrfromPropertyName( e.getKey() );
-                    if ( optionNr >= 0 && e.getValue() != null )
-                    {
-                        Object o= e.getValue();
-                        Option option= new Option( optionNr );
-                        if ( byte[].class.isAssignableFrom( o.getClass() ) )
-                        {
-                            option.setValue( (byte[]) o );
-                            optionSet.addOption( option );
-                        }
-                        else
-                        {
-                            option.setStringValue( o.toString() );
-                            optionSet.addOption( option );
-                        }
-                    }
+                if ( measured )
+                {
+                    //record only the values the property converted into, not those already in the set
+                    int from= ConversionRecorder.count( optionSet, property );
+                    handler.apply( optionSet, e.getValue() );
+                    ConversionRecorder.record( currentMetrics, Direction.TO_OPTION_SET, optionSet, property.getOptionNumber(), from );
+                }
+                else
+                {
+                    handler.apply( optionSet, e.getValue() );
+                }
+            }
+            else if ( BlockAssembler.isBlockProperty( key ) )
+            {
+                if ( blocks == null )
+                {
+                    blocks= ( scratch != null ? scratch.reset() : new BlockAssembler() );
+                }
+                blocks.collect( key, e.getValue() );
+            }
+            else
+            {
+                /*               
+                others              = null; // new LinkedList<>();
+                */
+                int optionNr= PropertyNames.otherOptionNumber( key );
+                if ( optionNr >= 0 )
+                {
+                    Option option= addOtherOption( optionSet, optionNr, e.getValue() );
+                    if ( measured && option != null ) currentMetrics.recordOption( Direction.TO_OPTION_SET, optionNr, option.getLength() );
+                }
             }
         }
+        if ( blocks != null )
+        {
+            blocks.apply( optionSet );
+            if ( measured )
+            {
+                if ( blocks.block1.isPresent() ) ConversionRecorder.record( currentMetrics, Direction.TO_OPTION_SET, optionSet, OptionNumberRegistry.BLOCK1, 0 );
+                if ( blocks.block2.isPresent() ) ConversionRecorder.record( currentMetrics, Direction.TO_OPTION_SET, optionSet, OptionNumberRegistry.BLOCK2, 0 );
+            }
+        }
+
+        if ( measured ) currentMetrics.recordConversion( Direction.TO_OPTION_SET, System.nanoTime() - start );
+    }
+
+    /**
+     * Update OptionSet that was filled with the previous property map, so it contains the options of the new property map.
+     * Only the options whose properties differ between the maps are rebuilt,
+     * options whose properties are missing from the new map are removed.
+     * The result is equal to filling a cleared OptionSet with the new property map.
+     * Comparing the maps costs about as much as iterating the new map, so when the names of the changed properties are known,
+     * like the observe sequence number of a notification, {@link #applyChanges(OptionSet, Map, Collection)} is cheaper.
+     * @param optionSet the set that was filled with the previous property map
+     * @param previous the previous property map
+     * @param next the new property map
+     * @return true when options were changed
+     */
+    public static boolean applyDelta( OptionSet optionSet, Map< String, Object > previous, Map< String, Object > next )
+    {
+        OptionsDelta delta= OptionsDelta.acquire();
+        try
+        {
+            delta.compare( optionSet, previous, next );
+            delta.apply( optionSet, next );
+            return delta.isChanged();
+        }
+        finally
+        {
+            delta.reset();
+        }
+    }
+
+    /**
+     * Update OptionSet so it contains the options of the new property map, given the names of the changed properties.
+     * Only the options of the changed properties are rebuilt,
+     * options of changed properties that are missing from the new map are removed.
+     * @param optionSet the set that was filled with the previous property map
+     * @param next the new property map
+     * @param changedProperties the names of the properties that were changed, added or removed
+     * @return true when options were changed
+     */
+    public static boolean applyChanges( OptionSet optionSet, Map< String, Object > next, Collection< String > changedProperties )
+    {
+        OptionsDelta delta= OptionsDelta.acquire();
+        try
+        {
+            delta.changeAll( changedProperties );
+            delta.apply( optionSet, next );
+            return delta.isChanged();
+        }
+        finally
+        {
+            delta.reset();
+        }
+    }
+
+    /**
+     * Add an other option to the OptionSet. Null values are ignored.
+     * @param optionSet the set to put the option in
+     * @param optionNr the option number
+     * @param value the property value, a byte array or an object whose string value is used
+     * @return the option added, or null when the value is null
+     */
+    static Option addOtherOption( OptionSet optionSet, int optionNr, Object value )
+    {
+        if ( value != null )
+        {
+            Option option= new Option( optionNr );
+            if ( byte[].class.isAssignableFrom( value.getClass() ) )
+            {
+                option.setValue( (byte[]) value );
+                optionSet.addOption( option );
+            }
+            else
+            {
+                option.setStringValue( value.toString() );
+                optionSet.addOption( option );
+            }
+            return option;
+        }
+        return null;
     }
 
     /**
@@ -511,7 +366,25 @@ public class Options
     public static void fillPropertyMap( OptionSet options, Map< String, Object > props ) throws InvalidOptionValueException
     {
         String errorMsg= "cannot create property";
-        fillPropertyMapLoggingOrThrowingErrors( options, props, null, errorMsg );
+        fillPropertyMapLoggingOrThrowingErrors( options, props, null, null, errorMsg );
+    }
+
+    /**
+     * Fill property map with properties contained in given optionSet,
+     * taking path and query strings from a cache.
+     * The path and query lists put in the map are shared by all maps filled from the cache and are unmodifiable.
+     * When a cache is given the etag lists are put in the map as unmodifiable {@link ETagList},
+     * that has constant time membership tests.
+     * Processing options stops when an exception occurs.
+     * @param options source of the properties
+     * @param props map to put properties in
+     * @param cache the cache of path and query strings, or null to not use a cache
+     * @throws InvalidOptionValueException when option value could not be converted into a property
+     */
+    public static void fillPropertyMap( OptionSet options, Map< String, Object > props, UriStringCache cache ) throws InvalidOptionValueException
+    {
+        String errorMsg= "cannot create property";
+        fillPropertyMapLoggingOrThrowingErrors( options, props, cache, null, errorMsg );
     }
 
     /**
@@ -526,7 +399,32 @@ public class Options
     {
         try
         {
-            fillPropertyMapLoggingOrThrowingErrors( options, props, logger, errorMsg );
+            fillPropertyMapLoggingOrThrowingErrors( options, props, null, logger, errorMsg );
+        }
+        catch ( InvalidOptionValueException e )
+        {
+            //noop, should not occur when a logger is given
+        }
+    }
+
+    /**
+     * Fill property map with properties contained in given optionSet,
+     * taking path and query strings from a cache.
+     * The path and query lists put in the map are shared by all maps filled from the cache and are unmodifiable.
+     * When a cache is given the etag lists are put in the map as unmodifiable {@link ETagList},
+     * that has constant time membership tests.
+     * Processing options continues when an exception occurs, after logging an error message.
+     * @param options source of the properties
+     * @param props map to put properties in
+     * @param cache the cache of path and query strings, or null to not use a cache
+     * @param logger uses for logging errors
+     * @param errorMsg message to log on errors
+     */
+    public static void fillPropertyMap( OptionSet options, Map< String, Object > props, UriStringCache cache, Logger logger, String errorMsg )
+    {
+        try
+        {
+            fillPropertyMapLoggingOrThrowingErrors( options, props, cache, logger, errorMsg );
         }
         catch ( InvalidOptionValueException e )
         {
@@ -534,6 +432,131 @@ public class Options
         }
     }
     
+    /**
+     * Get a read-only property map that is backed by given optionSet.
+     * The map contains the same properties as {@link #fillPropertyMap(OptionSet, Map)} would produce,
+     * but property values are only computed when accessed.
+     * @param options source of the properties, that must not change while the map is in use
+     * @return the property map
+     * @throws InvalidOptionValueException when option value could not be converted into a property
+     */
+    public static Map< String, Object > getPropertyMap( OptionSet options ) throws InvalidOptionValueException
+    {
+        String errorMsg= "cannot create property";
+        return new OptionSetPropertyMap( options, null, errorMsg );
+    }
+
+    /**
+     * Get a read-only property map that is backed by given optionSet.
+     * The map contains the same properties as {@link #fillPropertyMap(OptionSet, Map, Logger, String)} would produce,
+     * but property values are only computed when accessed.
+     * Options that cannot be converted are left out of the map, after logging an error message.
+     * @param options source of the properties, that must not change while the map is in use
+     * @param logger uses for logging errors
+     * @param errorMsg message to log on errors
+     * @return the property map
+     */
+    public static Map< String, Object > getPropertyMap( OptionSet options, Logger logger, String errorMsg )
+    {
+        try
+        {
+            return new OptionSetPropertyMap( options, logger, errorMsg );
+        }
+        catch ( InvalidOptionValueException e )
+        {
+            //noop, should not occur when a logger is given
+            return null;
+        }
+    }
+
+    /**
+     * Convert a batch of option sets into property maps.
+     * Processing stops when an exception occurs.
+     * @param optionSets the sources of the properties
+     * @return unmodifiable list of new property maps, in the order of the option sets
+     * @throws BatchConversionException when an option value could not be converted into a property,
+     * the index of the option set is available from the exception
+     * @see #fillPropertyMap(OptionSet, Map)
+     */
+    public static List< Map< String, Object > > toPropertyMaps( List< OptionSet > optionSets ) throws BatchConversionException
+    {
+        return BatchConverter.toPropertyMaps( optionSets, null );
+    }
+
+    /**
+     * Convert a batch of option sets into property maps, in parallel when a pool is given.
+     * Processing stops when an exception occurs.
+     * @param optionSets the sources of the properties
+     * @param pool the pool to use for parallel conversion, or null to convert in the calling thread
+     * @return unmodifiable list of new property maps, in the order of the option sets
+     * @throws BatchConversionException when an option value could not be converted into a property,
+     * the index of the first option set that failed is available from the exception
+     * @see #fillPropertyMap(OptionSet, Map)
+     */
+    public static List< Map< String, Object > > toPropertyMaps( List< OptionSet > optionSets, ForkJoinPool pool ) throws BatchConversionException
+    {
+        return BatchConverter.toPropertyMaps( optionSets, pool );
+    }
+
+    /**
+     * Convert a batch of option sets into property maps, in parallel when a pool is given.
+     * Processing stops when an exception occurs.
+     * @param optionSets the sources of the properties
+     * @param pool the pool to use for parallel conversion, or null to convert in the calling thread
+     * @return unmodifiable list of new property maps, in the order of the option sets
+     * @throws BatchConversionException when an option value could not be converted into a property,
+     * the index of the first option set that failed is available from the exception
+     * @see #fillPropertyMap(OptionSet, Map)
+     */
+    public static List< Map< String, Object > > toPropertyMaps( OptionSet[] optionSets, ForkJoinPool pool ) throws BatchConversionException
+    {
+        return BatchConverter.toPropertyMaps( Arrays.asList( optionSets ), pool );
+    }
+
+    /**
+     * Convert a batch of property maps into option sets.
+     * Properties that are not option properties are ignored.
+     * @param propsList the maps containing the properties
+     * @return unmodifiable list of new option sets, in the order of the property maps
+     * @throws BatchConversionException when a property value could not be converted into an option,
+     * the index of the property map is available from the exception
+     * @see #fillOptionSet(OptionSet, Map, boolean)
+     */
+    public static List< OptionSet > toOptionSets( List< Map< String, Object > > propsList ) throws BatchConversionException
+    {
+        return BatchConverter.toOptionSets( propsList, null );
+    }
+
+    /**
+     * Convert a batch of property maps into option sets, in parallel when a pool is given.
+     * Properties that are not option properties are ignored.
+     * @param propsList the maps containing the properties
+     * @param pool the pool to use for parallel conversion, or null to convert in the calling thread
+     * @return unmodifiable list of new option sets, in the order of the property maps
+     * @throws BatchConversionException when a property value could not be converted into an option,
+     * the index of the first property map that failed is available from the exception
+     * @see #fillOptionSet(OptionSet, Map, boolean)
+     */
+    public static List< OptionSet > toOptionSets( List< Map< String, Object > > propsList, ForkJoinPool pool ) throws BatchConversionException
+    {
+        return BatchConverter.toOptionSets( propsList, pool );
+    }
+
+    /**
+     * Convert a batch of property maps into option sets, in parallel when a pool is given.
+     * Properties that are not option properties are ignored.
+     * @param propsArray the maps containing the properties
+     * @param pool the pool to use for parallel conversion, or null to convert in the calling thread
+     * @return unmodifiable list of new option sets, in the order of the property maps
+     * @throws BatchConversionException when a property value could not be converted into an option,
+     * the index of the first property map that failed is available from the exception
+     * @see #fillOptionSet(OptionSet, Map, boolean)
+     */
+    public static List< OptionSet > toOptionSets( Map< String, Object >[] propsArray, ForkJoinPool pool ) throws BatchConversionException
+    {
+        return BatchConverter.toOptionSets( Arrays.asList( propsArray ), pool );
+    }
+
     /**
      * Handle error that occurs during property processing
      * @param propertyName 
@@ -542,8 +565,9 @@ public class Options
      * @param errorMsg that will be logged or put into exception
      * @throws InvalidOptionValueException thrown when when logger is null in stead of logging
      */
-    private static void handlePropertyError( String propertyName, Exception e, Logger logger, String errorMsg ) throws InvalidOptionValueException
+    static void handlePropertyError( String propertyName, Exception e, Logger logger, String errorMsg ) throws InvalidOptionValueException
     {
+        metrics.recordInvalidValue( propertyName );
         InvalidOptionValueException exception= new InvalidOptionValueException( propertyName, errorMsg, e );
         if ( logger == null )
         {
@@ -553,18 +577,48 @@ public class Options
         {
             logger.error( errorMsg + " { " + propertyName + " }", exception );
         }
-        
+
+    }
+
+    /**
+     * Put cached segments and their joined string into the property map.
+     * @param props map to put properties in
+     * @param listName name of the list property
+     * @param stringName name of the string property
+     * @param entry the cached segments
+     */
+    private static void putEntry( Map< String, Object > props, String listName, String stringName, UriStringCache.Entry entry )
+    {
+        props.put( listName, entry.getSegments() );
+        props.put( stringName, entry.getJoined() );
+    }
+
+    /**
+     * Create etag list property value.
+     * @param etags the etag values
+     * @param cache the cache in use, or null
+     * @return an unmodifiable ETagList when a cache is in use, otherwise a modifiable list
+     * @throws InvalidETagException when an etag value is invalid
+     */
+    private static List< ETag > etagList( List< byte[] > etags, UriStringCache cache ) throws InvalidETagException
+    {
+        return ( cache != null ? ETagList.create( etags ) : ETag.getList( etags ) );
     }
 
-    private static void fillPropertyMapLoggingOrThrowingErrors( OptionSet options, Map< String, Object > props, final Logger logger, String errorMsg ) throws InvalidOptionValueException
+    private static void fillPropertyMapLoggingOrThrowingErrors( OptionSet options, Map< String, Object > props, UriStringCache cache, final Logger logger, String errorMsg ) throws InvalidOptionValueException
     {
+        ConversionMetrics currentMetrics= metrics;
+        boolean measured= ( currentMetrics != ConversionMetrics.NOOP );
+        long start= ( measured ? System.nanoTime() : 0L );
+
         // List<byte[]> if_match_list;
         if ( !options.getIfMatch().isEmpty() )
         {
             String propertyName= PropertyNames.COAP_OPT_IFMATCH_LIST;
             try
             {
-                props.put( propertyName, ETag.getList( options.getIfMatch() ) );
+                props.put( propertyName, etagList( options.getIfMatch(), cache ) );
+                if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.IF_MATCH, 0 );
             }
             catch ( InvalidETagException e )
             {
@@ -575,6 +629,7 @@ public class Options
         if ( options.hasUriHost() )
         {
             props.put( PropertyNames.COAP_OPT_URIHOST, options.getUriHost() );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.URI_HOST, 0 );
         }
         // List<byte[]> etag_list;
         if ( !options.getETags().isEmpty() )
@@ -582,7 +637,8 @@ public class Options
             String propertyName= PropertyNames.COAP_OPT_ETAG_LIST;
             try
             {
-                props.put( propertyName, ETag.getList( options.getETags() ) );
+                props.put( propertyName, etagList( options.getETags(), cache ) );
+                if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.ETAG, 0 );
             }
             catch ( InvalidETagException e )
             {
@@ -591,61 +647,99 @@ public class Options
         }
         // boolean      if_none_match; // true if option is set
         props.put( PropertyNames.COAP_OPT_IFNONMATCH, Boolean.valueOf( options.hasIfNoneMatch() ) );
+        if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.IF_NONE_MATCH, 0 );
 
         // Integer      uri_port; // null if no port is explicitly defined
         if ( options.hasUriPort() )
         {
             props.put( PropertyNames.COAP_OPT_URIPORT, options.getUriPort() );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.URI_PORT, 0 );
         }
         // List<String> location_path_list;
         if ( !options.getLocationPath().isEmpty() )
         {
-            props.put( PropertyNames.COAP_OPT_LOCATIONPATH_LIST, options.getLocationPath() );
-            props.put( PropertyNames.COAP_OPT_LOCATIONPATH, options.getLocationPathString() );
+            if ( cache != null )
+            {
+                putEntry( props, PropertyNames.COAP_OPT_LOCATIONPATH_LIST, PropertyNames.COAP_OPT_LOCATIONPATH, cache.path( options.getLocationPath() ) );
+            }
+            else
+            {
+                props.put( PropertyNames.COAP_OPT_LOCATIONPATH_LIST, options.getLocationPath() );
+                props.put( PropertyNames.COAP_OPT_LOCATIONPATH, options.getLocationPathString() );
+            }
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.LOCATION_PATH, 0 );
         }
         // List<String> uri_path_list;
         if ( !options.getUriPath().isEmpty() )
         {
-            props.put( PropertyNames.COAP_OPT_URIPATH_LIST, options.getUriPath() );
-            props.put( PropertyNames.COAP_OPT_URIPATH, options.getUriPathString() );
+            if ( cache != null )
+            {
+                putEntry( props, PropertyNames.COAP_OPT_URIPATH_LIST, PropertyNames.COAP_OPT_URIPATH, cache.path( options.getUriPath() ) );
+            }
+            else
+            {
+                props.put( PropertyNames.COAP_OPT_URIPATH_LIST, options.getUriPath() );
+                props.put( PropertyNames.COAP_OPT_URIPATH, options.getUriPathString() );
+            }
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.URI_PATH, 0 );
         }
         // Integer      content_format;
         if ( options.hasContentFormat() )
         {
-            //TODO as text?
-            props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, Integer.valueOf( options.getContentFormat() ) );
+            props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, ContentFormatRegistry.toInteger( options.getContentFormat() ) );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.CONTENT_FORMAT, 0 );
         }
         // Long         max_age; // (0-4 bytes)
         if ( options.hasMaxAge() )
         {
             props.put( PropertyNames.COAP_OPT_MAXAGE, options.getMaxAge() );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.MAX_AGE, 0 );
         }
         // List<String> uri_query_list;
         if ( !options.getUriQuery().isEmpty() )
         {
-            props.put( PropertyNames.COAP_OPT_URIQUERY_LIST, options.getUriQuery() );
-            props.put( PropertyNames.COAP_OPT_URIQUERY, options.getUriQueryString() );
+            if ( cache != null )
+            {
+                putEntry( props, PropertyNames.COAP_OPT_URIQUERY_LIST, PropertyNames.COAP_OPT_URIQUERY, cache.query( options.getUriQuery() ) );
+            }
+            else
+            {
+                props.put( PropertyNames.COAP_OPT_URIQUERY_LIST, options.getUriQuery() );
+                props.put( PropertyNames.COAP_OPT_URIQUERY, options.getUriQueryString() );
+            }
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.URI_QUERY, 0 );
         }
         // Integer      accept;
         if ( options.hasAccept() )
         {
-            props.put( PropertyNames.COAP_OPT_ACCEPT, Integer.valueOf( options.getAccept() ) );
+            props.put( PropertyNames.COAP_OPT_ACCEPT, ContentFormatRegistry.toInteger( options.getAccept() ) );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.ACCEPT, 0 );
         }
         // List<String> location_query_list;
         if ( !options.getLocationQuery().isEmpty() )
         {
-            props.put( PropertyNames.COAP_OPT_LOCATIONQUERY_LIST, options.getLocationQuery() );
-            props.put( PropertyNames.COAP_OPT_LOCATIONQUERY, options.getLocationQueryString() );
+            if ( cache != null )
+            {
+                putEntry( props, PropertyNames.COAP_OPT_LOCATIONQUERY_LIST, PropertyNames.COAP_OPT_LOCATIONQUERY, cache.query( options.getLocationQuery() ) );
+            }
+            else
+            {
+                props.put( PropertyNames.COAP_OPT_LOCATIONQUERY_LIST, options.getLocationQuery() );
+                props.put( PropertyNames.COAP_OPT_LOCATIONQUERY, options.getLocationQueryString() );
+            }
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.LOCATION_QUERY, 0 );
         }
         // String       proxy_uri;
         if ( options.hasProxyUri() )
         {
             props.put( PropertyNames.COAP_OPT_PROXYURI, options.getProxyUri() );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.PROXY_URI, 0 );
         }
         // String       proxy_scheme;
         if ( options.hasProxyScheme() )
         {
             props.put( PropertyNames.COAP_OPT_PROXYSCHEME, options.getProxyScheme() );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.PROXY_SCHEME, 0 );
         }
         // BlockOption  block1;
         if ( options.hasBlock1() )
@@ -654,6 +748,7 @@ public class Options
             props.put( PropertyNames.COAP_OPT_BLOCK1_SIZE, Integer.valueOf( options.getBlock1().getSize() ) );
             props.put( PropertyNames.COAP_OPT_BLOCK1_NUM, Integer.valueOf( options.getBlock1().getNum() ) );
             props.put( PropertyNames.COAP_OPT_BLOCK1_M, Boolean.valueOf( options.getBlock1().isM() ) );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.BLOCK1, 0 );
         }
         // BlockOption  block2;
         if ( options.hasBlock2() )
@@ -662,21 +757,25 @@ public class Options
             props.put( PropertyNames.COAP_OPT_BLOCK2_SIZE, Integer.valueOf( options.getBlock2().getSize() ) );
             props.put( PropertyNames.COAP_OPT_BLOCK2_NUM, Integer.valueOf( options.getBlock2().getNum() ) );
             props.put( PropertyNames.COAP_OPT_BLOCK2_M, Boolean.valueOf( options.getBlock2().isM() ) );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.BLOCK2, 0 );
         }
         // Integer      size1;
         if ( options.hasSize1() )
         {
             props.put( PropertyNames.COAP_OPT_SIZE1, options.getSize1() );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.SIZE1, 0 );
         }
         // Integer      size2;
         if ( options.hasSize2() )
         {
             props.put( PropertyNames.COAP_OPT_SIZE2, options.getSize2() );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.SIZE2, 0 );
         }
         // Integer      observe;
         if ( options.hasObserve() )
         {
             props.put( PropertyNames.COAP_OPT_OBSERVE, options.getObserve() );
+            if ( measured ) ConversionRecorder.record( currentMetrics, Direction.TO_PROPERTY_MAP, options, OptionNumberRegistry.OBSERVE, 0 );
         }
         // Arbitrary options
         // List<Option> others;
@@ -686,22 +785,27 @@ public class Options
             props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + other.getNumber() + PropertyNames.POSTFIX_CRITICAL, Boolean.valueOf( other.isCritical() ) );
             props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + other.getNumber() + PropertyNames.POSTFIX_NOCACHEKEY, Boolean.valueOf( other.isNoCacheKey() ) );
             props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + other.getNumber() + PropertyNames.POSTFIX_UNSAFE, Boolean.valueOf( other.isUnSafe() ) );
+            if ( measured ) currentMetrics.recordOption( Direction.TO_PROPERTY_MAP, other.getNumber(), other.getLength() );
         }
+
+        if ( measured ) currentMetrics.recordConversion( Direction.TO_PROPERTY_MAP, System.nanoTime() - start );
     }
 
-    private static int optionNrfromPropertyName( String propertyName )
+    /**
+     * Set the metrics conversions are recorded in.
+     * By default conversions are not measured.
+     * @param metrics the metrics, or null to stop recording
+     */
+    public static void setMetrics( ConversionMetrics metrics )
     {
-        Matcher matcher= PropertyNames.otherPattern.matcher( propertyName );
-
-        // if an occurrence if a pattern was found in a given string...
-        if ( matcher.find() )
-        {
-            return Integer.parseInt( matcher.group( 1 ) );
-        }
-        else
-        {
-            return -1;
-        }
+        Options.metrics= ( metrics == null ? ConversionMetrics.NOOP : metrics );
     }
 
+    /**
+     * @return the metrics conversions are recorded in, {@link ConversionMetrics#NOOP} when not measured
+     */
+    public static ConversionMetrics getMetrics()
+    {
+        return metrics;
+    }
 }
\ No newline at end of file
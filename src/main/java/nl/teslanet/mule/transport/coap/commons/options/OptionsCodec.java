@@ -0,0 +1,1254 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.slf4j.Logger;
+
+
+/**
+ * Codec that encodes option properties directly into the CoAP option format
+ * as defined by RFC 7252 section 3.1, and decodes them back into properties.
+ * No Californium OptionSet or Option objects are involved.
+ * Encoding follows the semantics of {@link Options#fillOptionSet(org.eclipse.californium.core.coap.OptionSet, Map, boolean)}
+ * and decoding those of {@link Options#fillPropertyMap(org.eclipse.californium.core.coap.OptionSet, Map)}.
+ */
+public final class OptionsCodec
+{
+    /**
+     * Marker that separates options from payload.
+     */
+    private static final int PAYLOAD_MARKER= 0xFF;
+
+    /**
+     * Encode the option properties contained in given property map into the CoAP option format.
+     * The options are written at the current position of the buffer, which is advanced
+     * by the number of bytes written. The payload marker is not written.
+     * Properties that are not option properties are ignored.
+     * @param props map containing the properties
+     * @param buffer the buffer to write into
+     * @return the number of bytes written
+     * @throws BufferOverflowException when there is not enough room in the buffer, in which case nothing is written
+     * @throws IllegalArgumentException when a property value is not valid for the option
+     */
+    public static int encode( Map< String, Object > props, ByteBuffer buffer )
+    {
+        OptionList options= new OptionList();
+        collect( props, options );
+        return options.write( buffer );
+    }
+
+    /**
+     * Get the length of the encoded option properties contained in given property map.
+     * @param props map containing the properties
+     * @return the number of bytes the encoded options take
+     * @throws IllegalArgumentException when a property value is not valid for the option
+     */
+    public static int encodedLength( Map< String, Object > props )
+    {
+        OptionList options= new OptionList();
+        collect( props, options );
+        return options.encodedLength();
+    }
+
+    /**
+     * Collect the options contained in the property map.
+     * @param props map containing the properties
+     * @param options the list to collect the options in
+     */
+    @SuppressWarnings("unchecked")
+    private static void collect( Map< String, Object > props, OptionList options )
+    {
+        for ( Entry< String, Object > e : props.entrySet() )
+        {
+            String key= e.getKey();
+            if ( !key.startsWith( PropertyNames.PREFIX_COAP_OPT ) ) continue;
+            Object value= e.getValue();
+            OptionProperty property= OptionProperty.get( key );
+            if ( property == null )
+            {
+                int optionNr= PropertyNames.otherOptionNumber( key );
+                if ( optionNr >= 0 && value != null )
+                {
+                    if ( isSingleValue( optionNr ) ) options.remove( optionNr );
+                    if ( byte[].class.isAssignableFrom( value.getClass() ) )
+                    {
+                        options.addBytes( optionNr, (byte[]) value );
+                    }
+                    else
+                    {
+                        options.addString( optionNr, value.toString() );
+                    }
+                }
+                continue;
+            }
+            switch ( property )
+            {
+                case IFMATCH_LIST:
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< Object >) value ) )
+                        {
+                            options.addIfMatch( val );
+                        }
+                    }
+                    else if ( value != null )
+                    {
+                        options.addIfMatch( value );
+                    }
+                    break;
+                case URIHOST:
+                    if ( value != null )
+                    {
+                        String host= value.toString();
+                        checkLength( "URI-Host", utf8Length( host, 0, host.length() ), 1, 255 );
+                        options.remove( OptionNumberRegistry.URI_HOST );
+                        options.addString( OptionNumberRegistry.URI_HOST, host );
+                    }
+                    break;
+                case ETAG_LIST:
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< Object >) value ) )
+                        {
+                            options.addOpaque( OptionNumberRegistry.ETAG, val );
+                        }
+                    }
+                    else if ( value != null )
+                    {
+                        options.addOpaque( OptionNumberRegistry.ETAG, value );
+                    }
+                    break;
+                case IFNONMATCH:
+                    options.remove( OptionNumberRegistry.IF_NONE_MATCH );
+                    if ( Options.toBoolean( value ) ) options.addEmpty( OptionNumberRegistry.IF_NONE_MATCH );
+                    break;
+                case URIPORT:
+                    options.setUint( OptionNumberRegistry.URI_PORT, checkRange( "URI port", Options.toInteger( value ), 0, 65535 ) );
+                    break;
+                case LOCATIONPATH_LIST:
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< Object >) value ) )
+                        {
+                            options.addSegment( OptionNumberRegistry.LOCATION_PATH, "Location-Path", val.toString() );
+                        }
+                    }
+                    break;
+                case LOCATIONPATH:
+                    if ( value != null )
+                    {
+                        options.setPath( OptionNumberRegistry.LOCATION_PATH, "Location-Path", value.toString() );
+                    }
+                    break;
+                case URIPATH_LIST:
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< Object >) value ) )
+                        {
+                            options.addSegment( OptionNumberRegistry.URI_PATH, "Uri-Path", val.toString() );
+                        }
+                    }
+                    break;
+                case URIPATH:
+                    if ( value != null )
+                    {
+                        options.setPath( OptionNumberRegistry.URI_PATH, "Uri-Path", value.toString() );
+                    }
+                    break;
+                case CONTENTFORMAT:
+                    int format= ContentFormatRegistry.parse( value );
+                    if ( format == ContentFormatRegistry.UNDEFINED )
+                    {
+                        options.remove( OptionNumberRegistry.CONTENT_FORMAT );
+                    }
+                    else
+                    {
+                        options.setUint( OptionNumberRegistry.CONTENT_FORMAT, checkRange( "Content-Format", format, 0, ContentFormatRegistry.MAX_CONTENT_FORMAT ) );
+                    }
+                    break;
+                case MAXAGE:
+                    options.setUint( OptionNumberRegistry.MAX_AGE, checkRange( "Max-Age", Options.toLong( value ), 0L, 0xFFFFFFFFL ) );
+                    break;
+                case URIQUERY_LIST:
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< Object >) value ) )
+                        {
+                            options.addSegment( OptionNumberRegistry.URI_QUERY, "Uri-Query", val.toString() );
+                        }
+                    }
+                    break;
+                case URIQUERY:
+                    if ( value != null )
+                    {
+                        options.setQuery( OptionNumberRegistry.URI_QUERY, "Uri-Query", value.toString() );
+                    }
+                    break;
+                case ACCEPT:
+                    options.setUint( OptionNumberRegistry.ACCEPT, checkRange( "Accept", ContentFormatRegistry.parse( value ), 0, 65535 ) );
+                    break;
+                case LOCATIONQUERY_LIST:
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< Object >) value ) )
+                        {
+                            options.addSegment( OptionNumberRegistry.LOCATION_QUERY, "Location-Query", val.toString() );
+                        }
+                    }
+                    break;
+                case LOCATIONQUERY:
+                    if ( value != null )
+                    {
+                        options.setQuery( OptionNumberRegistry.LOCATION_QUERY, "Location-Query", value.toString() );
+                    }
+                    break;
+                case PROXYURI:
+                    if ( value != null )
+                    {
+                        String uri= value.toString();
+                        checkLength( "Proxy-Uri", utf8Length( uri, 0, uri.length() ), 1, 1034 );
+                        options.remove( OptionNumberRegistry.PROXY_URI );
+                        options.addString( OptionNumberRegistry.PROXY_URI, uri );
+                    }
+                    break;
+                case PROXYSCHEME:
+                    if ( value != null )
+                    {
+                        String scheme= value.toString();
+                        checkLength( "Proxy-Scheme", utf8Length( scheme, 0, scheme.length() ), 1, 255 );
+                        options.remove( OptionNumberRegistry.PROXY_SCHEME );
+                        options.addString( OptionNumberRegistry.PROXY_SCHEME, scheme );
+                    }
+                    break;
+                case BLOCK1_SIZE:
+                case BLOCK1_SZX:
+                case BLOCK1_NUM:
+                case BLOCK1_M:
+                case BLOCK2_SIZE:
+                case BLOCK2_SZX:
+                case BLOCK2_NUM:
+                case BLOCK2_M:
+                    options.blocks.collect( key, value );
+                    break;
+                case SIZE1:
+                    options.setUint( OptionNumberRegistry.SIZE1, Options.toInteger( value ) & 0xFFFFFFFFL );
+                    break;
+                case SIZE2:
+                    options.setUint( OptionNumberRegistry.SIZE2, Options.toInteger( value ) & 0xFFFFFFFFL );
+                    break;
+                case OBSERVE:
+                    options.setUint( OptionNumberRegistry.OBSERVE, checkRange( "Observe", Options.toInteger( value ), 0, 16777215 ) );
+                    break;
+                default:
+                    break;
+            }
+        }
+        options.addBlocks();
+    }
+
+    /**
+     * Check whether options with given number replace each other, like in Californium OptionSet.
+     * @param optionNr the option number
+     * @return true when the option is single valued
+     */
+    private static boolean isSingleValue( int optionNr )
+    {
+        switch ( optionNr )
+        {
+            case OptionNumberRegistry.IF_MATCH:
+            case OptionNumberRegistry.ETAG:
+            case OptionNumberRegistry.LOCATION_PATH:
+            case OptionNumberRegistry.URI_PATH:
+            case OptionNumberRegistry.URI_QUERY:
+            case OptionNumberRegistry.LOCATION_QUERY:
+                return false;
+            case OptionNumberRegistry.URI_HOST:
+            case OptionNumberRegistry.IF_NONE_MATCH:
+            case OptionNumberRegistry.URI_PORT:
+            case OptionNumberRegistry.CONTENT_FORMAT:
+            case OptionNumberRegistry.MAX_AGE:
+            case OptionNumberRegistry.ACCEPT:
+            case OptionNumberRegistry.PROXY_URI:
+            case OptionNumberRegistry.PROXY_SCHEME:
+            case OptionNumberRegistry.BLOCK1:
+            case OptionNumberRegistry.BLOCK2:
+            case OptionNumberRegistry.SIZE1:
+            case OptionNumberRegistry.SIZE2:
+            case OptionNumberRegistry.OBSERVE:
+                return true;
+            default:
+                //unknown options are collected as others, not replacing each other
+                return false;
+        }
+    }
+
+    private static long checkRange( String optionName, long value, long min, long max )
+    {
+        if ( value < min || value > max )
+        {
+            throw new IllegalArgumentException( optionName + " option must be between " + min + " and " + max + " inclusive but was " + value );
+        }
+        return value;
+    }
+
+    private static void checkLength( String optionName, int length, int min, int max )
+    {
+        if ( length < min || length > max )
+        {
+            throw new IllegalArgumentException( optionName + " option must be between " + min + " and " + max + " bytes inclusive (UTF-8 encoded)" );
+        }
+    }
+
+    /**
+     * Calculate the UTF-8 encoded length of a range of characters,
+     * consistent with {@link String#getBytes(java.nio.charset.Charset)}.
+     * @param s the string
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the number of bytes
+     */
+    static int utf8Length( String s, int start, int end )
+    {
+        int length= 0;
+        for ( int i= start; i < end; i++ )
+        {
+            char c= s.charAt( i );
+            if ( c < 0x80 )
+            {
+                length++;
+            }
+            else if ( c < 0x800 )
+            {
+                length+= 2;
+            }
+            else if ( Character.isHighSurrogate( c ) && i + 1 < end && Character.isLowSurrogate( s.charAt( i + 1 ) ) )
+            {
+                length+= 4;
+                i++;
+            }
+            else if ( Character.isSurrogate( c ) )
+            {
+                //malformed, replaced by '?'
+                length++;
+            }
+            else
+            {
+                length+= 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Write a range of characters UTF-8 encoded,
+     * consistent with {@link String#getBytes(java.nio.charset.Charset)}.
+     * @param s the string
+     * @param start the start of the range
+     * @param end the end of the range
+     * @param buffer the buffer to write into
+     */
+    static void writeUtf8( String s, int start, int end, ByteBuffer buffer )
+    {
+        for ( int i= start; i < end; i++ )
+        {
+            char c= s.charAt( i );
+            if ( c < 0x80 )
+            {
+                buffer.put( (byte) c );
+            }
+            else if ( c < 0x800 )
+            {
+                buffer.put( (byte) ( 0xC0 | ( c >> 6 ) ) );
+                buffer.put( (byte) ( 0x80 | ( c & 0x3F ) ) );
+            }
+            else if ( Character.isHighSurrogate( c ) && i + 1 < end && Character.isLowSurrogate( s.charAt( i + 1 ) ) )
+            {
+                int cp= Character.toCodePoint( c, s.charAt( ++i ) );
+                buffer.put( (byte) ( 0xF0 | ( cp >> 18 ) ) );
+                buffer.put( (byte) ( 0x80 | ( ( cp >> 12 ) & 0x3F ) ) );
+                buffer.put( (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3F ) ) );
+                buffer.put( (byte) ( 0x80 | ( cp & 0x3F ) ) );
+            }
+            else if ( Character.isSurrogate( c ) )
+            {
+                buffer.put( (byte) '?' );
+            }
+            else
+            {
+                buffer.put( (byte) ( 0xE0 | ( c >> 12 ) ) );
+                buffer.put( (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) ) );
+                buffer.put( (byte) ( 0x80 | ( c & 0x3F ) ) );
+            }
+        }
+    }
+
+    /**
+     * Get the minimal number of bytes needed to encode an unsigned integer option value.
+     * @param value the value
+     * @return the number of bytes
+     */
+    static int uintLength( long value )
+    {
+        int length= 0;
+        while ( value != 0L )
+        {
+            length++;
+            value>>>= 8;
+        }
+        return length;
+    }
+
+    /**
+     * Get the number of bytes needed for the extension of an option delta or length.
+     * @param value the delta or length
+     * @return the number of extension bytes
+     */
+    private static int extensionLength( int value )
+    {
+        return value < 13 ? 0 : value < 269 ? 1 : 2;
+    }
+
+    private static int nibble( int value )
+    {
+        return value < 13 ? value : value < 269 ? 13 : 14;
+    }
+
+    private static void writeExtension( int value, ByteBuffer buffer )
+    {
+        if ( value >= 269 )
+        {
+            int extended= value - 269;
+            buffer.put( (byte) ( extended >>> 8 ) );
+            buffer.put( (byte) extended );
+        }
+        else if ( value >= 13 )
+        {
+            buffer.put( (byte) ( value - 13 ) );
+        }
+    }
+
+    /**
+     * Get the length of an option header.
+     * @param delta the option delta
+     * @param length the option value length
+     * @return the number of header bytes
+     */
+    static int headerLength( int delta, int length )
+    {
+        return 1 + extensionLength( delta ) + extensionLength( length );
+    }
+
+    /**
+     * Write an option header.
+     * @param delta the option delta
+     * @param length the option value length
+     * @param buffer the buffer to write into
+     */
+    static void writeHeader( int delta, int length, ByteBuffer buffer )
+    {
+        buffer.put( (byte) ( ( nibble( delta ) << 4 ) | nibble( length ) ) );
+        writeExtension( delta, buffer );
+        writeExtension( length, buffer );
+    }
+
+    /**
+     * List of options to encode. Values are kept by reference and encoded when written.
+     */
+    private static final class OptionList
+    {
+        private static final byte EMPTY= 0;
+
+        private static final byte UINT= 1;
+
+        private static final byte BYTES= 2;
+
+        private static final byte ETAG= 3;
+
+        private static final byte STRING= 4;
+
+        private int size= 0;
+
+        private int[] numbers= new int [16];
+
+        private byte[] kinds= new byte [16];
+
+        private Object[] refs= new Object [16];
+
+        /**
+         * Unsigned integer value, or start and end of a string range.
+         */
+        private long[] longs= new long [16];
+
+        private final BlockAssembler blocks= new BlockAssembler();
+
+        private void add( int number, byte kind, Object ref, long value )
+        {
+            if ( size == numbers.length )
+            {
+                int capacity= size * 2;
+                int[] newNumbers= new int [capacity];
+                byte[] newKinds= new byte [capacity];
+                Object[] newRefs= new Object [capacity];
+                long[] newLongs= new long [capacity];
+                System.arraycopy( numbers, 0, newNumbers, 0, size );
+                System.arraycopy( kinds, 0, newKinds, 0, size );
+                System.arraycopy( refs, 0, newRefs, 0, size );
+                System.arraycopy( longs, 0, newLongs, 0, size );
+                numbers= newNumbers;
+                kinds= newKinds;
+                refs= newRefs;
+                longs= newLongs;
+            }
+            numbers[size]= number;
+            kinds[size]= kind;
+            refs[size]= ref;
+            longs[size]= value;
+            size++;
+        }
+
+        /**
+         * Remove all options with given number, keeping the order of the others.
+         * @param number the option number
+         */
+        void remove( int number )
+        {
+            int j= 0;
+            for ( int i= 0; i < size; i++ )
+            {
+                if ( numbers[i] != number )
+                {
+                    numbers[j]= numbers[i];
+                    kinds[j]= kinds[i];
+                    refs[j]= refs[i];
+                    longs[j]= longs[i];
+                    j++;
+                }
+            }
+            for ( int i= j; i < size; i++ )
+            {
+                refs[i]= null;
+            }
+            size= j;
+        }
+
+        void addEmpty( int number )
+        {
+            add( number, EMPTY, null, 0L );
+        }
+
+        void setUint( int number, long value )
+        {
+            remove( number );
+            add( number, UINT, null, value );
+        }
+
+        void addBytes( int number, byte[] value )
+        {
+            add( number, BYTES, value, 0L );
+        }
+
+        void addString( int number, String value )
+        {
+            addString( number, value, 0, value.length() );
+        }
+
+        void addString( int number, String value, int start, int end )
+        {
+            add( number, STRING, value, ( (long) start << 32 ) | end );
+        }
+
+        /**
+         * Add opaque option value, converted like {@link Options#toBytes(Object)} does.
+         * @param number the option number
+         * @param value the value
+         */
+        void addOpaque( int number, Object value )
+        {
+            if ( value instanceof byte[] )
+            {
+                addBytes( number, (byte[]) value );
+            }
+            else if ( value instanceof ETag )
+            {
+                add( number, ETAG, value, 0L );
+            }
+            else
+            {
+                addString( number, value.toString() );
+            }
+        }
+
+        void addIfMatch( Object value )
+        {
+            addOpaque( OptionNumberRegistry.IF_MATCH, value );
+            if ( length( size - 1 ) > 8 )
+            {
+                throw new IllegalArgumentException( "If-Match option must be smaller or equal to 8 bytes" );
+            }
+        }
+
+        void addSegment( int number, String optionName, String segment )
+        {
+            addSegment( number, optionName, segment, 0, segment.length() );
+        }
+
+        void addSegment( int number, String optionName, String s, int start, int end )
+        {
+            if ( utf8Length( s, start, end ) > 255 )
+            {
+                throw new IllegalArgumentException( optionName + " option must be smaller or equal to 255 bytes (UTF-8 encoded): " + s.substring( start, end ) );
+            }
+            addString( number, s, start, end );
+        }
+
+        /**
+         * Set path option segments, split the same way as Californium OptionSet does.
+         * @param number the option number
+         * @param optionName name used in error messages
+         * @param path the path
+         */
+        void setPath( int number, String optionName, String path )
+        {
+            remove( number );
+            int start= path.startsWith( "/" ) ? 1 : 0;
+            int length= path.length();
+            //trailing empty segments are dropped, unless there is no separator at all
+            int end= length;
+            if ( path.indexOf( '/', start ) >= 0 )
+            {
+                while ( end > start && path.charAt( end - 1 ) == '/' )
+                {
+                    end--;
+                }
+                if ( end == start ) return;
+            }
+            int segmentStart= start;
+            for ( int i= start; i <= end; i++ )
+            {
+                if ( i == end || path.charAt( i ) == '/' )
+                {
+                    addSegment( number, optionName, path, segmentStart, i );
+                    segmentStart= i + 1;
+                }
+            }
+        }
+
+        /**
+         * Set query option arguments, split the same way as Californium OptionSet does.
+         * @param number the option number
+         * @param optionName name used in error messages
+         * @param query the query
+         */
+        void setQuery( int number, String optionName, String query )
+        {
+            remove( number );
+            int start= 0;
+            int length= query.length();
+            while ( start < length && query.charAt( start ) == '?' )
+            {
+                start++;
+            }
+            int argumentStart= start;
+            for ( int i= start; i <= length; i++ )
+            {
+                if ( i == length || query.charAt( i ) == '&' )
+                {
+                    //empty arguments are dropped
+                    if ( i > argumentStart ) addSegment( number, optionName, query, argumentStart, i );
+                    argumentStart= i + 1;
+                }
+            }
+        }
+
+        void addBlocks()
+        {
+            if ( blocks.block1.isPresent() ) setUint( OptionNumberRegistry.BLOCK1, blockValue( blocks.block1 ) );
+            if ( blocks.block2.isPresent() ) setUint( OptionNumberRegistry.BLOCK2, blockValue( blocks.block2 ) );
+        }
+
+        /**
+         * Get the value of a block option, as Californium BlockOption encodes it.
+         * @param block the block components
+         * @return the block option value
+         */
+        private static long blockValue( BlockAssembler.Components block )
+        {
+            int szx= block.getSzx( null );
+            int num= block.getNum( null );
+            if ( szx < 0 || szx > 7 ) throw new IllegalArgumentException( "Block option's szx must be between 0 and 7 inclusive" );
+            if ( num < 0 || num > 0xFFFFF ) throw new IllegalArgumentException( "Block option's num must be between 0 and 1048575 inclusive" );
+            return ( (long) num << 4 ) | ( block.isM( null ) ? 0x08 : 0 ) | szx;
+        }
+
+        /**
+         * Get the encoded length of an option value.
+         * @param i the index of the option
+         * @return the value length
+         */
+        int length( int i )
+        {
+            switch ( kinds[i] )
+            {
+                case UINT:
+                    return uintLength( longs[i] );
+                case BYTES:
+                    return ( (byte[]) refs[i] ).length;
+                case ETAG:
+                    return ( (ETag) refs[i] ).length();
+                case STRING:
+                    return utf8Length( (String) refs[i], (int) ( longs[i] >>> 32 ), (int) longs[i] );
+                default:
+                    return 0;
+            }
+        }
+
+        /**
+         * Sort options on number, keeping the order of options with equal numbers.
+         */
+        void sort()
+        {
+            for ( int i= 1; i < size; i++ )
+            {
+                int number= numbers[i];
+                byte kind= kinds[i];
+                Object ref= refs[i];
+                long value= longs[i];
+                int j= i - 1;
+                while ( j >= 0 && numbers[j] > number )
+                {
+                    numbers[j + 1]= numbers[j];
+                    kinds[j + 1]= kinds[j];
+                    refs[j + 1]= refs[j];
+                    longs[j + 1]= longs[j];
+                    j--;
+                }
+                numbers[j + 1]= number;
+                kinds[j + 1]= kind;
+                refs[j + 1]= ref;
+                longs[j + 1]= value;
+            }
+        }
+
+        /**
+         * Get the encoded length of the sorted options.
+         * @return the number of bytes
+         */
+        int encodedLength()
+        {
+            sort();
+            int total= 0;
+            int previous= 0;
+            for ( int i= 0; i < size; i++ )
+            {
+                int delta= numbers[i] - previous;
+                int length= length( i );
+                total+= headerLength( delta, length ) + length;
+                previous= numbers[i];
+            }
+            return total;
+        }
+
+        /**
+         * Write the options.
+         * @param buffer the buffer to write into
+         * @return the number of bytes written
+         */
+        int write( ByteBuffer buffer )
+        {
+            int total= encodedLength();
+            if ( buffer.remaining() < total )
+            {
+                throw new BufferOverflowException();
+            }
+            int previous= 0;
+            for ( int i= 0; i < size; i++ )
+            {
+                int delta= numbers[i] - previous;
+                int length= length( i );
+                writeHeader( delta, length, buffer );
+                switch ( kinds[i] )
+                {
+                    case UINT:
+                        for ( int shift= ( length - 1 ) * 8; shift >= 0; shift-= 8 )
+                        {
+                            buffer.put( (byte) ( longs[i] >>> shift ) );
+                        }
+                        break;
+                    case BYTES:
+                        buffer.put( (byte[]) refs[i] );
+                        break;
+                    case ETAG:
+                        ( (ETag) refs[i] ).writeTo( buffer );
+                        break;
+                    case STRING:
+                        writeUtf8( (String) refs[i], (int) ( longs[i] >>> 32 ), (int) longs[i], buffer );
+                        break;
+                    default:
+                        break;
+                }
+                previous= numbers[i];
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Decode options in CoAP option format into properties.
+     * Options are read from the current position of the buffer up to the payload marker or the limit of the buffer.
+     * The position of the buffer is advanced to the payload marker, or the limit when there is none.
+     * Processing options stops when an exception occurs.
+     * @param buffer the buffer containing the encoded options
+     * @param props map to put properties in
+     * @throws InvalidOptionValueException when the options are malformed or an option value could not be converted into a property
+     */
+    public static void decode( ByteBuffer buffer, Map< String, Object > props ) throws InvalidOptionValueException
+    {
+        String errorMsg= "cannot create property";
+        decodeLoggingOrThrowingErrors( buffer, props, null, errorMsg );
+    }
+
+    /**
+     * Decode options in CoAP option format into properties.
+     * Options are read from the current position of the buffer up to the payload marker or the limit of the buffer.
+     * The position of the buffer is advanced to the payload marker, or the limit when there is none.
+     * Processing options continues when an option value cannot be converted, after logging an error message.
+     * Decoding stops after logging an error message when the options are malformed,
+     * leaving the position of the buffer at the start of the malformed option.
+     * @param buffer the buffer containing the encoded options
+     * @param props map to put properties in
+     * @param logger uses for logging errors
+     * @param errorMsg message to log on errors
+     */
+    public static void decode( ByteBuffer buffer, Map< String, Object > props, Logger logger, String errorMsg )
+    {
+        try
+        {
+            decodeLoggingOrThrowingErrors( buffer, props, logger, errorMsg );
+        }
+        catch ( InvalidOptionValueException e )
+        {
+            //noop, should not occur when a logger is given
+        }
+    }
+
+    private static void decodeLoggingOrThrowingErrors( ByteBuffer buffer, Map< String, Object > props, Logger logger, String errorMsg ) throws InvalidOptionValueException
+    {
+        Decoded decoded= new Decoded();
+        int position= buffer.position();
+        int limit= buffer.limit();
+        int number= 0;
+        while ( position < limit )
+        {
+            int header= buffer.get( position ) & 0xFF;
+            if ( header == PAYLOAD_MARKER ) break;
+            int optionStart= position++;
+            int delta= header >>> 4;
+            int length= header & 0x0F;
+            if ( delta == 15 || length == 15 )
+            {
+                malformed( optionStart, "reserved delta or length", logger, errorMsg );
+                position= optionStart;
+                break;
+            }
+            int extension= extensionLength( delta == 13 ? 13 : delta == 14 ? 269 : 0 ) + extensionLength( length == 13 ? 13 : length == 14 ? 269 : 0 );
+            if ( position + extension > limit )
+            {
+                malformed( optionStart, "option header truncated", logger, errorMsg );
+                position= optionStart;
+                break;
+            }
+            if ( delta == 13 )
+            {
+                delta= 13 + ( buffer.get( position++ ) & 0xFF );
+            }
+            else if ( delta == 14 )
+            {
+                delta= 269 + ( ( buffer.get( position++ ) & 0xFF ) << 8 | ( buffer.get( position++ ) & 0xFF ) );
+            }
+            if ( length == 13 )
+            {
+                length= 13 + ( buffer.get( position++ ) & 0xFF );
+            }
+            else if ( length == 14 )
+            {
+                length= 269 + ( ( buffer.get( position++ ) & 0xFF ) << 8 | ( buffer.get( position++ ) & 0xFF ) );
+            }
+            if ( position + length > limit )
+            {
+                malformed( optionStart, "option value truncated", logger, errorMsg );
+                position= optionStart;
+                break;
+            }
+            number+= delta;
+            if ( number > 0xFFFF )
+            {
+                malformed( optionStart, "option number out of range", logger, errorMsg );
+                position= optionStart;
+                break;
+            }
+            decoded.add( number, buffer, position, length );
+            position+= length;
+        }
+        buffer.position( position );
+        decoded.fill( props, logger, errorMsg );
+    }
+
+    private static void malformed( int position, String reason, Logger logger, String errorMsg ) throws InvalidOptionValueException
+    {
+        InvalidOptionValueException exception= new InvalidOptionValueException( "Malformed options at position " + position + ", " + reason );
+        if ( logger == null )
+        {
+            throw exception;
+        }
+        else
+        {
+            logger.error( errorMsg + " { " + reason + " }", exception );
+        }
+    }
+
+    /**
+     * Options decoded so far.
+     */
+    private static final class Decoded
+    {
+        private long[] ifMatchValues= null;
+
+        private byte[] ifMatchLengths= null;
+
+        private int ifMatchCount= 0;
+
+        private boolean ifMatchValid= true;
+
+        private String uriHost= null;
+
+        private long[] etagValues= null;
+
+        private byte[] etagLengths= null;
+
+        private int etagCount= 0;
+
+        private boolean etagValid= true;
+
+        private boolean ifNoneMatch= false;
+
+        private Integer uriPort= null;
+
+        private List< String > locationPath= null;
+
+        private List< String > uriPath= null;
+
+        private Integer contentFormat= null;
+
+        private Long maxAge= null;
+
+        private List< String > uriQuery= null;
+
+        private Integer accept= null;
+
+        private List< String > locationQuery= null;
+
+        private String proxyUri= null;
+
+        private String proxyScheme= null;
+
+        private long block1= -1L;
+
+        private long block2= -1L;
+
+        private Integer size1= null;
+
+        private Integer size2= null;
+
+        private Integer observe= null;
+
+        private Map< Integer, byte[] > others= null;
+
+        void add( int number, ByteBuffer buffer, int position, int length )
+        {
+            switch ( number )
+            {
+                case OptionNumberRegistry.IF_MATCH:
+                    if ( ifMatchValues == null )
+                    {
+                        ifMatchValues= new long [4];
+                        ifMatchLengths= new byte [4];
+                    }
+                    else if ( ifMatchCount == ifMatchValues.length )
+                    {
+                        ifMatchValues= grow( ifMatchValues );
+                        ifMatchLengths= grow( ifMatchLengths );
+                    }
+                    if ( length < 1 || length > 8 )
+                    {
+                        ifMatchValid= false;
+                    }
+                    else
+                    {
+                        ifMatchValues[ifMatchCount]= ETag.pack( buffer, position, length );
+                        ifMatchLengths[ifMatchCount]= (byte) length;
+                    }
+                    ifMatchCount++;
+                    break;
+                case OptionNumberRegistry.URI_HOST:
+                    uriHost= string( buffer, position, length );
+                    break;
+                case OptionNumberRegistry.ETAG:
+                    if ( etagValues == null )
+                    {
+                        etagValues= new long [4];
+                        etagLengths= new byte [4];
+                    }
+                    else if ( etagCount == etagValues.length )
+                    {
+                        etagValues= grow( etagValues );
+                        etagLengths= grow( etagLengths );
+                    }
+                    if ( length < 1 || length > 8 )
+                    {
+                        etagValid= false;
+                    }
+                    else
+                    {
+                        etagValues[etagCount]= ETag.pack( buffer, position, length );
+                        etagLengths[etagCount]= (byte) length;
+                    }
+                    etagCount++;
+                    break;
+                case OptionNumberRegistry.IF_NONE_MATCH:
+                    ifNoneMatch= true;
+                    break;
+                case OptionNumberRegistry.URI_PORT:
+                    uriPort= Integer.valueOf( (int) uint( buffer, position, length ) );
+                    break;
+                case OptionNumberRegistry.LOCATION_PATH:
+                    if ( locationPath == null ) locationPath= new LinkedList< String >();
+                    locationPath.add( string( buffer, position, length ) );
+                    break;
+                case OptionNumberRegistry.URI_PATH:
+                    if ( uriPath == null ) uriPath= new LinkedList< String >();
+                    uriPath.add( string( buffer, position, length ) );
+                    break;
+                case OptionNumberRegistry.CONTENT_FORMAT:
+                    contentFormat= ContentFormatRegistry.toInteger( (int) uint( buffer, position, length ) );
+                    break;
+                case OptionNumberRegistry.MAX_AGE:
+                    maxAge= Long.valueOf( uint( buffer, position, length ) );
+                    break;
+                case OptionNumberRegistry.URI_QUERY:
+                    if ( uriQuery == null ) uriQuery= new LinkedList< String >();
+                    uriQuery.add( string( buffer, position, length ) );
+                    break;
+                case OptionNumberRegistry.ACCEPT:
+                    accept= ContentFormatRegistry.toInteger( (int) uint( buffer, position, length ) );
+                    break;
+                case OptionNumberRegistry.LOCATION_QUERY:
+                    if ( locationQuery == null ) locationQuery= new LinkedList< String >();
+                    locationQuery.add( string( buffer, position, length ) );
+                    break;
+                case OptionNumberRegistry.PROXY_URI:
+                    proxyUri= string( buffer, position, length );
+                    break;
+                case OptionNumberRegistry.PROXY_SCHEME:
+                    proxyScheme= string( buffer, position, length );
+                    break;
+                case OptionNumberRegistry.BLOCK1:
+                    block1= uint( buffer, position, length );
+                    break;
+                case OptionNumberRegistry.BLOCK2:
+                    block2= uint( buffer, position, length );
+                    break;
+                case OptionNumberRegistry.SIZE1:
+                    size1= Integer.valueOf( (int) uint( buffer, position, length ) );
+                    break;
+                case OptionNumberRegistry.SIZE2:
+                    size2= Integer.valueOf( (int) uint( buffer, position, length ) );
+                    break;
+                case OptionNumberRegistry.OBSERVE:
+                    observe= Integer.valueOf( (int) uint( buffer, position, length ) );
+                    break;
+                default:
+                    if ( others == null ) others= new HashMap< Integer, byte[] >();
+                    byte[] value= new byte [length];
+                    for ( int i= 0; i < length; i++ )
+                    {
+                        value[i]= buffer.get( position + i );
+                    }
+                    //last one wins, as in the eager property map
+                    others.put( Integer.valueOf( number ), value );
+            }
+        }
+
+        private static long[] grow( long[] array )
+        {
+            long[] result= new long [array.length * 2];
+            System.arraycopy( array, 0, result, 0, array.length );
+            return result;
+        }
+
+        private static byte[] grow( byte[] array )
+        {
+            byte[] result= new byte [array.length * 2];
+            System.arraycopy( array, 0, result, 0, array.length );
+            return result;
+        }
+
+        private static long uint( ByteBuffer buffer, int position, int length )
+        {
+            long value= 0L;
+            for ( int i= position; i < position + length; i++ )
+            {
+                value= ( value << 8 ) | ( buffer.get( i ) & 0xFF );
+            }
+            return value;
+        }
+
+        private static String string( ByteBuffer buffer, int position, int length )
+        {
+            if ( buffer.hasArray() )
+            {
+                return new String( buffer.array(), buffer.arrayOffset() + position, length, CoAP.UTF8_CHARSET );
+            }
+            byte[] bytes= new byte [length];
+            for ( int i= 0; i < length; i++ )
+            {
+                bytes[i]= buffer.get( position + i );
+            }
+            return new String( bytes, CoAP.UTF8_CHARSET );
+        }
+
+        private static String join( List< String > segments, String separator )
+        {
+            StringBuilder builder= new StringBuilder();
+            boolean first= true;
+            for ( String segment : segments )
+            {
+                if ( !first ) builder.append( separator );
+                builder.append( segment );
+                first= false;
+            }
+            return builder.toString();
+        }
+
+        private static void putBlock( Map< String, Object > props, long value, String szxName, String sizeName, String numName, String mName )
+        {
+            int szx= (int) ( value & 0x07 );
+            props.put( szxName, Integer.valueOf( szx ) );
+            props.put( sizeName, Integer.valueOf( BlockOption.szx2Size( szx ) ) );
+            props.put( numName, Integer.valueOf( (int) ( value >>> 4 ) ) );
+            props.put( mName, Boolean.valueOf( ( value & 0x08 ) != 0 ) );
+        }
+
+        /**
+         * Put the decoded options into the property map, the same way as {@link Options#fillPropertyMap(org.eclipse.californium.core.coap.OptionSet, Map)} does.
+         * @param props map to put properties in
+         * @param logger logger to use for logging when not null
+         * @param errorMsg that will be logged or put into exception
+         * @throws InvalidOptionValueException when an option value could not be converted into a property and no logger is given
+         */
+        void fill( Map< String, Object > props, Logger logger, String errorMsg ) throws InvalidOptionValueException
+        {
+            if ( ifMatchCount > 0 )
+            {
+                if ( ifMatchValid )
+                {
+                    props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, ETagList.create( ifMatchValues, ifMatchLengths, ifMatchCount ) );
+                }
+                else
+                {
+                    Options.handlePropertyError( PropertyNames.COAP_OPT_IFMATCH_LIST, new InvalidETagException( "ETag length invalid, must be between 1..8 bytes." ), logger, errorMsg );
+                }
+            }
+            if ( uriHost != null ) props.put( PropertyNames.COAP_OPT_URIHOST, uriHost );
+            if ( etagCount > 0 )
+            {
+                if ( etagValid )
+                {
+                    props.put( PropertyNames.COAP_OPT_ETAG_LIST, ETagList.create( etagValues, etagLengths, etagCount ) );
+                }
+                else
+                {
+                    Options.handlePropertyError( PropertyNames.COAP_OPT_ETAG_LIST, new InvalidETagException( "ETag length invalid, must be between 1..8 bytes." ), logger, errorMsg );
+                }
+            }
+            props.put( PropertyNames.COAP_OPT_IFNONMATCH, Boolean.valueOf( ifNoneMatch ) );
+            if ( uriPort != null ) props.put( PropertyNames.COAP_OPT_URIPORT, uriPort );
+            if ( locationPath != null )
+            {
+                props.put( PropertyNames.COAP_OPT_LOCATIONPATH_LIST, locationPath );
+                props.put( PropertyNames.COAP_OPT_LOCATIONPATH, join( locationPath, "/" ) );
+            }
+            if ( uriPath != null )
+            {
+                props.put( PropertyNames.COAP_OPT_URIPATH_LIST, uriPath );
+                props.put( PropertyNames.COAP_OPT_URIPATH, join( uriPath, "/" ) );
+            }
+            if ( contentFormat != null ) props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, contentFormat );
+            if ( maxAge != null ) props.put( PropertyNames.COAP_OPT_MAXAGE, maxAge );
+            if ( uriQuery != null )
+            {
+                props.put( PropertyNames.COAP_OPT_URIQUERY_LIST, uriQuery );
+                props.put( PropertyNames.COAP_OPT_URIQUERY, join( uriQuery, "&" ) );
+            }
+            if ( accept != null ) props.put( PropertyNames.COAP_OPT_ACCEPT, accept );
+            if ( locationQuery != null )
+            {
+                props.put( PropertyNames.COAP_OPT_LOCATIONQUERY_LIST, locationQuery );
+                props.put( PropertyNames.COAP_OPT_LOCATIONQUERY, join( locationQuery, "&" ) );
+            }
+            if ( proxyUri != null ) props.put( PropertyNames.COAP_OPT_PROXYURI, proxyUri );
+            if ( proxyScheme != null ) props.put( PropertyNames.COAP_OPT_PROXYSCHEME, proxyScheme );
+            if ( block1 >= 0 )
+            {
+                putBlock( props, block1, PropertyNames.COAP_OPT_BLOCK1_SZX, PropertyNames.COAP_OPT_BLOCK1_SIZE, PropertyNames.COAP_OPT_BLOCK1_NUM, PropertyNames.COAP_OPT_BLOCK1_M );
+            }
+            if ( block2 >= 0 )
+            {
+                putBlock( props, block2, PropertyNames.COAP_OPT_BLOCK2_SZX, PropertyNames.COAP_OPT_BLOCK2_SIZE, PropertyNames.COAP_OPT_BLOCK2_NUM, PropertyNames.COAP_OPT_BLOCK2_M );
+            }
+            if ( size1 != null ) props.put( PropertyNames.COAP_OPT_SIZE1, size1 );
+            if ( size2 != null ) props.put( PropertyNames.COAP_OPT_SIZE2, size2 );
+            if ( observe != null ) props.put( PropertyNames.COAP_OPT_OBSERVE, observe );
+            if ( others != null )
+            {
+                for ( Entry< Integer, byte[] > other : others.entrySet() )
+                {
+                    int number= other.getKey();
+                    props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + number, other.getValue() );
+                    props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + number + PropertyNames.POSTFIX_CRITICAL, Boolean.valueOf( OptionNumberRegistry.isCritical( number ) ) );
+                    props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + number + PropertyNames.POSTFIX_NOCACHEKEY, Boolean.valueOf( OptionNumberRegistry.isNoCacheKey( number ) ) );
+                    props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + number + PropertyNames.POSTFIX_UNSAFE, Boolean.valueOf( OptionNumberRegistry.isUnsafe( number ) ) );
+                }
+            }
+        }
+    }
+
+    private OptionsCodec()
+    {
+        //static only
+    }
+}
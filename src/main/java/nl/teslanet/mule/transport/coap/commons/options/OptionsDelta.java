@@ -0,0 +1,573 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+
+
+/**
+ * Applies changes of option properties to an existing OptionSet.
+ * Changed properties are grouped by the option number they are converted into.
+ * The options of each changed group are removed from the OptionSet and rebuilt
+ * from all properties of the group in the new property map, so the result is equal
+ * to filling a cleared OptionSet with the new property map.
+ * Options of unchanged groups are left as they are.
+ */
+final class OptionsDelta
+{
+    /**
+     * The largest option number of the known option properties.
+     */
+    private static final int MAX_KNOWN_NUMBER= 63;
+
+    /**
+     * The known option property names by option number.
+     */
+    private static final String[][] groupNames;
+
+    /**
+     * Bit mask of the option numbers that are converted from more than one property.
+     */
+    private static final long multiNameGroups;
+
+    static
+    {
+        ArrayList< List< String > > names= new ArrayList< List< String > >( Collections.nCopies( MAX_KNOWN_NUMBER + 1, (List< String >) null ) );
+        for ( OptionProperty property : OptionProperty.values() )
+        {
+            int number= property.getOptionNumber();
+            if ( names.get( number ) == null ) names.set( number, new ArrayList< String >() );
+            names.get( number ).add( property.getPropertyName() );
+        }
+        groupNames= new String [MAX_KNOWN_NUMBER + 1] [];
+        long multi= 0L;
+        for ( int number= 0; number <= MAX_KNOWN_NUMBER; number++ )
+        {
+            List< String > group= names.get( number );
+            if ( group == null ) continue;
+            groupNames[number]= group.toArray( new String [group.size()] );
+            if ( group.size() > 1 ) multi|= 1L << number;
+        }
+        multiNameGroups= multi;
+    }
+
+    /**
+     * Initial capacity of the scratch arrays.
+     */
+    private static final int INITIAL_CAPACITY= 8;
+
+    /**
+     * Reusable delta per thread.
+     */
+    private static final ThreadLocal< OptionsDelta > scratch= new ThreadLocal< OptionsDelta >()
+        {
+            @Override
+            protected OptionsDelta initialValue()
+            {
+                return new OptionsDelta();
+            }
+        };
+
+    /**
+     * The option numbers of the changed groups.
+     */
+    private int[] changed= new int [INITIAL_CAPACITY];
+
+    /**
+     * Number of changed groups.
+     */
+    private int size= 0;
+
+    /**
+     * Name of the first changed property.
+     */
+    private String firstChanged= null;
+
+    /**
+     * The new value of the first changed property, when it is known.
+     */
+    private Object firstValue= null;
+
+    /**
+     * True when the first changed property is contained in the new property map with {@link #firstValue}.
+     */
+    private boolean firstValueKnown= false;
+
+    /**
+     * True when a changed group concerns options that are kept as other options by the OptionSet.
+     */
+    private boolean othersChanged= false;
+
+    /**
+     * The option numbers of the other option properties in the new property map.
+     */
+    private int[] otherNumbers= new int [INITIAL_CAPACITY];
+
+    /**
+     * Number of other option properties in the new property map.
+     */
+    private int otherCount= 0;
+
+    /**
+     * Reusable block assembler.
+     */
+    private final BlockAssembler blocks= new BlockAssembler();
+
+    /**
+     * Get the reusable delta of the current thread.
+     * The delta must be released with {@link #reset()} after use.
+     * @return the delta
+     */
+    static OptionsDelta acquire()
+    {
+        return scratch.get();
+    }
+
+    /**
+     * Clear the delta, so it can be reused.
+     */
+    void reset()
+    {
+        otherCount= 0;
+        size= 0;
+        firstChanged= null;
+        firstValue= null;
+        firstValueKnown= false;
+        othersChanged= false;
+    }
+
+    /**
+     * Get the option number an option property is converted into.
+     * @param propertyName the name of the property
+     * @return the option number, or -1 when the property is not an option property
+     */
+    static int optionNumber( String propertyName )
+    {
+        if ( !propertyName.startsWith( PropertyNames.PREFIX_COAP_OPT ) ) return -1;
+        return prefixedOptionNumber( propertyName );
+    }
+
+    /**
+     * Get the option number of a property that starts with the option property prefix.
+     * @param propertyName the name of the property
+     * @return the option number, or -1 when the property is not an option property
+     */
+    private static int prefixedOptionNumber( String propertyName )
+    {
+        OptionProperty property= OptionProperty.get( propertyName );
+        return ( property != null ? property.getOptionNumber() : PropertyNames.otherOptionNumber( propertyName ) );
+    }
+
+    /**
+     * Mark the group of a property as changed.
+     * @param propertyName the name of the changed property
+     */
+    void change( String propertyName )
+    {
+        change( propertyName, optionNumber( propertyName ) );
+    }
+
+    private void change( String propertyName, int number )
+    {
+        if ( number < 0 || isChanged( number ) ) return;
+        if ( size == changed.length ) changed= Arrays.copyOf( changed, size * 2 );
+        if ( size == 0 ) firstChanged= propertyName;
+        changed[size++]= number;
+        if ( !isKnown( number ) ) othersChanged= true;
+    }
+
+    /**
+     * Mark the groups of the given properties as changed.
+     * @param propertyNames the names of the changed properties
+     */
+    void changeAll( Collection< String > propertyNames )
+    {
+        for ( String propertyName : propertyNames )
+        {
+            change( propertyName );
+        }
+    }
+
+    /**
+     * Mark the groups of the properties that differ between the maps as changed.
+     * The new property map is iterated once, the previous property map is not iterated.
+     * Properties that are removed are found using the OptionSet that was filled with the previous map:
+     * an option of a group that has no property in the new map is removed.
+     * Only groups converted from more than one property are looked up in the previous map,
+     * to find removal of some of their properties.
+     * Removal of properties that did not result in an option does not change the options, so it is not detected.
+     * @param optionSet the OptionSet that was filled with the previous property map
+     * @param previous the previous property map
+     * @param next the new property map
+     */
+    void compare( OptionSet optionSet, Map< String, Object > previous, Map< String, Object > next )
+    {
+        long groups= 0L;
+        for ( Entry< String, Object > e : next.entrySet() )
+        {
+            String key= e.getKey();
+            if ( !key.startsWith( PropertyNames.PREFIX_COAP_OPT ) ) continue;
+            int number= prefixedOptionNumber( key );
+            if ( number < 0 ) continue;
+            if ( number <= MAX_KNOWN_NUMBER && groupNames[number] != null )
+            {
+                groups|= 1L << number;
+            }
+            else
+            {
+                if ( otherCount == otherNumbers.length ) otherNumbers= Arrays.copyOf( otherNumbers, otherCount * 2 );
+                otherNumbers[otherCount++]= number;
+            }
+            Object value= e.getValue();
+            Object old= previous.get( key );
+            if ( ( old == null && !previous.containsKey( key ) ) || !valueEquals( old, value ) )
+            {
+                change( key, number );
+                if ( size == 1 && firstChanged == key )
+                {
+                    firstValue= value;
+                    firstValueKnown= true;
+                }
+            }
+        }
+        //groups present in the OptionSet without properties in the new map are removed
+        long removed= presentGroups( optionSet ) & ~groups;
+        while ( removed != 0L )
+        {
+            int number= Long.numberOfTrailingZeros( removed );
+            removed&= removed - 1L;
+            change( groupNames[number][0], number );
+        }
+        long multi= groups & multiNameGroups;
+        while ( multi != 0L )
+        {
+            int number= Long.numberOfTrailingZeros( multi );
+            multi&= multi - 1L;
+            if ( isChanged( number ) ) continue;
+            for ( String name : groupNames[number] )
+            {
+                if ( !next.containsKey( name ) && previous.containsKey( name ) )
+                {
+                    change( name, number );
+                    break;
+                }
+            }
+        }
+        List< Option > others= optionSet.getOthers();
+        if ( others.isEmpty() ) return;
+        for ( Option option : others )
+        {
+            if ( !isOther( option.getNumber() ) ) change( PropertyNames.PREFIX_COAP_OPT_OTHER + option.getNumber(), option.getNumber() );
+        }
+    }
+
+    /**
+     * @param number option number
+     * @return true when the new property map contains an other option property with given number
+     */
+    private boolean isOther( int number )
+    {
+        for ( int i= 0; i < otherCount; i++ )
+        {
+            if ( otherNumbers[i] == number ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true when any group is changed
+     */
+    boolean isChanged()
+    {
+        return size > 0;
+    }
+
+    private boolean isChanged( int number )
+    {
+        for ( int i= 0; i < size; i++ )
+        {
+            if ( changed[i] == number ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rebuild the options of the changed groups from the new property map.
+     * @param optionSet the OptionSet to update
+     * @param next the new property map
+     */
+    void apply( OptionSet optionSet, Map< String, Object > next )
+    {
+        if ( size == 0 ) return;
+        if ( size == 1 && isSingleProperty( changed[0] ) )
+        {
+            //fast path: one scalar option changed, which only its own property converts into
+            removeKnown( optionSet, changed[0] );
+            if ( firstValueKnown )
+            {
+                PropertyHandlers.get( firstChanged ).apply( optionSet, firstValue );
+                return;
+            }
+            Object value= next.get( firstChanged );
+            if ( value != null || next.containsKey( firstChanged ) ) PropertyHandlers.get( firstChanged ).apply( optionSet, value );
+            return;
+        }
+        remove( optionSet );
+        boolean blocksCollected= false;
+        for ( Entry< String, Object > e : next.entrySet() )
+        {
+            int number= optionNumber( e.getKey() );
+            if ( number >= 0 && isChanged( number ) ) blocksCollected|= apply( optionSet, e.getKey(), e.getValue(), number, blocksCollected );
+        }
+        if ( blocksCollected ) blocks.apply( optionSet );
+    }
+
+    /**
+     * Apply one option property.
+     * @param optionSet the OptionSet to update
+     * @param key the property name
+     * @param value the property value
+     * @param number the option number of the property
+     * @param blocksCollected true when block components are collected already
+     * @return true when a block component is collected
+     */
+    private boolean apply( OptionSet optionSet, String key, Object value, int number, boolean blocksCollected )
+    {
+        PropertyHandlers.Handler handler= PropertyHandlers.get( key );
+        if ( handler != null )
+        {
+            handler.apply( optionSet, value );
+        }
+        else if ( BlockAssembler.isBlockProperty( key ) )
+        {
+            if ( !blocksCollected ) blocks.reset();
+            blocks.collect( key, value );
+            return true;
+        }
+        else
+        {
+            Options.addOtherOption( optionSet, number, value );
+        }
+        return false;
+    }
+
+    /**
+     * Remove the options of the changed groups.
+     * @param optionSet the OptionSet to remove the options from
+     */
+    private void remove( OptionSet optionSet )
+    {
+        if ( othersChanged )
+        {
+            //the other options cannot be removed one by one, so the set is rebuilt
+            List< Option > options= new ArrayList< Option >( optionSet.asSortedList() );
+            optionSet.clear();
+            for ( Option option : options )
+            {
+                if ( !isChanged( option.getNumber() ) ) optionSet.addOption( option );
+            }
+            return;
+        }
+        for ( int i= 0; i < size; i++ )
+        {
+            removeKnown( optionSet, changed[i] );
+        }
+    }
+
+    /**
+     * @param number the option number
+     * @return true when the OptionSet has a dedicated field for the option
+     */
+    private static boolean isKnown( int number )
+    {
+        switch ( number )
+        {
+            case OptionNumberRegistry.IF_MATCH:
+            case OptionNumberRegistry.URI_HOST:
+            case OptionNumberRegistry.ETAG:
+            case OptionNumberRegistry.IF_NONE_MATCH:
+            case OptionNumberRegistry.URI_PORT:
+            case OptionNumberRegistry.LOCATION_PATH:
+            case OptionNumberRegistry.URI_PATH:
+            case OptionNumberRegistry.CONTENT_FORMAT:
+            case OptionNumberRegistry.MAX_AGE:
+            case OptionNumberRegistry.URI_QUERY:
+            case OptionNumberRegistry.ACCEPT:
+            case OptionNumberRegistry.LOCATION_QUERY:
+            case OptionNumberRegistry.PROXY_URI:
+            case OptionNumberRegistry.PROXY_SCHEME:
+            case OptionNumberRegistry.BLOCK1:
+            case OptionNumberRegistry.BLOCK2:
+            case OptionNumberRegistry.SIZE1:
+            case OptionNumberRegistry.SIZE2:
+            case OptionNumberRegistry.OBSERVE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param number the option number
+     * @return true when the option is converted from one property only, that has a handler
+     */
+    private static boolean isSingleProperty( int number )
+    {
+        switch ( number )
+        {
+            case OptionNumberRegistry.IF_MATCH:
+            case OptionNumberRegistry.URI_HOST:
+            case OptionNumberRegistry.ETAG:
+            case OptionNumberRegistry.IF_NONE_MATCH:
+            case OptionNumberRegistry.URI_PORT:
+            case OptionNumberRegistry.CONTENT_FORMAT:
+            case OptionNumberRegistry.MAX_AGE:
+            case OptionNumberRegistry.ACCEPT:
+            case OptionNumberRegistry.PROXY_URI:
+            case OptionNumberRegistry.PROXY_SCHEME:
+            case OptionNumberRegistry.SIZE1:
+            case OptionNumberRegistry.SIZE2:
+            case OptionNumberRegistry.OBSERVE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get the options with a dedicated field in the OptionSet that are present.
+     * The fields are tested one by one, which is cheaper than listing the options.
+     * @param optionSet the OptionSet
+     * @return bit mask of the option numbers of the present options
+     */
+    private static long presentGroups( OptionSet optionSet )
+    {
+        long present= 0L;
+        if ( optionSet.getIfMatchCount() > 0 ) present|= 1L << OptionNumberRegistry.IF_MATCH;
+        if ( optionSet.hasUriHost() ) present|= 1L << OptionNumberRegistry.URI_HOST;
+        if ( optionSet.getETagCount() > 0 ) present|= 1L << OptionNumberRegistry.ETAG;
+        if ( optionSet.hasIfNoneMatch() ) present|= 1L << OptionNumberRegistry.IF_NONE_MATCH;
+        if ( optionSet.hasObserve() ) present|= 1L << OptionNumberRegistry.OBSERVE;
+        if ( optionSet.hasUriPort() ) present|= 1L << OptionNumberRegistry.URI_PORT;
+        if ( optionSet.getLocationPathCount() > 0 ) present|= 1L << OptionNumberRegistry.LOCATION_PATH;
+        if ( optionSet.getURIPathCount() > 0 ) present|= 1L << OptionNumberRegistry.URI_PATH;
+        if ( optionSet.hasContentFormat() ) present|= 1L << OptionNumberRegistry.CONTENT_FORMAT;
+        if ( optionSet.hasMaxAge() ) present|= 1L << OptionNumberRegistry.MAX_AGE;
+        if ( optionSet.getURIQueryCount() > 0 ) present|= 1L << OptionNumberRegistry.URI_QUERY;
+        if ( optionSet.hasAccept() ) present|= 1L << OptionNumberRegistry.ACCEPT;
+        if ( optionSet.getLocationQueryCount() > 0 ) present|= 1L << OptionNumberRegistry.LOCATION_QUERY;
+        if ( optionSet.hasBlock2() ) present|= 1L << OptionNumberRegistry.BLOCK2;
+        if ( optionSet.hasBlock1() ) present|= 1L << OptionNumberRegistry.BLOCK1;
+        if ( optionSet.hasSize2() ) present|= 1L << OptionNumberRegistry.SIZE2;
+        if ( optionSet.hasProxyUri() ) present|= 1L << OptionNumberRegistry.PROXY_URI;
+        if ( optionSet.hasProxyScheme() ) present|= 1L << OptionNumberRegistry.PROXY_SCHEME;
+        if ( optionSet.hasSize1() ) present|= 1L << OptionNumberRegistry.SIZE1;
+        return present;
+    }
+
+    /**
+     * Remove an option that has a dedicated field in the OptionSet.
+     * @param optionSet the OptionSet to remove the option from
+     * @param number the option number
+     */
+    private static void removeKnown( OptionSet optionSet, int number )
+    {
+        switch ( number )
+        {
+            case OptionNumberRegistry.IF_MATCH:
+                optionSet.clearIfMatchs();
+                break;
+            case OptionNumberRegistry.URI_HOST:
+                optionSet.removeUriHost();
+                break;
+            case OptionNumberRegistry.ETAG:
+                optionSet.clearETags();
+                break;
+            case OptionNumberRegistry.IF_NONE_MATCH:
+                optionSet.setIfNoneMatch( false );
+                break;
+            case OptionNumberRegistry.URI_PORT:
+                optionSet.removeUriPort();
+                break;
+            case OptionNumberRegistry.LOCATION_PATH:
+                optionSet.clearLocationPath();
+                break;
+            case OptionNumberRegistry.URI_PATH:
+                optionSet.clearUriPath();
+                break;
+            case OptionNumberRegistry.CONTENT_FORMAT:
+                optionSet.removeContentFormat();
+                break;
+            case OptionNumberRegistry.MAX_AGE:
+                optionSet.removeMaxAge();
+                break;
+            case OptionNumberRegistry.URI_QUERY:
+                optionSet.clearUriQuery();
+                break;
+            case OptionNumberRegistry.ACCEPT:
+                optionSet.removeAccept();
+                break;
+            case OptionNumberRegistry.LOCATION_QUERY:
+                optionSet.clearLocationQuery();
+                break;
+            case OptionNumberRegistry.PROXY_URI:
+                optionSet.removeProxyUri();
+                break;
+            case OptionNumberRegistry.PROXY_SCHEME:
+                optionSet.removeProxyScheme();
+                break;
+            case OptionNumberRegistry.BLOCK1:
+                optionSet.removeBlock1();
+                break;
+            case OptionNumberRegistry.BLOCK2:
+                optionSet.removeBlock2();
+                break;
+            case OptionNumberRegistry.SIZE1:
+                optionSet.removeSize1();
+                break;
+            case OptionNumberRegistry.SIZE2:
+                optionSet.removeSize2();
+                break;
+            case OptionNumberRegistry.OBSERVE:
+                optionSet.removeObserve();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Compare property values. Byte arrays are compared by content.
+     * Other values that are not equal, like collections of byte arrays, are treated as changed.
+     */
+    private static boolean valueEquals( Object a, Object b )
+    {
+        if ( a == b ) return true;
+        if ( a == null || b == null ) return false;
+        if ( a instanceof byte[] && b instanceof byte[] ) return Arrays.equals( (byte[]) a, (byte[]) b );
+        return a.equals( b );
+    }
+}
@@ -0,0 +1,619 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+
+
+/**
+ * Digest of the cache key options of a request.
+ * The key options are all options except the options marked NoCacheKey (RFC 7252 section 5.6),
+ * the Observe option (RFC 7641 section 2) and the Block1 and Block2 options (RFC 7959 section 2.10).
+ * The key options are digested in ascending option number order, so option sets with equal
+ * key options have equal digests, regardless of the order in which the options were set.
+ * Options given as OptionSet and in CoAP option format result in the same digest.
+ * Each key option is digested as its number and value length, both as 32 bit big-endian integers,
+ * followed by the value. The digest is MurmurHash3 (x64, 128 bit) of these bytes;
+ * the 64 bit digest is the first half of the 128 bit digest.
+ * Digesting does not create intermediate objects like option lists or encoded strings.
+ * A digest object can be reused, but is not thread-safe.
+ */
+public final class OptionsDigest
+{
+    private static final long C1= 0x87c37b91114253d5L;
+
+    private static final long C2= 0x4cf5ad432745937fL;
+
+    /**
+     * Marker that ends options in CoAP option format.
+     */
+    private static final int PAYLOAD_MARKER= 0xFF;
+
+    /**
+     * Reusable digest objects, one per thread.
+     */
+    private static final ThreadLocal< OptionsDigest > digests= new ThreadLocal< OptionsDigest >()
+        {
+            @Override
+            protected OptionsDigest initialValue()
+            {
+                return new OptionsDigest();
+            }
+        };
+
+    private long h1;
+
+    private long h2;
+
+    /**
+     * First word of the current block, when collected.
+     */
+    private long k1;
+
+    /**
+     * True when the first word of the current block is collected.
+     */
+    private boolean half;
+
+    /**
+     * Bytes of the current word that are collected so far, little-endian.
+     */
+    private long word;
+
+    /**
+     * Number of bits in the current word.
+     */
+    private int wordBits;
+
+    /**
+     * Number of complete words digested.
+     */
+    private long words;
+
+    /**
+     * Constructs a digest object.
+     */
+    public OptionsDigest()
+    {
+        super();
+    }
+
+    /**
+     * Check whether an option is part of the cache key.
+     * @param number the option number
+     * @return true when the option is a key option
+     */
+    public static boolean isKeyOption( int number )
+    {
+        return !OptionNumberRegistry.isNoCacheKey( number ) && number != OptionNumberRegistry.OBSERVE && number != OptionNumberRegistry.BLOCK1
+            && number != OptionNumberRegistry.BLOCK2;
+    }
+
+    /**
+     * Get the 64 bit digest of the key options of an OptionSet.
+     * @param optionSet the options to digest
+     * @return the digest
+     */
+    public static long digest64( OptionSet optionSet )
+    {
+        return digests.get().digest( optionSet ).getDigest64();
+    }
+
+    /**
+     * Get the 64 bit digest of the key options in CoAP option format.
+     * @param buffer the buffer containing the options
+     * @return the digest
+     * @throws InvalidOptionValueException when the options are malformed
+     * @see #digest(ByteBuffer)
+     */
+    public static long digest64( ByteBuffer buffer ) throws InvalidOptionValueException
+    {
+        return digests.get().digest( buffer ).getDigest64();
+    }
+
+    /**
+     * Digest the key options of an OptionSet.
+     * @param optionSet the options to digest
+     * @return this digest object
+     */
+    public OptionsDigest digest( OptionSet optionSet )
+    {
+        reset();
+        List< Option > others= optionSet.getOthers();
+        int other= ( others.isEmpty() ? Integer.MAX_VALUE : nextOther( others, -1 ) );
+
+        other= others( others, other, OptionNumberRegistry.IF_MATCH );
+        if ( optionSet.getIfMatchCount() > 0 ) bytes( OptionNumberRegistry.IF_MATCH, optionSet.getIfMatch() );
+        other= others( others, other, OptionNumberRegistry.URI_HOST );
+        if ( optionSet.hasUriHost() ) string( OptionNumberRegistry.URI_HOST, optionSet.getUriHost() );
+        other= others( others, other, OptionNumberRegistry.ETAG );
+        if ( optionSet.getETagCount() > 0 ) bytes( OptionNumberRegistry.ETAG, optionSet.getETags() );
+        other= others( others, other, OptionNumberRegistry.IF_NONE_MATCH );
+        if ( optionSet.hasIfNoneMatch() ) header( OptionNumberRegistry.IF_NONE_MATCH, 0 );
+        other= others( others, other, OptionNumberRegistry.URI_PORT );
+        if ( optionSet.hasUriPort() ) uint( OptionNumberRegistry.URI_PORT, optionSet.getUriPort().intValue() & 0xFFFFFFFFL );
+        other= others( others, other, OptionNumberRegistry.LOCATION_PATH );
+        if ( optionSet.getLocationPathCount() > 0 ) strings( OptionNumberRegistry.LOCATION_PATH, optionSet.getLocationPath() );
+        other= others( others, other, OptionNumberRegistry.URI_PATH );
+        if ( optionSet.getURIPathCount() > 0 ) strings( OptionNumberRegistry.URI_PATH, optionSet.getUriPath() );
+        other= others( others, other, OptionNumberRegistry.CONTENT_FORMAT );
+        if ( optionSet.hasContentFormat() ) uint( OptionNumberRegistry.CONTENT_FORMAT, optionSet.getContentFormat() & 0xFFFFFFFFL );
+        other= others( others, other, OptionNumberRegistry.MAX_AGE );
+        if ( optionSet.hasMaxAge() ) uint( OptionNumberRegistry.MAX_AGE, optionSet.getMaxAge().longValue() );
+        other= others( others, other, OptionNumberRegistry.URI_QUERY );
+        if ( optionSet.getURIQueryCount() > 0 ) strings( OptionNumberRegistry.URI_QUERY, optionSet.getUriQuery() );
+        other= others( others, other, OptionNumberRegistry.ACCEPT );
+        if ( optionSet.hasAccept() ) uint( OptionNumberRegistry.ACCEPT, optionSet.getAccept() & 0xFFFFFFFFL );
+        other= others( others, other, OptionNumberRegistry.LOCATION_QUERY );
+        if ( optionSet.getLocationQueryCount() > 0 ) strings( OptionNumberRegistry.LOCATION_QUERY, optionSet.getLocationQuery() );
+        other= others( others, other, OptionNumberRegistry.PROXY_URI );
+        if ( optionSet.hasProxyUri() ) string( OptionNumberRegistry.PROXY_URI, optionSet.getProxyUri() );
+        other= others( others, other, OptionNumberRegistry.PROXY_SCHEME );
+        if ( optionSet.hasProxyScheme() ) string( OptionNumberRegistry.PROXY_SCHEME, optionSet.getProxyScheme() );
+        others( others, other, Integer.MAX_VALUE );
+
+        finish();
+        return this;
+    }
+
+    /**
+     * Digest the key options in CoAP option format (RFC 7252 section 3.1).
+     * The options are read from the position of the buffer up to its limit or up to a payload marker.
+     * The position of the buffer is not changed.
+     * @param buffer the buffer containing the options
+     * @return this digest object
+     * @throws InvalidOptionValueException when the options are malformed
+     */
+    public OptionsDigest digest( ByteBuffer buffer ) throws InvalidOptionValueException
+    {
+        reset();
+        int position= buffer.position();
+        int limit= buffer.limit();
+        int number= 0;
+        while ( position < limit )
+        {
+            int header= buffer.get( position ) & 0xFF;
+            if ( header == PAYLOAD_MARKER ) break;
+            int optionStart= position++;
+            int delta= header >>> 4;
+            int length= header & 0x0F;
+            if ( delta == 15 || length == 15 ) throw malformed( optionStart, "reserved delta or length" );
+            int extension= ( delta == 13 ? 1 : delta == 14 ? 2 : 0 ) + ( length == 13 ? 1 : length == 14 ? 2 : 0 );
+            if ( position + extension > limit ) throw malformed( optionStart, "option header truncated" );
+            if ( delta == 13 )
+            {
+                delta= 13 + ( buffer.get( position++ ) & 0xFF );
+            }
+            else if ( delta == 14 )
+            {
+                delta= 269 + ( ( buffer.get( position++ ) & 0xFF ) << 8 | ( buffer.get( position++ ) & 0xFF ) );
+            }
+            if ( length == 13 )
+            {
+                length= 13 + ( buffer.get( position++ ) & 0xFF );
+            }
+            else if ( length == 14 )
+            {
+                length= 269 + ( ( buffer.get( position++ ) & 0xFF ) << 8 | ( buffer.get( position++ ) & 0xFF ) );
+            }
+            if ( position + length > limit ) throw malformed( optionStart, "option value truncated" );
+            number+= delta;
+            if ( isKeyOption( number ) )
+            {
+                header( number, length );
+                update( buffer, position, position + length );
+            }
+            position+= length;
+        }
+        finish();
+        return this;
+    }
+
+    /**
+     * @return the 64 bit digest of the options last digested
+     */
+    public long getDigest64()
+    {
+        return h1;
+    }
+
+    /**
+     * @return the most significant half of the 128 bit digest of the options last digested
+     */
+    public long getDigest128High()
+    {
+        return h1;
+    }
+
+    /**
+     * @return the least significant half of the 128 bit digest of the options last digested
+     */
+    public long getDigest128Low()
+    {
+        return h2;
+    }
+
+    /**
+     * Check whether two OptionSets have equal key options.
+     * Options that are not key options are ignored.
+     * @param optionSet the first options
+     * @param other the second options
+     * @return true when the key options are equal
+     */
+    public static boolean keyEquals( OptionSet optionSet, OptionSet other )
+    {
+        if ( optionSet == other ) return true;
+        return bytesEqual( optionSet.getIfMatch(), other.getIfMatch() ) && equal( optionSet.getUriHost(), other.getUriHost() )
+            && bytesEqual( optionSet.getETags(), other.getETags() ) && optionSet.hasIfNoneMatch() == other.hasIfNoneMatch()
+            && equal( optionSet.getUriPort(), other.getUriPort() ) && optionSet.getLocationPath().equals( other.getLocationPath() )
+            && optionSet.getUriPath().equals( other.getUriPath() ) && optionSet.hasContentFormat() == other.hasContentFormat()
+            && optionSet.getContentFormat() == other.getContentFormat() && equal( optionSet.getMaxAge(), other.getMaxAge() )
+            && optionSet.getUriQuery().equals( other.getUriQuery() ) && optionSet.hasAccept() == other.hasAccept()
+            && optionSet.getAccept() == other.getAccept() && optionSet.getLocationQuery().equals( other.getLocationQuery() )
+            && equal( optionSet.getProxyUri(), other.getProxyUri() ) && equal( optionSet.getProxyScheme(), other.getProxyScheme() )
+            && othersEqual( optionSet.getOthers(), other.getOthers() );
+    }
+
+    private static boolean equal( Object o1, Object o2 )
+    {
+        return ( o1 == null ? o2 == null : o1.equals( o2 ) );
+    }
+
+    private static boolean bytesEqual( List< byte[] > values, List< byte[] > others )
+    {
+        int size= values.size();
+        if ( size != others.size() ) return false;
+        for ( int i= 0; i < size; i++ )
+        {
+            if ( !Arrays.equals( values.get( i ), others.get( i ) ) ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compare the key options among other options.
+     * The order of options with different numbers is not significant,
+     * the order of options with the same number is.
+     */
+    private static boolean othersEqual( List< Option > options, List< Option > others )
+    {
+        if ( options.isEmpty() && others.isEmpty() ) return true;
+        int count= 0;
+        for ( Option option : options )
+        {
+            if ( !isKeyOption( option.getNumber() ) ) continue;
+            count++;
+            Option match= occurrence( others, option.getNumber(), occurrenceIndex( options, option ) );
+            if ( match == null || !Arrays.equals( option.getValue(), match.getValue() ) ) return false;
+        }
+        for ( Option option : others )
+        {
+            if ( isKeyOption( option.getNumber() ) ) count--;
+        }
+        return count == 0;
+    }
+
+    /**
+     * @return the number of options with the same number preceding given option
+     */
+    private static int occurrenceIndex( List< Option > options, Option option )
+    {
+        int index= 0;
+        for ( Option candidate : options )
+        {
+            if ( candidate == option ) return index;
+            if ( candidate.getNumber() == option.getNumber() ) index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return the option with given number and occurrence index, or null when absent
+     */
+    private static Option occurrence( List< Option > options, int number, int index )
+    {
+        for ( Option candidate : options )
+        {
+            if ( candidate.getNumber() == number && index-- == 0 ) return candidate;
+        }
+        return null;
+    }
+
+    /**
+     * Get the smallest number of the other options that is larger than given number.
+     * @return the number, or {@link Integer#MAX_VALUE} when there is none
+     */
+    private static int nextOther( List< Option > others, int after )
+    {
+        int next= Integer.MAX_VALUE;
+        for ( Option option : others )
+        {
+            int number= option.getNumber();
+            if ( number > after && number < next ) next= number;
+        }
+        return next;
+    }
+
+    /**
+     * Digest the other options with numbers smaller than limit, in ascending option number order.
+     * Options with the same number are digested in the order they were added.
+     * @param others the other options
+     * @param next the smallest number of the other options not digested yet
+     * @param limit the number to stop at
+     * @return the smallest number of the other options not digested yet
+     */
+    private int others( List< Option > others, int next, int limit )
+    {
+        while ( next < limit )
+        {
+            if ( isKeyOption( next ) )
+            {
+                for ( Option option : others )
+                {
+                    if ( option.getNumber() == next )
+                    {
+                        byte[] value= option.getValue();
+                        header( next, value.length );
+                        update( value );
+                    }
+                }
+            }
+            next= nextOther( others, next );
+        }
+        return next;
+    }
+
+    private void bytes( int number, List< byte[] > values )
+    {
+        for ( int i= 0; i < values.size(); i++ )
+        {
+            byte[] value= values.get( i );
+            header( number, value.length );
+            update( value );
+        }
+    }
+
+    private void strings( int number, List< String > values )
+    {
+        for ( int i= 0; i < values.size(); i++ )
+        {
+            string( number, values.get( i ) );
+        }
+    }
+
+    /**
+     * Digest string option, UTF-8 encoded consistent with {@link OptionsCodec#writeUtf8(String, int, int, ByteBuffer)}.
+     */
+    private void string( int number, String s )
+    {
+        int end= s.length();
+        header( number, OptionsCodec.utf8Length( s, 0, end ) );
+        for ( int i= 0; i < end; i++ )
+        {
+            char c= s.charAt( i );
+            if ( c < 0x80 )
+            {
+                update( c );
+            }
+            else if ( c < 0x800 )
+            {
+                update( 0xC0 | ( c >> 6 ) );
+                update( 0x80 | ( c & 0x3F ) );
+            }
+            else if ( Character.isHighSurrogate( c ) && i + 1 < end && Character.isLowSurrogate( s.charAt( i + 1 ) ) )
+            {
+                int cp= Character.toCodePoint( c, s.charAt( ++i ) );
+                update( 0xF0 | ( cp >> 18 ) );
+                update( 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+                update( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+                update( 0x80 | ( cp & 0x3F ) );
+            }
+            else if ( Character.isSurrogate( c ) )
+            {
+                update( '?' );
+            }
+            else
+            {
+                update( 0xE0 | ( c >> 12 ) );
+                update( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                update( 0x80 | ( c & 0x3F ) );
+            }
+        }
+    }
+
+    /**
+     * Digest unsigned integer option, using the minimal number of bytes.
+     */
+    private void uint( int number, long value )
+    {
+        int length= OptionsCodec.uintLength( value );
+        header( number, length );
+        for ( int shift= ( length - 1 ) * 8; shift >= 0; shift-= 8 )
+        {
+            update( (int) ( value >>> shift ) );
+        }
+    }
+
+    private void header( int number, int valueLength )
+    {
+        long value= ( (long) number << 32 ) | ( valueLength & 0xFFFFFFFFL );
+        if ( wordBits == 0 )
+        {
+            //digest big-endian value as one word
+            word= Long.reverseBytes( value );
+            updateWord();
+        }
+        else
+        {
+            for ( int shift= 56; shift >= 0; shift-= 8 )
+            {
+                update( (int) ( value >>> shift ) );
+            }
+        }
+    }
+
+    private void update( byte[] value )
+    {
+        int i= 0;
+        while ( i < value.length && wordBits != 0 )
+        {
+            update( value[i++] );
+        }
+        while ( value.length - i >= 8 )
+        {
+            long w= 0L;
+            for ( int shift= 0; shift < 64; shift+= 8 )
+            {
+                w|= ( value[i++] & 0xFFL ) << shift;
+            }
+            word= w;
+            updateWord();
+        }
+        while ( i < value.length )
+        {
+            update( value[i++] );
+        }
+    }
+
+    private void update( ByteBuffer buffer, int position, int end )
+    {
+        while ( position < end && wordBits != 0 )
+        {
+            update( buffer.get( position++ ) );
+        }
+        boolean bigEndian= ( buffer.order() == ByteOrder.BIG_ENDIAN );
+        while ( end - position >= 8 )
+        {
+            long w= buffer.getLong( position );
+            word= ( bigEndian ? Long.reverseBytes( w ) : w );
+            updateWord();
+            position+= 8;
+        }
+        while ( position < end )
+        {
+            update( buffer.get( position++ ) );
+        }
+    }
+
+    /**
+     * Digest one byte.
+     * @param b the byte in the lowest 8 bits
+     */
+    private void update( int b )
+    {
+        word|= ( b & 0xFFL ) << wordBits;
+        wordBits+= 8;
+        if ( wordBits == 64 ) updateWord();
+    }
+
+    /**
+     * Digest the collected word, mixing a block when both words of it are collected.
+     */
+    private void updateWord()
+    {
+        if ( half )
+        {
+            h1^= mixK1( k1 );
+            h1= Long.rotateLeft( h1, 27 );
+            h1+= h2;
+            h1= h1 * 5 + 0x52dce729;
+            h2^= mixK2( word );
+            h2= Long.rotateLeft( h2, 31 );
+            h2+= h1;
+            h2= h2 * 5 + 0x38495ab5;
+        }
+        else
+        {
+            k1= word;
+        }
+        half= !half;
+        word= 0L;
+        wordBits= 0;
+        words++;
+    }
+
+    private void reset()
+    {
+        h1= 0L;
+        h2= 0L;
+        k1= 0L;
+        half= false;
+        word= 0L;
+        wordBits= 0;
+        words= 0L;
+    }
+
+    /**
+     * Process the remaining bytes and finalize the digest.
+     */
+    private void finish()
+    {
+        long length= words * 8 + ( wordBits >>> 3 );
+        if ( half )
+        {
+            if ( wordBits > 0 ) h2^= mixK2( word );
+            h1^= mixK1( k1 );
+        }
+        else if ( wordBits > 0 )
+        {
+            h1^= mixK1( word );
+        }
+        h1^= length;
+        h2^= length;
+        h1+= h2;
+        h2+= h1;
+        h1= fmix( h1 );
+        h2= fmix( h2 );
+        h1+= h2;
+        h2+= h1;
+    }
+
+    private static long mixK1( long k )
+    {
+        k*= C1;
+        k= Long.rotateLeft( k, 31 );
+        return k * C2;
+    }
+
+    private static long mixK2( long k )
+    {
+        k*= C2;
+        k= Long.rotateLeft( k, 33 );
+        return k * C1;
+    }
+
+    private static long fmix( long k )
+    {
+        k^= k >>> 33;
+        k*= 0xff51afd7ed558ccdL;
+        k^= k >>> 33;
+        k*= 0xc4ceb9fe1a85ec53L;
+        k^= k >>> 33;
+        return k;
+    }
+
+    private static InvalidOptionValueException malformed( int position, String reason )
+    {
+        return new InvalidOptionValueException( "Malformed options at position " + position + ", " + reason );
+    }
+}
@@ -0,0 +1,442 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionSet;
+
+
+/**
+ * Immutable snapshot of CoAP options.
+ * The options are held in CoAP option format (RFC 7252 section 3.1) together with an index,
+ * so a snapshot is compact and can be published to other threads without synchronization.
+ * Option values are copied on the way in and out, the snapshot itself is never exposed.
+ */
+public final class OptionsSnapshot
+{
+    /**
+     * Snapshot without options.
+     */
+    private static final OptionsSnapshot EMPTY= new OptionsSnapshot( new byte [0] );
+
+    /**
+     * The options in CoAP option format.
+     */
+    private final byte[] data;
+
+    /**
+     * Option numbers, in ascending order.
+     */
+    private final int[] numbers;
+
+    /**
+     * Offsets of the option values in data.
+     */
+    private final int[] offsets;
+
+    /**
+     * Lengths of the option values.
+     */
+    private final int[] lengths;
+
+    /**
+     * Hash code, calculated on construction.
+     */
+    private final int hash;
+
+    /**
+     * Constructs snapshot from encoded options, which are known to be well-formed.
+     * @param data the encoded options, that are owned by the snapshot
+     */
+    private OptionsSnapshot( byte[] data )
+    {
+        this.data= data;
+        int count= 0;
+        int position= 0;
+        while ( position < data.length )
+        {
+            position= skip( position );
+            count++;
+        }
+        numbers= new int [count];
+        offsets= new int [count];
+        lengths= new int [count];
+        int number= 0;
+        position= 0;
+        for ( int i= 0; i < count; i++ )
+        {
+            int header= data[position++] & 0xFF;
+            int delta= header >>> 4;
+            int length= header & 0x0F;
+            if ( delta == 13 )
+            {
+                delta= 13 + ( data[position++] & 0xFF );
+            }
+            else if ( delta == 14 )
+            {
+                delta= 269 + ( ( data[position++] & 0xFF ) << 8 | ( data[position++] & 0xFF ) );
+            }
+            if ( length == 13 )
+            {
+                length= 13 + ( data[position++] & 0xFF );
+            }
+            else if ( length == 14 )
+            {
+                length= 269 + ( ( data[position++] & 0xFF ) << 8 | ( data[position++] & 0xFF ) );
+            }
+            number+= delta;
+            numbers[i]= number;
+            offsets[i]= position;
+            lengths[i]= length;
+            position+= length;
+        }
+        hash= Arrays.hashCode( data );
+    }
+
+    /**
+     * Skip the option at given position.
+     * @param position the position of the option header
+     * @return the position of the next option
+     */
+    private int skip( int position )
+    {
+        int header= data[position++] & 0xFF;
+        int delta= header >>> 4;
+        int length= header & 0x0F;
+        position+= ( delta == 13 ? 1 : delta == 14 ? 2 : 0 );
+        if ( length == 13 )
+        {
+            length= 13 + ( data[position++] & 0xFF );
+        }
+        else if ( length == 14 )
+        {
+            length= 269 + ( ( data[position++] & 0xFF ) << 8 | ( data[position++] & 0xFF ) );
+        }
+        return position + length;
+    }
+
+    /**
+     * Create a snapshot of the options in an OptionSet.
+     * Later changes to the OptionSet are not reflected in the snapshot.
+     * @param optionSet the options to take the snapshot of
+     * @return the snapshot
+     */
+    public static OptionsSnapshot create( OptionSet optionSet )
+    {
+        List< Option > options= optionSet.asSortedList();
+        if ( options.isEmpty() ) return EMPTY;
+
+        int total= 0;
+        int previous= 0;
+        for ( Option option : options )
+        {
+            total+= OptionsCodec.headerLength( option.getNumber() - previous, option.getLength() ) + option.getLength();
+            previous= option.getNumber();
+        }
+        ByteBuffer buffer= ByteBuffer.allocate( total );
+        previous= 0;
+        for ( Option option : options )
+        {
+            OptionsCodec.writeHeader( option.getNumber() - previous, option.getLength(), buffer );
+            buffer.put( option.getValue() );
+            previous= option.getNumber();
+        }
+        return new OptionsSnapshot( buffer.array() );
+    }
+
+    /**
+     * Create a snapshot of the option properties contained in given property map.
+     * The properties are interpreted like {@link Options#fillOptionSet(OptionSet, Map, boolean)} does.
+     * Properties that are not option properties are ignored.
+     * @param props map containing the properties
+     * @return the snapshot
+     * @throws IllegalArgumentException when a property value is not valid for the option
+     */
+    public static OptionsSnapshot create( Map< String, Object > props )
+    {
+        int length= OptionsCodec.encodedLength( props );
+        if ( length == 0 ) return EMPTY;
+        ByteBuffer buffer= ByteBuffer.allocate( length );
+        OptionsCodec.encode( props, buffer );
+        return new OptionsSnapshot( buffer.array() );
+    }
+
+    /**
+     * @return empty snapshot
+     */
+    public static OptionsSnapshot empty()
+    {
+        return EMPTY;
+    }
+
+    /**
+     * @return the number of options in the snapshot
+     */
+    public int size()
+    {
+        return numbers.length;
+    }
+
+    /**
+     * @param index the index of the option
+     * @return the option number
+     * @throws IndexOutOfBoundsException when the index is out of range
+     */
+    public int getNumber( int index )
+    {
+        return numbers[index];
+    }
+
+    /**
+     * @param index the index of the option
+     * @return the length of the option value in bytes
+     * @throws IndexOutOfBoundsException when the index is out of range
+     */
+    public int getLength( int index )
+    {
+        return lengths[index];
+    }
+
+    /**
+     * @param index the index of the option
+     * @return copy of the option value
+     * @throws IndexOutOfBoundsException when the index is out of range
+     */
+    public byte[] getValue( int index )
+    {
+        return Arrays.copyOfRange( data, offsets[index], offsets[index] + lengths[index] );
+    }
+
+    /**
+     * Get the index of the first option with given number.
+     * @param number the option number
+     * @return the index, or -1 when the option is not present
+     */
+    public int indexOf( int number )
+    {
+        int low= 0;
+        int high= numbers.length - 1;
+        int found= -1;
+        while ( low <= high )
+        {
+            int mid= ( low + high ) >>> 1;
+            if ( numbers[mid] < number )
+            {
+                low= mid + 1;
+            }
+            else
+            {
+                if ( numbers[mid] == number ) found= mid;
+                high= mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param number the option number
+     * @return true when at least one option with given number is present
+     */
+    public boolean hasOption( int number )
+    {
+        return indexOf( number ) >= 0;
+    }
+
+    /**
+     * @param number the option number
+     * @return the number of options with given number
+     */
+    public int count( int number )
+    {
+        int index= indexOf( number );
+        if ( index < 0 ) return 0;
+        int end= index;
+        while ( end < numbers.length && numbers[end] == number )
+        {
+            end++;
+        }
+        return end - index;
+    }
+
+    /**
+     * Get the value of the first option with given number as unsigned integer.
+     * @param number the option number
+     * @param defaultValue value to return when the option is not present
+     * @return the option value or the default value
+     */
+    public long getUint( int number, long defaultValue )
+    {
+        int index= indexOf( number );
+        if ( index < 0 ) return defaultValue;
+        long value= 0L;
+        for ( int i= offsets[index]; i < offsets[index] + lengths[index]; i++ )
+        {
+            value= ( value << 8 ) | ( data[i] & 0xFF );
+        }
+        return value;
+    }
+
+    /**
+     * Get the value of the first option with given number as string.
+     * @param number the option number
+     * @return the option value, or null when the option is not present
+     */
+    public String getString( int number )
+    {
+        int index= indexOf( number );
+        if ( index < 0 ) return null;
+        return new String( data, offsets[index], lengths[index], CoAP.UTF8_CHARSET );
+    }
+
+    /**
+     * Get the values of all options with given number as strings.
+     * @param number the option number
+     * @return the option values in order, empty when the option is not present
+     */
+    public List< String > getStrings( int number )
+    {
+        int index= indexOf( number );
+        if ( index < 0 ) return Collections.emptyList();
+        ArrayList< String > values= new ArrayList< String >( count( number ) );
+        for ( int i= index; i < numbers.length && numbers[i] == number; i++ )
+        {
+            values.add( new String( data, offsets[i], lengths[i], CoAP.UTF8_CHARSET ) );
+        }
+        return Collections.unmodifiableList( values );
+    }
+
+    /**
+     * Get the values of all options with given number as etags.
+     * Intended for the ETag and If-Match options.
+     * @param number the option number
+     * @return the option values in order, empty when the option is not present
+     * @throws InvalidETagException when a value is not a valid etag
+     */
+    public ETagList getETags( int number ) throws InvalidETagException
+    {
+        int index= indexOf( number );
+        if ( index < 0 ) return ETagList.empty();
+        int count= count( number );
+        long[] values= new long [count];
+        byte[] etagLengths= new byte [count];
+        for ( int i= 0; i < count; i++ )
+        {
+            int length= lengths[index + i];
+            if ( length < 1 || length > 8 )
+            {
+                throw new InvalidETagException( "ETag length invalid, must be between 1..8 bytes. Given length is: " + length );
+            }
+            values[i]= ETag.pack( data, offsets[index + i], length );
+            etagLengths[i]= (byte) length;
+        }
+        return ETagList.create( values, etagLengths, count );
+    }
+
+    /**
+     * Add the options of the snapshot to an OptionSet.
+     * @param optionSet the set to add the options to
+     */
+    public void writeTo( OptionSet optionSet )
+    {
+        for ( int i= 0; i < numbers.length; i++ )
+        {
+            optionSet.addOption( new Option( numbers[i], getValue( i ) ) );
+        }
+    }
+
+    /**
+     * @return a new OptionSet containing the options of the snapshot
+     */
+    public OptionSet toOptionSet()
+    {
+        OptionSet optionSet= new OptionSet();
+        writeTo( optionSet );
+        return optionSet;
+    }
+
+    /**
+     * Get the options as properties, like {@link Options#fillPropertyMap(OptionSet, Map)} does.
+     * @param props map to put properties in
+     * @throws InvalidOptionValueException when an option value could not be converted into a property
+     */
+    public void fillPropertyMap( Map< String, Object > props ) throws InvalidOptionValueException
+    {
+        OptionsCodec.decode( ByteBuffer.wrap( data ), props );
+    }
+
+    /**
+     * @return the number of bytes the options take in CoAP option format
+     */
+    public int encodedLength()
+    {
+        return data.length;
+    }
+
+    /**
+     * Write the options in CoAP option format. The payload marker is not written.
+     * @param buffer the buffer to write into
+     * @throws java.nio.BufferOverflowException when there is not enough room in the buffer
+     */
+    public void encode( ByteBuffer buffer )
+    {
+        buffer.put( data );
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals( Object o )
+    {
+        if ( o == this ) return true;
+        if ( !( o instanceof OptionsSnapshot ) ) return false;
+        OptionsSnapshot other= (OptionsSnapshot) o;
+        return hash == other.hash && Arrays.equals( data, other.data );
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder builder= new StringBuilder( "OptionsSnapshot[" );
+        for ( int i= 0; i < numbers.length; i++ )
+        {
+            if ( i > 0 ) builder.append( ", " );
+            builder.append( numbers[i] ).append( "=0x" );
+            builder.append( ETag.toHexString( getValue( i ) ) );
+        }
+        return builder.append( ']' ).toString();
+    }
+}
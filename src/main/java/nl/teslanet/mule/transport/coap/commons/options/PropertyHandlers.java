@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.Collection;
+
+import org.eclipse.californium.core.coap.OptionSet;
+
+
+/**
+ * Precompiled dispatch table that maps option property names to the handler 
+ * that puts the property value into an OptionSet.
+ * The table is built once and is read-only afterwards, so it can be used concurrently.
+ */
+final class PropertyHandlers
+{
+    /**
+     * Handler that applies one property to an OptionSet.
+     */
+    interface Handler
+    {
+        /**
+         * Apply property value to the OptionSet.
+         * @param optionSet the set to put the option in
+         * @param value the property value
+         */
+        void apply( OptionSet optionSet, Object value );
+    }
+
+    /**
+     * The dispatch table, indexed by option property.
+     */
+    private static final Handler[] handlers= new Handler [OptionProperty.values().length];
+
+    static
+    {
+        /* if_match_list       = null; // new LinkedList<byte[]>();*/
+        register( OptionProperty.IFMATCH_LIST, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< ? >) value ) )
+                        {
+                            optionSet.addIfMatch( Options.toBytes( val ) );
+                        }
+                    }
+                    else if ( Object.class.isInstance( value ) )
+                    {
+                        optionSet.addIfMatch( Options.toBytes( value ) );
+                    }
+                }
+            } );
+        /*uri_host            = null; // from sender */
+        register( OptionProperty.URIHOST, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    if ( Object.class.isInstance( value ) )
+                    {
+                        //TODO support for comma separated values?
+                        optionSet.setUriHost( value.toString() );
+                    }
+                }
+            } );
+        /* etag_list           = null; // new LinkedList<byte[]>();*/
+        register( OptionProperty.ETAG_LIST, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    //TODO multiple values not valid in responses, add check here?
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< ? >) value ) )
+                        {
+                            optionSet.addETag( Options.toBytes( val ) );
+                        }
+                    }
+                    else if ( Object.class.isInstance( value ) )
+                    {
+                        //TODO support for comma separated values?
+                        optionSet.addETag( Options.toBytes( value ) );
+                    }
+                }
+            } );
+        /*if_none_match       = false; */
+        register( OptionProperty.IFNONMATCH, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    optionSet.setIfNoneMatch( Options.toBoolean( value ) );
+                }
+            } );
+        /* uri_port            = null; // from sender*/
+        register( OptionProperty.URIPORT, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    optionSet.setUriPort( Options.toInteger( value ) );
+                }
+            } );
+        /* location_path_list  = null; // new LinkedList<String>();*/
+        register( OptionProperty.LOCATIONPATH_LIST, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    //TODO check for duplication with LOCATIONPATH
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< ? >) value ) )
+                        {
+                            optionSet.addLocationPath( val.toString() );
+                        }
+                    }
+                }
+            } );
+        register( OptionProperty.LOCATIONPATH, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    //TODO prefix with "/" ?
+                    if ( Object.class.isInstance( value ) )
+                    {
+                        optionSet.setLocationPath( value.toString() );
+                    }
+                }
+            } );
+        /* uri_path_list       = null; // new LinkedList<String>();*/
+        register( OptionProperty.URIPATH_LIST, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    //TODO check for duplication with COAP_OPT_URIPATH
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< ? >) value ) )
+                        {
+                            optionSet.addUriPath( val.toString() );
+                        }
+                    }
+                }
+            } );
+        register( OptionProperty.URIPATH, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    if ( Object.class.isInstance( value ) )
+                    {
+                        optionSet.setUriPath( value.toString() );
+                    }
+                }
+            } );
+        /* content_format      = null;*/
+        register( OptionProperty.CONTENTFORMAT, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    int format= ContentFormatRegistry.parse( value );
+                    if ( format == ContentFormatRegistry.UNDEFINED )
+                    {
+                        optionSet.removeContentFormat();
+                    }
+                    else if ( format < 0 || format > ContentFormatRegistry.MAX_CONTENT_FORMAT )
+                    {
+                        throw new IllegalArgumentException( "Content-Format option must be between 0 and " + ContentFormatRegistry.MAX_CONTENT_FORMAT + " inclusive but was " + format );
+                    }
+                    else
+                    {
+                        optionSet.setContentFormat( format );
+                    }
+                }
+            } );
+        /* max_age             = null;*/
+        register( OptionProperty.MAXAGE, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    optionSet.setMaxAge( Options.toLong( value ) );
+                }
+            } );
+        /* uri_query_list      = null; // new LinkedList<String>();*/
+        register( OptionProperty.URIQUERY_LIST, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    //TODO check for duplication with COAP_OPT_URIQUERY
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< ? >) value ) )
+                        {
+                            optionSet.addUriQuery( val.toString() );
+                        }
+                    }
+                }
+            } );
+        register( OptionProperty.URIQUERY, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    if ( Object.class.isInstance( value ) )
+                    {
+                        optionSet.setUriQuery( value.toString() );
+                    }
+                }
+            } );
+        /* accept              = null;*/
+        register( OptionProperty.ACCEPT, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    optionSet.setAccept( ContentFormatRegistry.parse( value ) );
+                }
+            } );
+        /* location_query_list = null; // new LinkedList<String>();*/
+        register( OptionProperty.LOCATIONQUERY_LIST, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    if ( Collection.class.isInstance( value ) )
+                    {
+                        for ( Object val : ( (Collection< ? >) value ) )
+                        {
+                            optionSet.addLocationQuery( val.toString() );
+                        }
+                    }
+                }
+            } );
+        register( OptionProperty.LOCATIONQUERY, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    if ( Object.class.isInstance( value ) )
+                    {
+                        optionSet.setLocationQuery( value.toString() );
+                    }
+                }
+            } );
+        /* proxy_uri           = null;*/
+        register( OptionProperty.PROXYURI, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    if ( Object.class.isInstance( value ) )
+                    {
+                        optionSet.setProxyUri( value.toString() );
+                    }
+                }
+            } );
+        /* proxy_scheme        = null;*/
+        register( OptionProperty.PROXYSCHEME, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    if ( Object.class.isInstance( value ) )
+                    {
+                        optionSet.setProxyScheme( value.toString() );
+                    }
+                }
+            } );
+        /* block1 and block2 components are collected by BlockAssembler */
+        /* size1               = null;*/
+        register( OptionProperty.SIZE1, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    optionSet.setSize1( Options.toInteger( value ) );
+                }
+            } );
+        /* size2               = null;*/
+        register( OptionProperty.SIZE2, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    optionSet.setSize2( Options.toInteger( value ) );
+                }
+            } );
+        /* observe             = null;*/
+        register( OptionProperty.OBSERVE, new Handler()
+            {
+                @Override
+                public void apply( OptionSet optionSet, Object value )
+                {
+                    optionSet.setObserve( Options.toInteger( value ) );
+                }
+            } );
+    }
+
+    /**
+     * Get the handler of an option property.
+     * @param propertyName the name of the property
+     * @return the handler or null when the property is not a known option property
+     */
+    static Handler get( String propertyName )
+    {
+        OptionProperty property= OptionProperty.get( propertyName );
+        return ( property != null ? handlers[property.ordinal()] : null );
+    }
+
+    /**
+     * Get the handler of an option property.
+     * @param property the option property
+     * @return the handler or null when the property has no handler of its own, like block components
+     */
+    static Handler get( OptionProperty property )
+    {
+        return handlers[property.ordinal()];
+    }
+
+    /**
+     * Register the handler of an option property.
+     * @param property the option property
+     * @param handler the handler
+     */
+    private static void register( OptionProperty property, Handler handler )
+    {
+        handlers[property.ordinal()]= handler;
+    }
+
+    private PropertyHandlers()
+    {
+        //static only
+    }
+}
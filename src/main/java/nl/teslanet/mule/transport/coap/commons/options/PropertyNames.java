@@ -41,6 +41,8 @@ public class PropertyNames
     public static final String COAP_RESPONSE_SUCCESS= "coap.response.success";
 
     //options
+    public static final String PREFIX_COAP_OPT= "coap.opt.";
+
     public static final String COAP_OPT_IFMATCH_LIST= "coap.opt.if_match.list";
 
     public static final String COAP_OPT_URIHOST= "coap.opt.uri_host";
@@ -110,6 +112,42 @@ public class PropertyNames
     public static final Pattern otherPattern= Pattern.compile( "^" + PREFIX_COAP_OPT_OTHER + "([0-9]+)" );
 
 
+    /**
+     * Maximum option number allowed by CoAP.
+     */
+    private static final int MAX_OPTION_NUMBER= 0xFFFF;
+
+    /**
+     * Get the option number of an other option property, like {@code coap.opt.other.65001}.
+     * The property name is parsed without regular expression or allocation.
+     * @param propertyName the name of the property
+     * @return the option number or -1 when the property name does not designate an other option
+     */
+    public static int otherOptionNumber( String propertyName )
+    {
+        int prefixLength= PREFIX_COAP_OPT_OTHER.length();
+        int length= propertyName.length();
+        if ( length == prefixLength || !propertyName.startsWith( PREFIX_COAP_OPT_OTHER ) )
+        {
+            return -1;
+        }
+        int optionNr= 0;
+        for ( int i= prefixLength; i < length; i++ )
+        {
+            int digit= propertyName.charAt( i ) - '0';
+            if ( digit < 0 || digit > 9 )
+            {
+                return -1;
+            }
+            optionNr= optionNr * 10 + digit;
+            if ( optionNr > MAX_OPTION_NUMBER )
+            {
+                return -1;
+            }
+        }
+        return optionNr;
+    }
+
     protected PropertyNames()
     {
 
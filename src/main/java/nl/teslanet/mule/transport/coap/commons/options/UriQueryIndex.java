@@ -0,0 +1,507 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.OptionSet;
+
+
+/**
+ * Index of the Uri-Query parameters of a message, built once per message.
+ * Each Uri-Query argument of the form key=value is a parameter; an argument without '=' is a key with an empty value.
+ * Keys are looked up in constant time using a hash table on the key characters,
+ * and a key can have multiple values, that are kept in the order of the arguments.
+ * Keys and values are not copied out of the arguments: values are returned as {@link CharSequence} slices
+ * that are only copied when {@link CharSequence#toString()} is called,
+ * and the typed getters parse values in place.
+ * The index is immutable.
+ */
+public final class UriQueryIndex
+{
+    /**
+     * Index without parameters.
+     */
+    private static final UriQueryIndex EMPTY= new UriQueryIndex( 0 );
+
+    /**
+     * The strings containing the parameters.
+     */
+    private final String[] sources;
+
+    private final int[] keyStarts;
+
+    private final int[] keyEnds;
+
+    /**
+     * Value ranges, the value starts after the '=' or at the end of the key when there is none.
+     */
+    private final int[] valueStarts;
+
+    private final int[] valueEnds;
+
+    /**
+     * Index of the next parameter with the same key, or -1.
+     */
+    private final int[] nextWithKey;
+
+    /**
+     * Open addressing hash table containing the index of the first parameter of each key plus 1, 0 when empty.
+     */
+    private final int[] table;
+
+    /**
+     * The number of parameters.
+     */
+    private int size= 0;
+
+    private UriQueryIndex( int capacity )
+    {
+        sources= new String [capacity];
+        keyStarts= new int [capacity];
+        keyEnds= new int [capacity];
+        valueStarts= new int [capacity];
+        valueEnds= new int [capacity];
+        nextWithKey= new int [capacity];
+        int tableSize= 2;
+        while ( tableSize < capacity * 2 )
+        {
+            tableSize<<= 1;
+        }
+        table= new int [tableSize];
+    }
+
+    /**
+     * Create index of the Uri-Query options of an OptionSet.
+     * @param optionSet the options
+     * @return the index
+     */
+    public static UriQueryIndex create( OptionSet optionSet )
+    {
+        if ( optionSet.getURIQueryCount() == 0 ) return EMPTY;
+        return create( optionSet.getUriQuery() );
+    }
+
+    /**
+     * Create index of Uri-Query arguments.
+     * @param arguments the arguments, each of the form key=value or key
+     * @return the index
+     */
+    public static UriQueryIndex create( List< String > arguments )
+    {
+        int count= arguments.size();
+        if ( count == 0 ) return EMPTY;
+        UriQueryIndex index= new UriQueryIndex( count );
+        for ( int i= 0; i < count; i++ )
+        {
+            String argument= arguments.get( i );
+            index.add( argument, 0, argument.length() );
+        }
+        return index;
+    }
+
+    /**
+     * Create index of the Uri-Query properties contained in a property map.
+     * The property {@value PropertyNames#COAP_OPT_URIQUERY_LIST} takes precedence over {@value PropertyNames#COAP_OPT_URIQUERY},
+     * that is interpreted as arguments separated by '&amp;' with an optional leading '?'.
+     * @param props map containing the properties
+     * @return the index
+     */
+    public static UriQueryIndex create( Map< String, Object > props )
+    {
+        Object list= props.get( PropertyNames.COAP_OPT_URIQUERY_LIST );
+        if ( list instanceof Collection )
+        {
+            Collection< ? > arguments= (Collection< ? >) list;
+            if ( arguments.isEmpty() ) return EMPTY;
+            UriQueryIndex index= new UriQueryIndex( arguments.size() );
+            for ( Object argument : arguments )
+            {
+                String s= argument.toString();
+                index.add( s, 0, s.length() );
+            }
+            return index;
+        }
+        Object query= props.get( PropertyNames.COAP_OPT_URIQUERY );
+        if ( query == null ) return EMPTY;
+        return parse( query.toString() );
+    }
+
+    /**
+     * Create index of a query string.
+     * @param query arguments separated by '&amp;', with optional leading '?' characters
+     * @return the index
+     */
+    public static UriQueryIndex parse( String query )
+    {
+        int end= query.length();
+        //strip all leading '?', like OptionSet.setUriQuery() does
+        int start= 0;
+        while ( start < end && query.charAt( start ) == '?' )
+        {
+            start++;
+        }
+        if ( start == end ) return EMPTY;
+        int count= 1;
+        for ( int i= start; i < end; i++ )
+        {
+            if ( query.charAt( i ) == '&' ) count++;
+        }
+        UriQueryIndex index= new UriQueryIndex( count );
+        int argumentStart= start;
+        for ( int i= start; i <= end; i++ )
+        {
+            if ( i == end || query.charAt( i ) == '&' )
+            {
+                //empty arguments are skipped, like OptionSet.setUriQuery() does
+                if ( i > argumentStart ) index.add( query, argumentStart, i );
+                argumentStart= i + 1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return empty index
+     */
+    public static UriQueryIndex empty()
+    {
+        return EMPTY;
+    }
+
+    /**
+     * Add parameter to the index.
+     */
+    private void add( String source, int start, int end )
+    {
+        int separator= source.indexOf( '=', start );
+        int keyEnd= ( separator < 0 || separator >= end ? end : separator );
+        int i= size++;
+        sources[i]= source;
+        keyStarts[i]= start;
+        keyEnds[i]= keyEnd;
+        valueStarts[i]= ( keyEnd < end ? keyEnd + 1 : end );
+        valueEnds[i]= end;
+        nextWithKey[i]= -1;
+
+        int mask= table.length - 1;
+        int slot= hash( source, start, keyEnd ) & mask;
+        while ( table[slot] != 0 )
+        {
+            int first= table[slot] - 1;
+            if ( keyEquals( first, source, start, keyEnd ) )
+            {
+                //append to the parameters with this key
+                int last= first;
+                while ( nextWithKey[last] >= 0 )
+                {
+                    last= nextWithKey[last];
+                }
+                nextWithKey[last]= i;
+                return;
+            }
+            slot= ( slot + 1 ) & mask;
+        }
+        table[slot]= i + 1;
+    }
+
+    private static int hash( String s, int start, int end )
+    {
+        int h= 0;
+        for ( int i= start; i < end; i++ )
+        {
+            h= 31 * h + s.charAt( i );
+        }
+        return h ^ ( h >>> 16 );
+    }
+
+    private boolean keyEquals( int parameter, String s, int start, int end )
+    {
+        int length= end - start;
+        return keyEnds[parameter] - keyStarts[parameter] == length && sources[parameter].regionMatches( keyStarts[parameter], s, start, length );
+    }
+
+    /**
+     * Find the first parameter with given key.
+     * @param key the key
+     * @return the index of the parameter, or -1 when absent
+     */
+    private int first( String key )
+    {
+        int mask= table.length - 1;
+        int slot= hash( key, 0, key.length() ) & mask;
+        while ( table[slot] != 0 )
+        {
+            int first= table[slot] - 1;
+            if ( keyEquals( first, key, 0, key.length() ) ) return first;
+            slot= ( slot + 1 ) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of parameters
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param position the position of the parameter
+     * @return the key of the parameter
+     * @throws IndexOutOfBoundsException when position is out of range
+     */
+    public CharSequence getKey( int position )
+    {
+        checkPosition( position );
+        return new Slice( sources[position], keyStarts[position], keyEnds[position] );
+    }
+
+    /**
+     * @param position the position of the parameter
+     * @return the value of the parameter, empty when the parameter has no value
+     * @throws IndexOutOfBoundsException when position is out of range
+     */
+    public CharSequence getValue( int position )
+    {
+        checkPosition( position );
+        return new Slice( sources[position], valueStarts[position], valueEnds[position] );
+    }
+
+    private void checkPosition( int position )
+    {
+        if ( position < 0 || position >= size ) throw new IndexOutOfBoundsException( "Index: " + position + ", Size: " + size );
+    }
+
+    /**
+     * @param key the key
+     * @return true when a parameter with given key is present
+     */
+    public boolean contains( String key )
+    {
+        return first( key ) >= 0;
+    }
+
+    /**
+     * @param key the key
+     * @return the number of parameters with given key
+     */
+    public int count( String key )
+    {
+        int count= 0;
+        for ( int i= first( key ); i >= 0; i= nextWithKey[i] )
+        {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the first value of a key.
+     * @param key the key
+     * @return the value, empty when the parameter has no value, or null when the key is absent
+     */
+    public CharSequence get( String key )
+    {
+        int i= first( key );
+        return ( i < 0 ? null : new Slice( sources[i], valueStarts[i], valueEnds[i] ) );
+    }
+
+    /**
+     * Get the first value of a key as string.
+     * @param key the key
+     * @return the value, empty when the parameter has no value, or null when the key is absent
+     */
+    public String getString( String key )
+    {
+        int i= first( key );
+        return ( i < 0 ? null : sources[i].substring( valueStarts[i], valueEnds[i] ) );
+    }
+
+    /**
+     * Get all values of a key.
+     * @param key the key
+     * @return the unmodifiable list of values in argument order, empty when the key is absent
+     */
+    public List< CharSequence > getAll( String key )
+    {
+        int i= first( key );
+        if ( i < 0 ) return Collections.emptyList();
+        ArrayList< CharSequence > values= new ArrayList< CharSequence >( 2 );
+        for ( ; i >= 0; i= nextWithKey[i] )
+        {
+            values.add( new Slice( sources[i], valueStarts[i], valueEnds[i] ) );
+        }
+        return Collections.unmodifiableList( values );
+    }
+
+    /**
+     * Check whether the first value of a key equals given value, without copying the value.
+     * @param key the key
+     * @param value the value to compare with
+     * @return true when the key is present and its first value equals given value
+     */
+    public boolean valueEquals( String key, String value )
+    {
+        int i= first( key );
+        if ( i < 0 ) return false;
+        int length= value.length();
+        return valueEnds[i] - valueStarts[i] == length && sources[i].regionMatches( valueStarts[i], value, 0, length );
+    }
+
+    /**
+     * Get the first value of a key as int.
+     * @param key the key
+     * @param defaultValue the value to return when the key is absent
+     * @return the value
+     * @throws NumberFormatException when the value is not a valid int
+     */
+    public int getInt( String key, int defaultValue )
+    {
+        int i= first( key );
+        if ( i < 0 ) return defaultValue;
+        long value= parseLong( sources[i], valueStarts[i], valueEnds[i] );
+        if ( value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ) throw invalidNumber( i );
+        return (int) value;
+    }
+
+    /**
+     * Get the first value of a key as long.
+     * @param key the key
+     * @param defaultValue the value to return when the key is absent
+     * @return the value
+     * @throws NumberFormatException when the value is not a valid long
+     */
+    public long getLong( String key, long defaultValue )
+    {
+        int i= first( key );
+        if ( i < 0 ) return defaultValue;
+        return parseLong( sources[i], valueStarts[i], valueEnds[i] );
+    }
+
+    /**
+     * Get the first value of a key as boolean.
+     * Like {@link Boolean#parseBoolean(String)} the value is true when it equals "true", ignoring case.
+     * @param key the key
+     * @param defaultValue the value to return when the key is absent
+     * @return the value
+     */
+    public boolean getBoolean( String key, boolean defaultValue )
+    {
+        int i= first( key );
+        if ( i < 0 ) return defaultValue;
+        return valueEnds[i] - valueStarts[i] == 4 && sources[i].regionMatches( true, valueStarts[i], "true", 0, 4 );
+    }
+
+    /**
+     * Parse decimal long in place.
+     * @throws NumberFormatException when the range does not contain a valid long
+     */
+    private long parseLong( String s, int start, int end )
+    {
+        int i= start;
+        boolean negative= false;
+        if ( i < end && ( s.charAt( i ) == '-' || s.charAt( i ) == '+' ) )
+        {
+            negative= ( s.charAt( i ) == '-' );
+            i++;
+        }
+        if ( i == end ) throw new NumberFormatException( "For input string: \"" + s.substring( start, end ) + "\"" );
+        //accumulate negatively, to be able to represent Long.MIN_VALUE
+        long limit= ( negative ? Long.MIN_VALUE : -Long.MAX_VALUE );
+        long result= 0L;
+        for ( ; i < end; i++ )
+        {
+            int digit= s.charAt( i ) - '0';
+            if ( digit < 0 || digit > 9 || result < ( limit + digit ) / 10 )
+            {
+                throw new NumberFormatException( "For input string: \"" + s.substring( start, end ) + "\"" );
+            }
+            result= result * 10 - digit;
+        }
+        return ( negative ? result : -result );
+    }
+
+    private NumberFormatException invalidNumber( int parameter )
+    {
+        return new NumberFormatException( "For input string: \"" + sources[parameter].substring( valueStarts[parameter], valueEnds[parameter] ) + "\"" );
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder builder= new StringBuilder();
+        for ( int i= 0; i < size; i++ )
+        {
+            if ( i > 0 ) builder.append( '&' );
+            builder.append( sources[i], keyStarts[i], valueEnds[i] );
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Range of characters of a string, copied only when converted to string.
+     */
+    private static final class Slice implements CharSequence
+    {
+        private final String source;
+
+        private final int start;
+
+        private final int end;
+
+        Slice( String source, int start, int end )
+        {
+            this.source= source;
+            this.start= start;
+            this.end= end;
+        }
+
+        @Override
+        public int length()
+        {
+            return end - start;
+        }
+
+        @Override
+        public char charAt( int index )
+        {
+            if ( index < 0 || index >= end - start ) throw new IndexOutOfBoundsException( "index: " + index );
+            return source.charAt( start + index );
+        }
+
+        @Override
+        public CharSequence subSequence( int from, int to )
+        {
+            if ( from < 0 || to > end - start || from > to ) throw new IndexOutOfBoundsException( "from: " + from + ", to: " + to );
+            return new Slice( source, start + from, start + to );
+        }
+
+        @Override
+        public String toString()
+        {
+            return source.substring( start, end );
+        }
+    }
+}
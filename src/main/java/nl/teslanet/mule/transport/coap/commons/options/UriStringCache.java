@@ -0,0 +1,347 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Bounded cache of Uri-Path, Uri-Query, Location-Path and Location-Query strings.
+ * Entries are keyed on the segments, so a hit returns the joined string
+ * and a shared copy of the segments without joining or copying anything.
+ * Segments of new entries are interned, so recurring segments are held once.
+ * When the cache is full one entry is evicted for each new entry, chosen by the clock algorithm:
+ * the hand passes over the entries in insertion order, giving entries that were used since its last pass
+ * a second chance, and evicts the first entry that was not.
+ * So recurring paths stay cached while one-off paths are evicted.
+ * The cache is thread-safe. Lookups of cached entries do not lock, only adding an entry does.
+ * @see Options#fillPropertyMap(org.eclipse.californium.core.coap.OptionSet, java.util.Map, UriStringCache)
+ */
+public final class UriStringCache
+{
+    /**
+     * The default maximum number of entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES= 4096;
+
+    /**
+     * Path entries, segments joined by '/'.
+     */
+    private final Clock< List< String >, Entry > paths;
+
+    /**
+     * Query entries, arguments joined by '&amp;'.
+     */
+    private final Clock< List< String >, Entry > queries;
+
+    /**
+     * The interned segments.
+     */
+    private final Clock< String, String > segments;
+
+    private final AtomicLong hitCount= new AtomicLong();
+
+    private final AtomicLong missCount= new AtomicLong();
+
+    private final AtomicLong evictionCount= new AtomicLong();
+
+    /**
+     * Constructs a cache with the default maximum number of entries.
+     */
+    public UriStringCache()
+    {
+        this( DEFAULT_MAX_ENTRIES );
+    }
+
+    /**
+     * Constructs a cache.
+     * @param maxEntries the maximum number of path entries, query entries and segments, each
+     * @throws IllegalArgumentException when maxEntries is not positive
+     */
+    public UriStringCache( int maxEntries )
+    {
+        super();
+        if ( maxEntries <= 0 ) throw new IllegalArgumentException( "maxEntries must be positive: " + maxEntries );
+        paths= new Clock< List< String >, Entry >( maxEntries, evictionCount );
+        queries= new Clock< List< String >, Entry >( maxEntries, evictionCount );
+        segments= new Clock< String, String >( maxEntries, evictionCount );
+    }
+
+    /**
+     * Get the entry of path segments, as used in Uri-Path and Location-Path options.
+     * @param pathSegments the segments
+     * @return the entry containing the segments joined by '/'
+     */
+    public Entry path( List< String > pathSegments )
+    {
+        return lookup( paths, pathSegments, '/' );
+    }
+
+    /**
+     * Get the entry of query arguments, as used in Uri-Query and Location-Query options.
+     * @param queryArguments the arguments
+     * @return the entry containing the arguments joined by '&amp;'
+     */
+    public Entry query( List< String > queryArguments )
+    {
+        return lookup( queries, queryArguments, '&' );
+    }
+
+    /**
+     * Intern a segment.
+     * @param segment the segment
+     * @return the cached segment equal to given segment
+     */
+    public String intern( String segment )
+    {
+        String interned= segments.get( segment );
+        return ( interned != null ? interned : segments.putIfAbsent( segment, segment ) );
+    }
+
+    private Entry lookup( Clock< List< String >, Entry > entries, List< String > key, char separator )
+    {
+        Entry entry= entries.get( key );
+        if ( entry != null )
+        {
+            hitCount.incrementAndGet();
+            return entry;
+        }
+        missCount.incrementAndGet();
+        String[] interned= new String [key.size()];
+        StringBuilder builder= new StringBuilder();
+        int i= 0;
+        for ( String segment : key )
+        {
+            if ( i > 0 ) builder.append( separator );
+            builder.append( segment );
+            interned[i++]= intern( segment );
+        }
+        entry= new Entry( Collections.unmodifiableList( Arrays.asList( interned ) ), builder.toString() );
+        return entries.putIfAbsent( entry.segments, entry );
+    }
+
+    /**
+     * Remove all entries. The metrics are not reset.
+     */
+    public void clear()
+    {
+        paths.clear();
+        queries.clear();
+        segments.clear();
+    }
+
+    /**
+     * @return the number of path and query entries
+     */
+    public int size()
+    {
+        return paths.size() + queries.size();
+    }
+
+    /**
+     * @return the number of lookups that found an entry
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups that created an entry
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of entries and segments evicted to stay within bounds
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    /**
+     * Bounded map that evicts by the clock algorithm.
+     * Reads do not lock and only mark the node as referenced, writes are serialized.
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    private static final class Clock< K, V >
+    {
+        /**
+         * The entries.
+         */
+        private final ConcurrentHashMap< K, Node< K, V > > map= new ConcurrentHashMap< K, Node< K, V > >();
+
+        /**
+         * The nodes in clock order, at most capacity.
+         */
+        private final ArrayList< Node< K, V > > ring;
+
+        private final int capacity;
+
+        private final AtomicLong evictionCount;
+
+        /**
+         * The position of the clock hand in the ring.
+         */
+        private int hand= 0;
+
+        private Clock( int capacity, AtomicLong evictionCount )
+        {
+            this.capacity= capacity;
+            this.evictionCount= evictionCount;
+            ring= new ArrayList< Node< K, V > >( Math.min( capacity, 1024 ) );
+        }
+
+        /**
+         * Get the value and mark it referenced.
+         * @param key the key
+         * @return the value or null when not present
+         */
+        V get( K key )
+        {
+            Node< K, V > node= map.get( key );
+            if ( node == null ) return null;
+            //avoid writing shared memory when already marked
+            if ( !node.referenced ) node.referenced= true;
+            return node.value;
+        }
+
+        /**
+         * Add the value when the key is not present, evicting an entry when full.
+         * @param key the key
+         * @param value the value
+         * @return the present value, or given value when it was added
+         */
+        synchronized V putIfAbsent( K key, V value )
+        {
+            Node< K, V > existing= map.get( key );
+            if ( existing != null ) return existing.value;
+            Node< K, V > node= new Node< K, V >( key, value );
+            if ( ring.size() < capacity )
+            {
+                ring.add( node );
+            }
+            else
+            {
+                Node< K, V > victim= ring.get( hand );
+                while ( victim.referenced )
+                {
+                    victim.referenced= false;
+                    hand= ( hand + 1 ) % capacity;
+                    victim= ring.get( hand );
+                }
+                map.remove( victim.key );
+                ring.set( hand, node );
+                hand= ( hand + 1 ) % capacity;
+                evictionCount.incrementAndGet();
+            }
+            map.put( key, node );
+            return value;
+        }
+
+        synchronized void clear()
+        {
+            map.clear();
+            ring.clear();
+            hand= 0;
+        }
+
+        int size()
+        {
+            return map.size();
+        }
+    }
+
+    /**
+     * Node of the clock.
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    private static final class Node< K, V >
+    {
+        private final K key;
+
+        private final V value;
+
+        /**
+         * True when used since the clock hand passed.
+         */
+        private volatile boolean referenced= false;
+
+        private Node( K key, V value )
+        {
+            this.key= key;
+            this.value= value;
+        }
+    }
+
+    /**
+     * Cached segments and their joined string.
+     */
+    public static final class Entry
+    {
+        /**
+         * The unmodifiable interned segments.
+         */
+        private final List< String > segments;
+
+        /**
+         * The joined segments.
+         */
+        private final String joined;
+
+        private Entry( List< String > segments, String joined )
+        {
+            this.segments= segments;
+            this.joined= joined;
+        }
+
+        /**
+         * @return the unmodifiable segments
+         */
+        public List< String > getSegments()
+        {
+            return segments;
+        }
+
+        /**
+         * @return the joined segments
+         */
+        public String getJoined()
+        {
+            return joined;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return joined;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.options;
+
+
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Issues etags derived from a version number of a resource.
+ * Every update of the resource gets a new version and a new etag, without locking.
+ * The current etag is kept, so it can be retrieved without creating a new etag object.
+ * A factory is meant to be used for one resource and can be used concurrently.
+ * To prevent that etags are issued again after a restart, the default initial version
+ * is the time the factory is created in milliseconds.
+ */
+public final class VersionETagFactory
+{
+    /**
+     * The etag of the current version, its value being the version.
+     */
+    private final AtomicReference< ETag > current;
+
+    /**
+     * When true etags have the minimal length needed for the version, otherwise 8 bytes.
+     */
+    private final boolean minimal;
+
+    /**
+     * Constructs factory with the current time in milliseconds as initial version,
+     * issuing etags of minimal length.
+     */
+    public VersionETagFactory()
+    {
+        this( System.currentTimeMillis(), true );
+    }
+
+    /**
+     * Constructs factory.
+     * @param initialVersion the version of the initial etag
+     * @param minimal when true etags have the minimal length needed for the version, otherwise 8 bytes
+     */
+    public VersionETagFactory( long initialVersion, boolean minimal )
+    {
+        this.minimal= minimal;
+        this.current= new AtomicReference< ETag >( create( initialVersion ) );
+    }
+
+    private ETag create( long version )
+    {
+        return ( minimal ? ETag.fromLongMinimal( version ) : ETag.fromLong( version ) );
+    }
+
+    /**
+     * Get the etag of the current version.
+     * @return the current etag
+     */
+    public ETag current()
+    {
+        return current.get();
+    }
+
+    /**
+     * Get the current version.
+     * @return the version
+     */
+    public long getVersion()
+    {
+        return current.get().asLong();
+    }
+
+    /**
+     * Advance to the next version, to be called on every update of the resource.
+     * Concurrent calls each get a distinct version.
+     * @return the etag of the new version
+     */
+    public ETag next()
+    {
+        for ( ;; )
+        {
+            ETag etag= current.get();
+            ETag next= create( etag.asLong() + 1 );
+            if ( current.compareAndSet( etag, next ) ) return next;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.resources;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.californium.core.coap.OptionSet;
+
+import nl.teslanet.mule.transport.coap.commons.Defs;
+
+
+/**
+ * Router that finds the handler of a resource by its Uri-Path segments.
+ * Resource paths are registered as segments separated by {@link Defs#COAP_URI_PATHSEP},
+ * and compiled into a trie of segments, so finding a resource does not depend on the number of resources.
+ * The root resource has path {@link Defs#COAP_URI_ROOTRESOURCE} (or "/").
+ * A segment {@link Defs#COAP_URI_WILDCARD} matches any single segment,
+ * and as last segment it matches one or more remaining segments.
+ * Exact segments take precedence over wildcards.
+ * Registering and matching can be done concurrently.
+ * @param <H> the type of the handlers
+ */
+public final class ResourceRouter< H >
+{
+    /**
+     * The root of the trie.
+     */
+    private final Node< H > root= new Node< H >();
+
+    /**
+     * The number of registered resources.
+     */
+    private int size= 0;
+
+    /**
+     * The result of a successful match.
+     * @param <H> the type of the handler
+     */
+    public static final class Match< H >
+    {
+        private final H handler;
+
+        private final String path;
+
+        private final List< String > wildcardSegments;
+
+        private Match( H handler, String path, List< String > wildcardSegments )
+        {
+            this.handler= handler;
+            this.path= path;
+            this.wildcardSegments= wildcardSegments;
+        }
+
+        /**
+         * @return the handler of the matched resource
+         */
+        public H getHandler()
+        {
+            return handler;
+        }
+
+        /**
+         * @return the registered path of the matched resource
+         */
+        public String getPath()
+        {
+            return path;
+        }
+
+        /**
+         * Get the segments matched by wildcards, in order.
+         * A wildcard at the end of the registered path contributes all remaining segments.
+         * @return the unmodifiable list of segments, empty when the path has no wildcards
+         */
+        public List< String > getWildcardSegments()
+        {
+            return wildcardSegments;
+        }
+    }
+
+    /**
+     * Node of the trie.
+     */
+    private static final class Node< H >
+    {
+        /**
+         * Children by exact segment.
+         */
+        final ConcurrentHashMap< String, Node< H > > children= new ConcurrentHashMap< String, Node< H > >();
+
+        /**
+         * The wildcard child, or null.
+         */
+        volatile Node< H > wildcard= null;
+
+        /**
+         * The resource ending at this node, or null.
+         */
+        volatile Route< H > route= null;
+
+        boolean isEmpty()
+        {
+            return route == null && wildcard == null && children.isEmpty();
+        }
+    }
+
+    /**
+     * Immutable registration of a resource.
+     */
+    private static final class Route< H >
+    {
+        final H handler;
+
+        final String path;
+
+        final String[] segments;
+
+        Route( H handler, String path, String[] segments )
+        {
+            this.handler= handler;
+            this.path= path;
+            this.segments= segments;
+        }
+    }
+
+    /**
+     * Split a path into segments.
+     * Leading and trailing path separators are ignored.
+     * @param path the path
+     * @return the segments, empty for the root resource
+     */
+    static String[] segmentsOf( String path )
+    {
+        int start= 0;
+        int end= path.length();
+        while ( start < end && path.startsWith( Defs.COAP_URI_PATHSEP, start ) )
+        {
+            start+= Defs.COAP_URI_PATHSEP.length();
+        }
+        while ( end > start && path.startsWith( Defs.COAP_URI_PATHSEP, end - Defs.COAP_URI_PATHSEP.length() ) )
+        {
+            end-= Defs.COAP_URI_PATHSEP.length();
+        }
+        if ( start == end ) return new String [0];
+        return path.substring( start, end ).split( Defs.COAP_URI_PATHSEP, -1 );
+    }
+
+    /**
+     * Register a resource.
+     * @param path the path of the resource, that may contain wildcard segments
+     * @param handler the handler of the resource
+     * @return the handler that was registered on the path before, or null
+     * @throws IllegalArgumentException when path or handler is null
+     */
+    public synchronized H add( String path, H handler )
+    {
+        if ( path == null ) throw new IllegalArgumentException( "path is null" );
+        if ( handler == null ) throw new IllegalArgumentException( "handler is null" );
+        String[] segments= segmentsOf( path );
+        Node< H > node= root;
+        for ( String segment : segments )
+        {
+            Node< H > next;
+            if ( Defs.COAP_URI_WILDCARD.equals( segment ) )
+            {
+                next= node.wildcard;
+                if ( next == null )
+                {
+                    next= new Node< H >();
+                    node.wildcard= next;
+                }
+            }
+            else
+            {
+                next= node.children.get( segment );
+                if ( next == null )
+                {
+                    next= new Node< H >();
+                    node.children.put( segment, next );
+                }
+            }
+            node= next;
+        }
+        Route< H > previous= node.route;
+        node.route= new Route< H >( handler, path, segments );
+        if ( previous == null )
+        {
+            size++;
+            return null;
+        }
+        return previous.handler;
+    }
+
+    /**
+     * Unregister a resource.
+     * @param path the path the resource was registered on
+     * @return the handler that was registered on the path, or null
+     */
+    public synchronized H remove( String path )
+    {
+        String[] segments= segmentsOf( path );
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Node< H >[] nodes= new Node [segments.length + 1];
+        nodes[0]= root;
+        for ( int i= 0; i < segments.length; i++ )
+        {
+            nodes[i + 1]= ( Defs.COAP_URI_WILDCARD.equals( segments[i] ) ? nodes[i].wildcard : nodes[i].children.get( segments[i] ) );
+            if ( nodes[i + 1] == null ) return null;
+        }
+        Node< H > node= nodes[segments.length];
+        Route< H > previous= node.route;
+        if ( previous == null ) return null;
+        node.route= null;
+        size--;
+        //prune nodes that lead nowhere
+        for ( int i= segments.length; i > 0 && nodes[i].isEmpty(); i-- )
+        {
+            if ( Defs.COAP_URI_WILDCARD.equals( segments[i - 1] ) )
+            {
+                nodes[i - 1].wildcard= null;
+            }
+            else
+            {
+                nodes[i - 1].children.remove( segments[i - 1] );
+            }
+        }
+        return previous.handler;
+    }
+
+    /**
+     * @return the number of registered resources
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Find the resource of a request.
+     * @param request the request options
+     * @return the match, or null when no resource matches
+     */
+    public Match< H > match( OptionSet request )
+    {
+        return match( request.getUriPath() );
+    }
+
+    /**
+     * Find the resource of a path.
+     * @param path the path, with segments separated by {@link Defs#COAP_URI_PATHSEP}
+     * @return the match, or null when no resource matches
+     */
+    public Match< H > match( String path )
+    {
+        String[] segments= segmentsOf( path );
+        List< String > list= new ArrayList< String >( segments.length );
+        Collections.addAll( list, segments );
+        return match( list );
+    }
+
+    /**
+     * Find the resource of path segments.
+     * @param segments the path segments, empty for the root resource
+     * @return the match, or null when no resource matches
+     */
+    public Match< H > match( List< String > segments )
+    {
+        Route< H > route= find( root, segments, 0 );
+        if ( route == null ) return null;
+        return new Match< H >( route.handler, route.path, wildcardSegments( route.segments, segments ) );
+    }
+
+    /**
+     * Find the resource matching the segments from given index.
+     * @return the route of the resource, or null when no resource matches
+     */
+    private static < H > Route< H > find( Node< H > node, List< String > segments, int index )
+    {
+        if ( index == segments.size() ) return node.route;
+        Node< H > child= node.children.get( segments.get( index ) );
+        if ( child != null )
+        {
+            Route< H > found= find( child, segments, index + 1 );
+            if ( found != null ) return found;
+        }
+        Node< H > wildcard= node.wildcard;
+        if ( wildcard != null )
+        {
+            Route< H > found= find( wildcard, segments, index + 1 );
+            if ( found != null ) return found;
+            //wildcard at the end of the path matches the remaining segments
+            Route< H > rest= wildcard.route;
+            if ( rest != null ) return rest;
+        }
+        return null;
+    }
+
+    /**
+     * Collect the segments matched by the wildcards of a pattern.
+     */
+    private static List< String > wildcardSegments( String[] pattern, List< String > segments )
+    {
+        List< String > wildcards= null;
+        for ( int i= 0; i < pattern.length; i++ )
+        {
+            if ( !Defs.COAP_URI_WILDCARD.equals( pattern[i] ) ) continue;
+            if ( wildcards == null ) wildcards= new ArrayList< String >();
+            if ( i == pattern.length - 1 )
+            {
+                wildcards.addAll( segments.subList( i, segments.size() ) );
+            }
+            else
+            {
+                wildcards.add( segments.get( i ) );
+            }
+        }
+        return ( wildcards == null ? Collections.< String > emptyList() : Collections.unmodifiableList( wildcards ) );
+    }
+}
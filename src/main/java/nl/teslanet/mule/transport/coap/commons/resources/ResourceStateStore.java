@@ -0,0 +1,430 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.resources;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.teslanet.mule.transport.coap.commons.options.ConditionalEvaluator;
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Store of resource states, keyed by resource path.
+ * Each state consists of the current etag of the resource and an opaque state object.
+ * States are replaced atomically without locking, by comparing the current state
+ * with the preconditions of the request, as specified by RFC 7252:
+ * <ul>
+ * <li>If-Match: the state is only replaced when the current etag is one of the If-Match etags.
+ * An empty If-Match value matches any existing resource.</li>
+ * <li>If-None-Match: the state is only created when the resource does not exist.</li>
+ * </ul>
+ * Preconditions are evaluated by {@link ConditionalEvaluator}.
+ * Listeners are notified of every change after it has been made, for instance to trigger observe notifications.
+ * The store can be used concurrently. Notifications are not serialized, so when a resource is changed
+ * by concurrent writers its listeners may receive the notifications out of order.
+ * @param <S> the type of the state objects
+ */
+public final class ResourceStateStore< S >
+{
+    private static final Logger logger= LoggerFactory.getLogger( ResourceStateStore.class );
+
+    /**
+     * The outcome of a conditional update.
+     */
+    public enum Outcome
+    {
+        /**
+         * The resource was created.
+         */
+        CREATED( ResponseCode.CREATED ),
+        /**
+         * The state of the resource was replaced.
+         */
+        CHANGED( ResponseCode.CHANGED ),
+        /**
+         * The resource was removed, or did not exist.
+         */
+        DELETED( ResponseCode.DELETED ),
+        /**
+         * A precondition did not hold, the store is not changed.
+         */
+        PRECONDITION_FAILED( ResponseCode.PRECONDITION_FAILED );
+
+        private final ResponseCode responseCode;
+
+        private Outcome( ResponseCode responseCode )
+        {
+            this.responseCode= responseCode;
+        }
+
+        /**
+         * @return the response code to respond with
+         */
+        public ResponseCode getResponseCode()
+        {
+            return responseCode;
+        }
+    }
+
+    /**
+     * Immutable state of a resource.
+     * @param <S> the type of the state object
+     */
+    public static final class State< S >
+    {
+        private final ETag etag;
+
+        private final S value;
+
+        /**
+         * Constructs state.
+         * @param etag the etag of the resource
+         * @param value the state object
+         */
+        public State( ETag etag, S value )
+        {
+            this.etag= etag;
+            this.value= value;
+        }
+
+        /**
+         * @return the etag of the resource
+         */
+        public ETag getETag()
+        {
+            return etag;
+        }
+
+        /**
+         * @return the state object
+         */
+        public S getValue()
+        {
+            return value;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "State { " + etag + ", " + value + " }";
+        }
+    }
+
+    /**
+     * Listener that is notified of changes of resource states.
+     * @param <S> the type of the state objects
+     */
+    public interface Listener< S >
+    {
+        /**
+         * Called after a resource state has changed, in the thread that made the change.
+         * Concurrent changes of the same resource can be notified out of order, so a listener that needs the latest
+         * state should not assume current is still current, but get it from the store.
+         * @param path the path of the resource
+         * @param previous the previous state, or null when the resource was created
+         * @param current the current state, or null when the resource was removed
+         */
+        void stateChanged( String path, State< S > previous, State< S > current );
+    }
+
+    /**
+     * The states keyed by path.
+     */
+    private final ConcurrentHashMap< String, State< S > > states= new ConcurrentHashMap< String, State< S > >();
+
+    /**
+     * The listeners.
+     */
+    private final CopyOnWriteArrayList< Listener< S > > listeners= new CopyOnWriteArrayList< Listener< S > >();
+
+    /**
+     * Get the resource path of a request, the Uri-Path segments joined by '/'.
+     * @param request the options of the request
+     * @return the path
+     */
+    public static String pathOf( OptionSet request )
+    {
+        return request.getUriPathString();
+    }
+
+    /**
+     * Get the resource path from the option properties of a request, the Uri-Path segments joined by '/'.
+     * @param props the properties of the request
+     * @return the path, empty when no Uri-Path property is present
+     */
+    public static String pathOf( Map< String, Object > props )
+    {
+        Object path= props.get( PropertyNames.COAP_OPT_URIPATH );
+        if ( path != null )
+        {
+            String pathString= path.toString();
+            int start= 0;
+            while ( start < pathString.length() && pathString.charAt( start ) == '/' )
+            {
+                start++;
+            }
+            return pathString.substring( start );
+        }
+        Object segments= props.get( PropertyNames.COAP_OPT_URIPATH_LIST );
+        if ( segments instanceof Collection )
+        {
+            StringBuilder builder= new StringBuilder();
+            for ( Object segment : (Collection< ? >) segments )
+            {
+                if ( builder.length() > 0 ) builder.append( '/' );
+                builder.append( segment );
+            }
+            return builder.toString();
+        }
+        return "";
+    }
+
+    /**
+     * Add listener that is notified of changes.
+     * @param listener the listener to add
+     */
+    public void addListener( Listener< S > listener )
+    {
+        listeners.add( listener );
+    }
+
+    /**
+     * Remove listener.
+     * @param listener the listener to remove
+     */
+    public void removeListener( Listener< S > listener )
+    {
+        listeners.remove( listener );
+    }
+
+    /**
+     * Get the state of a resource.
+     * @param path the path of the resource
+     * @return the state, or null when the resource does not exist
+     */
+    public State< S > get( String path )
+    {
+        return states.get( path );
+    }
+
+    /**
+     * Get the current etag of a resource.
+     * @param path the path of the resource
+     * @return the etag, or null when the resource does not exist or has no etag
+     */
+    public ETag getETag( String path )
+    {
+        State< S > state= states.get( path );
+        return ( state == null ? null : state.getETag() );
+    }
+
+    /**
+     * @return the number of resources in the store
+     */
+    public int size()
+    {
+        return states.size();
+    }
+
+    /**
+     * Replace the state of a resource when its current etag equals the expected etag.
+     * @param path the path of the resource
+     * @param expected the expected etag, or null when the resource is expected not to exist
+     * @param etag the new etag
+     * @param value the new state object
+     * @return true when the state was replaced, false when the current etag was not the expected etag
+     */
+    public boolean compareAndSet( String path, ETag expected, ETag etag, S value )
+    {
+        State< S > next= new State< S >( etag, value );
+        if ( expected == null )
+        {
+            if ( states.putIfAbsent( path, next ) != null ) return false;
+            notifyListeners( path, null, next );
+            return true;
+        }
+        for ( ;; )
+        {
+            State< S > current= states.get( path );
+            if ( current == null || !expected.equals( current.getETag() ) ) return false;
+            if ( states.replace( path, current, next ) )
+            {
+                notifyListeners( path, current, next );
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Put the state of a resource unconditionally.
+     * @param path the path of the resource
+     * @param etag the new etag
+     * @param value the new state object
+     * @return CREATED when the resource did not exist, otherwise CHANGED
+     */
+    public Outcome put( String path, ETag etag, S value )
+    {
+        return put( path, Collections.< byte[] > emptyList(), false, etag, value );
+    }
+
+    /**
+     * Put the state of a resource when the preconditions of the request hold.
+     * @param request the options of the request, containing the path and preconditions
+     * @param etag the new etag
+     * @param value the new state object
+     * @return the outcome
+     */
+    public Outcome put( OptionSet request, ETag etag, S value )
+    {
+        return put( pathOf( request ), request.getIfMatch(), request.hasIfNoneMatch(), etag, value );
+    }
+
+    /**
+     * Put the state of a resource when the preconditions in the option properties of the request hold.
+     * @param props the properties of the request, containing the path and preconditions
+     * @param etag the new etag
+     * @param value the new state object
+     * @return the outcome
+     */
+    public Outcome put( Map< String, Object > props, ETag etag, S value )
+    {
+        return put( pathOf( props ), props, null, false, etag, value );
+    }
+
+    /**
+     * Put the state of a resource when the preconditions hold.
+     * @param path the path of the resource
+     * @param ifMatch the If-Match etag values, empty when there is no If-Match precondition
+     * @param ifNoneMatch true when the resource must not exist
+     * @param etag the new etag
+     * @param value the new state object
+     * @return the outcome
+     */
+    public Outcome put( String path, List< byte[] > ifMatch, boolean ifNoneMatch, ETag etag, S value )
+    {
+        return put( path, null, ifMatch, ifNoneMatch, etag, value );
+    }
+
+    /**
+     * Put the state of a resource when the preconditions, given as properties or as values, hold.
+     */
+    private Outcome put( String path, Map< String, Object > props, List< byte[] > ifMatch, boolean ifNoneMatch, ETag etag, S value )
+    {
+        State< S > next= new State< S >( etag, value );
+        for ( ;; )
+        {
+            State< S > current= states.get( path );
+            if ( !preconditionsHold( current, props, ifMatch, ifNoneMatch ) ) return Outcome.PRECONDITION_FAILED;
+            if ( current == null )
+            {
+                if ( states.putIfAbsent( path, next ) == null )
+                {
+                    notifyListeners( path, null, next );
+                    return Outcome.CREATED;
+                }
+            }
+            else if ( states.replace( path, current, next ) )
+            {
+                notifyListeners( path, current, next );
+                return Outcome.CHANGED;
+            }
+        }
+    }
+
+    /**
+     * Remove a resource when the preconditions of the request hold.
+     * @param request the options of the request, containing the path and preconditions
+     * @return DELETED or PRECONDITION_FAILED
+     */
+    public Outcome remove( OptionSet request )
+    {
+        return remove( pathOf( request ), request.getIfMatch() );
+    }
+
+    /**
+     * Remove a resource when the If-Match precondition holds.
+     * @param path the path of the resource
+     * @param ifMatch the If-Match etag values, empty when there is no If-Match precondition
+     * @return DELETED or PRECONDITION_FAILED
+     */
+    public Outcome remove( String path, List< byte[] > ifMatch )
+    {
+        for ( ;; )
+        {
+            State< S > current= states.get( path );
+            if ( !preconditionsHold( current, null, ifMatch, false ) ) return Outcome.PRECONDITION_FAILED;
+            if ( current == null ) return Outcome.DELETED;
+            if ( states.remove( path, current ) )
+            {
+                notifyListeners( path, current, null );
+                return Outcome.DELETED;
+            }
+        }
+    }
+
+    /**
+     * Check the preconditions against the current state.
+     * @param current the current state, or null when the resource does not exist
+     * @param props the properties of the request containing the preconditions, or null when given as values
+     * @param ifMatch the If-Match etag values
+     * @param ifNoneMatch the If-None-Match precondition
+     * @return true when the preconditions hold
+     */
+    private static boolean preconditionsHold( State< ? > current, Map< String, Object > props, List< byte[] > ifMatch, boolean ifNoneMatch )
+    {
+        boolean exists= ( current != null );
+        ETag etag= ( exists ? current.getETag() : null );
+        ConditionalEvaluator.Outcome outcome;
+        if ( props != null )
+        {
+            outcome= ConditionalEvaluator.evaluatePreconditions( props, exists, etag );
+        }
+        else
+        {
+            outcome= ConditionalEvaluator.evaluatePreconditions( ifMatch, ifNoneMatch, exists, etag );
+        }
+        return outcome != ConditionalEvaluator.Outcome.PRECONDITION_FAILED;
+    }
+
+    /**
+     * Notify listeners of a change. Exceptions thrown by listeners are logged.
+     */
+    private void notifyListeners( String path, State< S > previous, State< S > current )
+    {
+        for ( Listener< S > listener : listeners )
+        {
+            try
+            {
+                listener.stateChanged( path, previous, current );
+            }
+            catch ( RuntimeException e )
+            {
+                logger.error( "resource state listener failed { " + path + " }", e );
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.commons.options.BatchConversionException;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Tests the batch conversions of the Options class.
+ *
+ */
+public class BatchConversionTest
+{
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void setUpPool()
+    {
+        pool= new ForkJoinPool( 4 );
+    }
+
+    @AfterClass
+    public static void tearDownPool()
+    {
+        pool.shutdown();
+    }
+
+    private List< Map< String, Object > > propertiesList( int size )
+    {
+        ArrayList< Map< String, Object > > list= new ArrayList< Map< String, Object > >();
+        for ( int i= 0; i < size; i++ )
+        {
+            HashMap< String, Object > props= new HashMap< String, Object >();
+            props.put( PropertyNames.COAP_OPT_URIPATH, "/item/" + i );
+            props.put( PropertyNames.COAP_OPT_ACCEPT, Integer.valueOf( i % 60 ) );
+            if ( i % 3 == 0 )
+            {
+                props.put( PropertyNames.COAP_OPT_BLOCK2_NUM, Integer.valueOf( i ) );
+                props.put( PropertyNames.COAP_OPT_BLOCK2_SZX, Integer.valueOf( i % 7 ) );
+            }
+            if ( i % 5 == 0 )
+            {
+                props.put( PropertyNames.COAP_OPT_BLOCK1_M, Boolean.TRUE );
+            }
+            list.add( props );
+        }
+        return list;
+    }
+
+    private List< OptionSet > expectedOptionSets( List< Map< String, Object > > propsList )
+    {
+        ArrayList< OptionSet > list= new ArrayList< OptionSet >();
+        for ( Map< String, Object > props : propsList )
+        {
+            OptionSet set= new OptionSet();
+            Options.fillOptionSet( set, props, false );
+            list.add( set );
+        }
+        return list;
+    }
+
+    private void assertOptionSets( List< OptionSet > expected, List< OptionSet > actual )
+    {
+        assertEquals( "wrong size", expected.size(), actual.size() );
+        for ( int i= 0; i < expected.size(); i++ )
+        {
+            assertEquals( "wrong option set " + i, expected.get( i ).toString(), actual.get( i ).toString() );
+        }
+    }
+
+    @Test
+    public void testToOptionSets() throws BatchConversionException
+    {
+        List< Map< String, Object > > propsList= propertiesList( 1000 );
+        List< OptionSet > expected= expectedOptionSets( propsList );
+
+        assertOptionSets( expected, Options.toOptionSets( propsList ) );
+        assertOptionSets( expected, Options.toOptionSets( propsList, pool ) );
+    }
+
+    @Test
+    public void testToPropertyMaps() throws InvalidOptionValueException
+    {
+        List< OptionSet > optionSets= expectedOptionSets( propertiesList( 1000 ) );
+        ArrayList< Map< String, Object > > expected= new ArrayList< Map< String, Object > >();
+        for ( OptionSet set : optionSets )
+        {
+            HashMap< String, Object > props= new HashMap< String, Object >();
+            Options.fillPropertyMap( set, props );
+            expected.add( props );
+        }
+
+        assertEquals( "wrong property maps", expected, Options.toPropertyMaps( optionSets ) );
+        assertEquals( "wrong property maps", expected, Options.toPropertyMaps( optionSets, pool ) );
+        assertEquals( "wrong property maps", expected, Options.toPropertyMaps( optionSets.toArray( new OptionSet [0] ), pool ) );
+    }
+
+    @Test
+    public void testSequentialAccessList() throws BatchConversionException, InvalidOptionValueException
+    {
+        List< Map< String, Object > > propsList= new LinkedList< Map< String, Object > >( propertiesList( 1000 ) );
+        List< OptionSet > expected= expectedOptionSets( propsList );
+        List< OptionSet > optionSets= Options.toOptionSets( propsList, pool );
+        assertOptionSets( expected, optionSets );
+
+        ArrayList< Map< String, Object > > expectedProps= new ArrayList< Map< String, Object > >();
+        for ( OptionSet set : expected )
+        {
+            HashMap< String, Object > props= new HashMap< String, Object >();
+            Options.fillPropertyMap( set, props );
+            expectedProps.add( props );
+        }
+        assertEquals( "wrong property maps", expectedProps, Options.toPropertyMaps( new LinkedList< OptionSet >( optionSets ), pool ) );
+    }
+
+    @Test
+    public void testEmptyBatch() throws BatchConversionException
+    {
+        assertTrue( "wrong option sets", Options.toOptionSets( new ArrayList< Map< String, Object > >(), pool ).isEmpty() );
+        assertTrue( "wrong property maps", Options.toPropertyMaps( new ArrayList< OptionSet >(), pool ).isEmpty() );
+    }
+
+    @Test
+    public void testLowestFailingIndex()
+    {
+        List< Map< String, Object > > propsList= propertiesList( 1000 );
+        propsList.get( 900 ).put( PropertyNames.COAP_OPT_ACCEPT, "no number" );
+        propsList.get( 517 ).put( PropertyNames.COAP_OPT_MAXAGE, "no number" );
+        propsList.get( 999 ).put( PropertyNames.COAP_OPT_BLOCK2_NUM, "no number" );
+
+        for ( ForkJoinPool batchPool : new ForkJoinPool []{ null, pool } )
+        {
+            try
+            {
+                Options.toOptionSets( propsList, batchPool );
+                fail( "exception expected" );
+            }
+            catch ( BatchConversionException e )
+            {
+                assertEquals( "wrong index", 517, e.getIndex() );
+                assertTrue( "wrong cause", e.getCause() instanceof NumberFormatException );
+            }
+        }
+    }
+
+    @Test
+    public void testPropertyMapFailure() throws BatchConversionException
+    {
+        List< OptionSet > optionSets= expectedOptionSets( propertiesList( 200 ) );
+        optionSets.get( 150 ).addETag( new byte [9] );
+
+        try
+        {
+            Options.toPropertyMaps( optionSets, pool );
+            fail( "exception expected" );
+        }
+        catch ( BatchConversionException e )
+        {
+            assertEquals( "wrong index", 150, e.getIndex() );
+            assertTrue( "wrong cause", e.getCause() instanceof InvalidOptionValueException );
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.cache.CacheKey;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Tests the implementation of the CacheKey class.
+ *
+ */
+public class CacheKeyTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    private OptionSet request()
+    {
+        OptionSet request= new OptionSet();
+        request.setUriHost( "testhost" );
+        request.setUriPath( "/a/b" );
+        request.setUriQuery( "x=1" );
+        request.setAccept( 50 );
+        return request;
+    }
+
+    @Test
+    public void testEqualKeys()
+    {
+        OptionSet other= new OptionSet();
+        other.setAccept( 50 );
+        other.setUriQuery( "x=1" );
+        other.setUriPath( "/a/b" );
+        other.setUriHost( "testhost" );
+
+        CacheKey key= CacheKey.create( request() );
+
+        assertEquals( "keys differ", key, CacheKey.create( other ) );
+        assertEquals( "hash codes differ", key.hashCode(), CacheKey.create( other ).hashCode() );
+        assertEquals( "wrong size", 5, key.size() );
+        assertEquals( "wrong number", OptionNumberRegistry.URI_HOST, key.getNumber( 0 ) );
+        assertArrayEquals( "wrong value", "testhost".getBytes(), key.getValue( 0 ) );
+    }
+
+    @Test
+    public void testDifferentKeys()
+    {
+        CacheKey key= CacheKey.create( request() );
+
+        OptionSet other= request();
+        other.setAccept( 41 );
+        assertNotEquals( "keys equal", key, CacheKey.create( other ) );
+
+        other= request();
+        other.setUriPath( "/a/c" );
+        assertNotEquals( "keys equal", key, CacheKey.create( other ) );
+
+        //values must not be shifted between options
+        OptionSet shifted= new OptionSet();
+        shifted.setUriPath( "/ab/c" );
+        OptionSet unshifted= new OptionSet();
+        unshifted.setUriPath( "/a/bc" );
+        assertNotEquals( "keys equal", CacheKey.create( shifted ), CacheKey.create( unshifted ) );
+    }
+
+    @Test
+    public void testNoCacheKeyExcluded()
+    {
+        CacheKey key= CacheKey.create( request() );
+
+        OptionSet other= request();
+        other.setSize1( 1000 );
+        //65500 is marked NoCacheKey
+        other.addOption( new Option( 65500, new byte [] { 1 } ) );
+        assertTrue( "not NoCacheKey", OptionNumberRegistry.isNoCacheKey( 65500 ) );
+        other.setObserve( 0 );
+        other.setBlock2( 2, false, 3 );
+        assertEquals( "keys differ", key, CacheKey.create( other ) );
+
+        other.addOption( new Option( 65000, new byte [] { 1 } ) );
+        assertNotEquals( "keys equal", key, CacheKey.create( other ) );
+    }
+
+    @Test
+    public void testFromProperties()
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_URIHOST, "testhost" );
+        props.put( PropertyNames.COAP_OPT_URIPATH, "/a/b" );
+        props.put( PropertyNames.COAP_OPT_URIQUERY, "x=1" );
+        props.put( PropertyNames.COAP_OPT_ACCEPT, Integer.valueOf( 50 ) );
+        props.put( "MULE_ENCODING", "UTF-8" );
+
+        assertEquals( "keys differ", CacheKey.create( request() ), CacheKey.create( props ) );
+    }
+
+    @Test
+    public void testToString()
+    {
+        OptionSet request= new OptionSet();
+        request.setUriPath( "/a" );
+        request.setAccept( 50 );
+
+        assertEquals( "wrong string", "CacheKey[Uri-Path=61, Accept=32]", CacheKey.create( request ).toString() );
+    }
+
+    @Test
+    public void testIndexOutOfBounds()
+    {
+        exception.expect( IndexOutOfBoundsException.class );
+        CacheKey.create( new OptionSet() ).getValue( 0 );
+    }
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.commons.options.CoapOptionsView;
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.ETagList;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+
+
+/**
+ * Tests the implementation of the CoapOptionsView class.
+ *
+ */
+public class CoapOptionsViewTest
+{
+    @Test
+    public void testEmpty() throws InvalidETagException
+    {
+        CoapOptionsView view= new CoapOptionsView( new OptionSet() );
+
+        assertFalse( "wrong if-match", view.hasIfMatch() );
+        assertTrue( "wrong if-match", view.ifMatch().isEmpty() );
+        assertFalse( "wrong uri host", view.hasUriHost() );
+        assertNull( "wrong uri host", view.uriHost() );
+        assertFalse( "wrong etag", view.hasETag() );
+        assertTrue( "wrong etag", view.etags().isEmpty() );
+        assertFalse( "wrong if-none-match", view.ifNoneMatch() );
+        assertFalse( "wrong uri port", view.hasUriPort() );
+        assertEquals( "wrong uri port", CoapOptionsView.UNDEFINED, view.uriPort() );
+        assertTrue( "wrong location path", view.locationPath().isEmpty() );
+        assertTrue( "wrong uri path", view.uriPath().isEmpty() );
+        assertFalse( "wrong content format", view.hasContentFormat() );
+        assertEquals( "wrong content format", CoapOptionsView.UNDEFINED, view.contentFormat() );
+        assertFalse( "wrong max age", view.hasMaxAge() );
+        assertEquals( "wrong max age", 60L, view.maxAge() );
+        assertTrue( "wrong uri query", view.uriQuery().isEmpty() );
+        assertFalse( "wrong accept", view.hasAccept() );
+        assertEquals( "wrong accept", CoapOptionsView.UNDEFINED, view.accept() );
+        assertTrue( "wrong location query", view.locationQuery().isEmpty() );
+        assertNull( "wrong proxy uri", view.proxyUri() );
+        assertNull( "wrong proxy scheme", view.proxyScheme() );
+        assertFalse( "wrong block1", view.hasBlock1() );
+        assertEquals( "wrong block1 szx", CoapOptionsView.UNDEFINED, view.block1Szx() );
+        assertEquals( "wrong block1 size", CoapOptionsView.UNDEFINED, view.block1Size() );
+        assertEquals( "wrong block1 num", CoapOptionsView.UNDEFINED, view.block1Num() );
+        assertFalse( "wrong block1 m", view.block1M() );
+        assertFalse( "wrong block2", view.hasBlock2() );
+        assertEquals( "wrong block2 num", CoapOptionsView.UNDEFINED, view.block2Num() );
+        assertFalse( "wrong size1", view.hasSize1() );
+        assertEquals( "wrong size1", CoapOptionsView.UNDEFINED, view.size1() );
+        assertEquals( "wrong size2", CoapOptionsView.UNDEFINED, view.size2() );
+        assertFalse( "wrong observe", view.hasObserve() );
+        assertEquals( "wrong observe", CoapOptionsView.UNDEFINED, view.observe() );
+    }
+
+    @Test
+    public void testValues() throws InvalidETagException
+    {
+        OptionSet set= new OptionSet();
+        set.addIfMatch( new ETag( "aa" ).asBytes() );
+        set.setUriHost( "host" );
+        set.addETag( new ETag( "0102" ).asBytes() );
+        set.setIfNoneMatch( true );
+        set.setUriPort( 5684 );
+        set.setLocationPath( "/x/y" );
+        set.setUriPath( "/a/b" );
+        set.setContentFormat( 0 );
+        set.setMaxAge( 0xFFFFFFFFL );
+        set.setUriQuery( "p=1&q=2" );
+        set.setAccept( 50 );
+        set.setLocationQuery( "r=3" );
+        set.setProxyUri( "coap://proxy/" );
+        set.setProxyScheme( "coap" );
+        set.setBlock1( 2, true, 10 );
+        set.setBlock2( 6, false, 1048575 );
+        set.setSize1( 100 );
+        set.setSize2( 200 );
+        set.setObserve( 16777215 );
+
+        CoapOptionsView view= new Options( set ).getView();
+
+        assertEquals( "wrong if-match", ETagList.create( new ETag( "aa" ) ), view.ifMatch() );
+        assertEquals( "wrong uri host", "host", view.uriHost() );
+        assertEquals( "wrong etag", ETagList.create( new ETag( "0102" ) ), view.etags() );
+        assertTrue( "wrong if-none-match", view.ifNoneMatch() );
+        assertEquals( "wrong uri port", 5684, view.uriPort() );
+        assertEquals( "wrong location path", Arrays.asList( "x", "y" ), view.locationPath() );
+        assertEquals( "wrong location path", "x/y", view.locationPathString() );
+        assertEquals( "wrong uri path", Arrays.asList( "a", "b" ), view.uriPath() );
+        assertEquals( "wrong uri path", "a/b", view.uriPathString() );
+        assertTrue( "wrong content format", view.hasContentFormat() );
+        assertEquals( "wrong content format", 0, view.contentFormat() );
+        assertEquals( "wrong max age", 0xFFFFFFFFL, view.maxAge() );
+        assertEquals( "wrong uri query", "p=1&q=2", view.uriQueryString() );
+        assertEquals( "wrong accept", 50, view.accept() );
+        assertEquals( "wrong location query", "r=3", view.locationQueryString() );
+        assertEquals( "wrong proxy uri", "coap://proxy/", view.proxyUri() );
+        assertEquals( "wrong proxy scheme", "coap", view.proxyScheme() );
+        assertEquals( "wrong block1 szx", 2, view.block1Szx() );
+        assertEquals( "wrong block1 size", 64, view.block1Size() );
+        assertEquals( "wrong block1 num", 10, view.block1Num() );
+        assertTrue( "wrong block1 m", view.block1M() );
+        assertEquals( "wrong block2 szx", 6, view.block2Szx() );
+        assertEquals( "wrong block2 size", 1024, view.block2Size() );
+        assertEquals( "wrong block2 num", 1048575, view.block2Num() );
+        assertFalse( "wrong block2 m", view.block2M() );
+        assertEquals( "wrong size1", 100, view.size1() );
+        assertEquals( "wrong size2", 200, view.size2() );
+        assertEquals( "wrong observe", 16777215, view.observe() );
+        assertTrue( "wrong option presence", view.hasOption( 60 ) );
+        assertFalse( "wrong option presence", view.hasOption( 65000 ) );
+    }
+
+    @Test
+    public void testReadsThrough()
+    {
+        OptionSet set= new OptionSet();
+        CoapOptionsView view= new CoapOptionsView( set );
+
+        set.setObserve( 3 );
+
+        assertTrue( "change not visible", view.hasObserve() );
+        assertEquals( "change not visible", 3, view.observe() );
+        assertSame( "wrong option set", set, view.getOptionSet() );
+    }
+
+    @Test
+    public void testToPropertyMap() throws InvalidOptionValueException
+    {
+        OptionSet set= new OptionSet();
+        set.setUriPath( "/a/b" );
+        set.setBlock2( 6, true, 7 );
+        set.setObserve( 3 );
+        HashMap< String, Object > expected= new HashMap< String, Object >();
+        Options.fillPropertyMap( set, expected );
+
+        CoapOptionsView view= new CoapOptionsView( set );
+        HashMap< String, Object > filled= new HashMap< String, Object >();
+        view.fillPropertyMap( filled );
+
+        assertEquals( "wrong property map", expected, view.toPropertyMap() );
+        assertEquals( "wrong property map", expected, filled );
+    }
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.commons.options.ConditionalEvaluator;
+import nl.teslanet.mule.transport.coap.commons.options.ConditionalEvaluator.Outcome;
+import nl.teslanet.mule.transport.coap.commons.options.ConditionalEvaluator.Result;
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.ETagList;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Tests the implementation of the ConditionalEvaluator class.
+ *
+ */
+public class ConditionalEvaluatorTest
+{
+    private ConditionalEvaluator evaluator() throws InvalidETagException
+    {
+        return ConditionalEvaluator.create( new ETag( "0a" ), new ETag( "0b0c" ), new ETag( "a1b2c3d4e5f60718" ) );
+    }
+
+    @Test
+    public void testNoConditions() throws InvalidETagException
+    {
+        Result result= evaluator().evaluate( new OptionSet() );
+
+        assertEquals( "wrong outcome", Outcome.PROCEED, result.getOutcome() );
+        assertNull( "wrong etag", result.getETag() );
+        assertNull( "wrong response code", result.getOutcome().getResponseCode() );
+        assertEquals( "wrong outcome", Outcome.PROCEED, ConditionalEvaluator.absent().evaluate( new OptionSet() ).getOutcome() );
+    }
+
+    @Test
+    public void testIfMatch() throws InvalidETagException
+    {
+        OptionSet request= new OptionSet();
+        request.addIfMatch( new ETag( "ff" ).asBytes() );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, evaluator().evaluate( request ).getOutcome() );
+        assertEquals( "wrong response code", ResponseCode.PRECONDITION_FAILED, evaluator().evaluate( request ).getOutcome().getResponseCode() );
+
+        request.addIfMatch( new ETag( "0b0c" ).asBytes() );
+        assertEquals( "wrong outcome", Outcome.PROCEED, evaluator().evaluate( request ).getOutcome() );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, ConditionalEvaluator.absent().evaluate( request ).getOutcome() );
+    }
+
+    @Test
+    public void testIfMatchEmpty() throws InvalidETagException
+    {
+        OptionSet request= new OptionSet();
+        request.addIfMatch( new byte [0] );
+
+        assertEquals( "wrong outcome", Outcome.PROCEED, evaluator().evaluate( request ).getOutcome() );
+        assertEquals( "wrong outcome", Outcome.PROCEED, ConditionalEvaluator.create().evaluate( request ).getOutcome() );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, ConditionalEvaluator.absent().evaluate( request ).getOutcome() );
+    }
+
+    @Test
+    public void testIfNoneMatch() throws InvalidETagException
+    {
+        OptionSet request= new OptionSet();
+        request.setIfNoneMatch( true );
+
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, evaluator().evaluate( request ).getOutcome() );
+        assertEquals( "wrong outcome", Outcome.PROCEED, ConditionalEvaluator.absent().evaluate( request ).getOutcome() );
+    }
+
+    @Test
+    public void testValid() throws InvalidETagException
+    {
+        OptionSet request= new OptionSet();
+        request.addETag( new ETag( "01" ).asBytes() );
+        request.addETag( new ETag( "a1b2c3d4e5f60718" ).asBytes() );
+        request.addETag( new ETag( "0a" ).asBytes() );
+
+        ConditionalEvaluator evaluator= evaluator();
+        Result result= evaluator.evaluate( request );
+
+        assertEquals( "wrong outcome", Outcome.VALID, result.getOutcome() );
+        assertEquals( "wrong response code", ResponseCode.VALID, result.getOutcome().getResponseCode() );
+        assertEquals( "wrong etag", new ETag( "a1b2c3d4e5f60718" ), result.getETag() );
+        assertSame( "result not precomputed", result, evaluator.evaluate( request ) );
+    }
+
+    @Test
+    public void testPreconditionBeforeValid() throws InvalidETagException
+    {
+        OptionSet request= new OptionSet();
+        request.addETag( new ETag( "0a" ).asBytes() );
+        request.addIfMatch( new ETag( "ff" ).asBytes() );
+
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, evaluator().evaluate( request ).getOutcome() );
+    }
+
+    @Test
+    public void testSingleETag() throws InvalidETagException
+    {
+        OptionSet request= new OptionSet();
+        request.addETag( new ETag( "0b0c" ).asBytes() );
+
+        assertEquals( "wrong outcome", Outcome.VALID, ConditionalEvaluator.evaluate( request, new ETag( "0b0c" ) ) );
+        assertEquals( "wrong outcome", Outcome.PROCEED, ConditionalEvaluator.evaluate( request, new ETag( "0b" ) ) );
+        assertEquals( "wrong outcome", Outcome.PROCEED, ConditionalEvaluator.evaluate( request, null ) );
+
+        request.addIfMatch( new ETag( "0b" ).asBytes() );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, ConditionalEvaluator.evaluate( request, new ETag( "0b0c" ) ) );
+    }
+
+    @Test
+    public void testProperties() throws InvalidETagException
+    {
+        ConditionalEvaluator evaluator= evaluator();
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( "MULE_ENCODING", "UTF-8" );
+        assertEquals( "wrong outcome", Outcome.PROCEED, evaluator.evaluate( props ).getOutcome() );
+
+        props.put( PropertyNames.COAP_OPT_ETAG_LIST, Arrays.asList( new ETag( "ff" ), new ETag( "0b0c" ) ) );
+        assertEquals( "wrong etag", new ETag( "0b0c" ), evaluator.evaluate( props ).getETag() );
+
+        props.put( PropertyNames.COAP_OPT_ETAG_LIST, ETagList.create( new ETag( "0a" ) ) );
+        assertEquals( "wrong etag", new ETag( "0a" ), evaluator.evaluate( props ).getETag() );
+
+        props.put( PropertyNames.COAP_OPT_ETAG_LIST, new byte []{ 0x0b, 0x0c } );
+        assertEquals( "wrong etag", new ETag( "0b0c" ), evaluator.evaluate( props ).getETag() );
+        assertEquals( "wrong outcome", Outcome.VALID, ConditionalEvaluator.evaluate( props, new ETag( "0b0c" ) ) );
+
+        props.put( PropertyNames.COAP_OPT_IFNONMATCH, Boolean.TRUE );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, evaluator.evaluate( props ).getOutcome() );
+        props.put( PropertyNames.COAP_OPT_IFNONMATCH, Boolean.FALSE );
+
+        props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, ETagList.create( new ETag( "ff" ) ) );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, evaluator.evaluate( props ).getOutcome() );
+
+        props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, Arrays.asList( new byte []{ (byte) 0xff }, new byte []{ 0x0a } ) );
+        assertEquals( "wrong outcome", Outcome.VALID, evaluator.evaluate( props ).getOutcome() );
+
+        props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, new byte [0] );
+        assertEquals( "wrong outcome", Outcome.VALID, evaluator.evaluate( props ).getOutcome() );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, ConditionalEvaluator.absent().evaluate( props ).getOutcome() );
+    }
+
+    @Test
+    public void testConsistentWithOptionSet() throws InvalidETagException
+    {
+        OptionSet request= new OptionSet();
+        request.addIfMatch( new ETag( "0a" ).asBytes() );
+        request.addETag( new ETag( "0b0c" ).asBytes() );
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, Arrays.asList( new ETag( "0a" ) ) );
+        props.put( PropertyNames.COAP_OPT_ETAG_LIST, Arrays.asList( new ETag( "0b0c" ) ) );
+
+        ConditionalEvaluator evaluator= evaluator();
+        assertSame( "wrong result", evaluator.evaluate( request ), evaluator.evaluate( props ) );
+    }
+
+    @Test
+    public void testPreconditions() throws InvalidETagException
+    {
+        ETag current= new ETag( "0a" );
+        List< byte[] > none= Collections.< byte[] > emptyList();
+        List< byte[] > matching= Arrays.asList( new byte []{ (byte) 0xff }, current.asBytes() );
+        List< byte[] > other= Arrays.asList( new byte []{ (byte) 0xff } );
+        List< byte[] > any= Arrays.asList( new byte [0] );
+
+        assertEquals( "wrong outcome", Outcome.PROCEED, ConditionalEvaluator.evaluatePreconditions( none, false, false, null ) );
+        assertEquals( "wrong outcome", Outcome.PROCEED, ConditionalEvaluator.evaluatePreconditions( matching, false, true, current ) );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, ConditionalEvaluator.evaluatePreconditions( other, false, true, current ) );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, ConditionalEvaluator.evaluatePreconditions( matching, false, false, null ) );
+        assertEquals( "wrong outcome", Outcome.PROCEED, ConditionalEvaluator.evaluatePreconditions( any, false, true, null ) );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, ConditionalEvaluator.evaluatePreconditions( none, true, true, current ) );
+        assertEquals( "wrong outcome", Outcome.PROCEED, ConditionalEvaluator.evaluatePreconditions( none, true, false, null ) );
+
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_ETAG_LIST, current );
+        assertEquals( "etag must not be validated", Outcome.PROCEED, ConditionalEvaluator.evaluatePreconditions( props, true, current ) );
+        props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, Arrays.asList( "x", "y" ) );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, ConditionalEvaluator.evaluatePreconditions( props, true, current ) );
+        props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, Arrays.asList( new ETag( "ff" ), current ) );
+        assertEquals( "wrong outcome", Outcome.PROCEED, ConditionalEvaluator.evaluatePreconditions( props, true, current ) );
+        props.put( PropertyNames.COAP_OPT_IFNONMATCH, "true" );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, ConditionalEvaluator.evaluatePreconditions( props, true, current ) );
+    }
+}
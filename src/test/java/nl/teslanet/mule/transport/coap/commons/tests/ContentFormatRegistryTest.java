@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.options.CoapOptionsView;
+import nl.teslanet.mule.transport.coap.commons.options.ContentFormatRegistry;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsCodec;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Tests the implementation of the ContentFormatRegistry class.
+ *
+ */
+public class ContentFormatRegistryTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    @Test
+    public void testLookup()
+    {
+        assertEquals( "wrong media type", "text/plain; charset=utf-8", ContentFormatRegistry.toMediaType( 0 ) );
+        assertEquals( "wrong media type", "application/json", ContentFormatRegistry.toMediaType( 50 ) );
+        assertEquals( "wrong media type", "application/cbor", ContentFormatRegistry.toMediaType( 60 ) );
+        assertNull( "wrong media type", ContentFormatRegistry.toMediaType( 9999 ) );
+
+        assertEquals( "wrong content-format", 0, ContentFormatRegistry.toContentFormat( "text/plain; charset=utf-8" ) );
+        assertEquals( "wrong content-format", 0, ContentFormatRegistry.toContentFormat( "text/plain" ) );
+        assertEquals( "wrong content-format", 40, ContentFormatRegistry.toContentFormat( "application/link-format" ) );
+        assertEquals( "wrong content-format", ContentFormatRegistry.UNDEFINED, ContentFormatRegistry.toContentFormat( "application/unknown" ) );
+        assertTrue( "not registered", ContentFormatRegistry.isRegistered( 42 ) );
+        assertFalse( "registered", ContentFormatRegistry.isRegistered( 9999 ) );
+    }
+
+    @Test
+    public void testNormalized()
+    {
+        assertEquals( "wrong content-format", 0, ContentFormatRegistry.toContentFormat( "Text/Plain ; Charset=UTF-8" ) );
+        assertEquals( "wrong content-format", 50, ContentFormatRegistry.toContentFormat( " APPLICATION/JSON " ) );
+    }
+
+    @Test
+    public void testToInteger()
+    {
+        assertSame( "not the registered instance", ContentFormatRegistry.toInteger( 11542 ), ContentFormatRegistry.toInteger( 11542 ) );
+        assertEquals( "wrong value", Integer.valueOf( 11542 ), ContentFormatRegistry.toInteger( 11542 ) );
+        assertEquals( "wrong value", Integer.valueOf( 9999 ), ContentFormatRegistry.toInteger( 9999 ) );
+    }
+
+    @Test
+    public void testRegister()
+    {
+        ContentFormatRegistry.register( 65001, "application/x-test", "application/x-test-alias" );
+        //registering again only adds aliases
+        ContentFormatRegistry.register( 65001, "Application/X-Test", "application/x-test-other" );
+
+        assertEquals( "wrong media type", "application/x-test", ContentFormatRegistry.toMediaType( 65001 ) );
+        assertEquals( "wrong content-format", 65001, ContentFormatRegistry.toContentFormat( "application/x-test" ) );
+        assertEquals( "wrong content-format", 65001, ContentFormatRegistry.toContentFormat( "application/x-test-alias" ) );
+        assertEquals( "wrong content-format", 65001, ContentFormatRegistry.toContentFormat( "application/x-test-other" ) );
+        //existing registrations are kept
+        assertEquals( "wrong content-format", 50, ContentFormatRegistry.toContentFormat( "application/json" ) );
+    }
+
+    @Test
+    public void testRegisterConflictingNumber()
+    {
+        exception.expect( IllegalArgumentException.class );
+        exception.expectMessage( "already registered" );
+        ContentFormatRegistry.register( 50, "application/x-other" );
+    }
+
+    @Test
+    public void testRegisterConflictingMediaType()
+    {
+        exception.expect( IllegalArgumentException.class );
+        exception.expectMessage( "already registered" );
+        ContentFormatRegistry.register( 65002, "application/json" );
+    }
+
+    @Test
+    public void testRegisterOutOfRange()
+    {
+        exception.expect( IllegalArgumentException.class );
+        exception.expectMessage( "out of range" );
+        ContentFormatRegistry.register( 65536, "application/x-too-large" );
+    }
+
+    @Test
+    public void testParse()
+    {
+        assertEquals( "wrong content-format", 50, ContentFormatRegistry.parse( Integer.valueOf( 50 ) ) );
+        assertEquals( "wrong content-format", 50, ContentFormatRegistry.parse( Long.valueOf( 50 ) ) );
+        assertEquals( "wrong content-format", 50, ContentFormatRegistry.parse( Short.valueOf( (short) 50 ) ) );
+        assertEquals( "wrong content-format", ContentFormatRegistry.UNDEFINED, ContentFormatRegistry.parse( Long.valueOf( -1L ) ) );
+        assertEquals( "wrong content-format", 50, ContentFormatRegistry.parse( "50" ) );
+        assertEquals( "wrong content-format", 50, ContentFormatRegistry.parse( "application/json" ) );
+    }
+
+    @Test
+    public void testParseLongOutOfRange()
+    {
+        exception.expect( IllegalArgumentException.class );
+        exception.expectMessage( "must be between 0 and 65535 inclusive but was 5000000000" );
+        ContentFormatRegistry.parse( Long.valueOf( 5000000000L ) );
+    }
+
+    @Test
+    public void testParseNotInteger()
+    {
+        exception.expect( IllegalArgumentException.class );
+        exception.expectMessage( "must be an integer but was 50.7" );
+        ContentFormatRegistry.parse( Double.valueOf( 50.7 ) );
+    }
+
+    @Test
+    public void testParseUnknown()
+    {
+        exception.expect( IllegalArgumentException.class );
+        exception.expectMessage( "Unknown media type" );
+        ContentFormatRegistry.parse( "application/unknown" );
+    }
+
+    @Test
+    public void testMediaTypeProperties() throws InvalidOptionValueException
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, "application/cbor" );
+        props.put( PropertyNames.COAP_OPT_ACCEPT, "application/json" );
+        OptionSet set= new OptionSet();
+        Options.fillOptionSet( set, props, false );
+
+        assertEquals( "wrong content-format", 60, set.getContentFormat() );
+        assertEquals( "wrong accept", 50, set.getAccept() );
+
+        CoapOptionsView view= new CoapOptionsView( set );
+        assertEquals( "wrong media type", "application/cbor", view.contentFormatMediaType() );
+        assertEquals( "wrong media type", "application/json", view.acceptMediaType() );
+
+        ByteBuffer buffer= ByteBuffer.allocate( 64 );
+        OptionsCodec.encode( props, buffer );
+        buffer.flip();
+        Map< String, Object > decoded= new HashMap< String, Object >();
+        OptionsCodec.decode( buffer, decoded );
+        assertEquals( "wrong decoded content-format", Integer.valueOf( 60 ), decoded.get( PropertyNames.COAP_OPT_CONTENTFORMAT ) );
+        assertEquals( "wrong decoded accept", Integer.valueOf( 50 ), decoded.get( PropertyNames.COAP_OPT_ACCEPT ) );
+    }
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.options.ConversionContext;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Tests the implementation of the ConversionContext class.
+ *
+ */
+public class ConversionContextTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    @After
+    public void tearDown()
+    {
+        ConversionContext.setLeakDetection( false );
+    }
+
+    private Map< String, Object > properties()
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_URIPATH, "/a/b/c" );
+        props.put( PropertyNames.COAP_OPT_ACCEPT, Integer.valueOf( 50 ) );
+        props.put( PropertyNames.COAP_OPT_BLOCK2_SZX, Integer.valueOf( 6 ) );
+        return props;
+    }
+
+    @Test
+    public void testReused() throws InvalidOptionValueException
+    {
+        OptionSet set;
+        Map< String, Object > map;
+        try ( ConversionContext context= ConversionContext.acquire() )
+        {
+            set= context.toOptionSet( properties() );
+            map= context.toPropertyMap( set );
+        }
+        try ( ConversionContext context= ConversionContext.acquire() )
+        {
+            assertTrue( "option set not cleared", set.asSortedList().isEmpty() );
+            assertTrue( "property map not cleared", map.isEmpty() );
+
+            HashMap< String, Object > props= new HashMap< String, Object >();
+            props.put( PropertyNames.COAP_OPT_URIHOST, "host" );
+            assertSame( "option set not reused", set, context.toOptionSet( props ) );
+            assertSame( "option set not reused", set, context.toOptions( props ).getOptionSet() );
+            assertSame( "property map not reused", map, context.toPropertyMap( set ) );
+        }
+    }
+
+    @Test
+    public void testConversions() throws InvalidOptionValueException
+    {
+        OptionSet expectedSet= new OptionSet();
+        Options.fillOptionSet( expectedSet, properties(), false );
+        HashMap< String, Object > expectedMap= new HashMap< String, Object >();
+        Options.fillPropertyMap( expectedSet, expectedMap );
+
+        try ( ConversionContext context= ConversionContext.acquire() )
+        {
+            //leftovers of a previous conversion must not show
+            context.toOptionSet( new HashMap< String, Object >( expectedMap ) ).setUriHost( "leftover" );
+
+            assertEquals( "wrong option set", expectedSet.toString(), context.toOptionSet( properties() ).toString() );
+            assertEquals( "wrong property map", expectedMap, context.toPropertyMap( expectedSet ) );
+            assertEquals( "wrong property map", expectedMap, context.toPropertyMap( expectedSet, null, "test" ) );
+
+            ByteBuffer encoded= context.encode( properties() );
+            assertEquals( "wrong decoded map", expectedMap, context.decode( encoded ) );
+        }
+    }
+
+    @Test
+    public void testBlocksNotCarriedOver()
+    {
+        try ( ConversionContext context= ConversionContext.acquire() )
+        {
+            HashMap< String, Object > first= new HashMap< String, Object >();
+            first.put( PropertyNames.COAP_OPT_BLOCK1_NUM, Integer.valueOf( 3 ) );
+            first.put( PropertyNames.COAP_OPT_BLOCK1_M, Boolean.TRUE );
+            first.put( PropertyNames.COAP_OPT_BLOCK2_NUM, Integer.valueOf( 7 ) );
+            assertTrue( "no block1", context.toOptionSet( first ).hasBlock1() );
+
+            OptionSet set= context.toOptionSet( properties() );
+            assertFalse( "block1 carried over", set.hasBlock1() );
+            assertEquals( "block2 num carried over", 0, set.getBlock2().getNum() );
+            assertEquals( "wrong block2 szx", 6, set.getBlock2().getSzx() );
+        }
+    }
+
+    @Test
+    public void testEncodeGrowsBuffer() throws InvalidOptionValueException
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + 65000, new byte [1000] );
+
+        try ( ConversionContext context= ConversionContext.acquire() )
+        {
+            ByteBuffer encoded= context.encode( props );
+            //header with extended delta and extended length
+            assertEquals( "wrong encoded length", 1005, encoded.remaining() );
+            assertArrayEquals( "wrong decoded value", new byte [1000], (byte[]) context.decode( encoded ).get( PropertyNames.PREFIX_COAP_OPT_OTHER + 65000 ) );
+        }
+    }
+
+    @Test
+    public void testUseAfterClose()
+    {
+        ConversionContext context= ConversionContext.acquire();
+        context.close();
+        //closing twice is harmless
+        context.close();
+
+        exception.expect( IllegalStateException.class );
+        context.toOptionSet( properties() );
+    }
+
+    @Test
+    public void testPoolBounded()
+    {
+        ConversionContext[] contexts= new ConversionContext [ConversionContext.MAX_POOLED_PER_THREAD + 2];
+        for ( int i= 0; i < contexts.length; i++ )
+        {
+            contexts[i]= ConversionContext.acquire();
+        }
+        for ( int i= 0; i < contexts.length; i++ )
+        {
+            contexts[i].close();
+        }
+        int reused= 0;
+        ConversionContext[] again= new ConversionContext [contexts.length];
+        for ( int i= 0; i < again.length; i++ )
+        {
+            again[i]= ConversionContext.acquire();
+            for ( ConversionContext context : contexts )
+            {
+                if ( context == again[i] ) reused++;
+            }
+        }
+        for ( ConversionContext context : again )
+        {
+            context.close();
+        }
+        assertEquals( "wrong number of pooled contexts", ConversionContext.MAX_POOLED_PER_THREAD, reused );
+    }
+
+    @Test
+    public void testLeakDetection() throws InterruptedException
+    {
+        ConversionContext.setLeakDetection( true );
+        assertTrue( "leak detection not enabled", ConversionContext.isLeakDetection() );
+        long leaks= ConversionContext.getLeakCount();
+
+        //closed contexts are no leaks
+        ConversionContext.acquire().close();
+        leak();
+
+        long deadline= System.currentTimeMillis() + 10000;
+        while ( ConversionContext.getLeakCount() == leaks && System.currentTimeMillis() < deadline )
+        {
+            System.gc();
+            Thread.sleep( 10 );
+            ConversionContext.acquire().close();
+        }
+        assertEquals( "leak not detected", leaks + 1, ConversionContext.getLeakCount() );
+    }
+
+    private void leak()
+    {
+        ConversionContext.acquire().toOptionSet( properties() );
+    }
+}
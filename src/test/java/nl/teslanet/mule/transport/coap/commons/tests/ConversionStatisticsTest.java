@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.After;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics;
+import nl.teslanet.mule.transport.coap.commons.metrics.ConversionMetrics.Direction;
+import nl.teslanet.mule.transport.coap.commons.metrics.ConversionStatistics;
+import nl.teslanet.mule.transport.coap.commons.metrics.Histogram;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Tests the implementation of the ConversionStatistics and Histogram classes.
+ *
+ */
+public class ConversionStatisticsTest
+{
+    @After
+    public void tearDown()
+    {
+        Options.setMetrics( null );
+    }
+
+    private Map< String, Object > properties()
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_URIPATH, "/a/bb/ccc" );
+        props.put( PropertyNames.COAP_OPT_ACCEPT, Integer.valueOf( 50 ) );
+        props.put( "MULE_ENCODING", "UTF-8" );
+        return props;
+    }
+
+    @Test
+    public void testNoopDefault()
+    {
+        assertSame( "wrong default", ConversionMetrics.NOOP, Options.getMetrics() );
+        Options.setMetrics( new ConversionStatistics() );
+        Options.setMetrics( null );
+        assertSame( "wrong reset", ConversionMetrics.NOOP, Options.getMetrics() );
+    }
+
+    @Test
+    public void testConversions() throws InvalidOptionValueException
+    {
+        ConversionStatistics statistics= new ConversionStatistics();
+        Options.setMetrics( statistics );
+
+        OptionSet set= new OptionSet();
+        Options.fillOptionSet( set, properties(), false );
+        Options.fillPropertyMap( set, new HashMap< String, Object >() );
+        Options.fillPropertyMap( set, new HashMap< String, Object >() );
+
+        assertEquals( "wrong count", 1L, statistics.getToOptionSetCount() );
+        assertEquals( "wrong count", 2L, statistics.getToPropertyMapCount() );
+        assertTrue( "wrong max", statistics.getToPropertyMapMaxNanos() >= 0L );
+
+        Histogram path= statistics.getOptionSizes( Direction.TO_OPTION_SET, OptionNumberRegistry.URI_PATH );
+        assertEquals( "wrong option count", 3L, path.getCount() );
+        assertEquals( "wrong option bytes", 6L, path.getSum() );
+        assertEquals( "wrong option max", 3L, path.getMax() );
+        assertEquals( "wrong option count", 2L, statistics.getOptionSizes( Direction.TO_PROPERTY_MAP, OptionNumberRegistry.ACCEPT ).getCount() );
+        assertNull( "unexpected option", statistics.getOptionSizes( Direction.TO_OPTION_SET, OptionNumberRegistry.OBSERVE ) );
+
+        Map< String, Long > snapshot= statistics.getSnapshot();
+        assertEquals( "wrong snapshot", Long.valueOf( 1L ), snapshot.get( "conversion.toOptionSet.count" ) );
+        assertEquals( "wrong snapshot", Long.valueOf( 2L ), snapshot.get( "conversion.toPropertyMap.count" ) );
+        assertEquals( "wrong snapshot", Long.valueOf( 6L ), snapshot.get( "option.toPropertyMap.11.count" ) );
+        assertEquals( "wrong snapshot", Long.valueOf( 2L ), snapshot.get( "option.toPropertyMap.11.bytes.bucket.1" ) );
+        assertEquals( "wrong snapshot", Long.valueOf( 4L ), snapshot.get( "option.toPropertyMap.11.bytes.bucket.3" ) );
+
+        statistics.reset();
+        assertEquals( "not reset", 0L, statistics.getToOptionSetCount() );
+        assertNull( "not reset", statistics.getOptionSizes( Direction.TO_OPTION_SET, OptionNumberRegistry.URI_PATH ) );
+    }
+
+    @Test
+    public void testOnlyConvertedOptionsRecorded()
+    {
+        ConversionStatistics statistics= new ConversionStatistics();
+        Options.setMetrics( statistics );
+
+        OptionSet set= new OptionSet();
+        set.addUriPath( "existing" );
+        set.addIfMatch( new byte []{ 0x01 } );
+        set.setObserve( 1 );
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, Arrays.asList( new byte []{ 0x02, 0x03 } ) );
+        props.put( PropertyNames.COAP_OPT_BLOCK2_NUM, Integer.valueOf( 20 ) );
+        props.put( PropertyNames.COAP_OPT_BLOCK2_SZX, Integer.valueOf( 2 ) );
+        props.put( "coap.opt.other.65001", "abc" );
+        Options.fillOptionSet( set, props, false );
+
+        assertNull( "existing option recorded", statistics.getOptionSizes( Direction.TO_OPTION_SET, OptionNumberRegistry.URI_PATH ) );
+        assertNull( "existing option recorded", statistics.getOptionSizes( Direction.TO_OPTION_SET, OptionNumberRegistry.OBSERVE ) );
+        Histogram ifMatch= statistics.getOptionSizes( Direction.TO_OPTION_SET, OptionNumberRegistry.IF_MATCH );
+        assertEquals( "wrong option count", 1L, ifMatch.getCount() );
+        assertEquals( "wrong option bytes", 2L, ifMatch.getSum() );
+        assertEquals( "wrong option bytes", 2L, statistics.getOptionSizes( Direction.TO_OPTION_SET, OptionNumberRegistry.BLOCK2 ).getSum() );
+        assertEquals( "wrong option bytes", 3L, statistics.getOptionSizes( Direction.TO_OPTION_SET, 65001 ).getSum() );
+        assertEquals( "wrong count", 1L, statistics.getToOptionSetCount() );
+    }
+
+    @Test
+    public void testInvalidValue()
+    {
+        ConversionStatistics statistics= new ConversionStatistics();
+        Options.setMetrics( statistics );
+
+        OptionSet set= new OptionSet();
+        set.addETag( new byte [9] );
+        Options.fillPropertyMap( set, new HashMap< String, Object >(), null, "test" );
+
+        assertEquals( "wrong invalid count", 1L, statistics.getInvalidValueCount() );
+        assertEquals( "wrong invalid count", 1L, statistics.getInvalidValueCount( PropertyNames.COAP_OPT_ETAG_LIST ) );
+        assertEquals( "wrong invalid count", 0L, statistics.getInvalidValueCount( PropertyNames.COAP_OPT_IFMATCH_LIST ) );
+        assertEquals( "wrong snapshot", Long.valueOf( 1L ), statistics.getSnapshot().get( "invalid." + PropertyNames.COAP_OPT_ETAG_LIST ) );
+    }
+
+    @Test
+    public void testHistogram()
+    {
+        Histogram histogram= new Histogram();
+        assertEquals( "wrong empty percentile", 0L, histogram.getValueAtPercentile( 50.0 ) );
+
+        histogram.record( 0 );
+        histogram.record( 1 );
+        histogram.record( 5 );
+        histogram.record( 1000 );
+        histogram.record( -3 );
+
+        assertEquals( "wrong count", 5L, histogram.getCount() );
+        assertEquals( "wrong sum", 1006L, histogram.getSum() );
+        assertEquals( "wrong max", 1000L, histogram.getMax() );
+        assertEquals( "wrong bucket", 2L, histogram.getBucketCount( 0 ) );
+        assertEquals( "wrong bucket", 1L, histogram.getBucketCount( 1 ) );
+        assertEquals( "wrong bucket", 1L, histogram.getBucketCount( 3 ) );
+        assertEquals( "wrong bucket", 1L, histogram.getBucketCount( 10 ) );
+        assertEquals( "wrong bound", 7L, Histogram.getBucketUpperBound( 3 ) );
+        assertEquals( "wrong bound", Long.MAX_VALUE, Histogram.getBucketUpperBound( Histogram.BUCKETS - 1 ) );
+        assertEquals( "wrong median", 1L, histogram.getValueAtPercentile( 50.0 ) );
+        assertEquals( "wrong max percentile", 1000L, histogram.getValueAtPercentile( 100.0 ) );
+        histogram.record( Long.MAX_VALUE );
+        assertEquals( "wrong bucket", 1L, histogram.getBucketCount( Histogram.BUCKETS - 1 ) );
+
+        histogram.reset();
+        assertEquals( "not reset", 0L, histogram.getCount() );
+        assertEquals( "not reset", 0L, histogram.getBucketCount( 0 ) );
+    }
+
+    @Test
+    public void testMBean() throws JMException
+    {
+        ConversionStatistics statistics= new ConversionStatistics();
+        ObjectName name= statistics.registerMBean();
+        try
+        {
+            Options.setMetrics( statistics );
+            Options.fillOptionSet( new OptionSet(), properties(), false );
+
+            MBeanServer server= ManagementFactory.getPlatformMBeanServer();
+            assertEquals( "wrong attribute", Long.valueOf( 1L ), server.getAttribute( name, "ToOptionSetCount" ) );
+            assertNotNull( "missing snapshot", server.getAttribute( name, "Snapshot" ) );
+        }
+        finally
+        {
+            statistics.unregisterMBean();
+        }
+    }
+}
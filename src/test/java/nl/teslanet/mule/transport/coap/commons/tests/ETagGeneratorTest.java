@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.ETagGenerator;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+
+
+/**
+ * Tests the implementation of the ETagGenerator class.
+ *
+ */
+public class ETagGeneratorTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    private static byte[] content( int length )
+    {
+        byte[] bytes= new byte [length];
+        for ( int i= 0; i < length; i++ )
+        {
+            bytes[i]= (byte) ( i * 31 + 7 );
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testKnownHashes()
+    {
+        assertEquals( "wrong hash", 0xEF46DB3751D8E999L, new ETagGenerator().getHash() );
+        assertEquals( "wrong hash", 0xD24EC4F1A98C6E5BL, new ETagGenerator().update( "a".getBytes( CoAP.UTF8_CHARSET ) ).getHash() );
+        assertEquals( "wrong hash", 0x44BC2CF5AD770999L, new ETagGenerator().update( "abc".getBytes( CoAP.UTF8_CHARSET ) ).getHash() );
+        assertEquals( "wrong hash", 0x99594F4828043D35L, new ETagGenerator().update( content( 1000 ) ).getHash() );
+        assertEquals( "wrong hash", 0x4F2E446AB943E539L, new ETagGenerator( 12345L ).update( content( 100 ) ).getHash() );
+    }
+
+    @Test
+    public void testETag() throws InvalidETagException
+    {
+        ETag etag= ETagGenerator.generate( content( 1000 ) );
+
+        assertEquals( "wrong length", 8, etag.length() );
+        assertEquals( "wrong etag", new ETag( "99594f4828043d35" ), etag );
+    }
+
+    @Test
+    public void testChunked()
+    {
+        for ( int length : new int []{ 0, 1, 7, 31, 32, 33, 100, 1000 } )
+        {
+            byte[] bytes= content( length );
+            long expected= new ETagGenerator().update( bytes ).getHash();
+            for ( int chunkSize : new int []{ 1, 3, 8, 16, 31, 32, 64 } )
+            {
+                ETagGenerator generator= new ETagGenerator();
+                for ( int offset= 0; offset < length; offset+= chunkSize )
+                {
+                    generator.update( bytes, offset, Math.min( chunkSize, length - offset ) );
+                }
+                assertEquals( "wrong hash for length " + length + " chunk size " + chunkSize, expected, generator.getHash() );
+                assertEquals( "wrong length", length, generator.getLength() );
+            }
+        }
+    }
+
+    @Test
+    public void testBuffersAndStreams() throws IOException
+    {
+        byte[] bytes= content( 20000 );
+        ETag expected= ETagGenerator.generate( bytes );
+
+        ByteBuffer heap= ByteBuffer.wrap( bytes );
+        assertEquals( "wrong heap buffer etag", expected, ETagGenerator.generate( heap ) );
+        assertFalse( "buffer not consumed", heap.hasRemaining() );
+
+        ByteBuffer direct= ByteBuffer.allocateDirect( bytes.length );
+        direct.put( bytes ).flip();
+        assertEquals( "wrong direct buffer etag", expected, ETagGenerator.generate( direct ) );
+
+        ByteBuffer offsetBuffer= ByteBuffer.wrap( new byte [30010] );
+        offsetBuffer.position( 10 );
+        offsetBuffer= offsetBuffer.slice();
+        offsetBuffer.put( bytes ).flip();
+        assertEquals( "wrong sliced buffer etag", expected, ETagGenerator.generate( offsetBuffer ) );
+
+        assertEquals( "wrong stream etag", expected, ETagGenerator.generate( new ByteArrayInputStream( bytes ) ) );
+    }
+
+    @Test
+    public void testContinueAfterETag()
+    {
+        byte[] bytes= content( 100 );
+        ETagGenerator generator= new ETagGenerator();
+        generator.update( bytes, 0, 40 );
+        ETag partial= generator.getETag();
+        generator.update( bytes, 40, 60 );
+
+        assertEquals( "wrong partial etag", ETagGenerator.generate( Arrays.copyOf( bytes, 40 ) ), partial );
+        assertEquals( "wrong etag", ETagGenerator.generate( bytes ), generator.getETag() );
+        assertEquals( "wrong etag after reset", ETagGenerator.generate( new byte [0] ), generator.reset().getETag() );
+    }
+
+    @Test
+    public void testIndexOutOfBounds()
+    {
+        exception.expect( IndexOutOfBoundsException.class );
+        new ETagGenerator().update( new byte [10], 5, 6 );
+    }
+}
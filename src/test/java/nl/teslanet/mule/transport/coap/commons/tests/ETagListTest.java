@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.ETagList;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.UriStringCache;
+
+
+/**
+ * Tests the implementation of the ETagList class.
+ *
+ */
+public class ETagListTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    @Test
+    public void testCreateFromBytes() throws InvalidETagException
+    {
+        List< byte[] > bytes= new LinkedList< byte[] >();
+        bytes.add( new byte []{ (byte) 0xAF, (byte) 0xB9, (byte) 0x90 } );
+        bytes.add( new byte []{ (byte) 0x00 } );
+        bytes.add( new byte []{ (byte) 0xAF, (byte) 0xB9, (byte) 0x90 } );
+
+        ETagList list= ETagList.create( bytes );
+
+        assertEquals( "wrong size", 3, list.size() );
+        assertEquals( "wrong etag", new ETag( "afb990" ), list.get( 0 ) );
+        assertEquals( "wrong etag", new ETag( "00" ), list.get( 1 ) );
+        assertEquals( "wrong etag", new ETag( "afb990" ), list.get( 2 ) );
+        assertEquals( "wrong value", 0xafb990L, list.getValue( 0 ) );
+        assertEquals( "wrong length", 1, list.getLength( 1 ) );
+        assertEquals( "wrong index", 0, list.indexOf( new ETag( "afb990" ) ) );
+        assertEquals( "wrong index", 1, list.indexOf( new ETag( "00" ) ) );
+        assertEquals( "wrong index", -1, list.indexOf( new ETag( "0000" ) ) );
+    }
+
+    @Test
+    public void testContains() throws InvalidETagException
+    {
+        ETagList list= ETagList.create( new ETag( "00" ), new ETag( "0000" ), new ETag( "1122334455667788" ) );
+
+        assertTrue( "etag not found", list.contains( new ETag( "00" ) ) );
+        assertTrue( "etag not found", list.contains( new ETag( "0000" ) ) );
+        assertTrue( "etag not found", list.contains( new ETag( "1122334455667788" ) ) );
+        assertFalse( "etag found", list.contains( new ETag( "000000" ) ) );
+        assertFalse( "etag found", list.contains( "00" ) );
+        assertFalse( "etag found", list.contains( null ) );
+        assertTrue( "etag not found", list.contains( new byte []{ 0x00, 0x00 } ) );
+        assertFalse( "etag found", list.contains( new byte [0] ) );
+        assertTrue( "etag not found", list.contains( 0x1122334455667788L, 8 ) );
+        assertFalse( "etag found", list.contains( 0x1122334455667788L, 7 ) );
+        assertTrue( "isIn failed", new ETag( "0000" ).isIn( list ) );
+        assertFalse( "isIn failed", new ETag( "01" ).isIn( list ) );
+    }
+
+    @Test
+    public void testLargeList() throws InvalidETagException
+    {
+        List< ETag > etags= new LinkedList< ETag >();
+        for ( long i= 0; i < 5000; i++ )
+        {
+            etags.add( ETag.create( i * 7, 4 ) );
+        }
+        ETagList list= ETagList.create( etags );
+
+        assertEquals( "wrong size", 5000, list.size() );
+        for ( long i= 0; i < 5000 * 7; i++ )
+        {
+            assertEquals( "wrong membership", i % 7 == 0, list.contains( i, 4 ) );
+        }
+        assertEquals( "lists not equal", etags, list );
+        assertEquals( "hashcode not equal", etags.hashCode(), list.hashCode() );
+    }
+
+    @Test
+    public void testEmpty() throws InvalidETagException
+    {
+        ETagList list= ETagList.create( new LinkedList< byte[] >() );
+
+        assertTrue( "list not empty", list.isEmpty() );
+        assertFalse( "etag found", list.contains( new ETag( "00" ) ) );
+        assertSame( "empty list not shared", ETagList.empty(), list );
+    }
+
+    @Test
+    public void testInvalid() throws InvalidETagException
+    {
+        List< byte[] > bytes= new LinkedList< byte[] >();
+        bytes.add( new byte []{ 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09 } );
+
+        exception.expect( InvalidETagException.class );
+        ETagList.create( bytes );
+    }
+
+    @Test
+    public void testImmutable() throws InvalidETagException
+    {
+        ETagList list= ETagList.create( new ETag( "00" ) );
+
+        exception.expect( UnsupportedOperationException.class );
+        list.add( new ETag( "01" ) );
+    }
+
+    @Test
+    public void testPropertyMap() throws InvalidOptionValueException, InvalidETagException
+    {
+        OptionSet set= new OptionSet();
+        set.addETag( new byte []{ 0x01, 0x02 } );
+        set.addIfMatch( new byte []{ 0x03 } );
+        HashMap< String, Object > props= new HashMap< String, Object >();
+
+        Options.fillPropertyMap( set, props, new UriStringCache() );
+
+        assertTrue( "etag list is not an ETagList", props.get( "coap.opt.etag.list" ) instanceof ETagList );
+        assertTrue( "if_match list is not an ETagList", props.get( "coap.opt.if_match.list" ) instanceof ETagList );
+        assertTrue( "etag not found", new ETag( "0102" ).isIn( (ETagList) props.get( "coap.opt.etag.list" ) ) );
+    }
+
+    @Test
+    public void testEncodeDecode() throws InvalidETagException
+    {
+        ETagList list= ETagList.create( new ETag( "00" ), new ETag( "afb990" ), new ETag( "1122334455667788" ) );
+        ByteBuffer buffer= ByteBuffer.allocate( 32 );
+        buffer.put( (byte) 0x7f );
+
+        list.encode( buffer );
+
+        assertEquals( "wrong encoded length", 1 + 1 + 1 + 3 + 1 + 8, list.encodedLength() );
+        assertEquals( "wrong buffer position", 1 + list.encodedLength(), buffer.position() );
+        buffer.flip();
+        buffer.get();
+        ETagList decoded= ETagList.decode( buffer );
+        assertEquals( "decoded list differs", list, decoded );
+        assertFalse( "buffer not consumed", buffer.hasRemaining() );
+
+        byte[] bytes= new byte []{ 0x55, 0x02, 0x01, 0x02, 0x01, 0x03, 0x55 };
+        assertEquals( "decoded slice differs", ETagList.create( new ETag( "0102" ), new ETag( "03" ) ), ETagList.decode( bytes, 1, 5 ) );
+        assertTrue( "decoded empty sequence not empty", ETagList.decode( bytes, 1, 0 ).isEmpty() );
+    }
+
+    @Test
+    public void testDecodeTruncated() throws InvalidETagException
+    {
+        byte[] bytes= new byte []{ 0x02, 0x01, 0x02, 0x03, 0x03 };
+
+        exception.expect( InvalidETagException.class );
+        exception.expectMessage( "truncated" );
+        ETagList.decode( bytes, 0, bytes.length );
+    }
+
+    @Test
+    public void testDecodeInvalidLength() throws InvalidETagException
+    {
+        byte[] bytes= new byte []{ 0x01, 0x01, 0x00 };
+
+        exception.expect( InvalidETagException.class );
+        exception.expectMessage( "length invalid" );
+        ETagList.decode( bytes, 0, bytes.length );
+    }
+}
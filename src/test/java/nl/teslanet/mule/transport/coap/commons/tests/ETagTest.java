@@ -17,6 +17,7 @@ package nl.teslanet.mule.transport.coap.commons.tests;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -452,5 +453,173 @@ public class ETagTest
         assertFalse( "ETag.getList does contain etag" , new ETag( etagValue5 ).isIn( emptylist ));
     }
 
+    @Test
+    public void testAsLong() throws InvalidETagException
+    {
+        assertEquals( "ETag.asLong gives wrong value", 0x00L, new ETag( "00" ).asLong() );
+        assertEquals( "ETag.asLong gives wrong value", 0xafb990L, new ETag( "afb990" ).asLong() );
+        assertEquals( "ETag.asLong gives wrong value", 0x1122334455667788L, new ETag( "1122334455667788" ).asLong() );
+        assertEquals( "ETag.asLong gives wrong value", 0xff00000000000001L, new ETag( "ff00000000000001" ).asLong() );
+        assertEquals( "ETag.length gives wrong value", 1, new ETag( "00" ).length() );
+        assertEquals( "ETag.length gives wrong value", 8, new ETag( "ff00000000000001" ).length() );
+    }
+
+    @Test
+    public void testCreateFromLong() throws InvalidETagException
+    {
+        assertEquals( "ETag.create from long gives wrong value", new ETag( "0000afb990" ), ETag.create( 0xafb990L, 5 ) );
+        assertEquals( "ETag.create from long gives wrong value", new ETag( "ff00000000000001" ), ETag.create( 0xff00000000000001L, 8 ) );
+        assertEquals( "ETag.create from long gives wrong value", "00", ETag.create( 0L, 1 ).toString() );
+        assertNotEquals( "ETag.create from long ignores length", ETag.create( 1L, 1 ), ETag.create( 1L, 2 ) );
+    }
+
+    @Test
+    public void testCreateFromLongInvalidLength() throws InvalidETagException
+    {
+        exception.expect( InvalidETagException.class );
+        exception.expectMessage( "length invalid" );
+        ETag.create( 1L, 0 );
+    }
+
+    @Test
+    public void testCreateFromLongValueTooLarge() throws InvalidETagException
+    {
+        exception.expect( InvalidETagException.class );
+        exception.expectMessage( "does not fit" );
+        ETag.create( 0x1ffL, 1 );
+    }
+
+    @Test
+    public void testCreateFromByteBuffer() throws InvalidETagException
+    {
+        ByteBuffer buffer= ByteBuffer.wrap( new byte []{ (byte) 0x01, (byte) 0xAF, (byte) 0xB9, (byte) 0x90, (byte) 0x02 } );
+        buffer.position( 1 );
+        buffer.limit( 4 );
+
+        ETag etag= ETag.create( buffer );
+
+        assertEquals( "ETag.create from ByteBuffer gives wrong value", new ETag( "afb990" ), etag );
+        assertEquals( "ETag.create from ByteBuffer did not advance position", 4, buffer.position() );
+    }
+
+    @Test
+    public void testWriteTo() throws InvalidETagException
+    {
+        ETag etag= new ETag( "afb990" );
+        byte[] bytes= new byte [5];
+        ByteBuffer buffer= ByteBuffer.allocate( 4 );
+
+        assertEquals( "ETag.writeTo returned wrong length", 3, etag.writeTo( bytes, 1 ) );
+        assertArrayEquals( "ETag.writeTo wrote wrong bytes", new byte []{ 0, (byte) 0xAF, (byte) 0xB9, (byte) 0x90, 0 }, bytes );
+        assertEquals( "ETag.writeTo returned wrong length", 3, etag.writeTo( buffer ) );
+        assertEquals( "ETag.writeTo did not advance position", 3, buffer.position() );
+        assertArrayEquals( "ETag.writeTo wrote wrong bytes", new byte []{ (byte) 0xAF, (byte) 0xB9, (byte) 0x90, 0 }, buffer.array() );
+
+        exception.expect( IndexOutOfBoundsException.class );
+        etag.writeTo( bytes, 3 );
+    }
+
+    @Test
+    public void testCompareToSignedBytes() throws InvalidETagException
+    {
+        //bytes are compared as signed values
+        assertEquals( "ETag.compareTo gives wrong order", -1, new ETag( "80" ).compareTo( new ETag( "7f" ) ) );
+        assertEquals( "ETag.compareTo gives wrong order", 1, new ETag( "00" ).compareTo( new ETag( "ff" ) ) );
+        assertEquals( "ETag.compareTo gives wrong order", -1, new ETag( "0080" ).compareTo( new ETag( "007f" ) ) );
+        assertEquals( "ETag.compareTo gives wrong order", 1, new ETag( "7f00000000000000" ).compareTo( new ETag( "80ffffffffffffff" ) ) );
+        assertEquals( "ETag.compareTo gives wrong order", -1, new ETag( "1180" ).compareTo( new ETag( "1200" ) ) );
+    }
+
+    @Test
+    public void testParseHex() throws InvalidETagException
+    {
+        String buffer= "etag=AFb990;next";
+
+        assertEquals( "ETag.parseHex gives wrong value", new ETag( "afb990" ), ETag.parseHex( buffer, 5, 11 ) );
+        assertEquals( "ETag.parseHex gives wrong value", new ETag( "1122334455667788" ), ETag.parseHex( new StringBuilder( "1122334455667788" ), 0, 16 ) );
+    }
+
+    @Test
+    public void testParseHexUneven() throws InvalidETagException
+    {
+        exception.expect( InvalidETagException.class );
+        exception.expectMessage( "even number" );
+        ETag.parseHex( "afb990", 0, 5 );
+    }
+
+    @Test
+    public void testParseHexOutOfRange() throws InvalidETagException
+    {
+        exception.expect( IndexOutOfBoundsException.class );
+        ETag.parseHex( "afb990", 2, 8 );
+    }
+
+    @Test
+    public void testConstructorInvalidHexCharacter() throws InvalidETagException
+    {
+        exception.expect( InvalidETagException.class );
+        exception.expectMessage( "Invalid hexadecimal character" );
+        new ETag( "afg990" );
+    }
+
+    @Test
+    public void testToStringCached() throws InvalidETagException
+    {
+        ETag etag= new ETag( "AFB990" );
+
+        assertEquals( "ETag.toString gives wrong value", "afb990", etag.toString() );
+        assertSame( "ETag.toString not cached", etag.toString(), etag.toString() );
+        assertEquals( "ETag.toString gives wrong value", "ff00000000000001", ETag.create( 0xff00000000000001L, 8 ).toString() );
+        assertEquals( "ETag.toString gives wrong value", "000a", ETag.create( 0x0aL, 2 ).toString() );
+    }
+
+    @Test
+    public void testCreateFromSlice() throws InvalidETagException
+    {
+        byte[] bytes= { (byte) 0x01, (byte) 0xAF, (byte) 0xB9, (byte) 0x90, (byte) 0x02 };
+
+        assertEquals( "ETag.create from slice gives wrong value", new ETag( "afb990" ), ETag.create( bytes, 1, 3 ) );
+        assertEquals( "ETag.create from slice gives wrong value", new ETag( "01afb99002" ), ETag.create( bytes, 0, 5 ) );
+
+        exception.expect( IndexOutOfBoundsException.class );
+        ETag.create( bytes, 3, 3 );
+    }
+
+    @Test
+    public void testCreateFromByteBufferWithLength() throws InvalidETagException
+    {
+        ByteBuffer buffer= ByteBuffer.wrap( new byte []{ 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, (byte) 0x88, (byte) 0x99 } );
+
+        assertEquals( "ETag.create from ByteBuffer gives wrong value", new ETag( "11" ), ETag.create( buffer, 1 ) );
+        assertEquals( "ETag.create from ByteBuffer gives wrong value", new ETag( "2233445566778899" ), ETag.create( buffer, 8 ) );
+        assertFalse( "ETag.create from ByteBuffer did not advance position", buffer.hasRemaining() );
 
+        exception.expect( InvalidETagException.class );
+        exception.expectMessage( "exceeds" );
+        buffer.position( 7 );
+        ETag.create( buffer, 3 );
+    }
+
+    @Test
+    public void testFromLong() throws InvalidETagException
+    {
+        long millis= 1539870000000L;
+        ByteBuffer buffer= ByteBuffer.allocate( 8 );
+        buffer.putLong( millis );
+
+        assertEquals( "ETag.fromLong gives wrong value", new ETag( buffer.array() ), ETag.fromLong( millis ) );
+        assertEquals( "ETag.fromLong gives wrong value", new ETag( "0000000000000000" ), ETag.fromLong( 0L ) );
+        assertEquals( "ETag.fromLong gives wrong value", new ETag( "ffffffffffffffff" ), ETag.fromLong( -1L ) );
+    }
+
+    @Test
+    public void testFromLongMinimal() throws InvalidETagException
+    {
+        assertEquals( "ETag.fromLongMinimal gives wrong value", new ETag( "00" ), ETag.fromLongMinimal( 0L ) );
+        assertEquals( "ETag.fromLongMinimal gives wrong value", new ETag( "ff" ), ETag.fromLongMinimal( 0xffL ) );
+        assertEquals( "ETag.fromLongMinimal gives wrong value", new ETag( "0100" ), ETag.fromLongMinimal( 0x100L ) );
+        assertEquals( "ETag.fromLongMinimal gives wrong value", new ETag( "016687678380" ), ETag.fromLongMinimal( 1539870000000L ) );
+        assertEquals( "ETag.fromLongMinimal gives wrong value", new ETag( "7fffffffffffffff" ), ETag.fromLongMinimal( Long.MAX_VALUE ) );
+        assertEquals( "ETag.fromLongMinimal gives wrong value", new ETag( "ffffffffffffffff" ), ETag.fromLongMinimal( -1L ) );
+    }
 }
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.slf4j.LoggerFactory;
+
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+
+
+/**
+ * Tests the lazy property map by comparing it to the eagerly filled property map.
+ *
+ */
+public class OptionSetPropertyMapTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    private static OptionSet fullOptionSet()
+    {
+        OptionSet set= new OptionSet();
+        set.addIfMatch( new byte []{ 0x01, 0x02 } );
+        set.addIfMatch( new byte []{ 0x03 } );
+        set.setUriHost( "testhost" );
+        set.addETag( new byte []{ 0x11, 0x22, 0x33 } );
+        set.setIfNoneMatch( true );
+        set.setUriPort( 5684 );
+        set.setLocationPath( "/location/path" );
+        set.setUriPath( "/uri/path/resource" );
+        set.setContentFormat( 41 );
+        set.setMaxAge( 120 );
+        set.setUriQuery( "a=1&b=2" );
+        set.setAccept( 50 );
+        set.setLocationQuery( "c=3&d=4" );
+        set.setProxyUri( "coap://proxy.example.org/res" );
+        set.setProxyScheme( "coap" );
+        set.setBlock1( 3, true, 12 );
+        set.setBlock2( 6, false, 1 );
+        set.setSize1( 2000 );
+        set.setSize2( 4000 );
+        set.setObserve( 5 );
+        set.addOption( new Option( 65001, new byte []{ 0x01 } ) );
+        set.addOption( new Option( 65002, new byte []{ 0x02 } ) );
+        set.addOption( new Option( 65001, new byte []{ 0x03 } ) );
+        return set;
+    }
+
+    private static Map< String, Object > eager( OptionSet set ) throws InvalidOptionValueException
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        Options.fillPropertyMap( set, props );
+        return props;
+    }
+
+    @Test
+    public void testEmptyOptionSet() throws InvalidOptionValueException
+    {
+        OptionSet set= new OptionSet();
+        Map< String, Object > expected= eager( set );
+        Map< String, Object > props= Options.getPropertyMap( set );
+
+        assertEquals( "wrong size", expected.size(), props.size() );
+        assertEquals( "maps differ", expected, props );
+        assertEquals( "if_none_match must be present", Boolean.FALSE, props.get( "coap.opt.if_none_match" ) );
+        assertFalse( "uri_path must not be present", props.containsKey( "coap.opt.uri_path" ) );
+    }
+
+    @Test
+    public void testFullOptionSet() throws InvalidOptionValueException
+    {
+        OptionSet set= fullOptionSet();
+        Map< String, Object > expected= eager( set );
+        Map< String, Object > props= Options.getPropertyMap( set );
+
+        assertEquals( "wrong size", expected.size(), props.size() );
+        assertEquals( "wrong key set", expected.keySet(), props.keySet() );
+        for ( Entry< String, Object > e : expected.entrySet() )
+        {
+            if ( e.getValue() instanceof byte[] )
+            {
+                assertArrayEquals( "wrong value of " + e.getKey(), (byte[]) e.getValue(), (byte[]) props.get( e.getKey() ) );
+            }
+            else
+            {
+                assertEquals( "wrong value of " + e.getKey(), e.getValue(), props.get( e.getKey() ) );
+            }
+            assertTrue( "missing key " + e.getKey(), props.containsKey( e.getKey() ) );
+        }
+        int count= 0;
+        for ( Entry< String, Object > e : props.entrySet() )
+        {
+            assertTrue( "unexpected key " + e.getKey(), expected.containsKey( e.getKey() ) );
+            count++;
+        }
+        assertEquals( "wrong number of entries", expected.size(), count );
+    }
+
+    @Test
+    public void testMemoized() throws InvalidOptionValueException
+    {
+        Map< String, Object > props= Options.getPropertyMap( fullOptionSet() );
+
+        assertSame( "value not memoized", props.get( "coap.opt.uri_path" ), props.get( "coap.opt.uri_path" ) );
+        assertSame( "value not memoized", props.get( "coap.opt.etag.list" ), props.get( "coap.opt.etag.list" ) );
+    }
+
+    @Test
+    public void testUnknownKeys() throws InvalidOptionValueException
+    {
+        Map< String, Object > props= Options.getPropertyMap( fullOptionSet() );
+
+        assertNull( props.get( "MULE_ENCODING" ) );
+        assertNull( props.get( "coap.opt.other.65003" ) );
+        assertNull( props.get( "coap.opt.other.65001.unknown" ) );
+        assertNull( props.get( "coap.opt.other.065001" ) );
+        assertFalse( props.containsKey( "coap.opt.other.065002.critical" ) );
+        assertNull( props.get( null ) );
+        assertFalse( props.containsKey( "coap.opt.other.65003.critical" ) );
+        assertTrue( props.containsKey( "coap.opt.other.65002.critical" ) );
+    }
+
+    @Test
+    public void testReadOnly() throws InvalidOptionValueException
+    {
+        Map< String, Object > props= Options.getPropertyMap( fullOptionSet() );
+
+        exception.expect( UnsupportedOperationException.class );
+        props.put( "coap.opt.observe", 1 );
+    }
+
+    @Test
+    public void testInvalidETagThrows() throws InvalidOptionValueException, InvalidETagException
+    {
+        OptionSet set= new OptionSet();
+        set.addETag( new byte []{ 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09 } );
+
+        exception.expect( InvalidOptionValueException.class );
+        exception.expectMessage( "coap.opt.etag.list" );
+        Options.getPropertyMap( set );
+    }
+
+    @Test
+    public void testInvalidETagLogged()
+    {
+        OptionSet set= new OptionSet();
+        set.addETag( new byte []{ 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09 } );
+        set.setObserve( 3 );
+
+        Map< String, Object > props= Options.getPropertyMap( set, LoggerFactory.getLogger( OptionSetPropertyMapTest.class ), "test error" );
+
+        assertFalse( "invalid etag list must be left out", props.containsKey( "coap.opt.etag.list" ) );
+        assertEquals( "observe must be present", Integer.valueOf( 3 ), props.get( "coap.opt.observe" ) );
+        assertEquals( "wrong size", 2, props.size() );
+    }
+}
@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.serialization.DataSerializer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.options.ContentFormatRegistry;
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsCodec;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Tests the implementation of the OptionsCodec class.
+ *
+ */
+public class OptionsCodecTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    /**
+     * Create properties covering all options that Californium serializes.
+     * Californium 1.0.7 does not serialize Size1 and Size2, these are tested separately.
+     * @return the properties
+     * @throws InvalidETagException
+     */
+    private Map< String, Object > allProperties() throws InvalidETagException
+    {
+        Map< String, Object > props= new LinkedHashMap< String, Object >();
+        LinkedList< ETag > ifMatch= new LinkedList< ETag >();
+        ifMatch.add( new ETag( "0011ff" ) );
+        ifMatch.add( new ETag( "1122334455667788" ) );
+        props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, ifMatch );
+        props.put( PropertyNames.COAP_OPT_URIHOST, "testhost.example.org" );
+        props.put( PropertyNames.COAP_OPT_ETAG_LIST, new byte []{ 0x01, 0x02 } );
+        props.put( PropertyNames.COAP_OPT_IFNONMATCH, Boolean.TRUE );
+        props.put( PropertyNames.COAP_OPT_URIPORT, Integer.valueOf( 5683 ) );
+        props.put( PropertyNames.COAP_OPT_LOCATIONPATH, "/loc/a/b" );
+        props.put( PropertyNames.COAP_OPT_URIPATH, "/some/longer/path/segment/with/more/than/thirteen/characters_in_it" );
+        props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, Integer.valueOf( 41 ) );
+        props.put( PropertyNames.COAP_OPT_MAXAGE, Long.valueOf( 0xFFFFFFFFL ) );
+        props.put( PropertyNames.COAP_OPT_URIQUERY, "?a=1&&b=2&c=\u00e9\u20ac" );
+        props.put( PropertyNames.COAP_OPT_ACCEPT, Integer.valueOf( 0 ) );
+        props.put( PropertyNames.COAP_OPT_LOCATIONQUERY, "x=y" );
+        props.put( PropertyNames.COAP_OPT_BLOCK1_SZX, Integer.valueOf( 3 ) );
+        props.put( PropertyNames.COAP_OPT_BLOCK1_NUM, Integer.valueOf( 1000 ) );
+        props.put( PropertyNames.COAP_OPT_BLOCK1_M, Boolean.TRUE );
+        props.put( PropertyNames.COAP_OPT_BLOCK2_SIZE, Integer.valueOf( 1024 ) );
+        props.put( PropertyNames.COAP_OPT_OBSERVE, Integer.valueOf( 12 ) );
+        props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + 65000, new byte [300] );
+        props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + 1200, "other value" );
+        props.put( "not.an.option", "ignored" );
+        return props;
+    }
+
+    /**
+     * Serialize options using Californium.
+     * @param options the options
+     * @return the serialized options
+     */
+    private byte[] serialize( OptionSet options )
+    {
+        Request request= new Request( Code.GET );
+        request.setType( Type.CON );
+        request.setMID( 1 );
+        request.setToken( new byte [0] );
+        request.setOptions( options );
+        byte[] message= new DataSerializer().serializeRequest( request );
+        //skip 4 byte header, no token and no payload
+        return Arrays.copyOfRange( message, 4, message.length );
+    }
+
+    private void assertPropertiesEqual( Map< String, Object > expected, Map< String, Object > actual )
+    {
+        assertEquals( "wrong number of properties", expected.size(), actual.size() );
+        for ( Entry< String, Object > e : expected.entrySet() )
+        {
+            assertTrue( "property missing: " + e.getKey(), actual.containsKey( e.getKey() ) );
+            Object value= actual.get( e.getKey() );
+            if ( e.getValue() instanceof byte[] )
+            {
+                assertArrayEquals( "wrong value for: " + e.getKey(), (byte[]) e.getValue(), (byte[]) value );
+            }
+            else
+            {
+                assertEquals( "wrong value for: " + e.getKey(), e.getValue(), value );
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeSameAsCalifornium() throws InvalidETagException, InvalidOptionValueException
+    {
+        Map< String, Object > props= allProperties();
+        OptionSet options= new OptionSet();
+        Options.fillOptionSet( options, props, false );
+        byte[] expected= serialize( options );
+
+        ByteBuffer buffer= ByteBuffer.allocate( 1024 );
+        int length= OptionsCodec.encode( props, buffer );
+
+        assertEquals( "wrong encoded length", expected.length, length );
+        assertEquals( "wrong encoded length", expected.length, OptionsCodec.encodedLength( props ) );
+        assertEquals( "wrong buffer position", expected.length, buffer.position() );
+        assertArrayEquals( "wrong encoded options", expected, Arrays.copyOf( buffer.array(), length ) );
+    }
+
+    @Test
+    public void testDecodeSameAsPropertyMap() throws InvalidETagException, InvalidOptionValueException
+    {
+        Map< String, Object > props= allProperties();
+        OptionSet options= new OptionSet();
+        Options.fillOptionSet( options, props, false );
+        Map< String, Object > expected= new HashMap< String, Object >();
+        Options.fillPropertyMap( options, expected );
+
+        ByteBuffer buffer= ByteBuffer.wrap( serialize( options ) );
+        Map< String, Object > decoded= new HashMap< String, Object >();
+        OptionsCodec.decode( buffer, decoded );
+
+        assertFalse( "buffer not consumed", buffer.hasRemaining() );
+        assertPropertiesEqual( expected, decoded );
+    }
+
+    @Test
+    public void testRoundTripEmpty() throws InvalidOptionValueException
+    {
+        Map< String, Object > props= new HashMap< String, Object >();
+        ByteBuffer buffer= ByteBuffer.allocate( 16 );
+
+        assertEquals( "wrong encoded length", 0, OptionsCodec.encode( props, buffer ) );
+        buffer.flip();
+        OptionsCodec.decode( buffer, props );
+
+        assertEquals( "wrong number of properties", 1, props.size() );
+        assertEquals( "wrong if_none_match", Boolean.FALSE, props.get( PropertyNames.COAP_OPT_IFNONMATCH ) );
+    }
+
+    @Test
+    public void testRoundTripSize() throws InvalidOptionValueException
+    {
+        Map< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_SIZE1, Integer.valueOf( 300 ) );
+        props.put( PropertyNames.COAP_OPT_SIZE2, Integer.valueOf( 70000 ) );
+        ByteBuffer buffer= ByteBuffer.allocate( 16 );
+
+        //Size2: delta 28 and 3 value bytes, Size1: delta 32 and 2 value bytes, both with an extended delta
+        assertEquals( "wrong encoded length", 9, OptionsCodec.encode( props, buffer ) );
+        buffer.flip();
+        Map< String, Object > decoded= new HashMap< String, Object >();
+        OptionsCodec.decode( buffer, decoded );
+
+        assertEquals( "wrong size1", Integer.valueOf( 300 ), decoded.get( PropertyNames.COAP_OPT_SIZE1 ) );
+        assertEquals( "wrong size2", Integer.valueOf( 70000 ), decoded.get( PropertyNames.COAP_OPT_SIZE2 ) );
+    }
+
+    @Test
+    public void testPathSplitting() throws InvalidOptionValueException
+    {
+        String[] paths= { "", "/", "a", "/a/", "//a//b//", "a/b/c" };
+        for ( String path : paths )
+        {
+            Map< String, Object > props= new HashMap< String, Object >();
+            props.put( PropertyNames.COAP_OPT_URIPATH, path );
+            props.put( PropertyNames.COAP_OPT_URIQUERY, path.replace( '/', '&' ) );
+            OptionSet options= new OptionSet();
+            Options.fillOptionSet( options, props, false );
+
+            ByteBuffer buffer= ByteBuffer.allocate( 64 );
+            int length= OptionsCodec.encode( props, buffer );
+
+            assertArrayEquals( "wrong encoded options for: " + path, serialize( options ), Arrays.copyOf( buffer.array(), length ) );
+        }
+    }
+
+    @Test
+    public void testStopsAtPayloadMarker() throws InvalidOptionValueException
+    {
+        ByteBuffer buffer= ByteBuffer.wrap( new byte []{ (byte) 0xB1, 'a', (byte) 0xFF, 'p' } );
+        Map< String, Object > props= new HashMap< String, Object >();
+
+        OptionsCodec.decode( buffer, props );
+
+        assertEquals( "wrong buffer position", 2, buffer.position() );
+        assertEquals( "wrong uri path", "a", props.get( PropertyNames.COAP_OPT_URIPATH ) );
+    }
+
+    @Test
+    public void testBufferOverflow()
+    {
+        Map< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_URIPATH, "abc/def" );
+        ByteBuffer buffer= ByteBuffer.allocate( 5 );
+
+        exception.expect( BufferOverflowException.class );
+        try
+        {
+            OptionsCodec.encode( props, buffer );
+        }
+        finally
+        {
+            assertEquals( "buffer written", 0, buffer.position() );
+        }
+    }
+
+    @Test
+    public void testInvalidUriPort()
+    {
+        Map< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_URIPORT, Integer.valueOf( 65536 ) );
+
+        exception.expect( IllegalArgumentException.class );
+        OptionsCodec.encode( props, ByteBuffer.allocate( 16 ) );
+    }
+
+    @Test
+    public void testUndefinedContentFormat()
+    {
+        Map< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, Integer.valueOf( ContentFormatRegistry.UNDEFINED ) );
+        OptionSet options= new OptionSet();
+        Options.fillOptionSet( options, props, false );
+        byte[] expected= serialize( options );
+
+        ByteBuffer buffer= ByteBuffer.allocate( 16 );
+        int length= OptionsCodec.encode( props, buffer );
+
+        assertEquals( "wrong encoded length", 0, expected.length );
+        assertEquals( "wrong encoded length", expected.length, length );
+    }
+
+    @Test
+    public void testInvalidContentFormat()
+    {
+        Map< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, Integer.valueOf( 65536 ) );
+
+        exception.expect( IllegalArgumentException.class );
+        exception.expectMessage( "Content-Format option must be between 0 and 65535 inclusive" );
+        OptionsCodec.encode( props, ByteBuffer.allocate( 16 ) );
+    }
+
+    @Test
+    public void testInvalidContentFormatOptionSet()
+    {
+        Map< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, Integer.valueOf( -2 ) );
+
+        exception.expect( IllegalArgumentException.class );
+        exception.expectMessage( "Content-Format option must be between 0 and 65535 inclusive" );
+        Options.fillOptionSet( new OptionSet(), props, false );
+    }
+
+    @Test
+    public void testInvalidIfMatch()
+    {
+        Map< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, new byte [9] );
+
+        exception.expect( IllegalArgumentException.class );
+        exception.expectMessage( "If-Match option must be smaller or equal to 8 bytes" );
+        OptionsCodec.encode( props, ByteBuffer.allocate( 16 ) );
+    }
+
+    @Test
+    public void testDecodeTruncated() throws InvalidOptionValueException
+    {
+        ByteBuffer buffer= ByteBuffer.wrap( new byte []{ (byte) 0xB3, 'a' } );
+
+        exception.expect( InvalidOptionValueException.class );
+        exception.expectMessage( "option value truncated" );
+        OptionsCodec.decode( buffer, new HashMap< String, Object >() );
+    }
+
+    @Test
+    public void testDecodeNumberOutOfRange() throws InvalidOptionValueException
+    {
+        //deltas of 65000 and 1000 add up past the largest option number
+        ByteBuffer buffer= ByteBuffer.wrap( new byte []{ (byte) 0xE0, (byte) 0xFC, (byte) 0xDB, (byte) 0xE0, (byte) 0x02, (byte) 0xDB } );
+
+        exception.expect( InvalidOptionValueException.class );
+        exception.expectMessage( "Malformed options at position 3, option number out of range" );
+        OptionsCodec.decode( buffer, new HashMap< String, Object >() );
+    }
+
+    @Test
+    public void testDecodeInvalidETag() throws InvalidOptionValueException
+    {
+        ByteBuffer buffer= ByteBuffer.wrap( new byte []{ (byte) 0x40 } );
+
+        exception.expect( InvalidOptionValueException.class );
+        OptionsCodec.decode( buffer, new HashMap< String, Object >() );
+    }
+
+    @Test
+    public void testDecodeLogging()
+    {
+        ByteBuffer buffer= ByteBuffer.wrap( new byte []{ (byte) 0xB1, 'a', (byte) 0x13, 'b' } );
+        Map< String, Object > props= new HashMap< String, Object >();
+
+        OptionsCodec.decode( buffer, props, org.slf4j.LoggerFactory.getLogger( OptionsCodecTest.class ), "test" );
+
+        assertEquals( "wrong uri path", "a", props.get( PropertyNames.COAP_OPT_URIPATH ) );
+        assertEquals( "wrong buffer position", 2, buffer.position() );
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Tests the delta application of property changes to an OptionSet.
+ *
+ */
+public class OptionsDeltaTest
+{
+    private HashMap< String, Object > properties() throws InvalidETagException
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        List< ETag > etags= new LinkedList< ETag >();
+        etags.add( new ETag( "0102" ) );
+        props.put( "MULE_ENCODING", "UTF-8" );
+        props.put( PropertyNames.COAP_OPT_URIPATH, "/a/b/c" );
+        props.put( PropertyNames.COAP_OPT_CONTENTFORMAT, Integer.valueOf( 50 ) );
+        props.put( PropertyNames.COAP_OPT_OBSERVE, Integer.valueOf( 1 ) );
+        props.put( PropertyNames.COAP_OPT_ETAG_LIST, etags );
+        props.put( PropertyNames.COAP_OPT_BLOCK2_SZX, Integer.valueOf( 6 ) );
+        props.put( PropertyNames.COAP_OPT_BLOCK2_NUM, Integer.valueOf( 3 ) );
+        props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + 65000, new byte []{ 1, 2, 3 } );
+        props.put( PropertyNames.PREFIX_COAP_OPT_OTHER + 65008, "other" );
+        return props;
+    }
+
+    private OptionSet fill( Map< String, Object > props )
+    {
+        OptionSet set= new OptionSet();
+        Options.fillOptionSet( set, props, false );
+        return set;
+    }
+
+    private void assertDelta( Map< String, Object > previous, Map< String, Object > next, boolean expectChange )
+    {
+        OptionSet set= fill( previous );
+        assertEquals( "wrong change result", expectChange, Options.applyDelta( set, previous, next ) );
+        assertEquals( "wrong options", fill( next ).toString(), set.toString() );
+    }
+
+    @Test
+    public void testUnchanged() throws InvalidETagException
+    {
+        HashMap< String, Object > next= properties();
+        next.put( PropertyNames.PREFIX_COAP_OPT_OTHER + 65000, new byte []{ 1, 2, 3 } );
+        next.put( "MULE_ENCODING", "ASCII" );
+
+        assertDelta( properties(), next, false );
+    }
+
+    @Test
+    public void testObserveBumped() throws InvalidETagException
+    {
+        HashMap< String, Object > next= properties();
+        next.put( PropertyNames.COAP_OPT_OBSERVE, Integer.valueOf( 2 ) );
+
+        assertDelta( properties(), next, true );
+    }
+
+    @Test
+    public void testETagsSwapped() throws InvalidETagException
+    {
+        HashMap< String, Object > next= properties();
+        next.put( PropertyNames.COAP_OPT_ETAG_LIST, Arrays.asList( new ETag( "a1b2" ), new ETag( "c3" ) ) );
+
+        assertDelta( properties(), next, true );
+    }
+
+    @Test
+    public void testRemoved() throws InvalidETagException
+    {
+        HashMap< String, Object > next= properties();
+        next.remove( PropertyNames.COAP_OPT_CONTENTFORMAT );
+        next.remove( PropertyNames.COAP_OPT_URIPATH );
+
+        assertDelta( properties(), next, true );
+    }
+
+    @Test
+    public void testRemovedSingle() throws InvalidETagException
+    {
+        HashMap< String, Object > next= properties();
+        next.remove( PropertyNames.COAP_OPT_OBSERVE );
+        assertDelta( properties(), next, true );
+
+        next= properties();
+        next.remove( PropertyNames.COAP_OPT_ETAG_LIST );
+        assertDelta( properties(), next, true );
+    }
+
+    @Test
+    public void testRemovedPartOfGroup() throws InvalidETagException
+    {
+        HashMap< String, Object > previous= properties();
+        previous.put( PropertyNames.COAP_OPT_URIPATH_LIST, Arrays.asList( "d", "e" ) );
+        HashMap< String, Object > next= new HashMap< String, Object >( previous );
+        next.remove( PropertyNames.COAP_OPT_URIPATH_LIST );
+
+        assertDelta( previous, next, true );
+    }
+
+    @Test
+    public void testSubsequentDeltas() throws InvalidETagException
+    {
+        HashMap< String, Object > previous= properties();
+        OptionSet set= fill( previous );
+        for ( int i= 2; i < 6; i++ )
+        {
+            HashMap< String, Object > next= properties();
+            next.put( PropertyNames.COAP_OPT_OBSERVE, Integer.valueOf( i ) );
+            if ( i % 2 == 0 ) next.remove( PropertyNames.COAP_OPT_CONTENTFORMAT );
+            assertTrue( "wrong change result", Options.applyDelta( set, previous, next ) );
+            assertEquals( "wrong options", fill( next ).toString(), set.toString() );
+            previous= next;
+        }
+    }
+
+    @Test
+    public void testAdded() throws InvalidETagException
+    {
+        HashMap< String, Object > next= properties();
+        next.put( PropertyNames.COAP_OPT_MAXAGE, Long.valueOf( 30 ) );
+        next.put( PropertyNames.COAP_OPT_URIPATH_LIST, Arrays.asList( "d" ) );
+
+        assertDelta( properties(), next, true );
+    }
+
+    @Test
+    public void testBlockComponentChanged() throws InvalidETagException
+    {
+        HashMap< String, Object > next= properties();
+        next.put( PropertyNames.COAP_OPT_BLOCK2_NUM, Integer.valueOf( 4 ) );
+        assertDelta( properties(), next, true );
+
+        next= properties();
+        next.remove( PropertyNames.COAP_OPT_BLOCK2_SZX );
+        assertDelta( properties(), next, true );
+    }
+
+    @Test
+    public void testOtherOptionsChanged() throws InvalidETagException
+    {
+        HashMap< String, Object > next= properties();
+        next.put( PropertyNames.PREFIX_COAP_OPT_OTHER + 65000, new byte []{ 4 } );
+        assertDelta( properties(), next, true );
+
+        next= properties();
+        next.remove( PropertyNames.PREFIX_COAP_OPT_OTHER + 65008 );
+        next.put( PropertyNames.PREFIX_COAP_OPT_OTHER + 65016, "new" );
+        assertDelta( properties(), next, true );
+    }
+
+    @Test
+    public void testApplyChanges() throws InvalidETagException
+    {
+        HashMap< String, Object > previous= properties();
+        OptionSet set= fill( previous );
+        HashMap< String, Object > next= properties();
+        next.put( PropertyNames.COAP_OPT_OBSERVE, Integer.valueOf( 2 ) );
+        next.remove( PropertyNames.COAP_OPT_CONTENTFORMAT );
+
+        assertTrue( "wrong change result", Options.applyChanges( set, next, Arrays.asList( PropertyNames.COAP_OPT_OBSERVE, PropertyNames.COAP_OPT_CONTENTFORMAT, "MULE_ENCODING" ) ) );
+        assertEquals( "wrong options", fill( next ).toString(), set.toString() );
+        assertFalse( "wrong change result", Options.applyChanges( set, next, Collections.singleton( "MULE_ENCODING" ) ) );
+    }
+}
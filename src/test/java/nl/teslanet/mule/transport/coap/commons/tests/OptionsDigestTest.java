@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsDigest;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsSnapshot;
+
+
+/**
+ * Tests the implementation of the OptionsDigest class.
+ *
+ */
+public class OptionsDigestTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    private OptionSet request() throws InvalidETagException
+    {
+        return request( false );
+    }
+
+    private OptionSet request( boolean swapped ) throws InvalidETagException
+    {
+        OptionSet request= new OptionSet();
+        request.setUriHost( "testhost" );
+        request.setUriPort( 5683 );
+        request.setUriPath( "/a/bé" );
+        request.setUriQuery( "x=1&y=2" );
+        request.addETag( new ETag( "0102" ).asBytes() );
+        request.setAccept( 0 );
+        request.addOption( new Option( 258, swapped ? new byte [] { 4 } : new byte [] { 1, 2 } ) );
+        request.addOption( new Option( 65000, new byte [] { 3 } ) );
+        request.addOption( new Option( 258, swapped ? new byte [] { 1, 2 } : new byte [] { 4 } ) );
+        return request;
+    }
+
+    private ByteBuffer encode( OptionSet optionSet )
+    {
+        OptionsSnapshot snapshot= OptionsSnapshot.create( optionSet );
+        ByteBuffer buffer= ByteBuffer.allocate( snapshot.encodedLength() );
+        snapshot.encode( buffer );
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void testKnownDigest() throws InvalidOptionValueException
+    {
+        OptionSet request= new OptionSet();
+        request.setAccept( 50 );
+        request.setUriPath( "/a/é" );
+
+        OptionsDigest digest= new OptionsDigest().digest( request );
+
+        assertEquals( "wrong digest", 0x5e5c65f5982796fdL, digest.getDigest64() );
+        assertEquals( "wrong digest", 0x5e5c65f5982796fdL, digest.getDigest128High() );
+        assertEquals( "wrong digest", 0x1472944a2a9f6f3aL, digest.getDigest128Low() );
+        assertEquals( "wrong digest", 0x5e5c65f5982796fdL, OptionsDigest.digest64( encode( request ) ) );
+    }
+
+    @Test
+    public void testEmpty() throws InvalidOptionValueException
+    {
+        OptionsDigest digest= new OptionsDigest().digest( new OptionSet() );
+
+        assertEquals( "wrong digest", 0L, digest.getDigest128High() );
+        assertEquals( "wrong digest", 0L, digest.getDigest128Low() );
+        assertEquals( "wrong digest", 0L, OptionsDigest.digest64( ByteBuffer.allocate( 0 ) ) );
+    }
+
+    @Test
+    public void testOrderIndependent() throws InvalidETagException, InvalidOptionValueException
+    {
+        OptionSet other= new OptionSet();
+        other.addOption( new Option( 258, new byte [] { 1, 2 } ) );
+        other.addOption( new Option( 65000, new byte [] { 3 } ) );
+        other.setAccept( 0 );
+        other.setUriQuery( "x=1&y=2" );
+        other.addOption( new Option( 258, new byte [] { 4 } ) );
+        other.setUriPath( "/a/bé" );
+        other.addETag( new ETag( "0102" ).asBytes() );
+        other.setUriPort( 5683 );
+        other.setUriHost( "testhost" );
+
+        long expected= OptionsDigest.digest64( request() );
+        assertEquals( "wrong digest", expected, OptionsDigest.digest64( other ) );
+        assertEquals( "wrong digest", expected, OptionsDigest.digest64( encode( request() ) ) );
+        assertTrue( "keys differ", OptionsDigest.keyEquals( request(), other ) );
+    }
+
+    @Test
+    public void testRepeatedOptionOrder() throws InvalidETagException
+    {
+        OptionSet other= request( true );
+
+        assertNotEquals( "wrong digest", OptionsDigest.digest64( request() ), OptionsDigest.digest64( other ) );
+        assertFalse( "keys equal", OptionsDigest.keyEquals( request(), other ) );
+    }
+
+    @Test
+    public void testExcludedOptions() throws InvalidETagException, InvalidOptionValueException
+    {
+        OptionSet other= request();
+        other.setObserve( 0 );
+        other.setBlock1( 2, true, 1 );
+        other.setBlock2( 2, false, 3 );
+        other.setSize1( 1000 );
+        other.setSize2( 2000 );
+        other.addOption( new Option( 65500, new byte [] { 1 } ) );
+
+        long expected= OptionsDigest.digest64( request() );
+        assertEquals( "wrong digest", expected, OptionsDigest.digest64( other ) );
+        assertEquals( "wrong digest", expected, OptionsDigest.digest64( encode( other ) ) );
+        assertTrue( "keys differ", OptionsDigest.keyEquals( request(), other ) );
+        assertFalse( "key option", OptionsDigest.isKeyOption( 65500 ) );
+        assertTrue( "no key option", OptionsDigest.isKeyOption( 65000 ) );
+    }
+
+    @Test
+    public void testDifferentOptions() throws InvalidETagException
+    {
+        long expected= OptionsDigest.digest64( request() );
+
+        OptionSet other= request();
+        other.setAccept( 50 );
+        assertNotEquals( "wrong digest", expected, OptionsDigest.digest64( other ) );
+        assertFalse( "keys equal", OptionsDigest.keyEquals( request(), other ) );
+
+        other= request();
+        other.removeAccept();
+        assertNotEquals( "wrong digest", expected, OptionsDigest.digest64( other ) );
+        assertFalse( "keys equal", OptionsDigest.keyEquals( request(), other ) );
+
+        other= request();
+        other.addOption( new Option( 65000, new byte [] { 3 } ) );
+        assertNotEquals( "wrong digest", expected, OptionsDigest.digest64( other ) );
+        assertFalse( "keys equal", OptionsDigest.keyEquals( request(), other ) );
+
+        //values must not be shifted between options
+        OptionSet shifted= new OptionSet();
+        shifted.setUriPath( "/ab/c" );
+        OptionSet unshifted= new OptionSet();
+        unshifted.setUriPath( "/a/bc" );
+        assertNotEquals( "wrong digest", OptionsDigest.digest64( shifted ), OptionsDigest.digest64( unshifted ) );
+    }
+
+    @Test
+    public void testBufferUnchanged() throws InvalidETagException, InvalidOptionValueException
+    {
+        ByteBuffer buffer= ByteBuffer.allocate( 100 );
+        buffer.put( (byte) 0x55 );
+        buffer.put( encode( request() ) );
+        buffer.put( (byte) 0xFF );
+        buffer.put( (byte) 0x01 );
+        buffer.flip();
+        buffer.position( 1 );
+
+        assertEquals( "wrong digest", OptionsDigest.digest64( request() ), OptionsDigest.digest64( buffer ) );
+        assertEquals( "wrong position", 1, buffer.position() );
+    }
+
+    @Test
+    public void testMalformed() throws InvalidOptionValueException
+    {
+        exception.expect( InvalidOptionValueException.class );
+        exception.expectMessage( "option value truncated" );
+        OptionsDigest.digest64( ByteBuffer.wrap( new byte [] { (byte) 0xB3, 'a' } ) );
+    }
+}
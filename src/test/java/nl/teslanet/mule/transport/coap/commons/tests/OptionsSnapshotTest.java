@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.ETagList;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsCodec;
+import nl.teslanet.mule.transport.coap.commons.options.OptionsSnapshot;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+
+
+/**
+ * Tests the implementation of the OptionsSnapshot class.
+ *
+ */
+public class OptionsSnapshotTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    private OptionSet optionSet() throws InvalidETagException
+    {
+        OptionSet set= new OptionSet();
+        set.setUriHost( "testhost" );
+        set.setUriPath( "/a/b/c" );
+        set.setUriQuery( "x=1&y=2" );
+        set.addETag( new ETag( "0102" ).asBytes() );
+        set.addETag( new ETag( "a1b2c3d4e5f60718" ).asBytes() );
+        set.setContentFormat( 41 );
+        set.setMaxAge( 120 );
+        set.setObserve( 7 );
+        set.setBlock2( 6, true, 300 );
+        set.setSize1( 1000 );
+        set.setSize2( 70000 );
+        set.addOption( new org.eclipse.californium.core.coap.Option( 65000, new byte [300] ) );
+        return set;
+    }
+
+    @Test
+    public void testCreateFromOptionSet() throws InvalidETagException, InvalidOptionValueException
+    {
+        OptionSet set= optionSet();
+        OptionsSnapshot snapshot= OptionsSnapshot.create( set );
+
+        assertEquals( "wrong size", 15, snapshot.size() );
+        assertEquals( "wrong first number", OptionNumberRegistry.URI_HOST, snapshot.getNumber( 0 ) );
+        assertEquals( "wrong last number", 65000, snapshot.getNumber( 14 ) );
+        assertEquals( "wrong last length", 300, snapshot.getLength( 14 ) );
+        assertTrue( "option missing", snapshot.hasOption( OptionNumberRegistry.SIZE1 ) );
+        assertFalse( "option present", snapshot.hasOption( OptionNumberRegistry.ACCEPT ) );
+        assertEquals( "wrong count", 3, snapshot.count( OptionNumberRegistry.URI_PATH ) );
+        assertEquals( "wrong count", 0, snapshot.count( OptionNumberRegistry.ACCEPT ) );
+        assertEquals( "wrong uri host", "testhost", snapshot.getString( OptionNumberRegistry.URI_HOST ) );
+        assertNull( "wrong proxy uri", snapshot.getString( OptionNumberRegistry.PROXY_URI ) );
+        assertEquals( "wrong uri path", Arrays.asList( "a", "b", "c" ), snapshot.getStrings( OptionNumberRegistry.URI_PATH ) );
+        assertTrue( "wrong location path", snapshot.getStrings( OptionNumberRegistry.LOCATION_PATH ).isEmpty() );
+        assertEquals( "wrong max age", 120L, snapshot.getUint( OptionNumberRegistry.MAX_AGE, 60L ) );
+        assertEquals( "wrong accept", -1L, snapshot.getUint( OptionNumberRegistry.ACCEPT, -1L ) );
+        assertEquals( "wrong size2", 70000L, snapshot.getUint( OptionNumberRegistry.SIZE2, -1L ) );
+
+        ETagList etags= snapshot.getETags( OptionNumberRegistry.ETAG );
+        assertEquals( "wrong etags", ETagList.create( new ETag( "0102" ), new ETag( "a1b2c3d4e5f60718" ) ), etags );
+        assertTrue( "wrong if-match", snapshot.getETags( OptionNumberRegistry.IF_MATCH ).isEmpty() );
+    }
+
+    @Test
+    public void testToOptionSet() throws InvalidETagException, InvalidOptionValueException
+    {
+        OptionSet set= optionSet();
+        OptionsSnapshot snapshot= OptionsSnapshot.create( set );
+
+        OptionSet copy= snapshot.toOptionSet();
+
+        assertEquals( "wrong option set", set.toString(), copy.toString() );
+        assertEquals( "wrong snapshot of copy", snapshot, OptionsSnapshot.create( copy ) );
+    }
+
+    @Test
+    public void testImmutable() throws InvalidETagException
+    {
+        OptionSet set= optionSet();
+        OptionsSnapshot snapshot= OptionsSnapshot.create( set );
+        int hash= snapshot.hashCode();
+
+        set.setUriHost( "otherhost" );
+        snapshot.getValue( 0 )[0]= 'x';
+        snapshot.toOptionSet().getETags().get( 0 )[0]= 0x7f;
+
+        assertEquals( "snapshot changed", "testhost", snapshot.getString( OptionNumberRegistry.URI_HOST ) );
+        assertEquals( "snapshot changed", new ETag( "0102" ), snapshot.getETags( OptionNumberRegistry.ETAG ).get( 0 ) );
+        assertEquals( "hash changed", hash, snapshot.hashCode() );
+    }
+
+    @Test
+    public void testCreateFromProperties() throws InvalidETagException, InvalidOptionValueException
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_URIPATH, "/a/b/c" );
+        props.put( PropertyNames.COAP_OPT_ACCEPT, Integer.valueOf( 50 ) );
+        props.put( PropertyNames.COAP_OPT_BLOCK1_SZX, Integer.valueOf( 2 ) );
+        props.put( PropertyNames.COAP_OPT_BLOCK1_NUM, Integer.valueOf( 9 ) );
+        props.put( "MULE_ENCODING", "UTF-8" );
+        OptionSet set= new OptionSet();
+        Options.fillOptionSet( set, props, false );
+
+        OptionsSnapshot snapshot= OptionsSnapshot.create( props );
+
+        assertEquals( "wrong snapshot", OptionsSnapshot.create( set ), snapshot );
+        assertEquals( "wrong hash", OptionsSnapshot.create( set ).hashCode(), snapshot.hashCode() );
+
+        HashMap< String, Object > expected= new HashMap< String, Object >();
+        Options.fillPropertyMap( set, expected );
+        HashMap< String, Object > actual= new HashMap< String, Object >();
+        snapshot.fillPropertyMap( actual );
+        assertEquals( "wrong properties", expected, actual );
+    }
+
+    @Test
+    public void testEncode() throws InvalidETagException
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_URIPATH, "/a/b/c" );
+        props.put( PropertyNames.COAP_OPT_OBSERVE, Integer.valueOf( 1 ) );
+        ByteBuffer expected= ByteBuffer.allocate( 64 );
+        OptionsCodec.encode( props, expected );
+
+        OptionsSnapshot snapshot= OptionsSnapshot.create( props );
+        ByteBuffer buffer= ByteBuffer.allocate( 64 );
+        snapshot.encode( buffer );
+
+        assertEquals( "wrong encoded length", expected.position(), snapshot.encodedLength() );
+        expected.flip();
+        buffer.flip();
+        assertEquals( "wrong encoded options", expected, buffer );
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        OptionsSnapshot snapshot= OptionsSnapshot.create( new OptionSet() );
+
+        assertSame( "not the empty snapshot", OptionsSnapshot.empty(), snapshot );
+        assertSame( "not the empty snapshot", OptionsSnapshot.empty(), OptionsSnapshot.create( new HashMap< String, Object >() ) );
+        assertEquals( "wrong size", 0, snapshot.size() );
+        assertEquals( "wrong index", -1, snapshot.indexOf( OptionNumberRegistry.URI_PATH ) );
+        assertTrue( "wrong option set", snapshot.toOptionSet().asSortedList().isEmpty() );
+    }
+
+    @Test
+    public void testInvalidETag() throws InvalidETagException
+    {
+        OptionSet set= new OptionSet();
+        set.addETag( new byte [9] );
+        OptionsSnapshot snapshot= OptionsSnapshot.create( set );
+
+        exception.expect( InvalidETagException.class );
+        snapshot.getETags( OptionNumberRegistry.ETAG );
+    }
+
+    @Test
+    public void testIndexOutOfBounds()
+    {
+        exception.expect( IndexOutOfBoundsException.class );
+        OptionsSnapshot.empty().getValue( 0 );
+    }
+
+    @Test
+    public void testUnmodifiableStrings() throws InvalidETagException
+    {
+        List< String > path= OptionsSnapshot.create( optionSet() ).getStrings( OptionNumberRegistry.URI_PATH );
+
+        exception.expect( UnsupportedOperationException.class );
+        path.add( "d" );
+    }
+}
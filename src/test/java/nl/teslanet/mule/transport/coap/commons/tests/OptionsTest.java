@@ -18,6 +18,7 @@ package nl.teslanet.mule.transport.coap.commons.tests;
 import static org.junit.Assert.*;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import org.eclipse.californium.core.coap.BlockOption;
@@ -31,6 +32,7 @@ import nl.teslanet.mule.transport.coap.commons.options.ETag;
 import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
 import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
 import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
 
 
 /**
@@ -1183,6 +1185,68 @@ public class OptionsTest
         assertEquals( "coap.opt.block2: wrong value", set.getBlock2(), block );
     }
 
+    @Test
+    public void testMapBlockSzxPrecedesSize() throws InvalidETagException
+    {
+        //szx 2 is 64 bytes, size 1024 would be szx 6
+        BlockOption block= new BlockOption( 2, false, 7 );
+
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( "coap.opt.block1.size", Integer.valueOf( 1024 ) );
+        props.put( "coap.opt.block1.szx", Integer.valueOf( 2 ) );
+        props.put( "coap.opt.block1.num", Integer.valueOf( 7 ) );
+        props.put( "coap.opt.block2.szx", Integer.valueOf( 2 ) );
+        props.put( "coap.opt.block2.size", Integer.valueOf( 1024 ) );
+        props.put( "coap.opt.block2.num", Integer.valueOf( 7 ) );
+
+        OptionSet set= new OptionSet();
+        Options.fillOptionSet( set, props, true );
+
+        assertEquals( "coap.opt.block1: wrong value", block, set.getBlock1() );
+        assertEquals( "coap.opt.block2: wrong value", block, set.getBlock2() );
+    }
+
+    @Test
+    public void testMapBlockOrderIndependent() throws InvalidETagException
+    {
+        BlockOption block= new BlockOption( 6, true, 1234 );
+        String[] names= { "coap.opt.block2.size", "coap.opt.block2.m", "coap.opt.block2.num", "coap.opt.block2.szx" };
+        Object[] values= { Integer.valueOf( 16 ), Boolean.TRUE, Integer.valueOf( 1234 ), Integer.valueOf( 6 ) };
+
+        for ( int first= 0; first < names.length; first++ )
+        {
+            LinkedHashMap< String, Object > props= new LinkedHashMap< String, Object >();
+            for ( int i= 0; i < names.length; i++ )
+            {
+                int j= ( first + i ) % names.length;
+                props.put( names[j], values[j] );
+            }
+            OptionSet set= new OptionSet();
+            Options.fillOptionSet( set, props, true );
+
+            assertEquals( "coap.opt.block2: wrong value", block, set.getBlock2() );
+        }
+    }
+
+    @Test
+    public void testMapBlockMergesExisting() throws InvalidETagException
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( "coap.opt.block1.num", Integer.valueOf( 5 ) );
+
+        OptionSet set= new OptionSet();
+        set.setBlock1( 4, true, 4 );
+        Options.fillOptionSet( set, props, false );
+
+        assertEquals( "coap.opt.block1: wrong value", new BlockOption( 4, true, 5 ), set.getBlock1() );
+
+        set= new OptionSet();
+        set.setBlock1( 4, true, 4 );
+        Options.fillOptionSet( set, props, true );
+
+        assertEquals( "coap.opt.block1: wrong value", new BlockOption( 0, false, 5 ), set.getBlock1() );
+    }
+
     @Test
     public void testOptionSize1() throws InvalidETagException, InvalidOptionValueException
     {
@@ -1440,6 +1504,57 @@ public class OptionsTest
         assertArrayEquals( "coap.opt.other.65001: wrong option value", value1, others.get( 0 ).getValue() );
     }
 
+    @Test
+    public void testMapOtherIgnoresMetadata()
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        byte[] value1= { (byte) 0x31, (byte) 0x32, (byte) 0x30 };
+        props.put( "coap.opt.other.65001", value1.clone() );
+        props.put( "coap.opt.other.65001.critical", Boolean.TRUE );
+        props.put( "coap.opt.other.65001.no_cache_key", Boolean.FALSE );
+        props.put( "coap.opt.other.65001.unsafe", Boolean.FALSE );
+        props.put( "coap.opt.other.", "empty" );
+        props.put( "coap.opt.other.99999999999", "too large" );
+
+        OptionSet set= new OptionSet();
+        Options.fillOptionSet( set, props, true );
+
+        List< Option > others= set.getOthers();
+        assertEquals( "coap.opt.other.65001: wrong number of other options", 1, others.size() );
+        assertEquals( "coap.opt.other.65001: wrong option number", 65001, others.get( 0 ).getNumber() );
+        assertArrayEquals( "coap.opt.other.65001: wrong option value", value1, others.get( 0 ).getValue() );
+    }
+
+    @Test
+    public void testMapNonOptionProperties()
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( "MULE_ENCODING", "UTF-8" );
+        props.put( "coap.request.code", "GET" );
+        props.put( "coap.opt.unknown", "value" );
+        props.put( "coap.opt.observe", 12 );
+
+        OptionSet set= new OptionSet();
+        Options.fillOptionSet( set, props, true );
+
+        assertEquals( "coap.opt.observe: wrong value", Integer.valueOf( 12 ), set.getObserve() );
+        assertEquals( "unexpected options", 1, set.asSortedList().size() );
+    }
+
+    @Test
+    public void testOtherOptionNumber()
+    {
+        assertEquals( "wrong option number", 65001, PropertyNames.otherOptionNumber( "coap.opt.other.65001" ) );
+        assertEquals( "wrong option number", 0, PropertyNames.otherOptionNumber( "coap.opt.other.0" ) );
+        assertEquals( "wrong option number", 65535, PropertyNames.otherOptionNumber( "coap.opt.other.65535" ) );
+        assertEquals( "option number out of range accepted", -1, PropertyNames.otherOptionNumber( "coap.opt.other.65536" ) );
+        assertEquals( "empty option number accepted", -1, PropertyNames.otherOptionNumber( "coap.opt.other." ) );
+        assertEquals( "postfix accepted", -1, PropertyNames.otherOptionNumber( "coap.opt.other.65001.critical" ) );
+        assertEquals( "non-digit accepted", -1, PropertyNames.otherOptionNumber( "coap.opt.other.6a" ) );
+        assertEquals( "other property accepted", -1, PropertyNames.otherOptionNumber( "coap.opt.observe" ) );
+        assertEquals( "non-option property accepted", -1, PropertyNames.otherOptionNumber( "MULE_ENCODING" ) );
+    }
+
     private class StringWrapper
     {
         private String string;
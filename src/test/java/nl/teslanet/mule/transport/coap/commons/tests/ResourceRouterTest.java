@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.resources.ResourceRouter;
+import nl.teslanet.mule.transport.coap.commons.resources.ResourceRouter.Match;
+
+
+/**
+ * Tests the implementation of the ResourceRouter class.
+ *
+ */
+public class ResourceRouterTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    private ResourceRouter< String > router;
+
+    @Before
+    public void setUp()
+    {
+        router= new ResourceRouter< String >();
+        router.add( "", "root" );
+        router.add( "/sensors", "sensors" );
+        router.add( "/sensors/temperature", "temperature" );
+        router.add( "/sensors/*/status", "status" );
+        router.add( "/devices/*", "devices" );
+        router.add( "/devices/*/config/*", "config" );
+        router.add( "/devices/special", "special" );
+    }
+
+    private String handler( String path )
+    {
+        Match< String > match= router.match( path );
+        return ( match == null ? null : match.getHandler() );
+    }
+
+    @Test
+    public void testExact()
+    {
+        assertEquals( "wrong handler", "sensors", handler( "/sensors" ) );
+        assertEquals( "wrong handler", "sensors", handler( "sensors/" ) );
+        assertEquals( "wrong handler", "temperature", handler( "/sensors/temperature" ) );
+        assertNull( "wrong handler", handler( "/sensors/humidity" ) );
+        assertNull( "wrong handler", handler( "/actuators" ) );
+        assertEquals( "wrong size", 7, router.size() );
+    }
+
+    @Test
+    public void testRoot()
+    {
+        assertEquals( "wrong handler", "root", handler( "" ) );
+        assertEquals( "wrong handler", "root", handler( "/" ) );
+        assertEquals( "wrong handler", "root", router.match( new OptionSet() ).getHandler() );
+    }
+
+    @Test
+    public void testWildcard()
+    {
+        Match< String > match= router.match( "/sensors/s1/status" );
+        assertEquals( "wrong handler", "status", match.getHandler() );
+        assertEquals( "wrong path", "/sensors/*/status", match.getPath() );
+        assertEquals( "wrong wildcard segments", Collections.singletonList( "s1" ), match.getWildcardSegments() );
+
+        //wildcard matches one segment only
+        assertNull( "wrong handler", handler( "/sensors/s1/s2/status" ) );
+        assertNull( "wrong handler", handler( "/sensors/s1" ) );
+    }
+
+    @Test
+    public void testTrailingWildcard()
+    {
+        OptionSet request= new OptionSet();
+        request.setUriPath( "/devices/d1/a/b" );
+        Match< String > match= router.match( request );
+        assertEquals( "wrong handler", "devices", match.getHandler() );
+        assertEquals( "wrong wildcard segments", Arrays.asList( "d1", "a", "b" ), match.getWildcardSegments() );
+
+        match= router.match( "/devices/d1/config/x/y" );
+        assertEquals( "wrong handler", "config", match.getHandler() );
+        assertEquals( "wrong wildcard segments", Arrays.asList( "d1", "x", "y" ), match.getWildcardSegments() );
+
+        //trailing wildcard matches at least one segment
+        assertNull( "wrong handler", handler( "/devices" ) );
+        //falls back to the shorter wildcard resource
+        assertEquals( "wrong handler", "devices", handler( "/devices/d1/config" ) );
+    }
+
+    @Test
+    public void testExactPrecedence()
+    {
+        Match< String > match= router.match( "/devices/special" );
+        assertEquals( "wrong handler", "special", match.getHandler() );
+        assertTrue( "wrong wildcard segments", match.getWildcardSegments().isEmpty() );
+
+        //exact segment without matching continuation falls back to the wildcard
+        assertEquals( "wrong handler", "devices", handler( "/devices/special/more" ) );
+    }
+
+    @Test
+    public void testReplaceAndRemove()
+    {
+        assertEquals( "wrong previous", "sensors", router.add( "/sensors/", "sensors2" ) );
+        assertEquals( "wrong handler", "sensors2", handler( "/sensors" ) );
+        assertEquals( "wrong size", 7, router.size() );
+
+        assertEquals( "wrong removed", "devices", router.remove( "/devices/*" ) );
+        assertEquals( "wrong handler", "config", handler( "/devices/d1/config/x" ) );
+        assertNull( "wrong handler", handler( "/devices/d1" ) );
+        assertEquals( "wrong removed", "config", router.remove( "/devices/*/config/*" ) );
+        assertNull( "wrong handler", handler( "/devices/d1/config/x" ) );
+        assertNull( "wrong removed", router.remove( "/devices/*" ) );
+        assertNull( "wrong removed", router.remove( "/unknown/path" ) );
+        assertEquals( "wrong handler", "special", handler( "/devices/special" ) );
+        assertEquals( "wrong size", 5, router.size() );
+    }
+
+    @Test
+    public void testManyResources()
+    {
+        for ( int i= 0; i < 10000; i++ )
+        {
+            router.add( "/things/" + i + "/value", "thing" + i );
+        }
+        assertEquals( "wrong handler", "thing1234", handler( "/things/1234/value" ) );
+        assertNull( "wrong handler", handler( "/things/10000/value" ) );
+    }
+
+    @Test
+    public void testNullHandler()
+    {
+        exception.expect( IllegalArgumentException.class );
+        router.add( "/a", null );
+    }
+}
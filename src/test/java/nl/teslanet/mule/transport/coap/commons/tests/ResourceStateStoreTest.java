@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+import nl.teslanet.mule.transport.coap.commons.resources.ResourceStateStore;
+import nl.teslanet.mule.transport.coap.commons.resources.ResourceStateStore.Outcome;
+import nl.teslanet.mule.transport.coap.commons.resources.ResourceStateStore.State;
+
+
+/**
+ * Tests the implementation of the ResourceStateStore class.
+ *
+ */
+public class ResourceStateStoreTest
+{
+    private OptionSet request( String path )
+    {
+        OptionSet request= new OptionSet();
+        request.setUriPath( path );
+        return request;
+    }
+
+    @Test
+    public void testPutUnconditional() throws InvalidETagException
+    {
+        ResourceStateStore< String > store= new ResourceStateStore< String >();
+
+        assertEquals( "wrong outcome", Outcome.CREATED, store.put( "a/b", new ETag( "01" ), "one" ) );
+        assertEquals( "wrong outcome", Outcome.CHANGED, store.put( "a/b", new ETag( "02" ), "two" ) );
+        assertEquals( "wrong response code", ResponseCode.CHANGED, Outcome.CHANGED.getResponseCode() );
+        assertEquals( "wrong etag", new ETag( "02" ), store.getETag( "a/b" ) );
+        assertEquals( "wrong value", "two", store.get( "a/b" ).getValue() );
+        assertNull( "wrong state", store.get( "a/c" ) );
+        assertEquals( "wrong size", 1, store.size() );
+    }
+
+    @Test
+    public void testIfNoneMatch() throws InvalidETagException
+    {
+        ResourceStateStore< String > store= new ResourceStateStore< String >();
+        OptionSet request= request( "/a/b" );
+        request.setIfNoneMatch( true );
+
+        assertEquals( "wrong outcome", Outcome.CREATED, store.put( request, new ETag( "01" ), "one" ) );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, store.put( request, new ETag( "02" ), "two" ) );
+        assertEquals( "wrong value", "one", store.get( "a/b" ).getValue() );
+    }
+
+    @Test
+    public void testIfMatch() throws InvalidETagException
+    {
+        ResourceStateStore< String > store= new ResourceStateStore< String >();
+        OptionSet request= request( "/a/b" );
+        request.addIfMatch( new ETag( "01" ).asBytes() );
+
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, store.put( request, new ETag( "02" ), "two" ) );
+        store.put( "a/b", new ETag( "01" ), "one" );
+        assertEquals( "wrong outcome", Outcome.CHANGED, store.put( request, new ETag( "02" ), "two" ) );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, store.put( request, new ETag( "03" ), "three" ) );
+        assertEquals( "wrong value", "two", store.get( "a/b" ).getValue() );
+
+        request.addIfMatch( new byte [0] );
+        assertEquals( "wrong outcome", Outcome.CHANGED, store.put( request, new ETag( "03" ), "three" ) );
+    }
+
+    @Test
+    public void testProperties() throws InvalidETagException
+    {
+        ResourceStateStore< String > store= new ResourceStateStore< String >();
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_URIPATH, "/a/b" );
+        props.put( PropertyNames.COAP_OPT_IFNONMATCH, Boolean.TRUE );
+
+        assertEquals( "wrong path", "a/b", ResourceStateStore.pathOf( props ) );
+        assertEquals( "wrong outcome", Outcome.CREATED, store.put( props, new ETag( "01" ), "one" ) );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, store.put( props, new ETag( "02" ), "two" ) );
+
+        props.remove( PropertyNames.COAP_OPT_IFNONMATCH );
+        props.put( PropertyNames.COAP_OPT_IFMATCH_LIST, Arrays.asList( new ETag( "ff" ), new ETag( "01" ) ) );
+        assertEquals( "wrong outcome", Outcome.CHANGED, store.put( props, new ETag( "02" ), "two" ) );
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, store.put( props, new ETag( "03" ), "three" ) );
+
+        props.remove( PropertyNames.COAP_OPT_URIPATH );
+        props.put( PropertyNames.COAP_OPT_URIPATH_LIST, Arrays.asList( "a", "b" ) );
+        assertEquals( "wrong path", "a/b", ResourceStateStore.pathOf( props ) );
+    }
+
+    @Test
+    public void testCompareAndSet() throws InvalidETagException
+    {
+        ResourceStateStore< String > store= new ResourceStateStore< String >();
+
+        assertTrue( "not set", store.compareAndSet( "a", null, new ETag( "01" ), "one" ) );
+        assertFalse( "set", store.compareAndSet( "a", null, new ETag( "02" ), "two" ) );
+        assertFalse( "set", store.compareAndSet( "a", new ETag( "02" ), new ETag( "03" ), "three" ) );
+        assertTrue( "not set", store.compareAndSet( "a", new ETag( "01" ), new ETag( "02" ), "two" ) );
+        assertEquals( "wrong value", "two", store.get( "a" ).getValue() );
+    }
+
+    @Test
+    public void testRemove() throws InvalidETagException
+    {
+        ResourceStateStore< String > store= new ResourceStateStore< String >();
+        store.put( "a/b", new ETag( "01" ), "one" );
+        OptionSet request= request( "/a/b" );
+        request.addIfMatch( new ETag( "02" ).asBytes() );
+
+        assertEquals( "wrong outcome", Outcome.PRECONDITION_FAILED, store.remove( request ) );
+        assertEquals( "wrong outcome", Outcome.DELETED, store.remove( "a/b", Collections.< byte[] > emptyList() ) );
+        assertNull( "not removed", store.get( "a/b" ) );
+        assertEquals( "wrong outcome", Outcome.DELETED, store.remove( "a/b", Collections.< byte[] > emptyList() ) );
+    }
+
+    @Test
+    public void testListener() throws InvalidETagException
+    {
+        ResourceStateStore< String > store= new ResourceStateStore< String >();
+        final List< String > changes= new ArrayList< String >();
+        ResourceStateStore.Listener< String > listener= new ResourceStateStore.Listener< String >()
+            {
+                @Override
+                public void stateChanged( String path, State< String > previous, State< String > current )
+                {
+                    changes.add( path + ":" + ( previous == null ? null : previous.getValue() ) + "->" + ( current == null ? null : current.getValue() ) );
+                }
+            };
+        store.addListener( listener );
+        store.addListener( new ResourceStateStore.Listener< String >()
+            {
+                @Override
+                public void stateChanged( String path, State< String > previous, State< String > current )
+                {
+                    throw new IllegalStateException( "listener failure must not affect the store" );
+                }
+            } );
+
+        store.put( "a", new ETag( "01" ), "one" );
+        store.compareAndSet( "a", new ETag( "ff" ), new ETag( "02" ), "ignored" );
+        store.compareAndSet( "a", new ETag( "01" ), new ETag( "02" ), "two" );
+        store.remove( "a", Collections.< byte[] > emptyList() );
+        store.removeListener( listener );
+        store.put( "a", new ETag( "03" ), "three" );
+
+        assertEquals( "wrong changes", Arrays.asList( "a:null->one", "a:one->two", "a:two->null" ), changes );
+    }
+
+    @Test
+    public void testConcurrentIfMatch() throws InterruptedException
+    {
+        final ResourceStateStore< Integer > store= new ResourceStateStore< Integer >();
+        store.put( "counter", ETag.fromLong( 0L ), Integer.valueOf( 0 ) );
+        final AtomicInteger failed= new AtomicInteger();
+        final int threads= 4;
+        final int updates= 5000;
+        final CountDownLatch start= new CountDownLatch( 1 );
+        Thread[] workers= new Thread [threads];
+        for ( int i= 0; i < threads; i++ )
+        {
+            workers[i]= new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            return;
+                        }
+                        int done= 0;
+                        while ( done < updates )
+                        {
+                            ResourceStateStore.State< Integer > current= store.get( "counter" );
+                            int next= current.getValue().intValue() + 1;
+                            List< byte[] > ifMatch= Collections.singletonList( current.getETag().asBytes() );
+                            if ( store.put( "counter", ifMatch, false, ETag.fromLong( next ), Integer.valueOf( next ) ) == Outcome.CHANGED )
+                            {
+                                done++;
+                            }
+                            else
+                            {
+                                failed.incrementAndGet();
+                            }
+                        }
+                    }
+                };
+            workers[i].start();
+        }
+        start.countDown();
+        for ( Thread worker : workers )
+        {
+            worker.join();
+        }
+
+        //no update is lost
+        assertEquals( "wrong value", threads * updates, store.get( "counter" ).getValue().intValue() );
+        assertEquals( "wrong etag", ETag.fromLong( threads * updates ), store.getETag( "counter" ) );
+    }
+}
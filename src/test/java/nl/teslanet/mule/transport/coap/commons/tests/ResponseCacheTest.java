@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.cache.CacheKey;
+import nl.teslanet.mule.transport.coap.commons.cache.CachedResponse;
+import nl.teslanet.mule.transport.coap.commons.cache.ResponseCache;
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+
+
+/**
+ * Tests the implementation of the ResponseCache class.
+ *
+ */
+public class ResponseCacheTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    /**
+     * Cache with a clock that is set by the test.
+     */
+    private static class TestCache extends ResponseCache
+    {
+        long now= 1000000L;
+
+        TestCache( int maxEntries, long maxWeight )
+        {
+            super( maxEntries, maxWeight );
+        }
+
+        @Override
+        protected long currentTimeMillis()
+        {
+            return now;
+        }
+    }
+
+    private TestCache cache;
+
+    @Before
+    public void setUp()
+    {
+        cache= new TestCache( 3, 1000L );
+    }
+
+    private CacheKey key( String path )
+    {
+        OptionSet request= new OptionSet();
+        request.setUriPath( path );
+        return CacheKey.create( request );
+    }
+
+    private OptionSet response( long maxAge, String etag ) throws InvalidETagException
+    {
+        OptionSet response= new OptionSet();
+        response.setContentFormat( 0 );
+        if ( maxAge >= 0 ) response.setMaxAge( maxAge );
+        if ( etag != null ) response.addETag( new ETag( etag ).asBytes() );
+        return response;
+    }
+
+    @Test
+    public void testPutGet() throws InvalidETagException
+    {
+        CachedResponse stored= cache.put( key( "a" ), ResponseCode.CONTENT, response( 10, "01" ), "hello".getBytes() );
+
+        CachedResponse cached= cache.get( key( "a" ) );
+        assertSame( "wrong response", stored, cached );
+        assertEquals( "wrong code", ResponseCode.CONTENT, cached.getResponseCode() );
+        assertArrayEquals( "wrong payload", "hello".getBytes(), cached.getPayload() );
+        assertEquals( "wrong etag", new ETag( "01" ), cached.getETag() );
+        assertNull( "wrong response", cache.get( key( "b" ) ) );
+        assertEquals( "wrong hits", 1L, cache.getHitCount() );
+        assertEquals( "wrong misses", 1L, cache.getMissCount() );
+        assertEquals( "wrong size", 1, cache.size() );
+    }
+
+    private CacheKey blockKey( String path, int num )
+    {
+        OptionSet request= new OptionSet();
+        request.setUriPath( path );
+        request.setBlock2( 2, false, num );
+        return CacheKey.create( request );
+    }
+
+    @Test
+    public void testBlockwise() throws InvalidETagException
+    {
+        OptionSet block0= response( 10, "01" );
+        block0.setBlock2( 2, true, 0 );
+        assertNull( "block cached", cache.put( key( "a" ), ResponseCode.CONTENT, block0, "block0".getBytes() ) );
+        assertNull( "block cached", cache.put( blockKey( "a", 0 ), ResponseCode.CONTENT, block0, "block0".getBytes() ) );
+        assertNull( "answer to block request cached", cache.put( blockKey( "a", 0 ), ResponseCode.CONTENT, response( 10, "01" ), "block0".getBytes() ) );
+        assertEquals( "wrong size", 0, cache.size() );
+
+        //a whole representation is not served to block requests
+        assertNotNull( "not cached", cache.put( key( "a" ), ResponseCode.CONTENT, response( 10, "01" ), "whole".getBytes() ) );
+        assertTrue( "not blockwise", blockKey( "a", 1 ).isBlockwise() );
+        assertEquals( "keys differ", key( "a" ), blockKey( "a", 1 ) );
+        assertNull( "block request served", cache.get( blockKey( "a", 1 ) ) );
+        assertNull( "block request served", cache.getStale( blockKey( "a", 1 ) ) );
+        assertNull( "block request validated", cache.validated( blockKey( "a", 1 ), response( 10, "01" ) ) );
+        assertNotNull( "whole representation not served", cache.get( key( "a" ) ) );
+    }
+
+    @Test
+    public void testNotCacheable() throws InvalidETagException
+    {
+        assertNull( "changed cached", cache.put( key( "a" ), ResponseCode.CHANGED, response( 10, null ), null ) );
+        assertNull( "valid cached", cache.put( key( "a" ), ResponseCode.VALID, response( 10, "01" ), null ) );
+        assertNull( "max age 0 cached", cache.put( key( "a" ), ResponseCode.CONTENT, response( 0, null ), null ) );
+        assertNull( "too large cached", cache.put( key( "a" ), ResponseCode.CONTENT, response( 10, null ), new byte [2000] ) );
+        assertNotNull( "error not cached", cache.put( key( "b" ), ResponseCode.NOT_FOUND, response( 10, null ), null ) );
+        assertEquals( "wrong size", 1, cache.size() );
+    }
+
+    @Test
+    public void testExpiry() throws InvalidETagException
+    {
+        cache.put( key( "a" ), ResponseCode.CONTENT, response( 10, null ), null );
+        cache.put( key( "b" ), ResponseCode.CONTENT, response( -1, null ), null );
+
+        cache.now+= 9000L;
+        CachedResponse cached= cache.get( key( "a" ) );
+        assertNotNull( "response missing", cached );
+        assertEquals( "wrong max age", Long.valueOf( 1L ), cache.toOptionSet( cached ).getMaxAge() );
+
+        cache.now+= 1000L;
+        assertNull( "stale response", cache.get( key( "a" ) ) );
+        assertNotNull( "default max age not used", cache.get( key( "b" ) ) );
+        assertNotNull( "stale response removed", cache.getStale( key( "a" ) ) );
+
+        assertEquals( "wrong removed", 1, cache.removeExpired() );
+        assertNull( "expired response not removed", cache.getStale( key( "a" ) ) );
+    }
+
+    @Test
+    public void testRevalidation() throws InvalidETagException
+    {
+        cache.put( key( "a" ), ResponseCode.CONTENT, response( 0, "01" ), "hello".getBytes() );
+        assertNull( "stale response", cache.get( key( "a" ) ) );
+
+        CachedResponse stale= cache.getStale( key( "a" ) );
+        assertEquals( "wrong etag", new ETag( "01" ), stale.getETag() );
+        assertEquals( "revalidatable response removed", 0, cache.removeExpired() );
+
+        CachedResponse refreshed= cache.validated( key( "a" ), response( 30, "01" ) );
+        assertNotNull( "not revalidated", refreshed );
+        assertSame( "wrong response", refreshed, cache.get( key( "a" ) ) );
+        assertArrayEquals( "wrong payload", "hello".getBytes(), refreshed.getPayload() );
+        assertEquals( "wrong max age", Long.valueOf( 30L ), cache.toOptionSet( refreshed ).getMaxAge() );
+
+        assertNull( "revalidated", cache.validated( key( "a" ), response( 30, "02" ) ) );
+        assertNull( "response not removed", cache.getStale( key( "a" ) ) );
+        assertNull( "revalidated", cache.validated( key( "a" ), response( 30, "02" ) ) );
+    }
+
+    @Test
+    public void testEvictByEntries() throws InvalidETagException
+    {
+        cache.put( key( "a" ), ResponseCode.CONTENT, response( 10, null ), null );
+        cache.put( key( "b" ), ResponseCode.CONTENT, response( 10, null ), null );
+        cache.put( key( "c" ), ResponseCode.CONTENT, response( 10, null ), null );
+        //a is used recently
+        cache.get( key( "a" ) );
+        cache.put( key( "d" ), ResponseCode.CONTENT, response( 10, null ), null );
+
+        assertEquals( "wrong size", 3, cache.size() );
+        assertNull( "wrong evicted", cache.get( key( "b" ) ) );
+        assertNotNull( "wrong evicted", cache.get( key( "a" ) ) );
+        assertEquals( "wrong evictions", 1L, cache.getEvictionCount() );
+    }
+
+    @Test
+    public void testEvictByWeight() throws InvalidETagException
+    {
+        cache.put( key( "a" ), ResponseCode.CONTENT, response( 10, null ), new byte [400] );
+        cache.put( key( "b" ), ResponseCode.CONTENT, response( 10, null ), new byte [400] );
+        long weight= cache.getWeight();
+        assertTrue( "wrong weight", weight > 800L && weight <= 1000L );
+
+        cache.put( key( "c" ), ResponseCode.CONTENT, response( 10, null ), new byte [400] );
+        assertEquals( "wrong size", 2, cache.size() );
+        assertNull( "wrong evicted", cache.get( key( "a" ) ) );
+        assertEquals( "wrong weight", weight, cache.getWeight() );
+
+        //replacing adjusts the weight
+        cache.put( key( "c" ), ResponseCode.CONTENT, response( 10, null ), new byte [100] );
+        assertEquals( "wrong weight", weight - 300L, cache.getWeight() );
+
+        cache.remove( key( "b" ) );
+        cache.remove( key( "c" ) );
+        assertEquals( "wrong weight", 0L, cache.getWeight() );
+    }
+
+    @Test
+    public void testClear() throws InvalidETagException
+    {
+        cache.put( key( "a" ), ResponseCode.CONTENT, response( 10, null ), new byte [400] );
+        cache.clear();
+
+        assertEquals( "wrong size", 0, cache.size() );
+        assertEquals( "wrong weight", 0L, cache.getWeight() );
+    }
+
+    @Test
+    public void testInvalidBounds()
+    {
+        exception.expect( IllegalArgumentException.class );
+        new ResponseCache( 0, 1000L );
+    }
+}
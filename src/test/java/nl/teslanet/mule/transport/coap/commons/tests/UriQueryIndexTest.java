@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.options.CoapOptionsView;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+import nl.teslanet.mule.transport.coap.commons.options.UriQueryIndex;
+
+
+/**
+ * Tests the implementation of the UriQueryIndex class.
+ *
+ */
+public class UriQueryIndexTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    private UriQueryIndex index()
+    {
+        OptionSet optionSet= new OptionSet();
+        optionSet.setUriQuery( "unit=celsius&precision=2&tag=a&flag&tag=b=c&big=-9223372036854775808&on=TRUE&empty=" );
+        return UriQueryIndex.create( optionSet );
+    }
+
+    @Test
+    public void testLookup()
+    {
+        UriQueryIndex index= index();
+
+        assertEquals( "wrong size", 8, index.size() );
+        assertTrue( "key missing", index.contains( "unit" ) );
+        assertFalse( "key present", index.contains( "units" ) );
+        assertFalse( "key present", index.contains( "celsius" ) );
+        assertEquals( "wrong value", "celsius", index.get( "unit" ).toString() );
+        assertEquals( "wrong value", "celsius", index.getString( "unit" ) );
+        assertNull( "wrong value", index.get( "missing" ) );
+        assertNull( "wrong value", index.getString( "missing" ) );
+        assertEquals( "wrong value", "", index.getString( "flag" ) );
+        assertEquals( "wrong value", "", index.getString( "empty" ) );
+        assertTrue( "wrong value", index.valueEquals( "unit", "celsius" ) );
+        assertFalse( "wrong value", index.valueEquals( "unit", "celsiu" ) );
+        assertFalse( "wrong value", index.valueEquals( "missing", "celsius" ) );
+    }
+
+    @Test
+    public void testMultipleValues()
+    {
+        UriQueryIndex index= index();
+
+        assertEquals( "wrong count", 2, index.count( "tag" ) );
+        assertEquals( "wrong count", 0, index.count( "missing" ) );
+        assertEquals( "wrong value", "a", index.getString( "tag" ) );
+        List< CharSequence > values= index.getAll( "tag" );
+        assertEquals( "wrong number of values", 2, values.size() );
+        assertEquals( "wrong value", "a", values.get( 0 ).toString() );
+        //only the first '=' separates key and value
+        assertEquals( "wrong value", "b=c", values.get( 1 ).toString() );
+        assertTrue( "wrong values", index.getAll( "missing" ).isEmpty() );
+    }
+
+    @Test
+    public void testTypedValues()
+    {
+        UriQueryIndex index= index();
+
+        assertEquals( "wrong int", 2, index.getInt( "precision", 0 ) );
+        assertEquals( "wrong int", 7, index.getInt( "missing", 7 ) );
+        assertEquals( "wrong long", Long.MIN_VALUE, index.getLong( "big", 0L ) );
+        assertEquals( "wrong long", 7L, index.getLong( "missing", 7L ) );
+        assertTrue( "wrong boolean", index.getBoolean( "on", false ) );
+        assertFalse( "wrong boolean", index.getBoolean( "unit", true ) );
+        assertTrue( "wrong boolean", index.getBoolean( "missing", true ) );
+    }
+
+    @Test
+    public void testIntOverflow()
+    {
+        exception.expect( NumberFormatException.class );
+        exception.expectMessage( "-9223372036854775808" );
+        index().getInt( "big", 0 );
+    }
+
+    @Test
+    public void testLongOverflow()
+    {
+        exception.expect( NumberFormatException.class );
+        UriQueryIndex.parse( "n=9223372036854775808" ).getLong( "n", 0L );
+    }
+
+    @Test
+    public void testInvalidNumber()
+    {
+        exception.expect( NumberFormatException.class );
+        exception.expectMessage( "celsius" );
+        index().getInt( "unit", 0 );
+    }
+
+    @Test
+    public void testSlices()
+    {
+        UriQueryIndex index= index();
+        CharSequence value= index.get( "unit" );
+
+        assertEquals( "wrong length", 7, value.length() );
+        assertEquals( "wrong char", 'c', value.charAt( 0 ) );
+        assertEquals( "wrong subsequence", "els", value.subSequence( 1, 4 ).toString() );
+        assertEquals( "wrong key", "unit", index.getKey( 0 ).toString() );
+        assertEquals( "wrong value", "celsius", index.getValue( 0 ).toString() );
+        assertEquals( "wrong key", "flag", index.getKey( 3 ).toString() );
+
+        exception.expect( IndexOutOfBoundsException.class );
+        value.charAt( 7 );
+    }
+
+    @Test
+    public void testParse()
+    {
+        UriQueryIndex index= UriQueryIndex.parse( "?a=1&&b=2&" );
+
+        assertEquals( "wrong size", 2, index.size() );
+        assertEquals( "wrong value", 2, index.getInt( "b", 0 ) );
+        assertEquals( "wrong string", "a=1&b=2", index.toString() );
+        assertSame( "not empty", UriQueryIndex.empty(), UriQueryIndex.parse( "?" ) );
+        assertSame( "not empty", UriQueryIndex.empty(), UriQueryIndex.parse( "??" ) );
+        assertSame( "not empty", UriQueryIndex.empty(), UriQueryIndex.create( new OptionSet() ) );
+    }
+
+    @Test
+    public void testLeadingQuestionMarks()
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        props.put( PropertyNames.COAP_OPT_URIQUERY, "??a=1" );
+        UriQueryIndex index= UriQueryIndex.create( props );
+        assertEquals( "wrong value", "1", index.getString( "a" ) );
+        assertFalse( "leading '?' in key", index.contains( "?a" ) );
+
+        OptionSet set= new OptionSet();
+        Options.fillOptionSet( set, props, false );
+        assertEquals( "not consistent with options", set.getUriQuery().get( 0 ), index.getKey( 0 ) + "=" + index.getValue( 0 ) );
+    }
+
+    @Test
+    public void testProperties()
+    {
+        HashMap< String, Object > props= new HashMap< String, Object >();
+        assertEquals( "wrong size", 0, UriQueryIndex.create( props ).size() );
+
+        props.put( PropertyNames.COAP_OPT_URIQUERY, "a=1&b=2" );
+        assertEquals( "wrong value", 2, UriQueryIndex.create( props ).getInt( "b", 0 ) );
+
+        props.put( PropertyNames.COAP_OPT_URIQUERY_LIST, Arrays.asList( "c=3" ) );
+        UriQueryIndex index= UriQueryIndex.create( props );
+        assertEquals( "wrong size", 1, index.size() );
+        assertEquals( "wrong value", 3, index.getInt( "c", 0 ) );
+    }
+
+    @Test
+    public void testManyKeys()
+    {
+        StringBuilder query= new StringBuilder();
+        for ( int i= 0; i < 100; i++ )
+        {
+            query.append( "k" ).append( i ).append( '=' ).append( i ).append( '&' );
+        }
+        UriQueryIndex index= UriQueryIndex.parse( query.toString() );
+
+        assertEquals( "wrong size", 100, index.size() );
+        for ( int i= 0; i < 100; i++ )
+        {
+            assertEquals( "wrong value", i, index.getInt( "k" + i, -1 ) );
+        }
+    }
+
+    @Test
+    public void testView()
+    {
+        OptionSet optionSet= new OptionSet();
+        optionSet.setUriQuery( "a=1" );
+
+        assertEquals( "wrong value", 1, new CoapOptionsView( optionSet ).uriQueryIndex().getInt( "a", 0 ) );
+    }
+}
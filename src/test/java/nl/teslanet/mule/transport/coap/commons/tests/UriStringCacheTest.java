@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.ETagList;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidOptionValueException;
+import nl.teslanet.mule.transport.coap.commons.options.Options;
+import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
+import nl.teslanet.mule.transport.coap.commons.options.UriStringCache;
+
+
+/**
+ * Tests the implementation of the UriStringCache class.
+ *
+ */
+public class UriStringCacheTest
+{
+    @Rule
+    public ExpectedException exception= ExpectedException.none();
+
+    private OptionSet optionSet()
+    {
+        OptionSet set= new OptionSet();
+        set.setUriPath( "/sensors/building1/temperature" );
+        set.setUriQuery( "unit=celsius&precision=2" );
+        set.setLocationPath( "/sensors/building1/temperature/42" );
+        set.setLocationQuery( "a=1&b=" );
+        set.setAccept( 50 );
+        return set;
+    }
+
+    @Test
+    public void testJoined()
+    {
+        OptionSet set= optionSet();
+        UriStringCache cache= new UriStringCache();
+
+        assertEquals( "wrong uri path", set.getUriPathString(), cache.path( set.getUriPath() ).getJoined() );
+        assertEquals( "wrong uri query", set.getUriQueryString(), cache.query( set.getUriQuery() ).getJoined() );
+        assertEquals( "wrong location path", set.getLocationPathString(), cache.path( set.getLocationPath() ).getJoined() );
+        assertEquals( "wrong location query", set.getLocationQueryString(), cache.query( set.getLocationQuery() ).getJoined() );
+        assertEquals( "wrong segments", set.getUriPath(), cache.path( set.getUriPath() ).getSegments() );
+    }
+
+    @Test
+    public void testHit()
+    {
+        UriStringCache cache= new UriStringCache();
+        UriStringCache.Entry entry= cache.path( Arrays.asList( "a", "b" ) );
+
+        assertSame( "no hit", entry, cache.path( Arrays.asList( new String( "a" ), new String( "b" ) ) ) );
+        assertEquals( "wrong hit count", 1L, cache.getHitCount() );
+        assertEquals( "wrong miss count", 1L, cache.getMissCount() );
+        assertEquals( "wrong size", 1, cache.size() );
+    }
+
+    @Test
+    public void testPathAndQueryDistinct()
+    {
+        UriStringCache cache= new UriStringCache();
+
+        assertEquals( "wrong path", "a/b", cache.path( Arrays.asList( "a", "b" ) ).getJoined() );
+        assertEquals( "wrong query", "a&b", cache.query( Arrays.asList( "a", "b" ) ).getJoined() );
+        assertEquals( "wrong size", 2, cache.size() );
+    }
+
+    @Test
+    public void testSegmentsInterned()
+    {
+        UriStringCache cache= new UriStringCache();
+        List< String > first= cache.path( Arrays.asList( new String( "sensors" ), "a" ) ).getSegments();
+        List< String > second= cache.path( Arrays.asList( new String( "sensors" ), "b" ) ).getSegments();
+
+        assertSame( "segment not interned", first.get( 0 ), second.get( 0 ) );
+        assertSame( "segment not interned", first.get( 0 ), cache.intern( new String( "sensors" ) ) );
+    }
+
+    @Test
+    public void testBounded()
+    {
+        UriStringCache cache= new UriStringCache( 4 );
+        for ( int i= 0; i < 10; i++ )
+        {
+            cache.path( Arrays.asList( "path", Integer.toString( i ) ) );
+        }
+        assertTrue( "not bounded", cache.size() <= 4 );
+        assertTrue( "no evictions", cache.getEvictionCount() > 0 );
+        assertEquals( "wrong path", "path/9", cache.path( Arrays.asList( "path", "9" ) ).getJoined() );
+
+        cache.clear();
+        assertEquals( "not cleared", 0, cache.size() );
+    }
+
+    @Test
+    public void testRecurringPathsSurviveScan()
+    {
+        UriStringCache cache= new UriStringCache( 100 );
+        for ( int round= 0; round < 50; round++ )
+        {
+            long misses= cache.getMissCount();
+            for ( int i= 0; i < 50; i++ )
+            {
+                cache.path( Arrays.asList( "hot", Integer.toString( i ) ) );
+            }
+            if ( round > 0 ) assertEquals( "recurring path evicted in round " + round, misses, cache.getMissCount() );
+            //one-off paths exceed the bound
+            for ( int i= 0; i < 20; i++ )
+            {
+                cache.path( Arrays.asList( "cold", Integer.toString( round * 20 + i ) ) );
+            }
+            assertTrue( "not bounded", cache.size() <= 100 );
+        }
+        assertEquals( "wrong hit count", 49 * 50, cache.getHitCount() );
+        assertTrue( "no evictions", cache.getEvictionCount() > 0 );
+    }
+
+    @Test
+    public void testIllegalMaxEntries()
+    {
+        exception.expect( IllegalArgumentException.class );
+        new UriStringCache( 0 );
+    }
+
+    @Test
+    public void testUnmodifiableSegments()
+    {
+        UriStringCache cache= new UriStringCache();
+        List< String > segments= cache.path( Arrays.asList( "a", "b" ) ).getSegments();
+
+        exception.expect( UnsupportedOperationException.class );
+        segments.add( "c" );
+    }
+
+    @Test
+    public void testFillPropertyMap() throws InvalidOptionValueException
+    {
+        OptionSet set= optionSet();
+        UriStringCache cache= new UriStringCache();
+        HashMap< String, Object > expected= new HashMap< String, Object >();
+        Options.fillPropertyMap( set, expected );
+
+        HashMap< String, Object > first= new HashMap< String, Object >();
+        Options.fillPropertyMap( set, first, cache );
+        HashMap< String, Object > second= new HashMap< String, Object >();
+        Options.fillPropertyMap( set, second, cache, null, "test" );
+
+        assertEquals( "wrong properties", expected, first );
+        assertEquals( "wrong properties", expected, second );
+        assertSame( "uri path not cached", first.get( PropertyNames.COAP_OPT_URIPATH ), second.get( PropertyNames.COAP_OPT_URIPATH ) );
+        assertSame( "uri path list not cached", first.get( PropertyNames.COAP_OPT_URIPATH_LIST ), second.get( PropertyNames.COAP_OPT_URIPATH_LIST ) );
+        assertSame( "uri query not cached", first.get( PropertyNames.COAP_OPT_URIQUERY ), second.get( PropertyNames.COAP_OPT_URIQUERY ) );
+        assertEquals( "wrong hit count", 4L, cache.getHitCount() );
+        assertEquals( "wrong miss count", 4L, cache.getMissCount() );
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testETagLists() throws InvalidOptionValueException, InvalidETagException
+    {
+        OptionSet set= new OptionSet();
+        set.addIfMatch( new ETag( "0a" ).asBytes() );
+        set.addETag( new ETag( "0b0c" ).asBytes() );
+
+        HashMap< String, Object > plain= new HashMap< String, Object >();
+        Options.fillPropertyMap( set, plain );
+        List< ETag > ifMatch= (List< ETag >) plain.get( PropertyNames.COAP_OPT_IFMATCH_LIST );
+        List< ETag > etags= (List< ETag >) plain.get( PropertyNames.COAP_OPT_ETAG_LIST );
+        assertFalse( "etag list must be modifiable without cache", ifMatch instanceof ETagList );
+        ifMatch.add( new ETag( "ff" ) );
+        etags.remove( 0 );
+        assertTrue( "etag list not modified", etags.isEmpty() );
+
+        HashMap< String, Object > cached= new HashMap< String, Object >();
+        Options.fillPropertyMap( set, cached, new UriStringCache() );
+        assertTrue( "no ETagList with cache", cached.get( PropertyNames.COAP_OPT_IFMATCH_LIST ) instanceof ETagList );
+        assertTrue( "no ETagList with cache", cached.get( PropertyNames.COAP_OPT_ETAG_LIST ) instanceof ETagList );
+        assertEquals( "wrong etags", Arrays.asList( new ETag( "0b0c" ) ), cached.get( PropertyNames.COAP_OPT_ETAG_LIST ) );
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2018 (teslanet.nl) Rogier Cobben.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+
+package nl.teslanet.mule.transport.coap.commons.tests;
+
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.commons.options.ETag;
+import nl.teslanet.mule.transport.coap.commons.options.InvalidETagException;
+import nl.teslanet.mule.transport.coap.commons.options.VersionETagFactory;
+
+
+/**
+ * Tests the implementation of the VersionETagFactory class.
+ *
+ */
+public class VersionETagFactoryTest
+{
+    @Test
+    public void testNext() throws InvalidETagException
+    {
+        VersionETagFactory factory= new VersionETagFactory( 0xfeL, true );
+
+        assertEquals( "wrong current etag", new ETag( "fe" ), factory.current() );
+        assertEquals( "wrong next etag", new ETag( "ff" ), factory.next() );
+        assertEquals( "wrong next etag", new ETag( "0100" ), factory.next() );
+        assertEquals( "wrong current etag", new ETag( "0100" ), factory.current() );
+        assertSame( "current etag not kept", factory.current(), factory.current() );
+        assertEquals( "wrong version", 0x100L, factory.getVersion() );
+    }
+
+    @Test
+    public void testFullLength() throws InvalidETagException
+    {
+        VersionETagFactory factory= new VersionETagFactory( 1L, false );
+
+        assertEquals( "wrong next etag", new ETag( "0000000000000002" ), factory.next() );
+    }
+
+    @Test
+    public void testDefaultInitialVersion()
+    {
+        long before= System.currentTimeMillis();
+        VersionETagFactory factory= new VersionETagFactory();
+
+        assertTrue( "wrong initial version", factory.getVersion() >= before );
+        assertTrue( "wrong initial version", factory.getVersion() <= System.currentTimeMillis() );
+    }
+
+    @Test
+    public void testConcurrentNext() throws InterruptedException
+    {
+        final VersionETagFactory factory= new VersionETagFactory( 0L, true );
+        final Set< ETag > issued= Collections.newSetFromMap( new ConcurrentHashMap< ETag, Boolean >() );
+        final int threads= 4;
+        final int updates= 10000;
+        final CountDownLatch start= new CountDownLatch( 1 );
+        Thread[] workers= new Thread [threads];
+        for ( int i= 0; i < threads; i++ )
+        {
+            workers[i]= new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            return;
+                        }
+                        for ( int j= 0; j < updates; j++ )
+                        {
+                            issued.add( factory.next() );
+                        }
+                    }
+                };
+            workers[i].start();
+        }
+        start.countDown();
+        for ( Thread worker : workers )
+        {
+            worker.join();
+        }
+
+        assertEquals( "etags not distinct", threads * updates, issued.size() );
+        assertEquals( "wrong version", threads * updates, factory.getVersion() );
+        assertTrue( "current etag not issued", new HashSet< ETag >( issued ).contains( factory.current() ) );
+    }
+}